@@ -0,0 +1,477 @@
+package minesweeper.server;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Thread safety argument:
+ *  Everything but the segment being written and the buffer being written
+ *  out is guarded by lock. Boards append records under the lock, which
+ *  only copies bytes into filling; the writer thread swaps filling with
+ *  writing under the lock and then writes and forces writing with the
+ *  lock released, so appending never waits for the disk. The segment
+ *  channel and writing are confined to the writer thread once it starts.
+ *  A Board appends while holding its version lock, so records are
+ *  appended in version order. failure is only set under the lock, and is
+ *  volatile so an action which does not wait for the disk can check it
+ *  without locking.
+ */
+
+/**
+ * AF: An ActionLog is the append-only record of every change committed to
+ *  one Board since its last snapshot (see BoardStore), from which the
+ *  board is rebuilt after the process dies. It is a physical redo log:
+ *  a record holds the final value of every cell one commit wrote, so
+ *  replaying it needs no game logic and gives exactly the committed board.
+ *
+ *  Records are written by a background thread with group commit: every
+ *  record appended while the thread writes and forces one batch goes
+ *  out in the next batch, with a single force for all of them. A board
+ *  whose log waits for the disk (see awaitDurable) answers an action only
+ *  once its record is on disk; otherwise the actions of the last moments
+ *  before a crash may be lost, but never half of one.
+ *
+ *  The log is split into segments, one per snapshot: segmentFile(d, v)
+ *  holds the records of versions v and later, until the next segment.
+ *  Each record is, in big-endian order:
+ *      int     the length of the payload
+ *      int     the CRC-32 of the payload
+ *      payload, one of
+ *          byte 1 (CELLS), long version, int ring, int n, then n times
+ *                 int cell index and byte encoded cell, see Box
+ *                 ring is the ring location (see BoardFile.ringIndex)
+ *                 whose bomb the commit removed, or -1
+ *          byte 2 (RECOUNT), long version: every neighbor count was recounted
+ *  A record cut short by a crash fails its length or checksum, and it
+ *  and everything after it are ignored.
+ *
+ *  Once a batch cannot be written the log fails: records appended after
+ *  that are dropped, and the failure is reported to every action which
+ *  asks whether its record is durable, even if the log does not wait for
+ *  the disk.
+ *
+ * Rep: filling holds the records appended since the writer last took a
+ *  batch, size bytes of it; writing holds the batch being written.
+ *  appended is the version of the last record appended, durable the
+ *  version of the last record forced to disk. rotateAt is the version
+ *  from which records go to a new segment, or -1, and rotateOffset the
+ *  number of bytes of filling which still go to the current segment.
+ *  rotations counts the rotations asked for, and rotated those done.
+ *
+ * RI: durable <= appended; 0 <= size <= filling.length;
+ *  rotated <= rotations <= rotated + 1
+ * @author nathaliehuynh
+ *
+ */
+class ActionLog implements Closeable {
+
+    private static final byte CELLS = 1;
+    private static final byte RECOUNT = 2;
+    private static final int RECORD_HEADER = 8;
+    private static final int CELLS_HEADER = 1 + 8 + 4 + 4;
+    private static final int CELL_SIZE = 5;
+    private static final String SEGMENT_PREFIX = "actions-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final File directory;
+    private final boolean waitForDisk;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition hasRecords = lock.newCondition();
+    private final Condition wrote = lock.newCondition();
+    private final CRC32 crc = new CRC32();
+    private final Thread writer;
+    private FileChannel segment;
+    private byte[] filling = new byte[1 << 12];
+    private byte[] writing = new byte[1 << 12];
+    private int size = 0;
+    private long appended;
+    private long durable;
+    private long rotateAt = -1;
+    private int rotateOffset = 0;
+    private long rotations = 0;
+    private long rotated = 0;
+    private boolean closed = false;
+    private volatile IOException failure;
+
+    /**
+     * Opens a log which appends to the segment of records after version,
+     * creating it if needed, and starts its writer thread
+     * @param directory - the directory of the segments
+     * @param version - the version of the board the log starts at
+     * @param waitForDisk - whether awaitDurable waits for records to be
+     *     forced to disk, or returns at once
+     * @throws IOException if the segment cannot be opened
+     */
+    ActionLog(File directory, long version, boolean waitForDisk) throws IOException {
+        this.directory = directory;
+        this.waitForDisk = waitForDisk;
+        this.appended = version;
+        this.durable = version;
+        this.segment = openSegment(segmentFile(directory, version + 1));
+        this.writer = new Thread(new Runnable() {
+            public void run() {
+                writeRecords();
+            }
+        }, "minesweeper-action-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * @param directory - the directory of the segments
+     * @param firstVersion - the version of the first record of a segment
+     * @return the file of that segment
+     */
+    static File segmentFile(File directory, long firstVersion) {
+        return new File(directory, SEGMENT_PREFIX + firstVersion + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * @param file - a file
+     * @return the version of the first record of the segment in file, or
+     *     -1 if file is not a segment
+     */
+    static long firstVersionOf(File file) {
+        String name = file.getName();
+        if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static FileChannel openSegment(File file) throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    /**
+     * appends the record of a commit, unless the log has failed; called
+     * by the board while holding its version lock
+     * @param version - the version the commit created
+     * @param ring - the ring location whose bomb the commit removed, or -1
+     * @param writtenCells - the indices of the cells the commit wrote, in
+     *     its first writes elements
+     * @param writes - the number of cells written
+     * @param cells - the cells of the board, holding the written values
+     */
+    void appendCells(long version, int ring, int[] writtenCells, int writes, byte[] cells) {
+        lock.lock();
+        try {
+            if (failure != null) {
+                return; // nothing more will be written; see awaitDurable
+            }
+            int payload = CELLS_HEADER + CELL_SIZE * writes;
+            ByteBuffer record = reserve(payload);
+            record.put(CELLS).putLong(version).putInt(ring).putInt(writes);
+            for (int i = 0; i < writes; i++) {
+                record.putInt(writtenCells[i]).put(cells[writtenCells[i]]);
+            }
+            finishRecord(version, payload);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * appends the record of a recount of every neighbor count, unless the
+     * log has failed; called by the board while holding its version lock
+     * @param version - the version the recount created
+     */
+    void appendRecount(long version) {
+        lock.lock();
+        try {
+            if (failure != null) {
+                return;
+            }
+            reserve(1 + 8).put(RECOUNT).putLong(version);
+            finishRecord(version, 1 + 8);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * makes room in filling for a record, requires lock
+     * @param payload - the length of the record's payload
+     * @return a buffer over filling positioned at the record's payload
+     */
+    private ByteBuffer reserve(int payload) {
+        if (filling.length - size < RECORD_HEADER + payload) {
+            filling = Arrays.copyOf(filling, Math.max(2 * filling.length, size + RECORD_HEADER + payload));
+        }
+        ByteBuffer record = ByteBuffer.wrap(filling, size, RECORD_HEADER + payload);
+        record.position(size + RECORD_HEADER);
+        return record;
+    }
+
+    /**
+     * fills in the header of the record whose payload was just put after
+     * size, and hands it to the writer; requires lock
+     */
+    private void finishRecord(long version, int payload) {
+        crc.reset();
+        crc.update(filling, size + RECORD_HEADER, payload);
+        ByteBuffer.wrap(filling, size, RECORD_HEADER).putInt(payload).putInt((int) crc.getValue());
+        size += RECORD_HEADER + payload;
+        appended = version;
+        hasRecords.signal();
+    }
+
+    /**
+     * makes records of versions after version go to a new segment, once
+     * the records before them are on disk; called by the board while
+     * holding it exclusively, so every record of version or before has
+     * been appended and none after it yet. Requires every earlier
+     * rotation to be done, see awaitRotated.
+     * @param version - the version of the board
+     */
+    void rotate(long version) {
+        lock.lock();
+        try {
+            assert(rotated == rotations);
+            rotateAt = version + 1;
+            rotateOffset = size;
+            rotations++;
+            hasRecords.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until every rotation asked for is done, so the segments before
+     * it are complete on disk
+     * @throws IOException if the log could not be written
+     */
+    void awaitRotated() throws IOException {
+        lock.lock();
+        try {
+            while (rotated < rotations && failure == null) {
+                wrote.awaitUninterruptibly();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits, if this log waits for the disk, until the record of version
+     * and every record before it are on disk. Must not be called while
+     * holding the board's locks.
+     * @param version - the version of a record appended to this log
+     * @throws UncheckedIOException if the log could not be written, whether
+     *     or not it waits for the disk
+     */
+    void awaitDurable(long version) {
+        if (!waitForDisk) {
+            IOException failed = failure;
+            if (failed != null) {
+                throw new UncheckedIOException("cannot write the action log", failed);
+            }
+            return;
+        }
+        lock.lock();
+        try {
+            while (durable < version && failure == null && !closed) {
+                wrote.awaitUninterruptibly();
+            }
+            if (failure != null) {
+                throw new UncheckedIOException("cannot write the action log", failure);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * writes batches of records until the log is closed and every record
+     * appended before that is on disk
+     */
+    private void writeRecords() {
+        while (true) {
+            int length;
+            int split;
+            long version;
+            long rotation;
+            lock.lock();
+            try {
+                while (size == 0 && rotateAt < 0 && !closed) {
+                    hasRecords.awaitUninterruptibly();
+                }
+                if (size == 0 && rotateAt < 0) {
+                    return; // closed, and everything is written
+                }
+                byte[] batch = filling;
+                filling = writing;
+                writing = batch;
+                length = size;
+                split = rotateAt < 0 ? length : rotateOffset;
+                size = 0;
+                version = appended;
+                rotation = rotateAt;
+                rotateAt = -1;
+            } finally {
+                lock.unlock();
+            }
+            IOException problem = null;
+            try {
+                write(0, split);
+                if (rotation >= 0) {
+                    segment.close();
+                    segment = openSegment(segmentFile(directory, rotation));
+                }
+                write(split, length);
+            } catch (IOException e) {
+                problem = e;
+            }
+            lock.lock();
+            try {
+                if (problem != null && failure == null) {
+                    failure = problem;
+                }
+                durable = Math.max(durable, version);
+                if (rotation >= 0) {
+                    rotated++;
+                }
+                wrote.signalAll();
+                if (failure != null) {
+                    closed = true;
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * writes bytes of the batch being written to the current segment and
+     * forces them to disk
+     * @param from - the offset of the first byte in writing
+     * @param to - the offset after the last byte
+     */
+    private void write(int from, int to) throws IOException {
+        if (from == to) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(writing, from, to - from);
+        while (buffer.hasRemaining()) {
+            segment.write(buffer);
+        }
+        segment.force(false);
+    }
+
+    /**
+     * Writes every record appended so far, then closes the log
+     * @throws IOException if the log could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closed = true;
+            hasRecords.signal();
+        } finally {
+            lock.unlock();
+        }
+        boolean interrupted = false;
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        segment.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Replays the records of a segment after a version onto a board,
+     * and cuts off the segment after its last whole record. The caller
+     * sets the board's version once every segment is replayed, see
+     * Board.restoreVersion.
+     * @param file - the segment
+     * @param afterVersion - the version the board is at; earlier records are skipped
+     * @param board - the board to replay onto, not yet shared with other threads
+     * @return the version of the last record replayed, or afterVersion if none
+     * @throws IOException if the segment cannot be read or cut off
+     */
+    static long replay(File file, long afterVersion, Board board) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long fileSize = channel.size();
+            ByteBuffer contents = ByteBuffer.allocate((int) Math.min(fileSize, Integer.MAX_VALUE));
+            while (contents.hasRemaining() && channel.read(contents) >= 0) {
+                // read the whole segment
+            }
+            contents.flip();
+            CRC32 check = new CRC32();
+            long version = afterVersion;
+            int end = 0;
+            while (contents.remaining() >= RECORD_HEADER) {
+                int payload = contents.getInt();
+                int expected = contents.getInt();
+                if (payload < 1 + 8 || payload > contents.remaining()) {
+                    break;
+                }
+                check.reset();
+                check.update(contents.array(), contents.position(), payload);
+                if ((int) check.getValue() != expected) {
+                    break;
+                }
+                ByteBuffer record = ByteBuffer.wrap(contents.array(), contents.position(), payload).slice();
+                contents.position(contents.position() + payload);
+                end = contents.position();
+                byte kind = record.get();
+                long recordVersion = record.getLong();
+                if (recordVersion <= version) {
+                    continue;
+                }
+                if (kind == RECOUNT) {
+                    board.replayRecount();
+                } else {
+                    int ring = record.getInt();
+                    int writes = record.getInt();
+                    int[] indices = new int[writes];
+                    byte[] values = new byte[writes];
+                    for (int i = 0; i < writes; i++) {
+                        indices[i] = record.getInt();
+                        values[i] = record.get();
+                    }
+                    board.replayCells(ring, indices, values);
+                }
+                version = recordVersion;
+            }
+            if (end < fileSize) {
+                channel.truncate(end); // a record cut short by a crash
+                channel.force(true);
+            }
+            return version;
+        } finally {
+            channel.close();
+        }
+    }
+
+}
@@ -1,35 +1,105 @@
 package minesweeper.server;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
 import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import minesweeper.server.Box.State;
 
 /**
  * Thread safety argument:
- *  This data type uses synchronization when it performs
- *  mutations or accesses to more than one of its variants. 
- *  Mutators that are not synchronized are private methods,
- *  that are only called by synchronized public methods.
- *  In the cases where actions are performed on its variants, 
- *  we guarantee thread safety via synchronization on the 
- *  variant itself. This is described in further detail in 
- *  the Box class
+ *  The board is divided into tiles (see TileLocks), and every cell is
+ *  only read or written while holding the lock of its tile, or while
+ *  holding boardLock exclusively.
  *  
- * synchronization is used to prevent interleaving of 
- * mutations on a given set of Boxes in a board. 
- * If a box is getting mutated by a call invoked on 
- * this Board, only that method can mutate objects in
- * the board for the duration of that call since it 
- * maintains a lock on that board 
+ *  Actions (dig, flag, deflag) hold boardLock shared, so actions in 
+ *  different regions of the board run in parallel, and lock only the 
+ *  tiles they touch: a flag or a dig of a numbered cell locks its own
+ *  tile, digging a bomb also locks the tiles around it, and a flood 
+ *  fill locks each tile it spreads into. Tiles beyond the first are 
+ *  taken with tryLock; if one is held by another thread, the action
+ *  undoes its writes, releases every tile, takes all the tiles it 
+ *  needed in increasing order and starts again. Undone writes were 
+ *  never visible, since every reader of those cells needs one of the
+ *  tiles the action held, and cells are only rendered when they are
+ *  committed. So each action appears to happen atomically, exactly as 
+ *  it would under a single lock on the whole board.
+ *  
+ *  A bomb is only removed while holding the tiles of all its neighbors,
+ *  so the bomb bits around any cell of a held tile cannot change.
+ *  outerBombs is only written while holding boardLock exclusively.
+ *  
+ *  Operations which read or write the whole board (lookSince, hint, 
+ *  updateNeighboringBombs, full RI checks and Box views) hold
+ *  boardLock exclusively. frontier and frontierVersion are guarded by
+ *  boardLock held exclusively. version and changeLog are guarded by
+ *  versionLock, which actions take once, briefly, to publish their
+ *  changes. renderedBands and sharedBands are written while holding
+ *  versionLock (by a commit, which still holds the tiles of the cells it
+ *  renders) or boardLock exclusively, and read while holding versionLock
+ *  and boardLock shared. So a new snapshot, or a look at a viewport while
+ *  the snapshot is out of date, takes those two locks only for as long
+ *  as it takes to mark the bands it needs as shared, and copies them
+ *  after releasing both: it never waits for the tiles of an action, and
+ *  actions wait for it only as long as for another commit. A shared band
+ *  is never written again, so it shows the board as of one version.
+ *  renderSnapshot is volatile and only set while holding versionLock, 
+ *  to a copy of the bands of the current version, so a look which finds
+ *  it set does not lock.
+ *  The locks are ReentrantLocks rather than monitors, so virtual threads
+ *  waiting for them release their carrier thread, and no method 
+ *  performs blocking I/O while holding them (see writeTo).
+ *  The locks actions and looks wait for are taken through Metrics.lock,
+ *  which counts the time spent waiting while metrics are enabled.
+ *  Commits append to actionLog while holding versionLock, so the log
+ *  holds them in version order; every change waits for its record to reach
+ *  the disk only after releasing every lock.
+ *  
+ * Rep: cells[y * rowSize + x] holds the encoded cell at location (x, y),
+ *  using the one byte per cell encoding described in Box
+ *  renderedBands holds the text of toString() as of version, as ASCII 
+ *  bytes, two per cell: the character of the cell and the " " or "\n" 
+ *  which follows it. It is cut into bands of bandRows whole rows, so 
+ *  cell i is at byte 2 * (i - b * bandRows * rowSize) of band 
+ *  b = i / (bandRows * rowSize); the last band may have fewer rows.
+ *  sharedBands[b] is true if band b was handed to a look, which may 
+ *  still be copying it, so the next write to it copies it first.
+ *  Every write to cells goes through setCell, which remembers the
+ *  previous value in the action's Mutation, so the write can be undone;
+ *  the cell's character is only rendered when the action commits.
+ *  renderSnapshot is either null or an immutable copy of renderedBands
+ *  which is shared by every look until the next mutation.
+ *  version counts the mutations of the board. When an action which 
+ *  wrote any cell completes, commit bumps version and records the 
+ *  cells it wrote in changeLog under the new version.
+ *  outerBombs is null for a whole board. For a shard of a larger board
+ *  (see ShardLayout) it holds the bombs of the ring of cells around the
+ *  board, indexed as in BoardFile.ringIndex: they belong to other shards,
+ *  but count towards the neighboring bombs of this board's edge cells.
+ *  actionLog is null, or records every commit so the board can be
+ *  rebuilt after a crash (see BoardStore).
+ *  frontier is null until the first hint. After that it follows the
+ *  board as it was at frontierVersion, and is brought up to date from
+ *  changeLog whenever it is used, so actions pay nothing to keep it.
+ *  
+ * Checking the RI: the constructors check the whole board. After that the
+ *  Verification level decides how much of the RI each action rechecks:
+ *  OFF checks nothing, LOCAL checks only the cells the action touched, and
+ *  FULL additionally checks the whole board every fullCheckInterval actions.
+ *  The checks are assertions, so they only run when assertions are enabled.
+ *  The default level is read from the minesweeper.verification system
+ *  property, one of "off", "local", or "full:N" (defaults to "local").
  *  
  * RI: The Board may not contain a box with a bomb count greater than the number of bombs in its neighbors.
  * Additionally, there must be no more boxes in a row than columns in the board, and vice versa
@@ -37,14 +107,36 @@ import minesweeper.server.Box.State;
  *
  */
 
-public class Board {
+public class Board implements GameBoard {
 
     private static final String BOOM_MESSAGE = "BOOM!";
-    private Box[][] board; 
+    private static final String NO_HINT_MESSAGE = "no hint";
+    private final ReentrantReadWriteLock boardLock = new ReentrantReadWriteLock();
+    private final ReentrantLock versionLock = new ReentrantLock();
+    private TileLocks tileLocks;
+    private final Queue<Mutation> mutations = new ConcurrentLinkedQueue<Mutation>(); // reused by actions, see borrowMutation
+    private byte[] cells; 
+    private static final int BAND_BYTES = 1 << 12;
+    private byte[][] renderedBands;
+    private boolean[] sharedBands;
+    private int bandRows;
+    private volatile byte[] renderSnapshot;
     private int rowSize;
     private int columnSize;
     private final double BOMB_PROBABILITY = 0.25;
     private final int MAX_NEIGHBORS = 8;
+    private static final boolean ASSERTIONS_ENABLED = assertionsEnabled();
+    private static final String VERIFICATION_PROPERTY = "minesweeper.verification";
+    private volatile Verification verification = Verification.LOCAL;
+    private volatile int fullCheckInterval = 1;
+    private final AtomicLong actionsSinceFullCheck = new AtomicLong();
+    private static final int CHANGE_LOG_CAPACITY = 1 << 16;
+    private final ChangeLog changeLog = new ChangeLog(CHANGE_LOG_CAPACITY);
+    private long version = 0;
+    private boolean[] outerBombs;
+    private volatile ActionLog actionLog;
+    private Frontier frontier;
+    private long frontierVersion = 0;
 
     /**
      * Board is a 2-dimensional array which represents a minesweeper board
@@ -54,9 +146,24 @@ public class Board {
      */
 
     public Board(int rowSize, int columnSize){
+        this(rowSize, columnSize, new Random().nextLong());
+    }
+
+    /**
+     * Board is a 2-dimensional array which represents a minesweeper board
+     * The first element in Board Board[0][0] represents the top-left corner
+     * @param rowSize - the number of columns in the Board
+     * @param columnSize - the number of rows in the Board
+     * @param seed - the seed of the random bombs; the same seed and size
+     *     always give the same board
+     */
+
+    public Board(int rowSize, int columnSize, long seed){
         this.rowSize = rowSize;
         this.columnSize = columnSize;
-        this.board = makeBoard(rowSize, columnSize);
+        this.cells = makeBoard(rowSize, columnSize, seed);
+        this.tileLocks = new TileLocks(rowSize, columnSize);
+        setVerification(System.getProperty(VERIFICATION_PROPERTY, "local"));
 
         checkRep();
     }
@@ -75,340 +182,1137 @@ public class Board {
      * 					are delineated by a " " (a space)
      * @param debug - whether or not the debug state is activated
      * @throws IOException  if file cannot be read properly
+     * @throws BoardFormatException if the file is improperly formatted
      */
 
     public Board(File boardFile) throws IOException{
-        this.board = makeBoard(boardFile);
-        this.rowSize = board.length;
-        this.columnSize = board[0].length;
+        this.cells = makeBoard(boardFile);
+        this.tileLocks = new TileLocks(rowSize, columnSize);
+        setVerification(System.getProperty(VERIFICATION_PROPERTY, "local"));
         checkRep();
     }
 
     /**
      * Creates a board such that every square has a BOMB_PROBABILITY
-     * chance of containing a bomb
+     * chance of containing a bomb, generating it in parallel
      * @param rowSize - the number of columns in the board
      * @param columnSize - the number of rows in the board
-     * @return a 2D array representing the minesweeper board game
+     * @param seed - the seed of the random bombs, see BoardGenerator
+     * @return the packed cells of the minesweeper board game
      */
-    private Box[][] makeBoard(int rowSize, int columnSize) {
-        Box[][] constructedBoard = new Box[rowSize][columnSize];
-        Random random = new Random();
-        for (int y = 0; y < columnSize; y++) {
-            for (int x = 0; x < rowSize; x++) {
-                if (random.nextInt((int) (1/BOMB_PROBABILITY)) == 0) { //create a bomb for every 1 in 1/BOMB_PROBABILITY squares
-                    constructedBoard[x][y] = new Box(x, y, true);
-                } else {
-                    constructedBoard[x][y] = new Box(x, y, false);
-                }	
-            }
-        }
+    private byte[] makeBoard(int rowSize, int columnSize, long seed) {
+        //create a bomb for every 1 in 1/BOMB_PROBABILITY squares
+        byte[] constructedBoard = BoardGenerator.generate(rowSize, columnSize, (int) (1/BOMB_PROBABILITY), seed,
+                ForkJoinPool.commonPool());
 
-        this.board = constructedBoard;
-        updateNeighboringBombs();
+        this.cells = constructedBoard;
+        renderAll(); // the generator already counted the neighboring bombs
 
         return constructedBoard;
     }
 
     /**
      * Creates a board given an input file
-     * @param boardFile a text file used to create a minesweeper board
-     * @return a 2D array representing the minesweeper board game
+     * @param boardFile a text or binary file used to create a minesweeper board, see BoardFile
+     * @return the packed cells of the minesweeper board game
      * @throws IOException
-     * @throws RuntimeException if the input file is improperly formatted
+     * @throws BoardFormatException if the input file is improperly formatted
      */
-    private Box[][] makeBoard(File boardFile) throws IOException {
-        ArrayList<String> fileLines = readFile(boardFile);
-
-        String firstLine = fileLines.get(0);
-        List<String> boardLines = fileLines.subList(1, fileLines.size());
-        firstLine = firstLine.replace("\\n", "");
-        if (firstLine.matches("[0-9]+\\s[0-9]+")) {
-            String[] dimensions = firstLine.split("\\s");
-            rowSize = Integer.parseInt(dimensions[0]);
-            columnSize = Integer.parseInt(dimensions[1]);
+    private byte[] makeBoard(File boardFile) throws IOException {
+        BoardFile file = BoardFile.read(boardFile);
+        rowSize = file.columns;
+        columnSize = file.rows;
 
+        this.cells = file.cells;
+        this.outerBombs = file.outerBombs;
+        if (file.neighborCounts) {
+            renderAll(); // the file already holds the counts
         } else {
-            throw new RuntimeException("The first line of the input file is not properly formatted.");
+            updateNeighboringBombs();
         }
-        Box[][] constructedBoard = new Box[rowSize][columnSize];
-        createBoardFromExtractedFileLines(boardLines, constructedBoard);
+        return file.cells;
+    }
 
-        this.board = constructedBoard;
-        updateNeighboringBombs();
-        return constructedBoard;
+    /**
+     * Allocates the cell store of a board with every cell untouched
+     * and without a bomb
+     * @param rowSize - the number of columns in the board
+     * @param columnSize - the number of rows in the board
+     * @return a zeroed array with one cell per location on the board
+     * @throws IllegalArgumentException if the board has no cells or
+     *     too many cells to index its rendering with an int
+     */
+    static byte[] allocateCells(int rowSize, int columnSize) {
+        if (rowSize <= 0 || columnSize <= 0 || 2L * rowSize * columnSize > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("unsupported board size: " + rowSize + " by " + columnSize);
+        }
+        return new byte[rowSize * columnSize];
     }
 
     /**
-     * Attempts to parse a file into lines to be converted to a Minesweeper board
-     * @param boardFile a text file used to create a minesweeper board
-     * @return a list of strings read out from boardFile
-     * @throws FileNotFoundException
-     * @throws IOException
+     * writes the bombs of this board to a file in the binary board format,
+     * which Board(File) loads without parsing
+     * @param boardFile - the file to write
+     * @param neighborCounts - whether to include the neighbor counts, so
+     *     that loading the file does not have to count them
+     * @throws IOException if the file cannot be written
      */
-    private ArrayList<String> readFile(File boardFile) throws FileNotFoundException, IOException {
-        BufferedReader reader = new BufferedReader(new FileReader(boardFile));
-        ArrayList<String> boardLines = new ArrayList<String>();
+    void writeBinary(File boardFile, boolean neighborCounts) throws IOException {
+        boardLock.writeLock().lock();
+        try {
+            BoardFile.writeBinary(boardFile, rowSize, columnSize, cells, neighborCounts, outerBombs);
+        } finally {
+            boardLock.writeLock().unlock();
+        }
+    }
 
-        while (reader.ready()){
-            boardLines.add(reader.readLine());
+    /**
+     * updates all the boxes in board to reflect the correct
+     * neighbors bomb count 
+     * @param inputBoard - a 2D array of boxes
+     */
+    public void updateNeighboringBombs() {
+        long recounted;
+        boardLock.writeLock().lock();
+        try {
+            BombPlanes.countNeighbors(cells, rowSize, columnSize);
+            addOuterBombCounts(cells, 1);
+            renderAll();
+            versionLock.lock();
+            try {
+                recounted = ++version;
+                changeLog.discardThrough(version);
+                if (actionLog != null) {
+                    actionLog.appendRecount(version);
+                }
+            } finally {
+                versionLock.unlock();
+            }
+            checkRep();
+        } finally {
+            boardLock.writeLock().unlock();
         }
-        reader.close();
-        return boardLines;
+        awaitLogged(recounted);
     }
 
     /**
-     * Creates the board given a List of properly formatted lines
-     * @param boardLines a list of strings read out from boardFile
+     * adds the bombs of the ring around the board to, or subtracts them
+     * from, the neighboring bomb counts of its edge cells
+     * @param target - the encoded cells to change, cells or a copy
+     * @param sign - 1 to add the bombs, -1 to subtract them
      */
-    private void createBoardFromExtractedFileLines(List<String> boardLines, Box[][] constructedBoard) {
-        int rowLocX = 0;
-        int columnLocY = 0;
-        for (String boardLine : boardLines) {
-            boardLine = boardLine.replace("\\n", "");
-            String[] boxes = boardLine.split("\\s");
-            for (String box : boxes) {
-                if (box.equals("0")) {
-                    constructedBoard[rowLocX][columnLocY] = new Box(rowLocX, columnLocY, false);
-                } else if (box.equals("1")){
-                    constructedBoard[rowLocX][columnLocY] = new Box(rowLocX, columnLocY, true);
-                } else {
-                    System.out.println(box);
+    private void addOuterBombCounts(byte[] target, int sign) {
+        if (outerBombs == null) {
+            return;
+        }
+        for (int y = -1; y <= columnSize; y++) {
+            for (int x = -1; x <= rowSize; x += (y == -1 || y == columnSize) ? 1 : rowSize + 1) {
+                if (!outerBombs[BoardFile.ringIndex(rowSize, columnSize, x, y)]) {
+                    continue;
+                }
+                for (int ny = Math.max(y - 1, 0); ny <= Math.min(y + 1, columnSize - 1); ny++) {
+                    for (int nx = Math.max(x - 1, 0); nx <= Math.min(x + 1, rowSize - 1); nx++) {
+                        int neighborCell = index(nx, ny);
+                        target[neighborCell] = Box.withNeighborCount(target[neighborCell],
+                                Box.neighborCount(target[neighborCell]) + sign);
+                    }
                 }
-                rowLocX++;
             }
-            columnLocY++;
-            rowLocX = 0;
         }
     }
 
     /**
-     * updates all the boxes in board to reflect the correct
-     * neighbors bomb count 
-     * @param inputBoard - a 2D array of boxes
+     * writes an encoded cell, which is rendered when the action commits
+     * @param mutation - the action writing the cell, which must hold 
+     *     the cell's tile or boardLock exclusively
+     * @param cellIndex - the index of the cell to write
+     * @param cell - the new encoded cell
      */
-    public synchronized void updateNeighboringBombs() {
-        for (int y = 0; y < columnSize; y++) {
-            for (int x = 0; x < rowSize; x++) {
-                List<Box> neighbors = getNeighborBoxes(x, y);
-                int numBombs = 0;
-                for (Box neighbor : neighbors) {
-                    if (neighbor.bombStatus()) {
+    private void setCell(Mutation mutation, int cellIndex, byte cell) {
+        mutation.written(cellIndex, cells[cellIndex]);
+        cells[cellIndex] = cell;
+    }
+
+    /**
+     * completes an action, moving the board to its next version and 
+     * publishing and rendering the cells the action wrote if it wrote any
+     * @param mutation - the completed action, still holding its tiles
+     * @return the version the action created, or 0 if it wrote nothing
+     */
+    private long commit(Mutation mutation) {
+        if (mutation.writes == 0) {
+            return 0;
+        }
+        long committed;
+        Metrics.lock(versionLock);
+        try {
+            committed = ++version;
+            for (int i = 0; i < mutation.writes; i++) {
+                changeLog.record(version, mutation.writtenCells[i]);
+                renderCell(mutation.writtenCells[i]);
+            }
+            if (actionLog != null) {
+                actionLog.appendCells(version, mutation.removedRing, mutation.writtenCells, mutation.writes, cells);
+            }
+            renderSnapshot = null;
+        } finally {
+            versionLock.unlock();
+        }
+        mutation.writes = 0;
+        return committed;
+    }
+
+    /**
+     * waits until the action log, if any, has a committed version on disk;
+     * called without holding any lock of this board
+     * @param committed - the version an action created, or 0 if it wrote nothing
+     */
+    private void awaitLogged(long committed) {
+        ActionLog log = actionLog;
+        if (committed > 0 && log != null) {
+            log.awaitDurable(committed);
+        }
+    }
+
+    /**
+     * Starts recording every change committed to this board in log
+     * @param log - the log, which starts at the current version of this board
+     */
+    void setActionLog(ActionLog log) {
+        boardLock.writeLock().lock();
+        try {
+            actionLog = log;
+        } finally {
+            boardLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Copies this board as it is now, and makes its action log, if any,
+     * start a new segment after this version, so that the copy and the
+     * segments after it are all that is needed to rebuild the board
+     * @return the copy
+     */
+    Snapshot snapshot() {
+        boardLock.writeLock().lock();
+        versionLock.lock();
+        try {
+            if (actionLog != null) {
+                actionLog.rotate(version);
+            }
+            return new Snapshot(version, rowSize, columnSize, cells.clone(),
+                    outerBombs == null ? null : outerBombs.clone());
+        } finally {
+            versionLock.unlock();
+            boardLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes cells as an action log recorded them, while rebuilding this
+     * board after a crash, before it is shared with other threads
+     * @param ring - the ring location whose bomb was removed, or -1
+     * @param cellIndices - the indices of the cells written
+     * @param values - the encoded cell written at each index
+     */
+    void replayCells(int ring, int[] cellIndices, byte[] values) {
+        boardLock.writeLock().lock();
+        try {
+            for (int i = 0; i < cellIndices.length; i++) {
+                cells[cellIndices[i]] = values[i];
+                renderCell(cellIndices[i]);
+            }
+            if (ring >= 0 && outerBombs != null) {
+                outerBombs[ring] = false;
+            }
+            renderSnapshot = null;
+        } finally {
+            boardLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Recounts every neighbor count as an action log recorded it, while
+     * rebuilding this board after a crash, see replayCells
+     */
+    void replayRecount() {
+        boardLock.writeLock().lock();
+        try {
+            BombPlanes.countNeighbors(cells, rowSize, columnSize);
+            addOuterBombCounts(cells, 1);
+            renderAll();
+        } finally {
+            boardLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Finishes rebuilding this board after a crash, see replayCells
+     * @param restored - the version of the last change replayed
+     */
+    void restoreVersion(long restored) {
+        boardLock.writeLock().lock();
+        try {
+            versionLock.lock();
+            try {
+                version = restored;
+                changeLog.discardThrough(version);
+            } finally {
+                versionLock.unlock();
+            }
+            checkRep();
+        } finally {
+            boardLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * undoes every write of an action which could not claim a tile it needed
+     * @param mutation - the action, still holding its tiles
+     */
+    private void rollback(Mutation mutation) {
+        for (int i = mutation.writes - 1; i >= 0; i--) {
+            int cellIndex = mutation.writtenCells[i];
+            cells[cellIndex] = mutation.previousCells[i];
+        }
+        mutation.writes = 0;
+    }
+
+    /**
+     * @return scratch space for one action on this board
+     */
+    private Mutation borrowMutation() {
+        Mutation mutation = mutations.poll();
+        return mutation != null ? mutation : new Mutation(tileLocks.newClaim());
+    }
+
+    /**
+     * makes the scratch space of a finished action available to the next
+     * @param mutation - a mutation from borrowMutation, holding no tiles
+     */
+    private void returnMutation(Mutation mutation) {
+        mutation.claim.clear();
+        mutation.writes = 0;
+        mutation.digs = 0;
+        mutation.removedRing = -1;
+        mutations.add(mutation);
+    }
+
+    /**
+     * called by Box views of this board after they write a cell
+     * @param cellIndex - the index of the cell which was written
+     */
+    void cellUpdated(int cellIndex) {
+        long committed;
+        boardLock.writeLock().lock();
+        Mutation mutation = borrowMutation();
+        try {
+            setCell(mutation, cellIndex, cells[cellIndex]);
+            committed = commit(mutation);
+        } finally {
+            returnMutation(mutation);
+            boardLock.writeLock().unlock();
+        }
+        awaitLogged(committed);
+    }
+
+    /**
+     * renders every cell of the board into new bands; requires boardLock
+     * exclusively, or a board not yet shared with other threads
+     */
+    private void renderAll() {
+        bandRows = Math.max(1, BAND_BYTES / (2 * rowSize));
+        int bands = (columnSize + bandRows - 1) / bandRows;
+        renderedBands = new byte[bands][];
+        sharedBands = new boolean[bands];
+        for (int band = 0; band < bands; band++) {
+            int first = band * bandRows * rowSize;
+            int end = Math.min((band + 1) * bandRows, columnSize) * rowSize;
+            byte[] text = new byte[2 * (end - first)];
+            for (int i = first; i < end; i++) {
+                text[2 * (i - first)] = (byte) Box.render(cells[i]);
+                text[2 * (i - first) + 1] = (byte) ((i + 1) % rowSize == 0 ? '\n' : ' ');
+            }
+            renderedBands[band] = text;
+        }
+        renderSnapshot = null;
+    }
+
+    /**
+     * patches the character of a cell in its band, copying the band first
+     * if a look shares it; requires versionLock while holding the cell's
+     * tile, or boardLock exclusively
+     * @param cellIndex - the index of the cell to render
+     */
+    private void renderCell(int cellIndex) {
+        int bandCells = bandRows * rowSize;
+        int band = cellIndex / bandCells;
+        byte[] text = renderedBands[band];
+        if (sharedBands[band]) {
+            text = text.clone();
+            renderedBands[band] = text;
+            sharedBands[band] = false;
+        }
+        text[2 * (cellIndex - band * bandCells)] = (byte) Box.render(cells[cellIndex]);
+    }
+
+    /**
+     * hands consecutive bands to a look, which copies them after releasing
+     * the locks; requires versionLock and boardLock shared
+     * @param from - the first band
+     * @param to - the band after the last
+     * @return bands from to to, which are never written again
+     */
+    private byte[][] shareBands(int from, int to) {
+        for (int band = from; band < to; band++) {
+            sharedBands[band] = true;
+        }
+        return Arrays.copyOfRange(renderedBands, from, to);
+    }
+
+    /**
+     * @return the text of toString() as ASCII bytes. The array is shared
+     * with other callers and must not be modified.
+     */
+    private byte[] renderedBoard() {
+        byte[] snapshot = renderSnapshot;
+        if (snapshot != null) {
+            return snapshot;
+        }
+        byte[][] bands;
+        long shown;
+        Metrics.lock(boardLock.readLock());
+        try {
+            Metrics.lock(versionLock);
+            try {
+                bands = shareBands(0, renderedBands.length);
+                shown = version;
+            } finally {
+                versionLock.unlock();
+            }
+        } finally {
+            boardLock.readLock().unlock();
+        }
+        byte[] text = new byte[2 * rowSize * columnSize];
+        int at = 0;
+        for (byte[] band : bands) {
+            System.arraycopy(band, 0, text, at, band.length);
+            at += band.length;
+        }
+        Metrics.lock(versionLock);
+        try {
+            if (version == shown) {
+                renderSnapshot = text;
+            }
+        } finally {
+            versionLock.unlock();
+        }
+        return text;
+    }
+
+    /**
+     * Describes the cells of this board inside a viewport. The cells are
+     * copied from the shared rendering of the board if it is up to date,
+     * or else from the bands of rows the viewport covers, which are taken
+     * without waiting for any action (see renderedBoard), so either way 
+     * the cost depends on the size of the viewport only.
+     * @param viewport - the viewport to describe, or null for the whole board
+     * @return the cells inside viewport in the format of toString(), see
+     *     Viewport.cut, or toString() if viewport is null
+     */
+    public String look(Viewport viewport) {
+        if (viewport == null) {
+            return toString();
+        }
+        byte[] snapshot = renderSnapshot;
+        if (snapshot != null) {
+            return viewport.cut(snapshot, rowSize, columnSize);
+        }
+        int top = Math.max(viewport.getY(), 0);
+        int bottom = (int) Math.min((long) viewport.getY() + viewport.getHeight(), columnSize);
+        if (top >= bottom) {
+            return "";
+        }
+        byte[][] bands;
+        int firstBand;
+        int rows;
+        Metrics.lock(boardLock.readLock());
+        try {
+            Metrics.lock(versionLock);
+            try {
+                rows = bandRows;
+                firstBand = top / rows;
+                bands = shareBands(firstBand, (bottom - 1) / rows + 1);
+            } finally {
+                versionLock.unlock();
+            }
+        } finally {
+            boardLock.readLock().unlock();
+        }
+        return viewport.cut(bands, firstBand, rows, rowSize, columnSize);
+    }
+
+    /**
+     * writes the string representation of this board to out, without
+     * holding the lock on this board while writing
+     * @param out - the stream to write to
+     * @throws IOException if out cannot be written to
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(renderedBoard());
+    }
+
+    /**
+     * 
+     * @return the current version of this board, which increases every
+     * time a cell of the board changes
+     */
+    public long getVersion() {
+        versionLock.lock();
+        try {
+            return version;
+        } finally {
+            versionLock.unlock();
+        }
+    }
+
+    /**
+     * Describes how the board changed since a version a client has seen,
+     * the reply to the "look since V" command. If the change log still 
+     * covers every change made after sinceVersion, the reply is a delta:
+     *     DELTA version n
+     * followed by n lines "x y c", one for every changed cell, where c is 
+     * the cell's character as it would appear in toString(). Otherwise
+     * the reply is the whole board:
+     *     FULL version
+     * followed by toString(). In both cases version is the version of the
+     * board the reply describes.
+     * @param sinceVersion - the version of the board the client has seen
+     * @return a delta or full description of the board as above
+     */
+    public String lookSince(long sinceVersion) {
+        Metrics.lock(boardLock.writeLock());
+        try {
+            if (sinceVersion > version || !changeLog.reaches(sinceVersion)) {
+                return "FULL " + version + "\n" + toString();
+            }
+            long[] changed = changeLog.cellsChangedSince(sinceVersion);
+            StringBuilder result = new StringBuilder(16 + 16 * changed.length);
+            result.append("DELTA ").append(version).append(' ').append(changed.length).append('\n');
+            for (long changedCell : changed) {
+                int cell = (int) changedCell;
+                result.append(cell % rowSize).append(' ').append(cell / rowSize).append(' ')
+                    .append(Box.render(cells[cell])).append('\n');
+            }
+            return result.toString();
+        } finally {
+            boardLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Finds a covered cell which the dug cells prove safe or a mine, the
+     * reply to the "hint" command. Only the part of the frontier (see
+     * Frontier) changed since the last hint is looked at again, so a hint
+     * costs about as much as the actions since the last one, not the size
+     * of the board; the first hint scans the board once.
+     * @return "safe X Y" or "mine X Y" for the proved cell at (X, Y), or
+     *     "no hint" if none can be proved by propagating the constraints of
+     *     the frontier
+     */
+    public String hint() {
+        Metrics.lock(boardLock.writeLock());
+        try {
+            int cell = syncFrontier().nextHint(cells);
+            if (cell < 0) {
+                return NO_HINT_MESSAGE;
+            }
+            return (frontier.isMine(cell) ? "mine " : "safe ") + (cell % rowSize) + " " + (cell / rowSize);
+        } finally {
+            boardLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the indices of the frontier cells of this board, in increasing order
+     */
+    int[] getFrontier() {
+        boardLock.writeLock().lock();
+        try {
+            return syncFrontier().cells();
+        } finally {
+            boardLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * brings the frontier up to date with the cells changed since it last
+     * was, or rebuilds it if the change log no longer reaches that far;
+     * requires boardLock held exclusively
+     * @return the frontier
+     */
+    private Frontier syncFrontier() {
+        if (frontier == null) {
+            frontier = new Frontier(rowSize, columnSize, outerBombs != null);
+            frontier.rebuild(cells);
+        } else if (!changeLog.reaches(frontierVersion)) {
+            frontier.rebuild(cells);
+        } else if (frontierVersion < version) {
+            frontier.update(cells, changeLog.cellsChangedSince(frontierVersion));
+        }
+        frontierVersion = version;
+        return frontier;
+    }
+
+    /**
+     * counts the bombs in the cells neighboring a location
+     * @param rowLocX - the x location of a cell
+     * @param columnLocY - the y location of a cell
+     * @return the number of bombs in the at most 8 cells surrounding 
+     * rowLocX, columnLocY, not including the cell itself, counting the
+     * bombs of the ring around the board
+     */
+    private int countNeighboringBombs(int rowLocX, int columnLocY) {
+        int numBombs = 0;
+        for (int y = Math.max(columnLocY - 1, 0); y <= Math.min(columnLocY + 1, columnSize - 1); y++) {
+            for (int x = Math.max(rowLocX - 1, 0); x <= Math.min(rowLocX + 1, rowSize - 1); x++) {
+                if (!(x == rowLocX && y == columnLocY) && Box.hasBomb(cells[index(x, y)])) {
+                    numBombs++;
+                }
+            }
+        }
+        if (outerBombs != null) {
+            for (int y = columnLocY - 1; y <= columnLocY + 1; y++) {
+                for (int x = rowLocX - 1; x <= rowLocX + 1; x++) {
+                    int ring = BoardFile.ringIndex(rowSize, columnSize, x, y);
+                    if (ring >= 0 && outerBombs[ring]) {
                         numBombs++;
                     }
                 }
-                getBox(x, y).updateNumberOfNeighboringBombs(numBombs);
             }
         }
-        checkRep();
+        return numBombs;
     }
 
     /**
      * 
      * @param xLoc
      * @param yLoc
-     * @return the box at this location
+     * @return the index in cells of this location
      */
-    private Box getBox(int xLoc, int yLoc) {
-        return this.board[xLoc][yLoc];
+    private int index(int xLoc, int yLoc) {
+        return yLoc * rowSize + xLoc;
     }
 
     /**
-     * checks that the number of neighboring bombs in each Box of the board
-     * is a number between 0 and 8
+     * 
+     * @param xLoc
+     * @param yLoc
+     * @return a view of the box at this location, which reads and writes
+     * through to this board
+     */
+    protected Box getBox(int xLoc, int yLoc) {
+        boardLock.writeLock().lock();
+        try {
+            return new Box(this, cells, index(xLoc, yLoc), xLoc, yLoc);
+        } finally {
+            boardLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * checks that the number of neighboring bombs in each cell of the board
+     * is a number between 0 and 8 matching the bombs around it
      */
     private void checkRep() {		
-        assert(board.length == this.rowSize);
-        assert(board[0].length == this.columnSize);
-        for (int y = 0; y < columnSize; y++) {
-            for (int x = 0; x < rowSize; x++) {
-                Box box = board[x][y];
-
-                //CHECK REP ON LOCATION of each box
-                assert(box.getXLoc() == x);
-                assert(box.getYLoc() == y);
-
-                //CHECK REP ON NEIGHBORING BOMB COUNTS
-                Integer numberOfNeighboringBombs = box.getNumberOfNeighboringBombs();
-
-                List<Box> neighbors = getNeighborBoxes(x, y);
-                int actualNumBombs = 0;
-                for (Box neighbor : neighbors) {
-                    if (neighbor.bombStatus()) {
-                        actualNumBombs++;
-                    }
-                }
-                assert(numberOfNeighboringBombs==actualNumBombs);
+        if (!ASSERTIONS_ENABLED) {
+            return;
+        }
+        assert(cells.length == (long) this.rowSize * this.columnSize);
+
+        //CHECK REP ON NEIGHBORING BOMB COUNTS, which are then at most MAX_NEIGHBORS
+        byte[] counted = cells;
+        if (outerBombs != null) {
+            counted = cells.clone(); // the counts BombPlanes sees, without the ring
+            addOuterBombCounts(counted, -1);
+        }
+        int miscounted = BombPlanes.firstMiscounted(counted, rowSize, columnSize);
+        assert(miscounted < 0) : "wrong neighbor count at " + (miscounted % rowSize) + ", " + (miscounted / rowSize);
+    }
+
+    /**
+     * checks the RI on a single cell: its neighboring bomb count is a 
+     * number between 0 and 8 matching the bombs around it, and it does 
+     * not contain a bomb if it has been dug. The caller must hold the 
+     * cell's tile, which keeps the bombs around the cell from changing.
+     * @param cellIndex - the index of the cell to check
+     */
+    private void checkRep(int cellIndex) {
+        byte cell = cells[cellIndex];
+        assert(Box.neighborCount(cell) <= MAX_NEIGHBORS);
+        assert(Box.neighborCount(cell) == countNeighboringBombs(cellIndex % rowSize, cellIndex / rowSize));
+        assert(!(Box.hasBomb(cell) && Box.state(cell).equals(State.DUG)));
+    }
+
+    /**
+     * @return whether or not actions should check the RI on the cells
+     * they touch
+     */
+    private boolean checkingLocally() {
+        return ASSERTIONS_ENABLED && verification != Verification.OFF;
+    }
 
+    /**
+     * counts an action towards the next sampled full check, and checks
+     * the whole board if it is due
+     */
+    private void checkRepAfterAction() {
+        if (ASSERTIONS_ENABLED && verification == Verification.FULL 
+                && actionsSinceFullCheck.incrementAndGet() >= fullCheckInterval) {
+            boardLock.writeLock().lock();
+            try {
+                actionsSinceFullCheck.set(0);
+                checkRep();
+            } finally {
+                boardLock.writeLock().unlock();
             }
         }
     }
 
+    /**
+     * Sets how much of the RI is rechecked after each action
+     * @param level - the verification level
+     * @param fullCheckInterval - for Verification.FULL, the number of 
+     *     actions between checks of the whole board; must be positive
+     * @throws IllegalArgumentException if fullCheckInterval is not positive
+     */
+    public void setVerification(Verification level, int fullCheckInterval) {
+        if (fullCheckInterval <= 0) {
+            throw new IllegalArgumentException("full check interval must be positive: " + fullCheckInterval);
+        }
+        boardLock.writeLock().lock();
+        try {
+            this.verification = level;
+            this.fullCheckInterval = fullCheckInterval;
+            this.actionsSinceFullCheck.set(0);
+        } finally {
+            boardLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Sets how much of the RI is rechecked after each action
+     * @param spec - "off", "local", "full" or "full:N" where N is the 
+     *     number of actions between checks of the whole board
+     * @throws IllegalArgumentException if spec is not formatted as above
+     */
+    public void setVerification(String spec) {
+        if (spec.matches("full:[0-9]+")) {
+            setVerification(Verification.FULL, Integer.parseInt(spec.substring("full:".length())));
+        } else if (spec.matches("off|local|full")) {
+            setVerification(Verification.valueOf(spec.toUpperCase()), 1);
+        } else {
+            throw new IllegalArgumentException("unknown verification level: \"" + spec + "\"");
+        }
+    }
+
+    /**
+     * @return true if assertions are enabled for this class
+     */
+    private static boolean assertionsEnabled() {
+        boolean enabled = false;
+        assert(enabled = true);
+        return enabled;
+    }
+
     /**
      * Processes an action at a specified location on the board
      * @param rowLocX - the y location of a box on the board
      * @param columnLocY - the y location of a box on the board
      * @param action an action to be processed
-     * @return "BOOM!" if a bomb was detonated as a result of a dig, or 
+     * @return "BOOM!" if a bomb was detonated as a result of a dig, 
+     *     "" if the location is not on the board, or
      *     a string representation of the board otherwise
      */
-    public synchronized String processAction(int rowLocX, int columnLocY, Action action){
-        String result = "";
-        if (rowLocX <rowSize && columnLocY <columnSize) { //process action only if coordinates are in board
-            if (action.equals(Action.DIG)) {
-                boolean bombDug = processDigAction(rowLocX, columnLocY);
-                if (bombDug) {
-                    result = BOOM_MESSAGE;
-                } else {
-                    result = this.toString();   
+    public String processAction(int rowLocX, int columnLocY, Action action){
+        return processAction(rowLocX, columnLocY, action, null);
+    }
+
+    /**
+     * Processes an action as processAction, but describes only a viewport
+     * of the board
+     * @param rowLocX - the x location of a box on the board
+     * @param columnLocY - the y location of a box on the board
+     * @param action an action to be processed
+     * @param viewport - the viewport to describe, or null for the whole board
+     * @return as processAction, with look(viewport) in place of the board
+     */
+    public String processAction(int rowLocX, int columnLocY, Action action, Viewport viewport) {
+        if (!onBoard(rowLocX, columnLocY)) { //process action only if coordinates are in board
+            return "";
+        }
+        int bombsDug = applyActions(new int[] { rowLocX }, new int[] { columnLocY }, new Action[] { action }, true);
+        return bombsDug > 0 ? BOOM_MESSAGE : look(viewport);
+    }
+
+    /**
+     * Processes a batch of actions in order, as if by consecutive calls to
+     * processAction with no other action in between, but locking the board
+     * once for the whole batch and rendering it once at the end. Actions at
+     * locations which are not on the board are skipped.
+     * @param rowLocXs - the x location of each action
+     * @param columnLocYs - the y location of each action
+     * @param actions - the actions to be processed
+     * @param stopAtBomb - whether the batch ends at the first dig which 
+     *     detonates a bomb, leaving the rest of the actions unprocessed
+     * @return "BOOM!" if stopAtBomb and a dig detonated a bomb; otherwise 
+     *     a string representation of the board after the batch, preceded
+     *     by a "BOOM!" line if a dig detonated a bomb
+     * @throws IllegalArgumentException if the arrays differ in length
+     */
+    public String processActions(int[] rowLocXs, int[] columnLocYs, Action[] actions, boolean stopAtBomb) {
+        return processActions(rowLocXs, columnLocYs, actions, stopAtBomb, null);
+    }
+
+    /**
+     * Processes a batch of actions as processActions, but describes only a
+     * viewport of the board
+     * @param rowLocXs - the x location of each action
+     * @param columnLocYs - the y location of each action
+     * @param actions - the actions to be processed
+     * @param stopAtBomb - whether the batch ends at the first dig which
+     *     detonates a bomb
+     * @param viewport - the viewport to describe, or null for the whole board
+     * @return as processActions, with look(viewport) in place of the board
+     * @throws IllegalArgumentException if the arrays differ in length
+     */
+    public String processActions(int[] rowLocXs, int[] columnLocYs, Action[] actions, boolean stopAtBomb,
+            Viewport viewport) {
+        if (rowLocXs.length != actions.length || columnLocYs.length != actions.length) {
+            throw new IllegalArgumentException("every action needs one x and one y location");
+        }
+        int bombsDug = applyActions(rowLocXs, columnLocYs, actions, stopAtBomb);
+        if (bombsDug > 0) {
+            return stopAtBomb ? BOOM_MESSAGE : BOOM_MESSAGE + "\n" + look(viewport);
+        }
+        return look(viewport);
+    }
+
+    /**
+     * Removes a bomb from the ring of cells around this board, which is
+     * how a shard of a larger board learns that a bomb next to it was
+     * dug on a neighboring shard (see ShardedBoard). The neighboring bomb
+     * counts of the at most 3 edge cells next to it go down by one, and
+     * nothing else changes: in particular no flood fill starts from them.
+     * @param rowLocX - the x location of the bomb, from -1 to the number of columns
+     * @param columnLocY - the y location of the bomb, from -1 to the number of rows
+     * @return "" if the location is not in the ring around this board, or
+     *     a string representation of the board otherwise, which is
+     *     unchanged if there is no bomb there (always on a whole board)
+     */
+    public String removeOuterBomb(int rowLocX, int columnLocY) {
+        int ring = BoardFile.ringIndex(rowSize, columnSize, rowLocX, columnLocY);
+        if (ring < 0) {
+            return "";
+        }
+        long committed = 0;
+        Mutation mutation = borrowMutation();
+        Metrics.lock(boardLock.writeLock());
+        try {
+            if (outerBombs != null && outerBombs[ring]) {
+                outerBombs[ring] = false;
+                for (int y = Math.max(columnLocY - 1, 0); y <= Math.min(columnLocY + 1, columnSize - 1); y++) {
+                    for (int x = Math.max(rowLocX - 1, 0); x <= Math.min(rowLocX + 1, rowSize - 1); x++) {
+                        int neighborCell = index(x, y);
+                        setCell(mutation, neighborCell, Box.withNeighborCount(cells[neighborCell], Box.neighborCount(cells[neighborCell]) - 1));
+                        if (checkingLocally()) {
+                            checkRep(neighborCell);
+                        }
+                    }
                 }
-            } else if (action.equals(Action.FLAG) || action.equals(Action.UNFLAG)) {
-                processFlagAction(action, rowLocX, columnLocY); 
-                result = this.toString();
+                mutation.removedRing = ring;
+                committed = commit(mutation);
             }
+        } finally {
+            boardLock.writeLock().unlock();
+            returnMutation(mutation);
         }
-        checkRep();
-        return result;
+        awaitLogged(committed);
+        return this.toString();
+    }
+
+    /**
+     * Applies actions in order as one atomic mutation of the board
+     * @param rowLocXs - the x location of each action
+     * @param columnLocYs - the y location of each action
+     * @param actions - the actions to be applied
+     * @param stopAtBomb - whether to stop after the first dig which detonates a bomb
+     * @return the number of bombs detonated
+     */
+    private int applyActions(int[] rowLocXs, int[] columnLocYs, Action[] actions, boolean stopAtBomb) {
+        int bombsDug = 0;
+        long committed;
+        Metrics metrics = Metrics.current();
+        Mutation mutation = borrowMutation();
+        mutation.countingDigs = metrics != null;
+        Metrics.lock(boardLock.readLock());
+        try {
+            for (int i = 0; i < actions.length; i++) {
+                if (onBoard(rowLocXs[i], columnLocYs[i])) {
+                    int tile = tileLocks.tileOf(rowLocXs[i], columnLocYs[i]);
+                    if (!mutation.claim.contains(tile)) {
+                        mutation.claim.add(tile);
+                    }
+                }
+            }
+            while (true) {
+                tileLocks.claimAll(mutation.claim);
+                bombsDug = 0;
+                mutation.digs = 0;
+                for (int i = 0; i < actions.length && !mutation.claim.blocked(); i++) {
+                    if (!onBoard(rowLocXs[i], columnLocYs[i])) {
+                        continue;
+                    }
+                    if (actions[i].equals(Action.DIG)) {
+                        boolean bombDug = processDigAction(mutation, rowLocXs[i], columnLocYs[i]);
+                        if (bombDug && !mutation.claim.blocked()) {
+                            bombsDug++;
+                            if (stopAtBomb) {
+                                break;
+                            }
+                        }
+                    } else {
+                        processFlagAction(mutation, actions[i], rowLocXs[i], columnLocYs[i]);
+                    }
+                }
+                if (!mutation.claim.blocked()) {
+                    break;
+                }
+                rollback(mutation);
+                tileLocks.release(mutation.claim);
+            }
+            committed = commit(mutation);
+            for (int i = 0; i < mutation.digs; i++) {
+                metrics.dug(mutation.cellsDug[i]);
+            }
+        } finally {
+            tileLocks.release(mutation.claim);
+            boardLock.readLock().unlock();
+            returnMutation(mutation);
+        }
+        checkRepAfterAction();
+        awaitLogged(committed);
+        return bombsDug;
+    }
+
+    /**
+     * @param rowLocX - an x location
+     * @param columnLocY - a y location
+     * @return true if the location is on the board
+     */
+    private boolean onBoard(int rowLocX, int columnLocY) {
+        return rowLocX >= 0 && rowLocX < rowSize && columnLocY >= 0 && columnLocY < columnSize;
     }
 
     /**
      * change the status of this to DUG and updates the resulting board
-     * @param activeBox 
-     * @return true if a bomb was dug as a result of this action
+     * @param mutation - the action, holding the tile of the box to dig
+     * @param rowLocX - the x location of the box to dig
+     * @param columnLocY - the y location of the box to dig
+     * @return true if a bomb was dug as a result of this action. If the 
+     *     action could not claim a tile it needed, mutation's claim is 
+     *     blocked and the action must be undone and retried.
      */
-    private boolean processDigAction(int rowLocX, int columnLocY) {
+    private boolean processDigAction(Mutation mutation, int rowLocX, int columnLocY) {
         boolean bombDug = false;
-        Box activeBox = getBox(rowLocX, columnLocY);
+        int activeCell = index(rowLocX, columnLocY);
+        byte activeBox = cells[activeCell];
 
-        if (activeBox.bombStatus() && activeBox.getStatus().equals(State.UNTOUCHED)) {
-            bombDug = true;
-            activeBox.updateStatus(State.DUG);
-            activeBox.updateBombStatus(false);
-            //update bomb number
-            updateNeighboringBombs();
+        if (Box.state(activeBox).equals(State.UNTOUCHED)) {
+            bombDug = Box.hasBomb(activeBox);
+            if (bombDug && !claimNeighborhood(mutation, rowLocX, columnLocY)) {
+                return bombDug;
+            }
+            setCell(mutation, activeCell, Box.withState(activeBox, State.DUG));
+            if (bombDug) {
+                removeBomb(mutation, rowLocX, columnLocY);
+            }
+            int filled = floodFill(mutation, activeCell);
+            if (mutation.countingDigs && !mutation.claim.blocked()) {
+                mutation.dug(1 + filled);
+            }
+        }
 
-            List<Integer[]> neighbors = getNeighborsCoordinates(rowLocX , columnLocY);
-            if (activeBox.getNumberOfNeighboringBombs()==0) {
-                for (Integer[] neighborCoord : neighbors) {
+        return bombDug;
 
-                    Integer xLoc = neighborCoord[0];
-                    Integer yLoc = neighborCoord[1];
-                    Box neighborBox = getBox(xLoc, yLoc);
+    }
 
-                    if (!neighborBox.bombStatus()) {
-                        processDigAction(xLoc, yLoc);
-                    }
+    /**
+     * claims the tiles of a cell and its neighbors, without blocking
+     * @param mutation - the action, holding the tile of the cell
+     * @param rowLocX - the x location of the cell
+     * @param columnLocY - the y location of the cell
+     * @return true if the action now holds every tile containing the cell
+     *     or one of its neighbors
+     */
+    private boolean claimNeighborhood(Mutation mutation, int rowLocX, int columnLocY) {
+        int edge = TileLocks.TILE_SIZE - 1;
+        int tileX = rowLocX & edge;
+        int tileY = columnLocY & edge;
+        if (tileX != 0 && tileX != edge && tileY != 0 && tileY != edge) {
+            return true; // every neighbor is in the cell's own tile
+        }
+        for (int y = Math.max(columnLocY - 1, 0); y <= Math.min(columnLocY + 1, columnSize - 1); y++) {
+            for (int x = Math.max(rowLocX - 1, 0); x <= Math.min(rowLocX + 1, rowSize - 1); x++) {
+                if (!tileLocks.tryClaim(mutation.claim, tileLocks.tileOf(x, y))) {
+                    return false;
                 }
             }
+        }
+        return true;
+    }
 
-        } else if (!activeBox.bombStatus() && activeBox.getStatus().equals(State.UNTOUCHED)){
-            bombDug = false;
-            activeBox.updateStatus(State.DUG);
-            //if (this.numberOfNeighboringBombs!=0)     don't do anything 
-            if (activeBox.getNumberOfNeighboringBombs()==0) {
-                List<Integer[]> neighbors = getNeighborsCoordinates(rowLocX , columnLocY);
-                for (Integer[] neighborCoord : neighbors) {
-                    Integer xLoc = neighborCoord[0];
-                    Integer yLoc = neighborCoord[1];
-                    processDigAction(xLoc, yLoc);
+    /**
+     * removes the bomb at a location and updates the neighboring bomb
+     * counts of the at most 8 cells surrounding it. Only those counts
+     * depend on the removed bomb, so the rest of the board is untouched.
+     * @param mutation - the action, holding the tiles of the cell and its neighbors
+     * @param rowLocX - the x location of a cell containing a bomb
+     * @param columnLocY - the y location of a cell containing a bomb
+     */
+    private void removeBomb(Mutation mutation, int rowLocX, int columnLocY) {
+        int bombCell = index(rowLocX, columnLocY);
+        assert(Box.hasBomb(cells[bombCell]));
+        setCell(mutation, bombCell, Box.withBomb(cells[bombCell], false));
+        for (int y = Math.max(columnLocY - 1, 0); y <= Math.min(columnLocY + 1, columnSize - 1); y++) {
+            for (int x = Math.max(rowLocX - 1, 0); x <= Math.min(rowLocX + 1, rowSize - 1); x++) {
+                if (!(x == rowLocX && y == columnLocY)) {
+                    int neighborCell = index(x, y);
+                    setCell(mutation, neighborCell, Box.withNeighborCount(cells[neighborCell], Box.neighborCount(cells[neighborCell]) - 1));
+                    if (checkingLocally()) {
+                        checkRep(neighborCell);
+                    }
                 }
-                // invariant: calling this method recursively will not detonate a bomb 
-                // because the recursion terminates when numberOfNeighboringBombs>0. 
-                // This always occurs before this method can be recursively called 
-                // on a box that has a bomb
             }
         }
+    }
 
-        checkRep();
-        return bombDug;
-
+    /**
+     * Digs every untouched cell reachable from a freshly dug cell through
+     * dug cells with no neighboring bombs, exactly the cells a recursive dig
+     * of each such neighbor would open. The fill is driven by the mutation's
+     * fillStack rather than recursion, so its stack depth is constant, and 
+     * each cell is marked DUG as it is pushed so it is pushed at most once.
+     * The fill claims the tiles it spreads into as it goes, and stops as 
+     * soon as it cannot claim one.
+     * @param mutation - the action, holding the tile of startCell
+     * @param startCell - the index of a cell which has just been dug
+     * @return the number of cells the fill dug, not counting startCell
+     */
+    private int floodFill(Mutation mutation, int startCell) {
+        int[] fillStack = mutation.fillStack;
+        int size = 0;
+        int filled = 0;
+        fillStack[size++] = startCell;
+        while (size > 0) {
+            int activeCell = fillStack[--size];
+            if (checkingLocally()) {
+                checkRep(activeCell);
+            }
+            if (Box.neighborCount(cells[activeCell]) != 0) {
+                continue;
+            }
+            // invariant: a cell with no neighboring bombs has no bomb in
+            // any neighbor, so the fill never detonates a bomb
+            int rowLocX = activeCell % rowSize;
+            int columnLocY = activeCell / rowSize;
+            if (!claimNeighborhood(mutation, rowLocX, columnLocY)) {
+                break;
+            }
+            for (int y = Math.max(columnLocY - 1, 0); y <= Math.min(columnLocY + 1, columnSize - 1); y++) {
+                for (int x = Math.max(rowLocX - 1, 0); x <= Math.min(rowLocX + 1, rowSize - 1); x++) {
+                    int neighborCell = index(x, y);
+                    byte neighbor = cells[neighborCell];
+                    if (Box.state(neighbor).equals(State.UNTOUCHED) && !Box.hasBomb(neighbor)) {
+                        setCell(mutation, neighborCell, Box.withState(neighbor, State.DUG));
+                        filled++;
+                        if (size == fillStack.length) {
+                            fillStack = Arrays.copyOf(fillStack, Math.min(2 * size, cells.length));
+                        }
+                        fillStack[size++] = neighborCell;
+                    }
+                }
+            }
+        }
+        mutation.fillStack = fillStack;
+        return filled;
     }
 
 
     /**
      * given an action, determines if the box should
      * be flagged, deflagged, or left unchanged
+     * @param mutation - the action, holding the tile of the box
      * @param action - an action denoting the action to be executed
      * @param columnLocY the y coordinate at which to perform the action
      * @param rowLocX the x coordinate at which to perform the action
      */
-    private void processFlagAction(Action action, int rowLocX, int columnLocY) {
-        Box activeBox = getBox(rowLocX, columnLocY);
+    private void processFlagAction(Mutation mutation, Action action, int rowLocX, int columnLocY) {
+        int activeCell = index(rowLocX, columnLocY);
+        State status = Box.state(cells[activeCell]);
 
         if (action.equals(Action.FLAG)) {
-            if (activeBox.getStatus().equals(State.UNTOUCHED)) {
-                activeBox.updateStatus(State.FLAGGED);
+            if (status.equals(State.UNTOUCHED)) {
+                setCell(mutation, activeCell, Box.withState(cells[activeCell], State.FLAGGED));
             }
         } else if (action.equals(Action.UNFLAG)) {
-            if (activeBox.getStatus().equals(State.FLAGGED)) {
-                activeBox.updateStatus(State.UNTOUCHED);
+            if (status.equals(State.FLAGGED)) {
+                setCell(mutation, activeCell, Box.withState(cells[activeCell], State.UNTOUCHED));
             }
         } 
-        checkRep();
-    }
-
-    /**
-     * gets the coordinates of the cells neighboring a cell at roxLocX
-     * and columnLocY
-     * @param rowLocX
-     * @param columnLocY
-     * @return the coordinates of the locations neighboring a location 
-     * specified by rowLocX and columnLocY
-     */
-    private List<Integer[]> getNeighborsCoordinates(int rowLocX, int columnLocY) {
-        List<Integer[]> neighborCoord = new LinkedList<Integer[]>();
-        for (int y = -1; y <=1; y++) {
-            for (int x = -1; x <= 1; x++) {
-                if (!(x==0 && y==0)) {
-                    int neighborX = rowLocX +x;
-                    int neighborY = columnLocY + y;
-                    if ((neighborX>=0  && neighborX < rowSize) && (neighborY>=0 && neighborY < columnSize)) {
-                        Integer[] neighborArray = {neighborX, neighborY};
-                        neighborCoord.add(neighborArray);
-                    }
-                }
-            }
+        if (checkingLocally()) {
+            checkRep(activeCell);
         }
-        return neighborCoord;       
     }
 
     /**
      * Gets the neighbors of a Box located at rowLocX, columnLocY
      * @param rowLocX - the x location of a box
      * @param columnLocY - the y location of a box
-     * @return a list of at most 8 neighbors surround the box at 
+     * @return a list of views of the at most 8 neighbors surround the box at 
      * location rowLocX, columnLocY. The Box with input location is not
-     * included in this list.
+     * included in this list. The views read and write through to this 
+     * board without taking its lock, so callers must not use them while
+     * other threads are acting on this board.
      */
-    protected synchronized List<Box> getNeighborBoxes(int rowLocX, int columnLocY) {
-        List<Box> neighbors = new LinkedList<Box>();
-        List<Integer[]> neighborsCoords = getNeighborsCoordinates(rowLocX , columnLocY);
-
-        for (Integer[] neighborCoord : neighborsCoords) {
-            Integer xLoc = neighborCoord[0];
-            Integer yLoc = neighborCoord[1];
-            neighbors.add(getBox(xLoc, yLoc));
+    protected List<Box> getNeighborBoxes(int rowLocX, int columnLocY) {
+        boardLock.writeLock().lock();
+        try {
+            List<Box> neighbors = new LinkedList<Box>();
+            for (int y = Math.max(columnLocY - 1, 0); y <= Math.min(columnLocY + 1, columnSize - 1); y++) {
+                for (int x = Math.max(rowLocX - 1, 0); x <= Math.min(rowLocX + 1, rowSize - 1); x++) {
+                    if (!(x == rowLocX && y == columnLocY)) {
+                        neighbors.add(getBox(x, y));
+                    }
+                }
+            }
 
+            return neighbors;
+        } finally {
+            boardLock.writeLock().unlock();
         }
-
-        return neighbors;
     }
 
     @Override 
-    public synchronized String toString() {
-        String result = "";
-        for (int y = 0; y < columnSize; y++) {
-            for (int x = 0; x < rowSize; x++) {
-                if (x==rowSize-1) {
-                    result+=board[x][y].toString() + "\n";
-                } else {
-                    result+=board[x][y].toString() + " ";
-                }
-            }
-
+    public String toString() {
+        Metrics metrics = Metrics.current();
+        if (metrics == null) {
+            return new String(renderedBoard(), StandardCharsets.US_ASCII);
         }
-        checkRep();
-        return result;
+        long start = System.nanoTime();
+        String text = new String(renderedBoard(), StandardCharsets.US_ASCII);
+        metrics.rendered(System.nanoTime() - start);
+        return text;
     }
 
     /**
@@ -441,4 +1345,95 @@ public class Board {
         DIG
     }
 
+    /**
+     * Scratch space for one action: the tiles it claims, the stack of its
+     * flood fill, and the cells it has written with their previous values
+     * so the writes can be undone or published. While metrics are enabled
+     * it also remembers how many cells each of its digs dug, which are
+     * only recorded once the action can no longer be retried. Mutations
+     * are reused by later actions, so actions allocate nothing in the
+     * common case.
+     */
+    private static final class Mutation {
+
+        private final TileLocks.Claim claim;
+        private int[] fillStack = new int[16];
+        private int[] writtenCells = new int[16];
+        private byte[] previousCells = new byte[16];
+        private int writes = 0;
+        private boolean countingDigs = false;
+        private int[] cellsDug = new int[1];
+        private int digs = 0;
+        private int removedRing = -1;
+
+        private Mutation(TileLocks.Claim claim) {
+            this.claim = claim;
+        }
+
+        /**
+         * remembers that the action wrote a cell
+         * @param cellIndex - the index of the cell
+         * @param previous - the cell's value before the write
+         */
+        private void written(int cellIndex, byte previous) {
+            if (writes == writtenCells.length) {
+                writtenCells = Arrays.copyOf(writtenCells, 2 * writes);
+                previousCells = Arrays.copyOf(previousCells, 2 * writes);
+            }
+            writtenCells[writes] = cellIndex;
+            previousCells[writes] = previous;
+            writes++;
+        }
+
+        /**
+         * remembers the number of cells a dig dug
+         * @param cells - the number of cells
+         */
+        private void dug(int cells) {
+            if (digs == cellsDug.length) {
+                cellsDug = Arrays.copyOf(cellsDug, 2 * digs);
+            }
+            cellsDug[digs++] = cells;
+        }
+    }
+
+    /**
+     * A copy of a board at one version, taken by snapshot()
+     */
+    static final class Snapshot {
+
+        final long version;
+        private final int rowSize;
+        private final int columnSize;
+        private final byte[] cells;
+        private final boolean[] outerBombs;
+
+        private Snapshot(long version, int rowSize, int columnSize, byte[] cells, boolean[] outerBombs) {
+            this.version = version;
+            this.rowSize = rowSize;
+            this.columnSize = columnSize;
+            this.cells = cells;
+            this.outerBombs = outerBombs;
+        }
+
+        /**
+         * writes the copy to a file in the binary board format, with every
+         * layer, so Board(File) loads the board as it was
+         * @param boardFile - the file to write
+         * @throws IOException if the file cannot be written
+         */
+        void writeTo(File boardFile) throws IOException {
+            BoardFile.writeBinary(boardFile, rowSize, columnSize, cells, true, outerBombs);
+        }
+    }
+
+    /**
+     * how much of the RI is rechecked after each action
+     */
+    protected enum Verification {
+        OFF,
+        LOCAL,
+        FULL
+    }
+
 }
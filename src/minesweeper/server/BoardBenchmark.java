@@ -0,0 +1,346 @@
+package minesweeper.server;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+
+import minesweeper.server.Board.Action;
+
+/**
+ * Measures the hot paths of Board, so that changes to Board and Box can be
+ * compared against a baseline: digs, flood fills, flags, looks, recounting
+ * neighboring bombs, each way of constructing a board, and many threads
+ * digging and looking at once.
+ *
+ * Usage: BoardBenchmark [--size N,...] [--bomb-one-in K,...] [--threads T] [BENCHMARK ...]
+ *
+ * Every benchmark runs on every square board of N by N cells (default
+ * 256,1024) whose cells each have a bomb with probability 1 / K (default
+ * 4, the density of a random Board, and 16). BENCHMARK is one of the names
+ * below, and defaults to all of them:
+ *     dig          dig a numbered cell, on a board where nothing was dug
+ *     flood        dig the only cell of a board without bombs, filling all of it
+ *     flag         flag or deflag a cell
+ *     look         toString of a board which has not changed
+ *     count        updateNeighboringBombs
+ *     new-random   Board(int, int, long)
+ *     new-text     Board(File) from a text file
+ *     new-binary   Board(File) from a binary file with neighbor counts
+ *     contended    T threads (default 4) each looking 9 times for every dig
+ *
+ * Each benchmark runs WARMUP_ITERATIONS untimed iterations, so the JIT
+ * compiles the code under test, and then MEASURED_ITERATIONS timed ones.
+ * The report is the mean and the best time per operation over the timed
+ * iterations. Work the benchmark has to do before an iteration (such as
+ * creating a fresh board to dig on) is done in setUp and not timed.
+ * Run it without -ea: with assertions enabled, Board checks its RI after
+ * every action, which is what would be measured.
+ * @author nathaliehuynh
+ *
+ */
+public class BoardBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURED_ITERATIONS = 5;
+    private static final int OPERATIONS = 1000;
+    private static final long SEED = 6005;
+    private static final String[] ALL = {
+        "dig", "flood", "flag", "look", "count", "new-random", "new-text", "new-binary", "contended",
+    };
+
+    // results are added to sink so the JIT cannot drop the work producing them
+    private static volatile long sink;
+
+    private final int size;
+    private final int bombOneIn;
+    private final int threads;
+    private final byte[] cells;
+    private final File textFile;
+    private final File binaryFile;
+    private final File emptyFile;
+
+    /**
+     * One benchmark: setUp prepares an iteration, untimed, and run
+     * performs the timed operations of the iteration
+     */
+    private abstract static class Benchmark {
+
+        void setUp() throws IOException {
+        }
+
+        /**
+         * @return the number of operations performed
+         */
+        abstract long run() throws Exception;
+    }
+
+    /**
+     * runs the benchmarks
+     * @param args arguments as described
+     */
+    public static void main(String[] args) throws Exception {
+        int[] sizes = { 256, 1024 };
+        int[] densities = { 4, 16 };
+        int threads = 4;
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--size") && i + 1 < args.length) {
+                sizes = parseList(args[++i]);
+            } else if (args[i].equals("--bomb-one-in") && i + 1 < args.length) {
+                densities = parseList(args[++i]);
+            } else if (args[i].equals("--threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (Arrays.asList(ALL).contains(args[i])) {
+                names.add(args[i]);
+            } else {
+                System.err.println("usage: BoardBenchmark [--size N,...] [--bomb-one-in K,...] [--threads T] [BENCHMARK ...]");
+                return;
+            }
+        }
+        if (names.isEmpty()) {
+            names = Arrays.asList(ALL);
+        }
+        for (int size : sizes) {
+            for (int bombOneIn : densities) {
+                BoardBenchmark benchmarks = new BoardBenchmark(size, bombOneIn, threads);
+                for (String name : names) {
+                    benchmarks.measure(name);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the comma separated numbers of list
+     */
+    private static int[] parseList(String list) {
+        String[] numbers = list.split(",");
+        int[] parsed = new int[numbers.length];
+        for (int i = 0; i < numbers.length; i++) {
+            parsed[i] = Integer.parseInt(numbers[i]);
+        }
+        return parsed;
+    }
+
+    /**
+     * generates the board the benchmarks run on and writes it to temporary files
+     */
+    private BoardBenchmark(int size, int bombOneIn, int threads) throws IOException {
+        this.size = size;
+        this.bombOneIn = bombOneIn;
+        this.threads = threads;
+        this.cells = BoardGenerator.generate(size, size, bombOneIn, SEED, ForkJoinPool.commonPool());
+        this.textFile = File.createTempFile("benchmark", ".txt");
+        textFile.deleteOnExit();
+        Writer text = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(textFile), StandardCharsets.US_ASCII));
+        try {
+            text.write(size + " " + size + "\n");
+            for (int i = 0; i < cells.length; i++) {
+                text.write(Box.hasBomb(cells[i]) ? '1' : '0');
+                text.write((i + 1) % size == 0 ? '\n' : ' ');
+            }
+        } finally {
+            text.close();
+        }
+        this.binaryFile = File.createTempFile("benchmark", ".bin");
+        binaryFile.deleteOnExit();
+        BoardFile.writeBinary(binaryFile, size, size, cells, true, null);
+        this.emptyFile = File.createTempFile("benchmark", ".bin");
+        emptyFile.deleteOnExit();
+        BoardFile.writeBinary(emptyFile, size, size, new byte[cells.length], true, null);
+    }
+
+    /**
+     * runs one benchmark and prints its result
+     * @param name - the name of the benchmark
+     */
+    private void measure(String name) throws Exception {
+        Benchmark benchmark = create(name);
+        double total = 0;
+        double best = Double.MAX_VALUE;
+        for (int iteration = 0; iteration < WARMUP_ITERATIONS + MEASURED_ITERATIONS; iteration++) {
+            benchmark.setUp();
+            long start = System.nanoTime();
+            long operations = benchmark.run();
+            double perOperation = (double) (System.nanoTime() - start) / operations;
+            if (iteration >= WARMUP_ITERATIONS) {
+                total += perOperation;
+                best = Math.min(best, perOperation);
+            }
+        }
+        System.out.printf("%-11s %5d x %-5d bombs 1/%-3d %14.1f ns/op (best %.1f)%n",
+                name, size, size, bombOneIn, total / MEASURED_ITERATIONS, best);
+    }
+
+    /**
+     * @return the benchmark called name
+     */
+    private Benchmark create(String name) {
+        if (name.equals("dig")) {
+            return new Benchmark() {
+                private Board board;
+                private int[] targets;
+
+                void setUp() throws IOException {
+                    board = new Board(binaryFile);
+                    targets = numberedCells(OPERATIONS);
+                }
+
+                long run() {
+                    for (int cell : targets) {
+                        sink += board.processAction(cell % size, cell / size, Action.DIG).length();
+                    }
+                    return targets.length;
+                }
+            };
+        } else if (name.equals("flood")) {
+            return new Benchmark() {
+                private Board board;
+
+                void setUp() throws IOException {
+                    board = new Board(emptyFile);
+                }
+
+                long run() {
+                    sink += board.processAction(size / 2, size / 2, Action.DIG).length();
+                    return 1;
+                }
+            };
+        } else if (name.equals("flag")) {
+            return new Benchmark() {
+                private final Board board = newBoard();
+                private final Random random = new Random(SEED);
+
+                long run() {
+                    for (int i = 0; i < OPERATIONS; i++) {
+                        Action action = random.nextBoolean() ? Action.FLAG : Action.UNFLAG;
+                        sink += board.processAction(random.nextInt(size), random.nextInt(size), action).length();
+                    }
+                    return OPERATIONS;
+                }
+            };
+        } else if (name.equals("look")) {
+            return new Benchmark() {
+                private final Board board = newBoard();
+
+                long run() {
+                    for (int i = 0; i < OPERATIONS; i++) {
+                        sink += board.toString().length();
+                    }
+                    return OPERATIONS;
+                }
+            };
+        } else if (name.equals("count")) {
+            return new Benchmark() {
+                private final Board board = newBoard();
+
+                long run() {
+                    board.updateNeighboringBombs();
+                    return 1;
+                }
+            };
+        } else if (name.equals("new-random")) {
+            return new Benchmark() {
+                long run() {
+                    sink += new Board(size, size, SEED).getVersion();
+                    return 1;
+                }
+            };
+        } else if (name.equals("new-text") || name.equals("new-binary")) {
+            final File file = name.equals("new-text") ? textFile : binaryFile;
+            return new Benchmark() {
+                long run() throws IOException {
+                    sink += new Board(file).getVersion();
+                    return 1;
+                }
+            };
+        }
+        return new Benchmark() {
+            private Board board;
+
+            void setUp() throws IOException {
+                board = new Board(binaryFile);
+            }
+
+            long run() throws InterruptedException {
+                return contend(board);
+            }
+        };
+    }
+
+    /**
+     * @return the board of the benchmarks, loaded from its binary file
+     */
+    private Board newBoard() {
+        try {
+            return new Board(binaryFile);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param limit - the most cells to return
+     * @return up to limit random cells of the board which have no bomb
+     *     and at least one neighboring bomb, so digging them digs only them
+     */
+    private int[] numberedCells(int limit) {
+        int[] numbered = new int[limit];
+        int count = 0;
+        Random random = new Random(SEED);
+        for (int tries = 0; tries < 100 * limit && count < limit; tries++) {
+            int cell = random.nextInt(cells.length);
+            if (!Box.hasBomb(cells[cell]) && Box.neighborCount(cells[cell]) > 0) {
+                numbered[count++] = cell;
+            }
+        }
+        return Arrays.copyOf(numbered, count);
+    }
+
+    /**
+     * has every thread do OPERATIONS random looks and digs on board, nine looks for every dig
+     * @return the number of operations performed
+     */
+    private long contend(final Board board) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] players = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final Random random = new Random(SEED + t);
+            players[t] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long read = 0;
+                    for (int i = 0; i < OPERATIONS; i++) {
+                        if (random.nextInt(10) == 0) {
+                            read += board.processAction(random.nextInt(size), random.nextInt(size), Action.DIG).length();
+                        } else {
+                            read += board.toString().length();
+                        }
+                    }
+                    sink += read;
+                }
+            });
+            players[t].start();
+        }
+        start.countDown();
+        for (Thread player : players) {
+            player.join();
+        }
+        return (long) threads * OPERATIONS;
+    }
+
+}
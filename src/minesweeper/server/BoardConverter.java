@@ -0,0 +1,61 @@
+package minesweeper.server;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Converts a board file to the binary board format (see BoardFile), which
+ * loads much faster than the text format for large boards. The server
+ * recognizes binary board files by their content, so the converted file
+ * can be passed to --file as is.
+ * @author nathaliehuynh
+ *
+ */
+public class BoardConverter {
+
+    private static final String USAGE = "usage: BoardConverter [--counts] INPUT_FILE OUTPUT_FILE";
+
+    /**
+     * Converts a board file.
+     * 
+     * Usage: BoardConverter [--counts] INPUT_FILE OUTPUT_FILE
+     * 
+     * INPUT_FILE is a board file in the text or binary format, and
+     * OUTPUT_FILE is overwritten with the same board in the binary format.
+     * With --counts the output also holds the neighboring bomb count of
+     * every cell, so loading it does not have to count them. A server
+     * serves the converted board with MinesweeperLauncher --file OUTPUT_FILE.
+     * 
+     * Exits with status 1 if the arguments are wrong or the conversion fails.
+     * 
+     * @param args arguments as described
+     */
+    public static void main(String[] args) {
+        boolean neighborCounts = args.length > 0 && args[0].equals("--counts");
+        int first = neighborCounts ? 1 : 0;
+        if (args.length - first != 2) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        try {
+            convert(new File(args[first]), new File(args[first + 1]), neighborCounts);
+        } catch (IOException | RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Converts a board file to the binary format
+     * @param input - a board file in the text or binary format
+     * @param output - the file to write the board to in the binary format
+     * @param neighborCounts - whether to include the neighbor counts
+     * @throws IOException if input cannot be read or output cannot be written
+     * @throws BoardFormatException if input is improperly formatted
+     */
+    public static void convert(File input, File output, boolean neighborCounts) throws IOException {
+        new Board(input).writeBinary(output, neighborCounts);
+    }
+
+}
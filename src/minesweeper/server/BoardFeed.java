@@ -0,0 +1,433 @@
+package minesweeper.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thread safety argument:
+ *  subscriptions is a CopyOnWriteArrayList, so sessions subscribe and
+ *  unsubscribe while a flush iterates over it. pending is atomic, so of
+ *  the sessions which report changes during a window exactly one
+ *  schedules the flush. Flushes run on the single feed thread, one at a
+ *  time, so published is confined to it. Each Subscription guards its
+ *  queue with its own lock, which is never held while calling the board
+ *  or the listener, so the feed thread never waits for a slow reader.
+ *  Updates are immutable once created and shared by every subscription.
+ */
+
+/**
+ * AF: A BoardFeed pushes the changes of one board to the players
+ *  watching it, instead of each of them polling "look". Sessions call
+ *  changed() after every action which may have changed the board. The
+ *  first change after a quiet period schedules a flush windowMillis
+ *  later, and every change until then is folded into it, so a burst of
+ *  actions, flood fills included, becomes a single update. A flush asks
+ *  the board once for its changes since the last update, in the format of
+ *  Board.lookSince, encodes that text once, and hands the same bytes to
+ *  every subscription.
+ *
+ *  Each subscription holds at most queueLimit updates its connection has
+ *  not written yet. When a slow reader's queue is full, its queued updates
+ *  are collapsed into one FULL description of the board, rendered at most
+ *  once per flush however many readers are behind. The feed never waits
+ *  for a connection, and a slow connection never holds more than
+ *  queueLimit updates in memory.
+ *
+ *  The feed only sees changes reported to it by the sessions of this
+ *  server: the changes made to a ShardedBoard through other routers reach
+ *  subscribers with the next change made through this one.
+ *
+ * Rep: published is the version of the last update flushed, or -1 before
+ *  the first, which then describes the changes since the oldest first
+ *  description of a subscription; pending is true while a flush is scheduled and has not yet
+ *  asked the board for its changes
+ *
+ * RI: windowMillis >= 0, queueLimit > 0
+ * @author nathaliehuynh
+ *
+ */
+public class BoardFeed {
+
+    /**
+     * the system property giving the coalescing window of feeds, in milliseconds
+     */
+    public static final String WINDOW_PROPERTY = "minesweeper.feed.window";
+    /**
+     * the coalescing window of feeds when the property is not set
+     */
+    public static final long DEFAULT_WINDOW_MILLIS = 50;
+    /**
+     * the number of updates a subscription holds before collapsing them
+     */
+    public static final int DEFAULT_QUEUE_LIMIT = 16;
+
+    // flushes are short and only encode text, so one thread serves every feed of the process
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, "minesweeper-feed");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private static final String NEWLINE = System.lineSeparator();
+
+    private final GameBoard board;
+    private final long windowMillis;
+    private final int queueLimit;
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+    private final AtomicBoolean pending = new AtomicBoolean(false);
+    private long published = -1;
+
+    private final Runnable flush = new Runnable() {
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * Creates a feed of a board, with the window of the minesweeper.feed.window
+     * system property and the default queue limit
+     * @param board - the board to watch
+     */
+    public BoardFeed(GameBoard board) {
+        this(board, Long.getLong(WINDOW_PROPERTY, DEFAULT_WINDOW_MILLIS), DEFAULT_QUEUE_LIMIT);
+    }
+
+    /**
+     * Creates a feed of a board
+     * @param board - the board to watch
+     * @param windowMillis - how long after a change the update is flushed,
+     *     folding in every change until then; must not be negative
+     * @param queueLimit - how many updates a subscription holds before its
+     *     updates are collapsed; must be positive
+     */
+    public BoardFeed(GameBoard board, long windowMillis, int queueLimit) {
+        if (windowMillis < 0 || queueLimit <= 0) {
+            throw new IllegalArgumentException("invalid window " + windowMillis + " or queue limit " + queueLimit);
+        }
+        this.board = board;
+        this.windowMillis = windowMillis;
+        this.queueLimit = queueLimit;
+    }
+
+    /**
+     * Starts pushing the updates of the board to a new subscription
+     * @return the subscription, whose updates follow the board as
+     *     described by its getFirst()
+     */
+    public Subscription subscribe() {
+        Subscription subscription = new Subscription();
+        subscriptions.add(subscription);
+        // described after joining, so every later change reaches the subscription
+        subscription.start(board.lookSince(Long.MAX_VALUE));
+        return subscription;
+    }
+
+    /**
+     * Reports that the board may have changed, scheduling an update if
+     * anyone is subscribed and none is scheduled yet. Cheap when nobody is.
+     */
+    public void changed() {
+        if (!subscriptions.isEmpty() && pending.compareAndSet(false, true)) {
+            FLUSHER.schedule(flush, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return the number of subscriptions
+     */
+    public int getSubscriptions() {
+        return subscriptions.size();
+    }
+
+    /**
+     * asks the board for its changes since the last update and hands them
+     * to every subscription; runs on the feed thread
+     */
+    private void flush() {
+        pending.set(false); // a change from now on schedules another flush
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+        long since = published;
+        if (since < 0) {
+            since = Long.MAX_VALUE; // a FULL update, unless every subscription has its first description
+            for (Subscription subscription : subscriptions) {
+                since = Math.min(since, subscription.described());
+            }
+        }
+        Update update = encode(board.lookSince(since));
+        if (update.version == published) {
+            return;
+        }
+        published = update.version;
+        Update full = update.full ? update : null;
+        for (Subscription subscription : subscriptions) {
+            if (!subscription.offer(update)) {
+                if (full == null) {
+                    full = encode(board.lookSince(Long.MAX_VALUE));
+                }
+                subscription.collapse(full);
+            }
+        }
+    }
+
+    /**
+     * @param description - a description of the board, see Board.lookSince
+     * @return the update writing it to a player as the reply to "look since" would
+     */
+    private static Update encode(String description) {
+        byte[] bytes = (description + NEWLINE).getBytes(StandardCharsets.US_ASCII);
+        return new Update(versionOf(description), description.startsWith("FULL"), bytes);
+    }
+
+    /**
+     * @param description - a description of the board, see Board.lookSince
+     * @return the version of the board it describes
+     */
+    private static long versionOf(String description) {
+        int start = description.indexOf(' ') + 1;
+        int end = start;
+        while (end < description.length() && Character.isDigit(description.charAt(end))) {
+            end++;
+        }
+        return Long.parseLong(description.substring(start, end));
+    }
+
+    /**
+     * An update of the board, encoded once and written as is to every
+     * subscriber. Its bytes must not be modified.
+     */
+    public static final class Update {
+
+        private final long version;
+        private final boolean full;
+        private final byte[] bytes;
+
+        private Update(long version, boolean full, byte[] bytes) {
+            this.version = version;
+            this.full = full;
+            this.bytes = bytes;
+        }
+
+        /**
+         * @return the version of the board this update brings a player to
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * @return true if this update describes the whole board rather than
+         *     the cells changed since the previous one
+         */
+        public boolean isFull() {
+            return full;
+        }
+
+        /**
+         * @return the bytes to write to the player, shared by every
+         *     subscription, which must not be modified
+         */
+        byte[] bytes() {
+            return bytes;
+        }
+    }
+
+    /**
+     * AF: A Subscription is one connection watching the board: the
+     *  updates flushed for it and not yet taken by the connection, in
+     *  order. A connection takes them when it is ready to write, so
+     *  updates wait here, and not in the connection's buffers, while a
+     *  reader is slow.
+     *
+     * RI: queue.size() <= queueLimit; version is the version of the last
+     *  update queued or of the first description, whichever is newer, and
+     *  the queued updates are newer than the first description
+     */
+    public final class Subscription {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition nonEmpty = lock.newCondition();
+        private final Deque<Update> queue = new ArrayDeque<Update>();
+        private String first;
+        private long version = -1;
+        private long collapses = 0;
+        private boolean cancelled = false;
+        private Runnable listener;
+
+        private Subscription() {
+        }
+
+        /**
+         * @return the whole board when the subscription started, in the
+         *     format of Board.lookSince, to be sent to the player before
+         *     any update
+         */
+        public String getFirst() {
+            return first;
+        }
+
+        /**
+         * @return the version of the first description, or Long.MAX_VALUE
+         *     if it is not recorded yet
+         */
+        private long described() {
+            lock.lock();
+            try {
+                return first == null ? Long.MAX_VALUE : versionOf(first);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * records the first description, dropping the updates a flush
+         * queued meanwhile which it already covers
+         * @param description - the whole board, see Board.lookSince
+         */
+        private void start(String description) {
+            long described = versionOf(description);
+            lock.lock();
+            try {
+                first = description;
+                while (!queue.isEmpty() && queue.peek().version <= described) {
+                    queue.poll();
+                }
+                version = Math.max(version, described);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Sets what to call when an update arrives in an empty queue. The
+         * listener is called on the feed thread and must not block.
+         * @param listener - the listener, replacing any previous one
+         */
+        public void setListener(Runnable listener) {
+            lock.lock();
+            try {
+                this.listener = listener;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return the next update, or null if there is none yet or the
+         *     subscription is cancelled
+         */
+        public Update poll() {
+            lock.lock();
+            try {
+                return cancelled ? null : queue.poll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Waits for the next update
+         * @return the next update, or null once the subscription is cancelled
+         * @throws InterruptedException if interrupted while waiting
+         */
+        public Update take() throws InterruptedException {
+            lock.lock();
+            try {
+                while (queue.isEmpty() && !cancelled) {
+                    nonEmpty.await();
+                }
+                return cancelled ? null : queue.poll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Stops the updates, waking a connection waiting in take
+         */
+        public void cancel() {
+            subscriptions.remove(this);
+            lock.lock();
+            try {
+                cancelled = true;
+                queue.clear();
+                nonEmpty.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return the number of times this subscription fell behind and had
+         *     its updates collapsed
+         */
+        public long getCollapses() {
+            lock.lock();
+            try {
+                return collapses;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * queues an update unless the queue is full
+         * @return false if the queue is full and nothing was queued
+         */
+        private boolean offer(Update update) {
+            Runnable notify;
+            lock.lock();
+            try {
+                if (cancelled || update.version <= version) {
+                    return true; // the player already has this version
+                }
+                if (queue.size() == queueLimit) {
+                    return false;
+                }
+                notify = queue.isEmpty() ? listener : null;
+                queue.add(update);
+                version = update.version;
+                nonEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+            if (notify != null) {
+                notify.run();
+            }
+            return true;
+        }
+
+        /**
+         * replaces the queued updates with a description of the whole board
+         * @param full - a FULL update, newer than every queued update
+         */
+        private void collapse(Update full) {
+            lock.lock();
+            try {
+                if (cancelled) {
+                    return;
+                }
+                queue.clear();
+                queue.add(full);
+                version = full.version;
+                collapses++;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,166 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import minesweeper.server.Board.Action;
+import minesweeper.server.BoardFeed.Subscription;
+import minesweeper.server.BoardFeed.Update;
+
+import org.junit.Test;
+
+public class BoardFeedTest {
+
+	/**
+	 * Testing Partition:
+	 * 	Subscribers: none, one, several X
+	 * 	Changes: one, a burst within the window, none since the last update X
+	 * 	Readers: keeping up, falling behind once, falling behind repeatedly X
+	 * 	Subscriptions: cancelled while a reader waits, cancelled then changed X
+	 * 	Sessions: subscribe, pushed changes of another player, unsubscribe X
+	 *
+	 */
+
+	private static final String NEWLINE = System.lineSeparator();
+
+	/**
+	 * @return the board of simpleBoard.txt: 2 columns by 3 rows, one bomb at (1, 2),
+	 *     at version 1
+	 */
+	private static Board simpleBoard() throws IOException {
+	    return new Board(new File("simpleBoard.txt"));
+	}
+
+	/**
+	 * @return the text an update writes to a player
+	 */
+	private static String text(Update update) {
+	    return new String(update.bytes(), StandardCharsets.US_ASCII);
+	}
+
+	@Test(timeout=10000)
+	public void burstsBecomeOneUpdate() throws IOException, InterruptedException {
+	    Board board = simpleBoard();
+	    BoardFeed feed = new BoardFeed(board, 200, 16);
+	    Subscription subscription = feed.subscribe();
+	    assertEquals("FULL 1\n- -\n- -\n- -\n", subscription.getFirst());
+	    board.processAction(0, 0, Action.DIG); // floods the top two rows
+	    feed.changed();
+	    board.processAction(0, 2, Action.FLAG);
+	    feed.changed();
+	    Update update = subscription.take();
+	    assertFalse(update.isFull());
+	    assertEquals(3, update.getVersion());
+	    String text = text(update);
+	    assertTrue(text, text.startsWith("DELTA 3 5\n"));
+	    assertTrue(text, text.contains("\n0 2 F\n"));
+	    assertTrue(text, text.endsWith("\n" + NEWLINE));
+	    Thread.sleep(400);
+	    assertNull(subscription.poll());
+	}
+
+	@Test(timeout=10000)
+	public void subscribersShareEachUpdate() throws IOException, InterruptedException {
+	    Board board = simpleBoard();
+	    BoardFeed feed = new BoardFeed(board, 0, 16);
+	    feed.changed(); // nobody to tell
+	    Subscription first = feed.subscribe();
+	    Subscription second = feed.subscribe();
+	    assertEquals(2, feed.getSubscriptions());
+	    board.processAction(1, 0, Action.FLAG);
+	    feed.changed();
+	    Update update = first.take();
+	    assertSame(update, second.take());
+	    assertEquals("DELTA 2 1\n1 0 F\n" + NEWLINE, text(update));
+
+	    feed.changed(); // nothing changed since
+	    board.processAction(1, 0, Action.UNFLAG);
+	    feed.changed();
+	    assertEquals("DELTA 3 1\n1 0 -\n" + NEWLINE, text(first.take()));
+	    first.cancel();
+	    assertEquals(1, feed.getSubscriptions());
+	    assertEquals(3, second.take().getVersion());
+	}
+
+	@Test(timeout=10000)
+	public void slowReadersGetTheWholeBoard() throws IOException, InterruptedException {
+	    Board board = simpleBoard();
+	    BoardFeed feed = new BoardFeed(board, 0, 2);
+	    Subscription slow = feed.subscribe();
+	    Subscription fast = feed.subscribe();
+	    int[][] flags = { { 0, 0 }, { 1, 0 }, { 0, 1 }, { 1, 1 }, { 0, 2 } };
+	    for (int[] flag : flags) {
+	        board.processAction(flag[0], flag[1], Action.FLAG);
+	        feed.changed();
+	        assertFalse(fast.take().isFull()); // waits for each flush
+	    }
+	    // two deltas, collapsed at the third; a delta, collapsed at the fifth
+	    assertEquals(2, slow.getCollapses());
+	    assertEquals(0, fast.getCollapses());
+	    Update full = slow.poll();
+	    assertTrue(full.isFull());
+	    assertEquals(6, full.getVersion());
+	    assertEquals("FULL 6\nF F\nF F\nF -\n" + NEWLINE, text(full));
+	    assertNull(slow.poll());
+
+	    board.processAction(1, 2, Action.FLAG);
+	    feed.changed();
+	    assertEquals("DELTA 7 1\n1 2 F\n" + NEWLINE, text(slow.take()));
+	}
+
+	@Test(timeout=10000)
+	public void cancellingWakesAWaitingReader() throws IOException, InterruptedException {
+	    Board board = simpleBoard();
+	    BoardFeed feed = new BoardFeed(board, 0, 16);
+	    final Subscription subscription = feed.subscribe();
+	    final Update[] taken = { null };
+	    Thread reader = new Thread(new Runnable() {
+	        public void run() {
+	            try {
+	                taken[0] = subscription.take();
+	            } catch (InterruptedException e) {
+	                fail("interrupted");
+	            }
+	        }
+	    });
+	    reader.start();
+	    subscription.cancel();
+	    reader.join();
+	    assertNull(taken[0]);
+	    assertEquals(0, feed.getSubscriptions());
+	    board.processAction(0, 0, Action.FLAG);
+	    feed.changed();
+	    Thread.sleep(50);
+	    assertNull(subscription.poll());
+	}
+
+	@Test(timeout=10000)
+	public void sessionsPushTheChangesOfOtherPlayers() throws IOException, InterruptedException {
+	    Board board = simpleBoard();
+	    BoardFeed feed = new BoardFeed(board, 0, 16);
+	    MinesweeperSession watcher = new MinesweeperSession(board, feed, false, new AtomicInteger());
+	    MinesweeperSession player = new MinesweeperSession(board, feed, false, new AtomicInteger());
+	    watcher.open();
+	    player.open();
+	    assertNull(watcher.getSubscription());
+	    assertEquals("FULL 1\n- -\n- -\n- -\n" + NEWLINE, watcher.handleLine("subscribe"));
+	    Subscription subscription = watcher.getSubscription();
+	    player.handleLine("flag 0 0");
+	    assertEquals("DELTA 2 1\n0 0 F\n" + NEWLINE, text(subscription.take()));
+	    player.handleLine("batch dig 0 2 deflag 0 0");
+	    assertEquals(board.getVersion(), subscription.take().getVersion());
+
+	    assertEquals("unsubscribed" + NEWLINE, watcher.handleLine("unsubscribe"));
+	    assertNull(watcher.getSubscription());
+	    assertEquals(0, feed.getSubscriptions());
+	    watcher.handleLine("subscribe");
+	    watcher.close();
+	    assertEquals(0, feed.getSubscriptions());
+	    player.close();
+	}
+
+}
@@ -0,0 +1,473 @@
+package minesweeper.server;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Thread safety argument:
+ *  A BoardFile is created and read by a single thread, the one
+ *  constructing a Board from it, and is not shared.
+ */
+
+/**
+ * AF: A BoardFile is the content of a board file: the dimensions of the
+ *  board and the bomb bit of each of its cells, in the one byte per cell
+ *  encoding of Box. If neighborCounts, the cells also hold their
+ *  neighboring bomb counts; otherwise the counts are 0. The cells of a
+ *  game in progress (see BoardStore) also hold their states; the cells of
+ *  every other board file are untouched.
+ *  A board cut from a larger board (see ShardLayout) also has the bombs of
+ *  the ring of cells around it, which are not part of the board but count
+ *  towards the neighboring bombs of its edge cells: outerBombs[i] is the
+ *  bomb of the i-th ring location in reading order, see ringIndex. A whole
+ *  board has no ring, and outerBombs is null.
+ *
+ *  The text format is a first line "COLUMNS ROWS" followed by one line
+ *  per row, holding one "0" (no bomb) or "1" (bomb) per column. Tokens
+ *  are separated by spaces or tabs, a line may end in a literal "\n"
+ *  before its line terminator, and blank lines may follow the last row.
+ *
+ *  The file is memory-mapped and parsed in one pass straight into the
+ *  cells, so loading needs no heap beyond the cells themselves, however
+ *  large the file.
+ *
+ *  The binary format (version 1) is, in big-endian order:
+ *      bytes 0-3    the magic number "MSWB"
+ *      byte 4       the format version, 1
+ *      byte 5       flags: bit 0 set if the neighbor count layer is present,
+ *                   bit 1 set if the outer ring layer is present,
+ *                   bit 2 set if the state layer is present
+ *      bytes 6-7    zero
+ *      bytes 8-11   the number of columns
+ *      bytes 12-15  the number of rows
+ *      the bomb layer, (cells + 7) / 8 bytes: the bomb bit of cell i
+ *          (row by row) is bit i % 8 of byte i / 8
+ *      the neighbor count layer, (cells + 1) / 2 bytes, if present: the
+ *          count of cell i is the low half of byte i / 2 if i is even,
+ *          and the high half if i is odd
+ *      the outer ring layer, (ringSize + 7) / 8 bytes, if present: the
+ *          bomb of ring location i is bit i % 8 of byte i / 8
+ *      the state layer, (cells + 3) / 4 bytes, if present: the ordinal of
+ *          the State of cell i is bits 2 * (i % 4) and 2 * (i % 4) + 1 of
+ *          byte i / 4; without it every cell is untouched
+ *  Loading it only unpacks bits, and with the neighbor count layer the
+ *  board does not need to count neighboring bombs either. A file is read
+ *  as binary if it starts with the magic number, which a text file never
+ *  does. Problems in a binary file are reported at line 1, with the byte
+ *  offset plus one as column.
+ *
+ * RI: cells.length == columns * rows, if neighborCounts every neighbor
+ *  count is at most 8, no cell with a bomb is dug, and outerBombs is null
+ *  or has ringSize(columns, rows) elements
+ * @author nathaliehuynh
+ *
+ */
+class BoardFile {
+
+    // the most bytes of the file mapped at once
+    private static final long WINDOW_SIZE = 1L << 30;
+
+    private static final byte[] MAGIC = { 'M', 'S', 'W', 'B' };
+    private static final int FORMAT_VERSION = 1;
+    private static final int NEIGHBOR_COUNTS_FLAG = 1;
+    private static final int OUTER_RING_FLAG = 2;
+    private static final int STATE_FLAG = 4;
+    private static final int HEADER_SIZE = 16;
+
+    final int columns;
+    final int rows;
+    final byte[] cells;
+    final boolean neighborCounts;
+    final boolean[] outerBombs;
+
+    private BoardFile(int columns, int rows, byte[] cells, boolean neighborCounts, boolean[] outerBombs) {
+        this.columns = columns;
+        this.rows = rows;
+        this.cells = cells;
+        this.neighborCounts = neighborCounts;
+        this.outerBombs = outerBombs;
+    }
+
+    /**
+     * @param columns - the number of columns of a board
+     * @param rows - the number of rows of a board
+     * @return the number of locations in the ring of cells around the board
+     */
+    static int ringSize(int columns, int rows) {
+        return 2 * (columns + 2) + 2 * rows;
+    }
+
+    /**
+     * @param columns - the number of columns of a board
+     * @param rows - the number of rows of a board
+     * @param x - an x location, from -1 to columns
+     * @param y - a y location, from -1 to rows
+     * @return the index of (x, y) among the locations of the ring around
+     *     the board in reading order: the row above the board, then the
+     *     locations left and right of each row, then the row below the
+     *     board; -1 if (x, y) is not in the ring
+     */
+    static int ringIndex(int columns, int rows, int x, int y) {
+        if (x < -1 || x > columns || y < -1 || y > rows) {
+            return -1;
+        } else if (y == -1) {
+            return x + 1;
+        } else if (y == rows) {
+            return columns + 2 + 2 * rows + x + 1;
+        } else if (x == -1 || x == columns) {
+            return columns + 2 + 2 * y + (x == -1 ? 0 : 1);
+        }
+        return -1;
+    }
+
+    /**
+     * reads a board file
+     * @param file - a board file in the text or the binary format
+     * @return the board the file describes
+     * @throws IOException if the file cannot be read
+     * @throws BoardFormatException if the file is not properly formatted
+     * @throws IllegalArgumentException if the board has an unsupported size
+     */
+    static BoardFile read(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            if (isBinary(channel)) {
+                return readBinary(file.getName(), channel);
+            }
+            return new TextParser(file.getName(), channel).parse();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * writes a board in the binary format, with the state layer if any
+     * cell is not untouched
+     * @param file - the file to write
+     * @param columns - the number of columns of the board
+     * @param rows - the number of rows of the board
+     * @param cells - the encoded cells of the board, see Box
+     * @param neighborCounts - whether to write the neighbor count layer,
+     *     in which case cells must hold correct neighbor counts
+     * @param outerBombs - the bombs of the ring around the board, see
+     *     ringIndex, or null if the board is a whole board
+     * @throws IOException if the file cannot be written
+     */
+    static void writeBinary(File file, int columns, int rows, byte[] cells, boolean neighborCounts,
+            boolean[] outerBombs) throws IOException {
+        boolean states = false;
+        for (int i = 0; i < cells.length && !states; i++) {
+            states = (cells[i] & Box.STATE_MASK) != 0;
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        try {
+            out.write(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            out.writeByte((neighborCounts ? NEIGHBOR_COUNTS_FLAG : 0) | (outerBombs != null ? OUTER_RING_FLAG : 0)
+                    | (states ? STATE_FLAG : 0));
+            out.writeShort(0);
+            out.writeInt(columns);
+            out.writeInt(rows);
+            for (int i = 0; i < cells.length; i += 8) {
+                int packed = 0;
+                for (int bit = 0; bit < 8 && i + bit < cells.length; bit++) {
+                    if (Box.hasBomb(cells[i + bit])) {
+                        packed |= 1 << bit;
+                    }
+                }
+                out.writeByte(packed);
+            }
+            if (neighborCounts) {
+                for (int i = 0; i < cells.length; i += 2) {
+                    int high = i + 1 < cells.length ? Box.neighborCount(cells[i + 1]) : 0;
+                    out.writeByte(Box.neighborCount(cells[i]) | high << 4);
+                }
+            }
+            if (outerBombs != null) {
+                for (int i = 0; i < outerBombs.length; i += 8) {
+                    int packed = 0;
+                    for (int bit = 0; bit < 8 && i + bit < outerBombs.length; bit++) {
+                        if (outerBombs[i + bit]) {
+                            packed |= 1 << bit;
+                        }
+                    }
+                    out.writeByte(packed);
+                }
+            }
+            if (states) {
+                for (int i = 0; i < cells.length; i += 4) {
+                    int packed = 0;
+                    for (int cell = 0; cell < 4 && i + cell < cells.length; cell++) {
+                        packed |= ((cells[i + cell] & Box.STATE_MASK) >>> Box.STATE_SHIFT) << (2 * cell);
+                    }
+                    out.writeByte(packed);
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return true if the file starts with the magic number of the binary format
+     */
+    private static boolean isBinary(FileChannel channel) throws IOException {
+        ByteBuffer start = ByteBuffer.allocate(MAGIC.length);
+        while (start.hasRemaining() && channel.read(start, start.position()) > 0) {
+            // keep reading until the magic number is in or the file ends
+        }
+        return !start.hasRemaining() && Arrays.equals(start.array(), MAGIC);
+    }
+
+    /**
+     * reads a file in the binary format
+     * @param fileName - the name of the file, for error messages
+     * @param channel - the file, which starts with the magic number
+     */
+    private static BoardFile readBinary(String fileName, FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            throw new BoardFormatException(fileName, 1, size + 1, "expected a " + HEADER_SIZE + " byte header");
+        }
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        int version = header.get(4);
+        if (version != FORMAT_VERSION) {
+            throw new BoardFormatException(fileName, 1, 5, "unsupported format version " + version);
+        }
+        int flags = header.get(5);
+        if ((flags & ~(NEIGHBOR_COUNTS_FLAG | OUTER_RING_FLAG | STATE_FLAG)) != 0 || header.getShort(6) != 0) {
+            throw new BoardFormatException(fileName, 1, 6, "unsupported flags " + flags);
+        }
+        boolean neighborCounts = (flags & NEIGHBOR_COUNTS_FLAG) != 0;
+        int columns = header.getInt(8);
+        int rows = header.getInt(12);
+        byte[] cells = Board.allocateCells(columns, rows);
+        long bombBytes = (cells.length + 7L) / 8;
+        long countBytes = neighborCounts ? (cells.length + 1L) / 2 : 0;
+        int ringSize = ringSize(columns, rows);
+        long ringBytes = (flags & OUTER_RING_FLAG) != 0 ? (ringSize + 7) / 8 : 0;
+        long stateBytes = (flags & STATE_FLAG) != 0 ? (cells.length + 3L) / 4 : 0;
+        long expected = HEADER_SIZE + bombBytes + countBytes + ringBytes + stateBytes;
+        if (size != expected) {
+            throw new BoardFormatException(fileName, 1, Math.min(size, expected) + 1,
+                    "expected " + expected + " bytes for a " + columns + " by " + rows
+                    + " board, found " + size);
+        }
+
+        ByteBuffer bombs = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, bombBytes);
+        for (int i = 0; i < cells.length; i += 8) {
+            int packed = bombs.get(i >>> 3);
+            for (int bit = 0; bit < 8 && i + bit < cells.length; bit++) {
+                cells[i + bit] = (byte) ((packed >>> bit & 1) * Box.BOMB_BIT);
+            }
+        }
+        if (neighborCounts) {
+            ByteBuffer counts = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + bombBytes, countBytes);
+            for (int i = 0; i < cells.length; i++) {
+                int count = counts.get(i >>> 1) >>> ((i & 1) << 2) & 0xf;
+                if (count > 8) {
+                    throw new BoardFormatException(fileName, 1, HEADER_SIZE + bombBytes + (i >>> 1) + 1,
+                            "neighbor count " + count + " is greater than 8");
+                }
+                cells[i] |= count;
+            }
+        }
+        boolean[] outerBombs = null;
+        if (ringBytes > 0) {
+            ByteBuffer ring = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + bombBytes + countBytes, ringBytes);
+            outerBombs = new boolean[ringSize];
+            for (int i = 0; i < ringSize; i++) {
+                outerBombs[i] = (ring.get(i >>> 3) >>> (i & 7) & 1) != 0;
+            }
+        }
+        if (stateBytes > 0) {
+            long offset = HEADER_SIZE + bombBytes + countBytes + ringBytes;
+            ByteBuffer states = channel.map(FileChannel.MapMode.READ_ONLY, offset, stateBytes);
+            for (int i = 0; i < cells.length; i++) {
+                int state = states.get(i >>> 2) >>> ((i & 3) << 1) & 3;
+                if (state >= Box.State.values().length || state == Box.State.DUG.ordinal() && Box.hasBomb(cells[i])) {
+                    throw new BoardFormatException(fileName, 1, offset + (i >>> 2) + 1,
+                            state == Box.State.DUG.ordinal() ? "dug cell with a bomb" : "unknown state " + state);
+                }
+                cells[i] |= state << Box.STATE_SHIFT;
+            }
+        }
+        return new BoardFile(columns, rows, cells, neighborCounts, outerBombs);
+    }
+
+    /**
+     * Parses the text format from a memory-mapped file. position is the
+     * offset of the next byte to parse; window maps the bytes of the file
+     * from windowStart, and is remapped as position moves past its end.
+     */
+    private static final class TextParser {
+
+        private final String fileName;
+        private final FileChannel channel;
+        private final long size;
+        private MappedByteBuffer window;
+        private long windowStart = 0;
+        private long position = 0;
+        private long line = 1;
+        private long lineStart = 0;
+
+        TextParser(String fileName, FileChannel channel) throws IOException {
+            this.fileName = fileName;
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        /**
+         * @return the board the whole file describes
+         */
+        BoardFile parse() throws IOException {
+            int columns = parseDimension("the number of columns");
+            if (!skipBlanks()) {
+                throw error("expected a space between the number of columns and the number of rows");
+            }
+            int rows = parseDimension("the number of rows");
+            endLine();
+            byte[] cells = Board.allocateCells(columns, rows);
+            for (int y = 0; y < rows; y++) {
+                if (peek() < 0) {
+                    throw error("expected " + rows + " rows, found " + y);
+                }
+                parseRow(cells, y * columns, columns);
+                endLine();
+            }
+            while (peek() >= 0) {
+                skipBlanks();
+                if (!isLineEnd(peek()) && peek() != '\\') {
+                    throw error("expected the end of the file after " + rows + " rows");
+                }
+                endLine();
+            }
+            return new BoardFile(columns, rows, cells, false, null);
+        }
+
+        /**
+         * parses the cells of one row
+         * @param cells - the cells of the board
+         * @param first - the index of the row's first cell
+         * @param columns - the number of cells in the row
+         */
+        private void parseRow(byte[] cells, int first, int columns) throws IOException {
+            for (int x = 0; x < columns; x++) {
+                if (x > 0 && !skipBlanks()) {
+                    throw isLineEnd(peek()) || peek() == '\\'
+                            ? error("expected " + columns + " cells in the row, found " + x)
+                            : error("expected a space before the next cell");
+                }
+                int next = peek();
+                if (next == '0') {
+                    cells[first + x] = 0;
+                } else if (next == '1') {
+                    cells[first + x] = Box.BOMB_BIT;
+                } else if (isLineEnd(next) || next == '\\') {
+                    throw error("expected " + columns + " cells in the row, found " + x);
+                } else {
+                    throw error("expected 0 or 1");
+                }
+                position++;
+            }
+        }
+
+        /**
+         * parses a positive decimal number which fits in an int
+         * @param what - what the number is, for error messages
+         */
+        private int parseDimension(String what) throws IOException {
+            long value = 0;
+            long start = position;
+            for (int next = peek(); next >= '0' && next <= '9'; next = peek()) {
+                value = value * 10 + (next - '0');
+                if (value > Integer.MAX_VALUE) {
+                    throw error(what + " is too large");
+                }
+                position++;
+            }
+            if (position == start) {
+                throw error("expected " + what);
+            }
+            return (int) value;
+        }
+
+        /**
+         * skips what may end a line (spaces, tabs and a literal "\n") and
+         * the line terminator, and moves on to the next line
+         */
+        private void endLine() throws IOException {
+            skipBlanks();
+            if (peek() == '\\') {
+                position++;
+                if (peek() != 'n') {
+                    throw error("expected \\n");
+                }
+                position++;
+                skipBlanks();
+            }
+            int next = peek();
+            if (next == '\r') {
+                position++;
+                if (peek() == '\n') {
+                    position++;
+                }
+            } else if (next == '\n') {
+                position++;
+            } else if (next >= 0) {
+                throw error("expected the end of the line");
+            }
+            line++;
+            lineStart = position;
+        }
+
+        /**
+         * skips spaces and tabs
+         * @return true if there were any
+         */
+        private boolean skipBlanks() throws IOException {
+            long start = position;
+            for (int next = peek(); next == ' ' || next == '\t'; next = peek()) {
+                position++;
+            }
+            return position > start;
+        }
+
+        /**
+         * @return the byte at position, or -1 at the end of the file
+         */
+        private int peek() throws IOException {
+            if (position >= size) {
+                return -1;
+            }
+            if (window == null || position - windowStart >= window.limit()) {
+                windowStart = position;
+                window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(WINDOW_SIZE, size - windowStart));
+            }
+            return window.get((int) (position - windowStart)) & 0xff;
+        }
+
+        /**
+         * @return true if next ends a line or the file
+         */
+        private static boolean isLineEnd(int next) {
+            return next == '\n' || next == '\r' || next < 0;
+        }
+
+        /**
+         * @return an exception for a problem at position
+         */
+        private BoardFormatException error(String problem) {
+            return new BoardFormatException(fileName, line, position - lineStart + 1, problem);
+        }
+    }
+
+}
@@ -0,0 +1,43 @@
+package minesweeper.server;
+
+/**
+ * Thrown when a board file is not properly formatted. It tells where in
+ * the file the problem was found, so that a large file can be fixed
+ * without searching it by hand.
+ * @author nathaliehuynh
+ *
+ */
+public class BoardFormatException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long line;
+    private final long column;
+
+    /**
+     * @param fileName - the name of the malformed file
+     * @param line - the line of the problem, counting from 1
+     * @param column - the column of the problem in bytes, counting from 1
+     * @param problem - what is wrong at that position
+     */
+    public BoardFormatException(String fileName, long line, long column, String problem) {
+        super(fileName + ":" + line + ":" + column + ": " + problem);
+        this.line = line;
+        this.column = column;
+    }
+
+    /**
+     * @return the line of the problem, counting from 1
+     */
+    public long getLine() {
+        return line;
+    }
+
+    /**
+     * @return the column of the problem in bytes, counting from 1
+     */
+    public long getColumn() {
+        return column;
+    }
+
+}
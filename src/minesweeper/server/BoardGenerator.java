@@ -0,0 +1,131 @@
+package minesweeper.server;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Thread safety argument:
+ *  A generation writes one cell array from the threads of a fork-join
+ *  pool. The array is divided into stripes of rows and each stripe is
+ *  written by a single task. Bombs are placed before any neighbor is
+ *  counted, since the two passes are separate invocations of the pool,
+ *  whose completion happens-before the next pass starts. While counting,
+ *  a task reads the bomb bits of the rows next to its stripe, which other
+ *  tasks may be writing counts into; byte writes are atomic and never
+ *  change the bomb bit, so those reads see the right bombs.
+ */
+
+/**
+ * Generates the cells of a random board in parallel. The board is split
+ * into stripes of STRIPE_ROWS rows, each with its own SplittableRandom
+ * split off one seeded generator in stripe order. The stripes, and the
+ * random numbers used for each, do not depend on how many threads run
+ * them, so a seed always gives the same board.
+ * @author nathaliehuynh
+ *
+ */
+class BoardGenerator {
+
+    static final int STRIPE_ROWS = 64;
+
+    private final byte[] cells;
+    private final int columns;
+    private final int rows;
+    private final int bombOneIn;
+    private final SplittableRandom[] randoms;
+
+    /**
+     * @param columns - the number of columns in the board
+     * @param rows - the number of rows in the board
+     * @param bombOneIn - every cell has a bomb with probability 1 / bombOneIn
+     * @param seed - the seed of the board
+     */
+    private BoardGenerator(int columns, int rows, int bombOneIn, long seed) {
+        this.cells = Board.allocateCells(columns, rows);
+        this.columns = columns;
+        this.rows = rows;
+        this.bombOneIn = bombOneIn;
+        int stripes = (rows + STRIPE_ROWS - 1) / STRIPE_ROWS;
+        this.randoms = new SplittableRandom[stripes];
+        SplittableRandom seeded = new SplittableRandom(seed);
+        for (int i = 0; i < stripes; i++) {
+            randoms[i] = seeded.split();
+        }
+    }
+
+    /**
+     * Generates a random board
+     * @param columns - the number of columns in the board
+     * @param rows - the number of rows in the board
+     * @param bombOneIn - every cell has a bomb with probability 1 / bombOneIn
+     * @param seed - the seed of the board; the same seed and dimensions
+     *     always give the same board
+     * @param pool - the threads to generate the board with
+     * @return the encoded cells of the board, untouched and with correct
+     *     neighboring bomb counts
+     * @throws IllegalArgumentException if the board has an unsupported size
+     */
+    static byte[] generate(int columns, int rows, int bombOneIn, long seed, ForkJoinPool pool) {
+        BoardGenerator generator = new BoardGenerator(columns, rows, bombOneIn, seed);
+        pool.invoke(generator.new Stripes(false, 0, generator.randoms.length));
+        pool.invoke(generator.new Stripes(true, 0, generator.randoms.length));
+        return generator.cells;
+    }
+
+    /**
+     * places the bombs of one stripe
+     * @param stripe - the stripe
+     */
+    private void placeBombs(int stripe) {
+        SplittableRandom random = randoms[stripe];
+        int end = Math.min(rows, (stripe + 1) * STRIPE_ROWS) * columns;
+        for (int i = stripe * STRIPE_ROWS * columns; i < end; i++) {
+            if (random.nextInt(bombOneIn) == 0) {
+                cells[i] = Box.BOMB_BIT;
+            }
+        }
+    }
+
+    /**
+     * counts the neighboring bombs of every cell of one stripe
+     * @param stripe - the stripe
+     */
+    private void countNeighbors(int stripe) {
+        BombPlanes.countNeighbors(cells, columns, rows, stripe * STRIPE_ROWS, Math.min(rows, (stripe + 1) * STRIPE_ROWS));
+    }
+
+    /**
+     * Runs one pass over the stripes [from, to), splitting the range in
+     * half until it is one stripe
+     */
+    private final class Stripes extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final boolean counting;
+        private final int from;
+        private final int to;
+
+        Stripes(boolean counting, int from, int to) {
+            this.counting = counting;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Stripes(counting, from, middle), new Stripes(counting, middle, to));
+            } else if (to > from) {
+                if (counting) {
+                    countNeighbors(from);
+                } else {
+                    placeBombs(from);
+                }
+            }
+        }
+    }
+
+}
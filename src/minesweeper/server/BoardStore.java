@@ -0,0 +1,273 @@
+package minesweeper.server;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread safety argument:
+ *  The board is thread safe, and takes its snapshots and appends to its
+ *  log under its own locks. snapshot() is synchronized, so the snapshot
+ *  thread and callers of snapshot() take one snapshot at a time, and the
+ *  files of the store are only written or deleted by snapshot() and the
+ *  log's writer thread, each of which owns the files it writes.
+ */
+
+/**
+ * AF: A BoardStore keeps one Board on disk as it is played, so that a
+ *  server which dies can start again where it stopped. The directory
+ *  holds snapshots of the board, "snapshot-V.mswb" being the board at
+ *  version V in the binary board format with every layer, and the
+ *  segments of its ActionLog after the latest snapshot.
+ *
+ *  A snapshot is copied from the board while holding it exclusively,
+ *  which only takes a copy of its cells, and then written and forced
+ *  to disk in the background while players go on. It is written to a
+ *  temporary file and renamed, so a crash leaves either the whole
+ *  snapshot or none of it. Once it is on disk, the older snapshots and
+ *  the segments before it are deleted.
+ *
+ *  Opening a store loads the latest snapshot and replays the segments
+ *  after it. A snapshot is taken every snapshotMillis while the board
+ *  changes, so the log to replay, and the time to recover, stay bounded
+ *  by what players do in that time however long the game runs.
+ *
+ * Rep: snapshotVersion is the version of the latest snapshot on disk
+ *
+ * RI: the directory has a snapshot of snapshotVersion, and the segments
+ *  after it hold every change committed to board since
+ * @author nathaliehuynh
+ *
+ */
+public class BoardStore implements Closeable {
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".mswb";
+
+    private final File directory;
+    private final Board board;
+    private final ActionLog log;
+    private final boolean recovered;
+    private long snapshotVersion;
+    private ScheduledExecutorService snapshotter;
+    private boolean closed = false;
+
+    /**
+     * Opens a store, recovering its board if the directory already holds
+     * one, and starts taking snapshots in the background
+     * @param directory - the directory of the store, created if needed
+     * @param initial - the board to store if the directory holds none yet,
+     *     which must not be shared with other threads yet; ignored otherwise
+     * @param snapshotMillis - how often to take a snapshot while the board
+     *     changes, must be positive
+     * @param waitForDisk - whether actions on the board wait for their
+     *     record of the log to be on disk before they return, see ActionLog
+     * @throws IOException if the directory cannot be read or written
+     */
+    public BoardStore(File directory, Board initial, long snapshotMillis, boolean waitForDisk) throws IOException {
+        if (snapshotMillis <= 0) {
+            throw new IllegalArgumentException("snapshot interval must be positive: " + snapshotMillis);
+        }
+        this.directory = directory;
+        Files.createDirectories(directory.toPath());
+        File latest = latestSnapshot(directory);
+        if (latest == null) {
+            this.board = initial;
+            this.recovered = false;
+            writeSnapshot(initial.snapshot());
+        } else {
+            this.board = new Board(latest);
+            this.recovered = true;
+            this.snapshotVersion = versionOf(latest);
+            long version = snapshotVersion;
+            for (File segment : segmentsAfter(snapshotVersion)) {
+                version = ActionLog.replay(segment, version, board);
+            }
+            board.restoreVersion(version);
+        }
+        this.log = new ActionLog(directory, board.getVersion(), waitForDisk);
+        board.setActionLog(log);
+        startSnapshots(snapshotMillis);
+    }
+
+    /**
+     * @param directory - a directory
+     * @return true if directory holds a stored board, which a BoardStore
+     *     opened on it would recover instead of storing its initial board
+     */
+    public static boolean hasBoard(File directory) {
+        return latestSnapshot(directory) != null;
+    }
+
+    /**
+     * @return the board of this store
+     */
+    public Board getBoard() {
+        return board;
+    }
+
+    /**
+     * @return true if the board was recovered from the directory, false
+     *     if it is the initial board
+     */
+    public boolean isRecovered() {
+        return recovered;
+    }
+
+    /**
+     * Takes a snapshot of the board now, unless it has not changed since
+     * the last one
+     * @throws IOException if the snapshot cannot be written
+     */
+    public synchronized void snapshot() throws IOException {
+        if (closed || board.getVersion() == snapshotVersion) {
+            return;
+        }
+        writeSnapshot(board.snapshot());
+        log.awaitRotated();
+        deleteBefore(snapshotVersion);
+    }
+
+    /**
+     * Stops taking snapshots and closes the log once every change is on
+     * disk. The board must not be changed afterwards, and the store can
+     * be opened again on the same directory.
+     * @throws IOException if the log cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            // waits for a snapshot being taken, and keeps any other from starting
+            closed = true;
+            snapshotter.shutdown();
+        }
+        log.close();
+    }
+
+    /**
+     * writes a snapshot to disk, making it the latest
+     * @param snapshot - a copy of the board
+     */
+    private void writeSnapshot(Board.Snapshot snapshot) throws IOException {
+        File temporary = new File(directory, SNAPSHOT_PREFIX + snapshot.version + SNAPSHOT_SUFFIX + ".tmp");
+        snapshot.writeTo(temporary);
+        FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.WRITE);
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+        Files.move(temporary.toPath(), snapshotFile(snapshot.version).toPath(), StandardCopyOption.ATOMIC_MOVE);
+        snapshotVersion = snapshot.version;
+    }
+
+    /**
+     * deletes the snapshots before a version, and the segments whose
+     * records are all at or before it
+     * @param version - the version of a snapshot on disk
+     */
+    private void deleteBefore(long version) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("cannot list " + directory);
+        }
+        for (File file : files) {
+            long snapshot = versionOf(file);
+            long segment = ActionLog.firstVersionOf(file);
+            if (snapshot >= 0 && snapshot < version || segment >= 0 && segment <= version) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+
+    /**
+     * starts taking snapshots every snapshotMillis on a daemon thread
+     */
+    private synchronized void startSnapshots(long snapshotMillis) {
+        snapshotter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "minesweeper-snapshots");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        snapshotter.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    snapshot();
+                } catch (IOException e) {
+                    e.printStackTrace(); // the log still has every change; try again next time
+                }
+            }
+        }, snapshotMillis, snapshotMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the file of the snapshot of a version
+     */
+    private File snapshotFile(long version) {
+        return new File(directory, SNAPSHOT_PREFIX + version + SNAPSHOT_SUFFIX);
+    }
+
+    /**
+     * @return the version of the snapshot in file, or -1 if file is not a snapshot
+     */
+    private static long versionOf(File file) {
+        String name = file.getName();
+        if (!name.startsWith(SNAPSHOT_PREFIX) || !name.endsWith(SNAPSHOT_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(), name.length() - SNAPSHOT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the snapshot of the highest version in directory, or null if there is none
+     */
+    private static File latestSnapshot(File directory) {
+        File[] files = directory.listFiles();
+        File latest = null;
+        for (File file : files == null ? new File[0] : files) {
+            if (versionOf(file) >= 0 && (latest == null || versionOf(file) > versionOf(latest))) {
+                latest = file;
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * @return the segments of the log which may hold records after
+     *     version, in the order they were written
+     */
+    private List<File> segmentsAfter(long version) {
+        List<File> segments = new ArrayList<File>();
+        List<Long> firsts = new ArrayList<Long>();
+        File[] files = directory.listFiles();
+        for (File file : files == null ? new File[0] : files) {
+            long first = ActionLog.firstVersionOf(file);
+            if (first > version) {
+                firsts.add(first);
+            }
+        }
+        Collections.sort(firsts);
+        for (long first : firsts) {
+            segments.add(ActionLog.segmentFile(directory, first));
+        }
+        return segments;
+    }
+
+}
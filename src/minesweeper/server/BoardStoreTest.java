@@ -0,0 +1,260 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import minesweeper.server.Board.Action;
+
+import org.junit.Test;
+
+public class BoardStoreTest {
+
+	/**
+	 * Testing Partition:
+	 * 	Opening: an empty directory, a directory with a board, with and without a log to replay X
+	 * 	Log: digs, flags, flood fills, bombs, batches, removed ring bombs, recounts X
+	 * 	     many threads at once, waiting for the disk or not, failing to write X
+	 * 	Crashes: a record cut short, garbage after the last record X
+	 * 	Snapshots: taken, unchanged board, older files deleted, snapshot then more actions X
+	 * 	Board files: dug and flagged cells in the binary format X
+	 *
+	 */
+
+	private static final long NEVER = Long.MAX_VALUE / 2; // no background snapshot during a test
+
+	@Test
+	public void storesTheInitialBoard() throws IOException {
+	    File directory = newDirectory();
+	    assertFalse(BoardStore.hasBoard(directory));
+	    Board initial = new Board(10, 8, 6005);
+	    BoardStore store = new BoardStore(directory, initial, NEVER, true);
+	    assertSame(initial, store.getBoard());
+	    assertFalse(store.isRecovered());
+	    assertTrue(BoardStore.hasBoard(directory));
+	    store.close();
+
+	    BoardStore reopened = new BoardStore(directory, null, NEVER, true);
+	    assertTrue(reopened.isRecovered());
+	    assertEquals(initial.toString(), reopened.getBoard().toString());
+	    assertEquals(initial.getVersion(), reopened.getBoard().getVersion());
+	    reopened.close();
+	}
+
+	@Test
+	public void replaysTheLogAfterAnUncleanStop() throws IOException {
+	    File directory = newDirectory();
+	    Board expected = new Board(20, 15, 42);
+	    BoardStore store = new BoardStore(directory, new Board(20, 15, 42), NEVER, true);
+	    Board board = store.getBoard();
+	    playRandomly(expected, board, new Random(6005), 300);
+	    int[] xs = { 0, 19, 5 };
+	    int[] ys = { 0, 14, 5 };
+	    Action[] actions = { Action.FLAG, Action.DIG, Action.DIG };
+	    assertEquals(expected.processActions(xs, ys, actions, false), board.processActions(xs, ys, actions, false));
+	    // not closed: every action waited for its record, as if the process died now
+
+	    BoardStore recovered = new BoardStore(directory, null, NEVER, true);
+	    assertTrue(recovered.isRecovered());
+	    assertEquals(expected.toString(), recovered.getBoard().toString());
+	    assertEquals(board.getVersion(), recovered.getBoard().getVersion());
+	    playRandomly(expected, recovered.getBoard(), new Random(17), 100);
+	    recovered.close();
+	}
+
+	@Test
+	public void snapshotsBoundTheLog() throws IOException {
+	    File directory = newDirectory();
+	    Board expected = new Board(16, 16, 7);
+	    BoardStore store = new BoardStore(directory, new Board(16, 16, 7), NEVER, false);
+	    Board board = store.getBoard();
+	    playRandomly(expected, board, new Random(1), 100);
+	    store.snapshot();
+	    long snapshotVersion = board.getVersion();
+	    store.snapshot(); // unchanged: nothing to do
+	    playRandomly(expected, board, new Random(2), 100);
+	    store.close();
+
+	    String[] files = directory.list();
+	    Arrays.sort(files);
+	    assertArrayEquals(new String[] { "actions-" + (snapshotVersion + 1) + ".log", "snapshot-" + snapshotVersion + ".mswb" },
+	            files);
+
+	    BoardStore recovered = new BoardStore(directory, null, NEVER, false);
+	    assertEquals(expected.toString(), recovered.getBoard().toString());
+	    assertEquals(board.getVersion(), recovered.getBoard().getVersion());
+	    recovered.close();
+	}
+
+	@Test
+	public void ignoresARecordCutShort() throws IOException {
+	    File directory = newDirectory();
+	    BoardStore store = new BoardStore(directory, new Board(8, 8, 3), NEVER, true);
+	    Board board = store.getBoard();
+	    board.processAction(0, 0, Action.FLAG);
+	    String flagged = board.toString();
+	    long version = board.getVersion();
+	    board.processAction(1, 0, Action.FLAG);
+	    store.close();
+
+	    File segment = ActionLog.segmentFile(directory, 1);
+	    RandomAccessFile file = new RandomAccessFile(segment, "rw");
+	    long whole = file.length();
+	    file.setLength(whole - 3); // the last record was only partly written
+	    file.close();
+
+	    BoardStore recovered = new BoardStore(directory, null, NEVER, true);
+	    assertEquals(flagged, recovered.getBoard().toString());
+	    assertEquals(version, recovered.getBoard().getVersion());
+	    recovered.getBoard().processAction(2, 0, Action.FLAG);
+	    recovered.close();
+
+	    file = new RandomAccessFile(ActionLog.segmentFile(directory, version + 1), "rw");
+	    file.seek(file.length());
+	    file.write(new byte[] { 0, 0, 0, 42, 1, 2, 3, 4, 5 }); // garbage, as if the disk lost a write
+	    file.close();
+	    BoardStore again = new BoardStore(directory, null, NEVER, true);
+	    assertEquals(version + 1, again.getBoard().getVersion());
+	    assertEquals('F', again.getBoard().toString().charAt(4));
+	    again.close();
+	}
+
+	@Test
+	public void logsEveryKindOfChange() throws IOException {
+	    // a shard: the bomb at (2, 0) is just outside it
+	    File directory = newDirectory();
+	    File text = File.createTempFile("board", ".txt");
+	    text.deleteOnExit();
+	    Files.write(text.toPath(), "4 2\n1 0 1 0\n0 0 0 0\n".getBytes("US-ASCII"));
+	    File shardFile = new File(directory, "shard.mswb");
+	    ShardLayout.split(text, 2, 1, directory);
+	    Files.move(ShardLayout.shardFile(directory, 0).toPath(), shardFile.toPath());
+	    Files.delete(ShardLayout.shardFile(directory, 1).toPath());
+
+	    File storeDirectory = new File(directory, "store");
+	    BoardStore store = new BoardStore(storeDirectory, new Board(shardFile), NEVER, true);
+	    Board board = store.getBoard();
+	    board.processAction(1, 1, Action.DIG);
+	    board.removeOuterBomb(2, 0);
+	    board.processAction(0, 0, Action.DIG); // a bomb
+	    board.getBox(0, 1).updateBombStatus(true); // through a view, then recounted
+	    board.updateNeighboringBombs();
+	    String played = board.toString();
+
+	    BoardStore recovered = new BoardStore(storeDirectory, null, NEVER, true);
+	    Board board2 = recovered.getBoard();
+	    assertEquals(played, board2.toString());
+	    assertEquals(board.getVersion(), board2.getVersion());
+	    assertEquals(board.processAction(1, 0, Action.DIG), board2.processAction(1, 0, Action.DIG));
+	    assertEquals("", board2.removeOuterBomb(5, 5));
+	    recovered.close();
+	    store.close();
+	}
+
+	@Test(timeout=60000)
+	public void groupCommitsActionsFromManyThreads() throws IOException, InterruptedException {
+	    File directory = newDirectory();
+	    final BoardStore store = new BoardStore(directory, new Board(64, 64, 11), NEVER, true);
+	    Thread[] players = new Thread[4];
+	    for (int t = 0; t < players.length; t++) {
+	        final Random random = new Random(t);
+	        players[t] = new Thread(new Runnable() {
+	            public void run() {
+	                for (int i = 0; i < 200; i++) {
+	                    Action action = Action.values()[random.nextInt(3)];
+	                    store.getBoard().processAction(random.nextInt(64), random.nextInt(64), action);
+	                }
+	            }
+	        });
+	        players[t].start();
+	    }
+	    for (int i = 0; i < 3; i++) {
+	        store.snapshot();
+	    }
+	    for (Thread player : players) {
+	        player.join();
+	    }
+	    String played = store.getBoard().toString();
+	    long version = store.getBoard().getVersion();
+
+	    BoardStore recovered = new BoardStore(directory, null, NEVER, true);
+	    assertEquals(played, recovered.getBoard().toString());
+	    assertEquals(version, recovered.getBoard().getVersion());
+	    recovered.close();
+	    store.close();
+	}
+
+	@Test
+	public void writeFailuresAreReported() throws IOException {
+	    File directory = newDirectory();
+	    ActionLog log = new ActionLog(directory, 0, false);
+	    for (File file : directory.listFiles()) {
+	        assertTrue(file.delete());
+	    }
+	    assertTrue(directory.delete()); // so the next segment cannot be created
+	    byte[] cells = new byte[4];
+	    log.appendCells(1, -1, new int[] { 0 }, 1, cells);
+	    log.rotate(1);
+	    try {
+	        log.awaitRotated();
+	        fail("expected the rotation to fail");
+	    } catch (IOException e) {
+	        // the new segment could not be opened
+	    }
+	    for (long version = 2; version < 10; version++) {
+	        log.appendCells(version, -1, new int[] { 0 }, 1, cells); // dropped
+	    }
+	    try {
+	        log.awaitDurable(9);
+	        fail("expected the failure to be reported without waiting for the disk");
+	    } catch (UncheckedIOException e) {
+	        // reported to the action
+	    }
+	    try {
+	        log.close();
+	        fail("expected close to report the failure");
+	    } catch (IOException e) {
+	        // reported again
+	    }
+	}
+
+	@Test
+	public void boardFilesKeepDugAndFlaggedCells() throws IOException {
+	    Board board = new Board(new File("simpleBoard.txt"));
+	    board.processAction(0, 0, Action.DIG);
+	    board.processAction(0, 2, Action.FLAG);
+	    File binary = File.createTempFile("board", ".mswb");
+	    binary.deleteOnExit();
+	    board.writeBinary(binary, true);
+	    assertEquals(board.toString(), new Board(binary).toString());
+	    assertEquals(16 + 1 + 3 + 2, binary.length());
+	}
+
+	/**
+	 * applies the same random actions to two boards, checking they reply alike
+	 */
+	private static void playRandomly(Board expected, Board board, Random random, int actions) {
+	    int columns = Integer.parseInt(board.getColumns());
+	    int rows = Integer.parseInt(board.getRows());
+	    for (int i = 0; i < actions; i++) {
+	        int x = random.nextInt(columns);
+	        int y = random.nextInt(rows);
+	        int choice = random.nextInt(10);
+	        Action action = choice < 6 ? Action.DIG : choice < 8 ? Action.FLAG : Action.UNFLAG;
+	        assertEquals(expected.processAction(x, y, action), board.processAction(x, y, action));
+	    }
+	}
+
+	private static File newDirectory() throws IOException {
+	    File directory = Files.createTempDirectory("store").toFile();
+	    directory.deleteOnExit();
+	    return directory;
+	}
+
+}
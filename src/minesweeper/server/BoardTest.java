@@ -2,8 +2,16 @@ package minesweeper.server;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import minesweeper.server.Board.Action;
 
@@ -16,14 +24,54 @@ public class BoardTest {
 	/**
 	 * Testing Partition:
 	 * 	Construct a basic board  X
+	 * 	Construct a seeded board with 1 or many threads X
 	 * 	Construct a board from a file X 
+	 * 	Construct a board from a file with "\r\n" line ends, tabs and trailing blank lines X
+	 * 	Malformed files: bad token, short row, missing row, extra row, bad first line X
+	 * 	Construct a board from a binary file, with and without neighbor counts X
+	 * 	Malformed binary files: truncated, unknown version X
 	 * 
 	 * Digging:
 	 * 		where there is no bomb and a neighboring bomb  X
-	 * 					   no bomb and no neighboring bombs  
+	 * 					   no bomb and no neighboring bombs  X
+	 * 					   a region too large to fill recursively X
 	 * 					   a flag X
 	 * 					   a dug place  X
 	 *                     outside of board X
+	 * Detonating:
+	 * 		neighboring bomb counts after many detonations on a random board X
+	 * 
+	 * Rendering:
+	 * 		writeTo matches toString after mutations X
+	 * 		writing a cell through a Box view X
+	 * 
+	 * Concurrency:
+	 * 		digs and flags from many threads across many tiles match the same actions in sequence X
+	 * 		whole board and viewport looks during those actions, on a board of many bands, show
+	 * 		only committed cells and never go back X
+	 * 
+	 * Batching:
+	 * 		flags, digs and deflags applied in order with one version change, off-board actions skipped X
+	 * 		a dig which detonates a bomb, stopping or continuing the batch X
+	 * 
+	 * Looking since a version:
+	 * 		the current version (no changes) X
+	 * 		an older version within the change log X
+	 * 		a version the change log no longer reaches or from the future X
+	 * 		flagging an already flagged spot does not change the version X
+	 * 
+	 * Viewports:
+	 * 		inside the board, across each edge, larger than the board, off the board X
+	 * 		looked at with the rendering up to date and out of date X
+	 * 		replies to actions and batches, with and without a bomb X
+	 * 		empty viewports are rejected X
+	 * 
+	 * Verification:
+	 * 		every level accepts actions X
+	 * 		a corrupted neighbor count: skipped by off, caught by local in the cells an action
+	 * 		touches only, caught anywhere by full at its interval X
+	 * 		an unknown level is rejected X
+	 * 
 	 * Flagging:
 	 * 		Flagging an unflagged spot X
 	 * 		flagging a flagged spot X
@@ -57,6 +105,35 @@ public class BoardTest {
 		assertEquals("2", columns);
 	}
 	
+	@Test
+	public void seededBoardDoesNotDependOnThreads() {
+	    int columns = 300;
+	    int rows = 500; // several stripes
+	    byte[] expected;
+	    ForkJoinPool single = new ForkJoinPool(1);
+	    try {
+	        expected = BoardGenerator.generate(columns, rows, 4, 6005, single);
+	        assertFalse(Arrays.equals(expected, BoardGenerator.generate(columns, rows, 4, 6006, single)));
+	    } finally {
+	        single.shutdown();
+	    }
+	    for (int threads : new int[] { 2, 3, 8 }) {
+	        ForkJoinPool pool = new ForkJoinPool(threads);
+	        try {
+	            assertArrayEquals(expected, BoardGenerator.generate(columns, rows, 4, 6005, pool));
+	        } finally {
+	            pool.shutdown();
+	        }
+	    }
+
+	    Board board = new Board(columns, rows, 6005);
+	    Board sameSeed = new Board(columns, rows, 6005);
+	    assertNeighborCountsMatchFullRecompute(board, columns, rows);
+	    for (int i = 0; i < 20; i++) {
+	        assertEquals(board.processAction(15 * i, 25 * i, Action.DIG), sameSeed.processAction(15 * i, 25 * i, Action.DIG));
+	    }
+	}
+
 	@Test
 	public void createSimpleBoardFromFile() throws IOException {
 		Board simpleBoard = new Board(simpleBoardFile);
@@ -64,6 +141,75 @@ public class BoardTest {
 		assertEquals(simpleBoardString, simpleBoard.toString());
 	}
 	
+	@Test
+	public void createBoardFromFileWithOtherWhitespace() throws IOException {
+		File boardFile = writeText("2 3\r\n0\t0 \\n\r\n0 0\r\n0 1\r\n\r\n\n");
+		Board board = new Board(boardFile);
+		assertEquals(board.toString(), new Board(simpleBoardFile).toString());
+		assertEquals("BOOM!", board.processAction(1, 2, Action.DIG));
+	}
+
+	@Test
+	public void malformedFilesReportLineAndColumn() throws IOException {
+		assertMalformedAt("2 3\n0 0\n0 x\n0 1\n", 3, 3);
+		assertMalformedAt("2 3\n0 0\n0\n0 1\n", 3, 2);
+		assertMalformedAt("2 3\n0 0\n0 0\n", 4, 1);
+		assertMalformedAt("2 3\n0 0\n0 0\n0 1\n1 1\n", 5, 1);
+		assertMalformedAt("2 3 4\n0 0\n0 0\n0 1\n", 1, 5);
+		assertMalformedAt("", 1, 1);
+	}
+
+	@Test
+	public void createBoardFromBinaryFile() throws IOException {
+	    Random random = new Random(6005);
+	    int columns = 37;
+	    int rows = 23;
+	    boolean[][] bombs = new boolean[rows][columns];
+	    for (int y = 0; y < rows; y++) {
+	        for (int x = 0; x < columns; x++) {
+	            bombs[y][x] = random.nextInt(5) == 0;
+	        }
+	    }
+	    File textFile = writeBoardFile(columns, rows, bombs);
+	    for (boolean neighborCounts : new boolean[] { false, true }) {
+	        File binaryFile = File.createTempFile("board", ".bin");
+	        binaryFile.deleteOnExit();
+	        BoardConverter.convert(textFile, binaryFile, neighborCounts);
+	        assertEquals(16 + (columns * rows + 7) / 8 + (neighborCounts ? (columns * rows + 1) / 2 : 0), binaryFile.length());
+	        Board text = new Board(textFile);
+	        Board binary = new Board(binaryFile);
+	        assertNeighborCountsMatchFullRecompute(binary, columns, rows);
+	        for (int i = 0; i < 50; i++) {
+	            int x = random.nextInt(columns);
+	            int y = random.nextInt(rows);
+	            assertEquals(text.processAction(x, y, Action.DIG), binary.processAction(x, y, Action.DIG));
+	        }
+	    }
+	}
+
+	@Test
+	public void malformedBinaryFiles() throws IOException {
+	    File binaryFile = File.createTempFile("board", ".bin");
+	    binaryFile.deleteOnExit();
+	    BoardConverter.convert(simpleBoardFile, binaryFile, true);
+	    byte[] bytes = Files.readAllBytes(binaryFile.toPath());
+	    Files.write(binaryFile.toPath(), Arrays.copyOf(bytes, bytes.length - 1));
+	    try {
+	        new Board(binaryFile);
+	        fail("expected a BoardFormatException for a truncated file");
+	    } catch (BoardFormatException e) {
+	        assertEquals(bytes.length, e.getColumn());
+	    }
+	    bytes[4] = 2;
+	    Files.write(binaryFile.toPath(), bytes);
+	    try {
+	        new Board(binaryFile);
+	        fail("expected a BoardFormatException for an unknown version");
+	    } catch (BoardFormatException e) {
+	        assertEquals(5, e.getColumn());
+	    }
+	}
+
 	@Test
 	public void digSpotTwice() throws IOException {
 		Board simpleBoard = new Board(simpleBoardFile);
@@ -149,4 +295,427 @@ public class BoardTest {
 	    assertEquals(mBBString, manyBombBoard.toString());
 	}
 
+	@Test
+	public void digLargeEmptyBoard() throws IOException {
+	    int size = 300;
+	    Board emptyBoard = new Board(writeBoardFile(size, size, new boolean[size][size]));
+	    long version = emptyBoard.getVersion();
+	    emptyBoard.processAction(size / 2, size / 2, Action.DIG);
+	    String board = emptyBoard.toString();
+	    assertEquals(2 * size * size, board.length());
+	    assertFalse(board.contains("-"));
+	    assertTrue(emptyBoard.lookSince(version).startsWith("FULL")); // more changes than the change log holds
+	}
+
+	@Test
+	public void detonationsKeepNeighborCountsConsistent() throws IOException {
+	    Random random = new Random(6005);
+	    for (int trial = 0; trial < 20; trial++) {
+	        int columns = 1 + random.nextInt(12);
+	        int rows = 1 + random.nextInt(12);
+	        boolean[][] bombs = new boolean[rows][columns];
+	        for (int y = 0; y < rows; y++) {
+	            for (int x = 0; x < columns; x++) {
+	                bombs[y][x] = random.nextInt(3) == 0;
+	            }
+	        }
+	        Board board = new Board(writeBoardFile(columns, rows, bombs));
+	        for (int dig = 0; dig < columns * rows / 2; dig++) {
+	            int x = random.nextInt(columns);
+	            int y = random.nextInt(rows);
+	            String result = board.processAction(x, y, Action.DIG);
+	            assertEquals(bombs[y][x], result.equals("BOOM!"));
+	            bombs[y][x] = false;
+	            assertNeighborCountsMatchFullRecompute(board, columns, rows);
+	        }
+	    }
+	}
+
+	@Test
+	public void writeToMatchesToString() throws IOException {
+	    Board board = new Board(largeBoardFile);
+	    board.processAction(3, 2, Action.FLAG);
+	    board.processAction(0, 0, Action.DIG);
+	    ByteArrayOutputStream out = new ByteArrayOutputStream();
+	    board.writeTo(out);
+	    assertEquals("       \n1 1 2 1\n- - - F\n", out.toString("US-ASCII"));
+	    assertEquals(out.toString("US-ASCII"), board.toString());
+	}
+
+	@Test
+	public void writeThroughBoxView() throws IOException {
+	    Board board = new Board(simpleBoardFile);
+	    assertEquals("- -\n- -\n- -\n", board.toString());
+	    board.getBox(1, 0).updateStatus(Box.State.FLAGGED);
+	    assertEquals("- F\n- -\n- -\n", board.toString());
+	}
+
+	@Test
+	public void concurrentActionsMatchSequentialActions() throws Exception {
+	    Random random = new Random(6005);
+	    int columns = 200;
+	    int rows = 150;
+	    boolean[][] bombs = new boolean[rows][columns];
+	    for (int y = 0; y < rows; y++) {
+	        for (int x = 0; x < columns; x++) {
+	            bombs[y][x] = random.nextInt(8) == 0;
+	        }
+	    }
+	    File boardFile = writeBoardFile(columns, rows, bombs);
+	    // digs of empty cells and flags of bombs give the same board in any order
+	    final List<int[]> actions = new ArrayList<int[]>();
+	    for (int i = 0; i < 2000; i++) {
+	        int x = random.nextInt(columns);
+	        int y = random.nextInt(rows);
+	        actions.add(new int[] { x, y, bombs[y][x] ? 1 : 0 });
+	    }
+
+	    Board sequential = new Board(boardFile);
+	    for (int[] action : actions) {
+	        sequential.processAction(action[0], action[1], action[2] == 1 ? Action.FLAG : Action.DIG);
+	    }
+
+	    final Board concurrent = new Board(boardFile);
+	    final int threadCount = 8;
+	    List<Thread> threads = new ArrayList<Thread>();
+	    for (int t = 0; t < threadCount; t++) {
+	        final int first = t;
+	        threads.add(new Thread(new Runnable() {
+	            public void run() {
+	                for (int i = first; i < actions.size(); i += threadCount) {
+	                    int[] action = actions.get(i);
+	                    concurrent.processAction(action[0], action[1], action[2] == 1 ? Action.FLAG : Action.DIG);
+	                }
+	            }
+	        }));
+	    }
+	    for (Thread thread : threads) {
+	        thread.start();
+	    }
+	    for (Thread thread : threads) {
+	        thread.join();
+	    }
+	    assertEquals(sequential.toString(), concurrent.toString());
+	    assertNeighborCountsMatchFullRecompute(concurrent, columns, rows);
+	}
+
+	@Test
+	public void looksDuringActionsShowOnlyCommittedCells() throws Exception {
+	    Random random = new Random(6005);
+	    int columns = 2100; // wider than a band, so every row is a band of its own
+	    int rows = 12;
+	    boolean[][] bombs = new boolean[rows][columns];
+	    for (int y = 0; y < rows; y++) {
+	        for (int x = 0; x < columns; x++) {
+	            bombs[y][x] = random.nextInt(8) == 0;
+	        }
+	    }
+	    File boardFile = writeBoardFile(columns, rows, bombs);
+	    // every cell goes from "-" to its final character once, whatever the order
+	    final List<int[]> actions = new ArrayList<int[]>();
+	    for (int i = 0; i < 4000; i++) {
+	        int x = random.nextInt(columns);
+	        int y = random.nextInt(rows);
+	        actions.add(new int[] { x, y, bombs[y][x] ? 1 : 0 });
+	    }
+	    Board sequential = new Board(boardFile);
+	    for (int[] action : actions) {
+	        sequential.processAction(action[0], action[1], action[2] == 1 ? Action.FLAG : Action.DIG);
+	    }
+	    String finished = sequential.toString();
+
+	    final Board concurrent = new Board(boardFile);
+	    final int threadCount = 4;
+	    List<Thread> threads = new ArrayList<Thread>();
+	    for (int t = 0; t < threadCount; t++) {
+	        final int first = t;
+	        threads.add(new Thread(new Runnable() {
+	            public void run() {
+	                for (int i = first; i < actions.size(); i += threadCount) {
+	                    int[] action = actions.get(i);
+	                    concurrent.processAction(action[0], action[1], action[2] == 1 ? Action.FLAG : Action.DIG);
+	                }
+	            }
+	        }));
+	    }
+	    for (Thread thread : threads) {
+	        thread.start();
+	    }
+	    String previous = concurrent.toString();
+	    for (int look = 0; look < 200; look++) {
+	        int x = random.nextInt(columns) - 10;
+	        int y = random.nextInt(rows) - 2;
+	        String looked = concurrent.look(new Viewport(x, y, 40, 5));
+	        assertShowsPartOf(cut(finished, x, y, 40, 5), looked);
+	        String whole = concurrent.toString();
+	        assertShowsPartOf(finished, whole);
+	        for (int i = 0; i < whole.length(); i++) {
+	            assertTrue("cell went back", previous.charAt(i) == '-' || whole.charAt(i) == previous.charAt(i));
+	        }
+	        previous = whole;
+	    }
+	    for (Thread thread : threads) {
+	        thread.join();
+	    }
+	    assertEquals(finished, concurrent.toString());
+	}
+
+	/**
+	 * asserts that a look shows each cell either untouched or as it ends up
+	 * @param finished - the text the look would have once every action is done
+	 * @param looked - the text of the look
+	 */
+	private static void assertShowsPartOf(String finished, String looked) {
+	    assertEquals(finished.length(), looked.length());
+	    for (int i = 0; i < looked.length(); i++) {
+	        assertTrue(looked.charAt(i) == '-' || looked.charAt(i) == finished.charAt(i));
+	    }
+	}
+
+	@Test
+	public void batchAppliesActionsInOrder() throws IOException {
+	    Board board = new Board(simpleBoardFile);
+	    long version = board.getVersion();
+	    String output = board.processActions(new int[] { 0, 0, 0, 9, 0 }, new int[] { 0, 0, 2, 9, 1 },
+	            new Action[] { Action.FLAG, Action.DIG, Action.DIG, Action.DIG, Action.FLAG }, true);
+	    assertEquals("F -\nF -\n1 -\n", output);
+	    assertEquals(version + 1, board.getVersion());
+	    assertEquals("DELTA " + (version + 1) + " 3\n0 0 F\n0 2 1\n0 1 F\n", board.lookSince(version));
+	}
+
+	@Test
+	public void batchStopsAtBomb() throws IOException {
+	    Board board = new Board(simpleBoardFile);
+	    String output = board.processActions(new int[] { 0, 1, 0 }, new int[] { 0, 2, 0 },
+	            new Action[] { Action.FLAG, Action.DIG, Action.UNFLAG }, true);
+	    assertEquals("BOOM!", output);
+	    assertEquals("F  \n   \n   \n", board.toString());
+	}
+
+	@Test
+	public void batchContinuesPastBomb() throws IOException {
+	    Board board = new Board(simpleBoardFile);
+	    String output = board.processActions(new int[] { 0, 1, 0 }, new int[] { 0, 2, 0 },
+	            new Action[] { Action.FLAG, Action.DIG, Action.UNFLAG }, false);
+	    assertEquals("BOOM!\n-  \n   \n   \n", output);
+	}
+
+	@Test
+	public void lookSinceCurrentVersion() throws IOException {
+	    Board board = new Board(simpleBoardFile);
+	    long version = board.getVersion();
+	    assertEquals("DELTA " + version + " 0\n", board.lookSince(version));
+	}
+
+	@Test
+	public void lookSinceOlderVersion() throws IOException {
+	    Board board = new Board(largeBoardFile);
+	    long version = board.getVersion();
+	    board.processAction(3, 2, Action.FLAG);
+	    board.processAction(3, 2, Action.FLAG);
+	    assertEquals(version + 1, board.getVersion());
+	    board.processAction(3, 1, Action.DIG);
+	    assertEquals("DELTA " + (version + 2) + " 2\n3 2 F\n3 1 1\n", board.lookSince(version));
+	    assertEquals("DELTA " + (version + 2) + " 1\n3 1 1\n", board.lookSince(version + 1));
+	}
+
+	@Test
+	public void lookSinceUnreachableVersion() throws IOException {
+	    Board board = new Board(simpleBoardFile);
+	    long version = board.getVersion();
+	    assertEquals("FULL " + version + "\n- -\n- -\n- -\n", board.lookSince(version + 1));
+	    board.processAction(0, 0, Action.FLAG);
+	    board.updateNeighboringBombs();
+	    assertEquals("FULL " + board.getVersion() + "\nF -\n- -\n- -\n", board.lookSince(version));
+	}
+
+	@Test
+	public void lookAtViewports() throws IOException {
+	    Board board = new Board(50, 40, 6005);
+	    Random random = new Random(17);
+	    int[][] viewports = { { 0, 0, 1, 1 }, { 10, 5, 20, 10 }, { -3, -2, 8, 6 }, { 45, 35, 10, 10 },
+	            { -5, -5, 100, 100 }, { 50, 0, 5, 5 }, { 0, -9, 3, 9 }, { Integer.MAX_VALUE, 0, Integer.MAX_VALUE, 1 } };
+	    for (int i = 0; i < 40; i++) {
+	        board.processAction(random.nextInt(50), random.nextInt(40), i % 4 == 0 ? Action.FLAG : Action.DIG);
+	        int[] v = viewports[i % viewports.length];
+	        Viewport viewport = new Viewport(v[0], v[1], v[2], v[3]);
+	        // first while the shared rendering is out of date, then once toString has renewed it
+	        String looked = board.look(viewport);
+	        String whole = board.toString();
+	        assertEquals(viewport.toString(), cut(whole, v[0], v[1], v[2], v[3]), looked);
+	        assertEquals(viewport.toString(), looked, board.look(viewport));
+	    }
+	    assertEquals(board.toString(), board.look(null));
+	}
+
+	@Test
+	public void actionsReplyWithTheirViewport() throws IOException {
+	    Board board = new Board(simpleBoardFile);
+	    Viewport viewport = new Viewport(1, 1, 1, 2);
+	    assertEquals("-\n-\n", board.look(viewport));
+	    assertEquals("1\n-\n", board.processAction(0, 0, Action.DIG, viewport));
+	    assertEquals("", board.processAction(5, 0, Action.DIG, viewport));
+	    assertEquals("1\nF\n", board.processActions(new int[] { 1 }, new int[] { 2 },
+	            new Action[] { Action.FLAG }, true, viewport));
+	    assertEquals("BOOM!\n \n \n", board.processActions(new int[] { 1, 1 }, new int[] { 2, 2 },
+	            new Action[] { Action.UNFLAG, Action.DIG }, false, viewport));
+	    assertEquals("BOOM!", new Board(simpleBoardFile).processAction(1, 2, Action.DIG, viewport));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void emptyViewportsAreRejected() {
+	    new Viewport(0, 0, 0, 5);
+	}
+
+	/**
+	 * @return the text of a board cut to a viewport, as Viewport.cut would,
+	 *     by splitting it into lines and characters
+	 */
+	private static String cut(String board, int x, int y, int width, int height) {
+	    String[] lines = board.split("\n");
+	    StringBuilder result = new StringBuilder();
+	    for (int row = Math.max(y, 0); row < lines.length && row < (long) y + height; row++) {
+	        StringBuilder line = new StringBuilder();
+	        for (int column = Math.max(x, 0); 2L * column < lines[row].length() && column < (long) x + width; column++) {
+	            line.append(line.length() == 0 ? "" : " ").append(lines[row].charAt(2 * column));
+	        }
+	        if (line.length() > 0) {
+	            result.append(line).append('\n');
+	        }
+	    }
+	    return result.toString();
+	}
+
+	@Test
+	public void everyVerificationLevelAcceptsActions() throws IOException {
+	    for (String level : new String[] { "off", "local", "full", "full:3" }) {
+	        Board board = new Board(largeBoardFile);
+	        board.setVerification(level);
+	        board.processAction(0, 2, Action.FLAG);
+	        board.processAction(0, 2, Action.UNFLAG);
+	        board.processAction(0, 0, Action.DIG);
+	        assertEquals("       \n1 1 2 1\n- - - -\n", board.toString());
+	        assertEquals("BOOM!", board.processAction(1, 2, Action.DIG));
+	    }
+	}
+
+	@Test
+	public void verificationLevelsCatchCorruptedCounts() throws IOException {
+	    boolean assertions = false;
+	    assert assertions = true;
+	    if (!assertions) {
+	        return; // the checks are assertions, so there is nothing to catch
+	    }
+	    Board board = corruptedBoard("off");
+	    board.processAction(0, 0, Action.FLAG);
+	    assertEquals("F - - -\n- - - -\n- - - -\n", board.toString());
+
+	    board = corruptedBoard("local");
+	    board.processAction(3, 0, Action.FLAG); // does not touch the corrupted cell
+	    assertCaught(board, 0, 0);
+
+	    board = corruptedBoard("full");
+	    assertCaught(board, 3, 0);
+
+	    board = corruptedBoard("full:3");
+	    board.processAction(3, 0, Action.FLAG);
+	    board.processAction(3, 0, Action.UNFLAG);
+	    assertCaught(board, 3, 0);
+	}
+
+	/**
+	 * @return largeBoard.txt, checked at a verification level, with the
+	 *     neighbor count of (0, 0) corrupted from 0 to 5
+	 */
+	private Board corruptedBoard(String level) throws IOException {
+	    Board board = new Board(largeBoardFile);
+	    board.setVerification(level);
+	    board.getBox(0, 0).updateNumberOfNeighboringBombs(5);
+	    return board;
+	}
+
+	/**
+	 * asserts that flagging a cell of board fails a check of its RI
+	 */
+	private static void assertCaught(Board board, int x, int y) {
+	    try {
+	        board.processAction(x, y, Action.FLAG);
+	    } catch (AssertionError e) {
+	        return;
+	    }
+	    fail("the corrupted count was not caught");
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void unknownVerificationLevel() throws IOException {
+	    new Board(simpleBoardFile).setVerification("full:");
+	}
+
+	/**
+	 * checks that a board file with the given text is rejected at line and column
+	 */
+	private static void assertMalformedAt(String text, long line, long column) throws IOException {
+	    try {
+	        new Board(writeText(text));
+	        fail("expected a BoardFormatException for " + text);
+	    } catch (BoardFormatException e) {
+	        assertEquals(e.getMessage(), line, e.getLine());
+	        assertEquals(e.getMessage(), column, e.getColumn());
+	    }
+	}
+
+	/**
+	 * @return a temporary file holding text
+	 */
+	private static File writeText(String text) throws IOException {
+	    File file = File.createTempFile("board", ".txt");
+	    file.deleteOnExit();
+	    PrintWriter writer = new PrintWriter(file);
+	    writer.print(text);
+	    writer.close();
+	    return file;
+	}
+
+	/**
+	 * checks the neighboring bomb count of every box on board against
+	 * a count over its neighbors
+	 */
+	private static void assertNeighborCountsMatchFullRecompute(Board board, int columns, int rows) {
+	    for (int y = 0; y < rows; y++) {
+	        for (int x = 0; x < columns; x++) {
+	            List<Box> neighbors = board.getNeighborBoxes(x, y);
+	            int bombs = 0;
+	            for (Box neighbor : neighbors) {
+	                if (neighbor.bombStatus()) {
+	                    bombs++;
+	                }
+	            }
+	            assertEquals("count at " + x + "," + y, bombs, (int) board.getBox(x, y).getNumberOfNeighboringBombs());
+	        }
+	    }
+	}
+
+	/**
+	 * writes a board file in the format accepted by Board(File)
+	 * @param columns - the number of columns in the board
+	 * @param rows - the number of rows in the board
+	 * @param bombs - bombs[y][x] is true if there is a bomb at x, y
+	 * @return a temporary file which is deleted when the test VM exits
+	 */
+	private static File writeBoardFile(int columns, int rows, boolean[][] bombs) throws IOException {
+	    File boardFile = File.createTempFile("board", ".txt");
+	    boardFile.deleteOnExit();
+	    PrintWriter writer = new PrintWriter(boardFile);
+	    writer.println(columns + " " + rows);
+	    for (int y = 0; y < rows; y++) {
+	        StringBuilder line = new StringBuilder();
+	        for (int x = 0; x < columns; x++) {
+	            line.append(x == 0 ? "" : " ").append(bombs[y][x] ? "1" : "0");
+	        }
+	        writer.println(line);
+	    }
+	    writer.close();
+	    return boardFile;
+	}
+
 }
@@ -0,0 +1,210 @@
+package minesweeper.server;
+
+/**
+ * Thread safety argument:
+ *  BombPlanes has no state of its own. Its methods read and write the
+ *  cell array they are given, and callers must make sure nothing else
+ *  writes the cells involved while they run (the bomb bits of the rows
+ *  next to the range, and every bit of the rows in it).
+ */
+
+/**
+ * Counts neighboring bombs 64 cells at a time. The bomb bits of the board
+ * are packed into bitplanes, one long[] row of words per board row with
+ * bit i of word w holding column 64 * w + i. For each word of a row, the
+ * eight neighbors of its 64 cells are the row's words above, below and
+ * beside it shifted by one bit, and adding those eight one-bit values in
+ * parallel with bitwise full adders gives four words holding the bits of
+ * 64 counts at once.
+ *
+ * The counts still have to be written to, or compared with, the one byte
+ * per cell encoding of Box one cell at a time, but no cell reads its
+ * neighbors' bytes or tests board edges.
+ *
+ * The words are plain longs rather than vectors of the Vector API
+ * (jdk.incubator.vector): that API is still an incubator module, which
+ * needs --add-modules at compile and run time, and the build is tested on
+ * Java 17.
+ * @author nathaliehuynh
+ *
+ */
+class BombPlanes {
+
+    private BombPlanes() {
+    }
+
+    /**
+     * sets the neighboring bomb count of every cell in rows [fromRow, toRow)
+     * from the bomb bits of the board
+     * @param cells - the encoded cells of a board, see Box
+     * @param columns - the number of columns in the board
+     * @param rows - the number of rows in the board
+     * @param fromRow - the first row to count
+     * @param toRow - the row after the last row to count
+     */
+    static void countNeighbors(byte[] cells, int columns, int rows, int fromRow, int toRow) {
+        new Counter(cells, columns, rows, fromRow, toRow).run(true);
+    }
+
+    /**
+     * sets the neighboring bomb count of every cell of the board from its bomb bits
+     * @param cells - the encoded cells of a board, see Box
+     * @param columns - the number of columns in the board
+     * @param rows - the number of rows in the board
+     */
+    static void countNeighbors(byte[] cells, int columns, int rows) {
+        countNeighbors(cells, columns, rows, 0, rows);
+    }
+
+    /**
+     * @param cells - the encoded cells of a board, see Box
+     * @param columns - the number of columns in the board
+     * @param rows - the number of rows in the board
+     * @return the index of the first cell whose neighboring bomb count
+     *     differs from the number of bombs around it, or -1 if there is none
+     */
+    static int firstMiscounted(byte[] cells, int columns, int rows) {
+        return new Counter(cells, columns, rows, 0, rows).run(false);
+    }
+
+    /**
+     * The bitplanes of rows [fromRow - 1, toRow + 1) of a board, clipped to
+     * the board, and the count words of the row being counted.
+     * bombs[(y - firstRow) * words + w] is word w of row y.
+     */
+    private static final class Counter {
+
+        private final byte[] cells;
+        private final int columns;
+        private final int fromRow;
+        private final int toRow;
+        private final int firstRow;
+        private final int lastRow;
+        private final int words;
+        private final long[] bombs;
+        private final long[] ones;
+        private final long[] twos;
+        private final long[] fours;
+        private final long[] eights;
+
+        Counter(byte[] cells, int columns, int rows, int fromRow, int toRow) {
+            this.cells = cells;
+            this.columns = columns;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+            this.firstRow = Math.max(fromRow - 1, 0);
+            this.lastRow = Math.min(toRow, rows - 1);
+            this.words = (columns + 63) >>> 6;
+            this.bombs = new long[(lastRow - firstRow + 1) * words];
+            this.ones = new long[words];
+            this.twos = new long[words];
+            this.fours = new long[words];
+            this.eights = new long[words];
+            for (int y = firstRow; y <= lastRow; y++) {
+                int rowStart = y * columns;
+                int wordStart = (y - firstRow) * words;
+                for (int x = 0; x < columns; x++) {
+                    if (Box.hasBomb(cells[rowStart + x])) {
+                        bombs[wordStart + (x >>> 6)] |= 1L << x;
+                    }
+                }
+            }
+        }
+
+        /**
+         * counts every row in [fromRow, toRow)
+         * @param write - whether to write the counts into the cells, or
+         *     only compare them with the cells
+         * @return the index of the first cell whose count differs from the
+         *     count in cells, or -1; always -1 if write
+         */
+        int run(boolean write) {
+            for (int y = fromRow; y < toRow; y++) {
+                countRow(y);
+                int rowStart = y * columns;
+                for (int w = 0; w < words; w++) {
+                    long one = ones[w];
+                    long two = twos[w];
+                    long four = fours[w];
+                    long eight = eights[w];
+                    int start = rowStart + (w << 6);
+                    int end = start + Math.min(64, columns - (w << 6));
+                    for (int i = start; i < end; i++) {
+                        int count = (int) (one & 1) | (int) (two & 1) << 1 | (int) (four & 1) << 2 | (int) (eight & 1) << 3;
+                        one >>>= 1;
+                        two >>>= 1;
+                        four >>>= 1;
+                        eight >>>= 1;
+                        if (write) {
+                            cells[i] = Box.withNeighborCount(cells[i], count);
+                        } else if (Box.neighborCount(cells[i]) != count) {
+                            return i;
+                        }
+                    }
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * sets ones, twos, fours and eights to the bits of the neighboring
+         * bomb counts of row y
+         */
+        private void countRow(int y) {
+            int row = (y - firstRow) * words;
+            int above = y > firstRow ? row - words : -1;
+            int below = y < lastRow ? row + words : -1;
+            for (int w = 0; w < words; w++) {
+                long north = word(above, w);
+                long south = word(below, w);
+                long middle = word(row, w);
+                // the eight neighbors of each cell, as one bit per cell
+                long northWest = west(above, w, north);
+                long northEast = east(above, w, north);
+                long west = west(row, w, middle);
+                long east = east(row, w, middle);
+                long southWest = west(below, w, south);
+                long southEast = east(below, w, south);
+
+                // add them up with full adders: three sums of weight one
+                // and four carries of weight two
+                long sum1 = northWest ^ north ^ northEast;
+                long carry1 = (northWest & north) | (northEast & (northWest ^ north));
+                long sum2 = west ^ east ^ southWest;
+                long carry2 = (west & east) | (southWest & (west ^ east));
+                long sum3 = south ^ southEast;
+                long carry3 = south & southEast;
+                ones[w] = sum1 ^ sum2 ^ sum3;
+                long carry4 = (sum1 & sum2) | (sum3 & (sum1 ^ sum2));
+                long twoSum = carry1 ^ carry2 ^ carry3;
+                long fourCarry1 = (carry1 & carry2) | (carry3 & (carry1 ^ carry2));
+                twos[w] = twoSum ^ carry4;
+                long fourCarry2 = twoSum & carry4;
+                fours[w] = fourCarry1 ^ fourCarry2;
+                eights[w] = fourCarry1 & fourCarry2;
+            }
+        }
+
+        /**
+         * @return word w of the row starting at row in bombs, or 0 if row is -1 (off the board)
+         */
+        private long word(int row, int w) {
+            return row < 0 ? 0 : bombs[row + w];
+        }
+
+        /**
+         * @return for each cell of word w of a row, whether the cell to its west (x - 1) has a bomb
+         */
+        private long west(int row, int w, long word) {
+            return word << 1 | (w > 0 ? word(row, w - 1) >>> 63 : 0);
+        }
+
+        /**
+         * @return for each cell of word w of a row, whether the cell to its east (x + 1) has a bomb
+         */
+        private long east(int row, int w, long word) {
+            return word >>> 1 | (w + 1 < words ? word(row, w + 1) << 63 : 0);
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BombPlanesTest {
+
+	/**
+	 * Testing Partition:
+	 * 	Board width: 1, less than a word, exactly one word, a word and a bit, several words X
+	 * 	Board height: 1, several rows X
+	 * 	Counting a range of rows, leaving the other rows alone X
+	 * 	Finding a miscounted cell, or none X
+	 *
+	 */
+
+	@Test
+	public void countsMatchPerCellCounts() {
+	    Random random = new Random(6005);
+	    for (int columns : new int[] { 1, 2, 63, 64, 65, 130 }) {
+	        for (int rows : new int[] { 1, 2, 7 }) {
+	            byte[] cells = randomBombs(random, columns, rows);
+	            BombPlanes.countNeighbors(cells, columns, rows);
+	            for (int i = 0; i < cells.length; i++) {
+	                assertEquals(columns + " by " + rows + " at " + i,
+	                        perCellCount(cells, columns, rows, i % columns, i / columns), Box.neighborCount(cells[i]));
+	            }
+	            assertEquals(-1, BombPlanes.firstMiscounted(cells, columns, rows));
+	        }
+	    }
+	}
+
+	@Test
+	public void countsOnlyTheGivenRows() {
+	    Random random = new Random(6005);
+	    int columns = 70;
+	    int rows = 9;
+	    byte[] cells = randomBombs(random, columns, rows);
+	    BombPlanes.countNeighbors(cells, columns, rows, 3, 6);
+	    for (int i = 0; i < cells.length; i++) {
+	        int y = i / columns;
+	        int expected = y >= 3 && y < 6 ? perCellCount(cells, columns, rows, i % columns, y) : 0;
+	        assertEquals(expected, Box.neighborCount(cells[i]));
+	    }
+	}
+
+	@Test
+	public void findsFirstMiscountedCell() {
+	    byte[] cells = randomBombs(new Random(6005), 100, 4);
+	    BombPlanes.countNeighbors(cells, 100, 4);
+	    cells[250] = Box.withNeighborCount(cells[250], (Box.neighborCount(cells[250]) + 1) % 9);
+	    cells[320] = Box.withNeighborCount(cells[320], (Box.neighborCount(cells[320]) + 1) % 9);
+	    assertEquals(250, BombPlanes.firstMiscounted(cells, 100, 4));
+	}
+
+	/**
+	 * @return cells of a board where about one cell in three has a bomb
+	 */
+	private static byte[] randomBombs(Random random, int columns, int rows) {
+	    byte[] cells = new byte[columns * rows];
+	    for (int i = 0; i < cells.length; i++) {
+	        cells[i] = random.nextInt(3) == 0 ? (byte) Box.BOMB_BIT : 0;
+	    }
+	    return cells;
+	}
+
+	/**
+	 * @return the number of bombs around (x, y), counted one neighbor at a time
+	 */
+	private static int perCellCount(byte[] cells, int columns, int rows, int x, int y) {
+	    int bombs = 0;
+	    for (int ny = Math.max(y - 1, 0); ny <= Math.min(y + 1, rows - 1); ny++) {
+	        for (int nx = Math.max(x - 1, 0); nx <= Math.min(x + 1, columns - 1); nx++) {
+	            if (!(nx == x && ny == y) && Box.hasBomb(cells[ny * columns + nx])) {
+	                bombs++;
+	            }
+	        }
+	    }
+	    return bombs;
+	}
+
+}
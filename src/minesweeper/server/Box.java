@@ -9,24 +9,43 @@ import minesweeper.server.Board.Action;
 
 /**
  * Thread safety argument:
- * This data type is made thread safe by synchronizing all
- * dig, flag, and status changes using a lock on the object
- * itself.
+ * A Box is a thin view onto one cell of a packed cell store
+ * owned by a Board. It holds no state of its own besides its
+ * location, so it is exactly as thread safe as the store behind
+ * it: Board itself only reads and writes its cells while holding
+ * its lock, but views bypass that lock, so they may only be used 
+ * while no other thread is acting on the board. Writes through a 
+ * view are reported to the owning Board so it can keep its 
+ * rendering up to date.
+ * A Box created with the public constructor owns a private 
+ * one-cell store and is confined to the thread that created it.
  */
 
 /**
  * AF: A Box represents a square located at row i and column j of a Minesweeper game board
  * RI: i, j >=0
+ *
+ * Cell encoding: every cell of a board is a single byte
+ *     bits 0-3  number of neighboring bombs (0..8)
+ *     bit  4    whether the cell contains a bomb
+ *     bits 5-6  the ordinal of the cell's State
  * @author nathaliehuynh
  *
  */
 public class Box {
 
-    private boolean hasBomb;
-    private int row;
-    private int numberOfNeighboringBombs;
-    private int column;
-    private State status;
+    static final int COUNT_MASK = 0x0F;
+    static final int BOMB_BIT = 0x10;
+    static final int STATE_SHIFT = 5;
+    static final int STATE_MASK = 0x03 << STATE_SHIFT;
+
+    private static final State[] STATES = State.values();
+
+    private final Board owner;
+    private final byte[] cells;
+    private final int index;
+    private final int row;
+    private final int column;
 
 
     /**
@@ -35,106 +54,188 @@ public class Box {
      * @param xRow - the x location of the box
      * @param yColumn - the y location of the box
      * @param hasBomb - whether or not this box contains a bomb
-     * @param containingBoard - the board which this box is contained in
      */
     public Box(int xRow, int yColumn, boolean hasBomb) {
-        this.hasBomb = hasBomb;
+        this(null, new byte[] { hasBomb ? (byte) BOMB_BIT : 0 }, 0, xRow, yColumn);
+    }
+
+    /**
+     * Creates a view onto the cell at index of a packed cell store
+     * @param owner - the board which contains this box, or null if the 
+     *     box is not part of a board
+     * @param cells - the cell store of owner
+     * @param index - the index of this box's cell in cells
+     * @param xRow - the x location of the box
+     * @param yColumn - the y location of the box
+     */
+    Box(Board owner, byte[] cells, int index, int xRow, int yColumn) {
+        this.owner = owner;
+        this.cells = cells;
+        this.index = index;
         this.row = xRow;
         this.column = yColumn;
-        this.numberOfNeighboringBombs = 0;
-        this.status = State.UNTOUCHED;
         checkRep();
     }
 
     private void checkRep() {
         assert(row>=0);
         assert(column>=0);
+        assert(neighborCount(cells[index]) <= 8);
     }
     
     /**
      * 
      * @return the x location of this box
      */
-    public synchronized int getXLoc() {
-        return new Integer(this.row);
+    public int getXLoc() {
+        return this.row;
     }
 
     /**
      * 
      * @return the y location of this box
      */
-    public synchronized int getYLoc() {
-        return new Integer(this.column);
+    public int getYLoc() {
+        return this.column;
     }
     /**
      * 
      * @return the status of whether or not this box is flagged, unflagged or dug
      */
-    public synchronized State getStatus() {
-        return this.status;
+    public State getStatus() {
+        return state(cells[index]);
     }
 
     /**
      * 
      * @return the number of neighboring bombs
      */
-    public synchronized Integer getNumberOfNeighboringBombs() {
-        return new Integer(this.numberOfNeighboringBombs);
+    public Integer getNumberOfNeighboringBombs() {
+        return neighborCount(cells[index]);
     }
     /**
      * 
      * @return whether or not this contains a bomb
      */
-    public synchronized boolean bombStatus() {
-        //maintains a lock on this so other players cannot detonate bomb once this method is called
-        if (this.hasBomb) {return true;} 
-        return false;
+    public boolean bombStatus() {
+        return hasBomb(cells[index]);
     }
 
     /**
      * updates the number of bombs to be equal to bombs
      * @param bombs - the number of surrounding bombs
      */
-    public synchronized void updateNumberOfNeighboringBombs(int bombs) {
-        this.numberOfNeighboringBombs = bombs;
+    public void updateNumberOfNeighboringBombs(int bombs) {
+        cells[index] = withNeighborCount(cells[index], bombs);
+        cellUpdated();
         checkRep();
     }
     
     /**
      * updates the status of the box to be state
-     * @param bombs - the number of surrounding bombs
+     * @param state - the new state of the box
      */
-    public synchronized void updateStatus(State state) {
-        this.status = state;
+    public void updateStatus(State state) {
+        cells[index] = withState(cells[index], state);
+        cellUpdated();
         checkRep();
     }
     
     /**
      * updates the bomb status of the box to be bombStatus
-     * @param bombs - the number of surrounding bombs
+     * @param bombStatus - whether or not the box contains a bomb
      */
-    public synchronized void updateBombStatus(boolean bombStatus) {
-        this.hasBomb= bombStatus;
+    public void updateBombStatus(boolean bombStatus) {
+        cells[index] = withBomb(cells[index], bombStatus);
+        cellUpdated();
         checkRep();
     }
 
+    /**
+     * reports a write of this box's cell to the board which contains it
+     */
+    private void cellUpdated() {
+        if (owner != null) {
+            owner.cellUpdated(index);
+        }
+    }
+
     /**
      * returns the string representation of a box as displayed
      * on a Minesweeper board
      */
-    @Override public synchronized String toString() {
-        String statusRep = "-";
-
-        if (status.equals(State.DUG) && numberOfNeighboringBombs!=0) {
-            statusRep = Integer.toString(numberOfNeighboringBombs);
-        } else if(status.equals(State.DUG) && numberOfNeighboringBombs==0) {
-            statusRep = " ";
-        } else if (status.equals(State.FLAGGED)) {
-            statusRep = "F";
-        }
+    @Override public String toString() {
         checkRep();
-        return statusRep;
+        return String.valueOf(render(cells[index]));
+    }
+
+    /**
+     * @param cell - an encoded cell
+     * @return whether or not cell contains a bomb
+     */
+    static boolean hasBomb(byte cell) {
+        return (cell & BOMB_BIT) != 0;
+    }
 
+    /**
+     * @param cell - an encoded cell
+     * @return the number of bombs neighboring cell
+     */
+    static int neighborCount(byte cell) {
+        return cell & COUNT_MASK;
+    }
+
+    /**
+     * @param cell - an encoded cell
+     * @return the state of cell
+     */
+    static State state(byte cell) {
+        return STATES[(cell & STATE_MASK) >>> STATE_SHIFT];
+    }
+
+    /**
+     * @param cell - an encoded cell
+     * @param bombs - the number of neighboring bombs, between 0 and 8
+     * @return cell with its neighboring bomb count replaced by bombs
+     */
+    static byte withNeighborCount(byte cell, int bombs) {
+        return (byte) ((cell & ~COUNT_MASK) | bombs);
+    }
+
+    /**
+     * @param cell - an encoded cell
+     * @param state - the new state
+     * @return cell with its state replaced by state
+     */
+    static byte withState(byte cell, State state) {
+        return (byte) ((cell & ~STATE_MASK) | (state.ordinal() << STATE_SHIFT));
+    }
+
+    /**
+     * @param cell - an encoded cell
+     * @param bomb - whether or not the cell contains a bomb
+     * @return cell with its bomb bit replaced by bomb
+     */
+    static byte withBomb(byte cell, boolean bomb) {
+        return (byte) (bomb ? cell | BOMB_BIT : cell & ~BOMB_BIT);
+    }
+
+    /**
+     * @param cell - an encoded cell
+     * @return the character which represents cell on a Minesweeper board:
+     *     '-' if untouched, 'F' if flagged, ' ' if dug with no neighboring
+     *     bombs, or the number of neighboring bombs if dug
+     */
+    static char render(byte cell) {
+        switch (state(cell)) {
+        case DUG:
+            int bombs = neighborCount(cell);
+            return bombs == 0 ? ' ' : (char) ('0' + bombs);
+        case FLAGGED:
+            return 'F';
+        default:
+            return '-';
+        }
     }
 
     /**
@@ -0,0 +1,122 @@
+package minesweeper.server;
+
+import java.util.Arrays;
+
+/**
+ * Thread safety argument:
+ *  A ChangeLog is not thread safe. It is owned by a single Board and
+ *  only used while holding the lock on that board.
+ */
+
+/**
+ * AF: A ChangeLog is a bounded record of which cells of a board changed
+ *  in which board version. A cell is identified by a long key, the index
+ *  of the cell on a board with an array of cells (see Board) or its packed
+ *  location on a board without one (see EndlessBoard). It remembers the most recent capacity changes;
+ *  older changes are discarded, after which the log can no longer tell
+ *  what changed since the versions they belonged to.
+ *
+ * Rep: a ring buffer. The i-th change ever recorded is stored at
+ *  i % capacity of changedCells and changedVersions. recorded is the
+ *  number of changes ever recorded, and discardedThrough is the highest
+ *  version whose changes may no longer all be in the log.
+ *
+ * RI: recorded >= 0, versions are recorded in nondecreasing order,
+ *  and discardedThrough <= the version of every retained change
+ * @author nathaliehuynh
+ *
+ */
+class ChangeLog {
+
+    private final long[] changedCells;
+    private final long[] changedVersions;
+    private long recorded = 0;
+    private long discardedThrough = 0;
+
+    /**
+     * Creates an empty change log
+     * @param capacity - the number of changes the log remembers, must be positive
+     */
+    ChangeLog(int capacity) {
+        this.changedCells = new long[capacity];
+        this.changedVersions = new long[capacity];
+    }
+
+    /**
+     * records that a cell changed in a version, discarding the oldest
+     * change if the log is full
+     * @param version - the board version the change belongs to, no lower
+     *     than the version of any change recorded before
+     * @param cell - the key of the cell which changed
+     */
+    void record(long version, long cell) {
+        int slot = (int) (recorded % changedCells.length);
+        if (recorded >= changedCells.length) {
+            discardedThrough = Math.max(discardedThrough, changedVersions[slot]);
+        }
+        changedCells[slot] = cell;
+        changedVersions[slot] = version;
+        recorded++;
+    }
+
+    /**
+     * forgets every change belonging to version or an earlier version,
+     * e.g. because every cell of the board may have changed
+     * @param version - the latest version to forget
+     */
+    void discardThrough(long version) {
+        discardedThrough = Math.max(discardedThrough, version);
+    }
+
+    /**
+     * @param version - a board version
+     * @return true if every change made after version is still in the log
+     */
+    boolean reaches(long version) {
+        return version >= discardedThrough;
+    }
+
+    /**
+     * @param version - a board version which this log reaches
+     * @return the distinct keys of the cells changed after version,
+     *     in the order they were first changed
+     */
+    long[] cellsChangedSince(long version) {
+        assert(reaches(version));
+        long first = Math.max(0, recorded - changedCells.length);
+        long start = recorded;
+        while (start > first && changedVersions[(int) ((start - 1) % changedCells.length)] > version) {
+            start--;
+        }
+        long[] cells = new long[(int) (recorded - start)];
+        int count = 0;
+        for (long i = start; i < recorded; i++) {
+            cells[count++] = changedCells[(int) (i % changedCells.length)];
+        }
+        return distinct(cells);
+    }
+
+    /**
+     * @param cells - cell keys
+     * @return the cells with every repeat of an earlier cell removed
+     */
+    private static long[] distinct(long[] cells) {
+        long[] sorted = cells.clone();
+        Arrays.sort(sorted);
+        boolean[] seen = new boolean[cells.length];
+        int count = 0;
+        long[] result = new long[cells.length];
+        for (long cell : cells) {
+            int position = Arrays.binarySearch(sorted, cell);
+            while (position > 0 && sorted[position - 1] == cell) {
+                position--;
+            }
+            if (!seen[position]) {
+                seen[position] = true;
+                result[count++] = cell;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+}
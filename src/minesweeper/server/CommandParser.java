@@ -0,0 +1,378 @@
+package minesweeper.server;
+
+import java.util.Arrays;
+
+import minesweeper.server.Board.Action;
+
+/**
+ * Thread safety argument:
+ *  A CommandParser is not thread safe. Each session owns its own parser
+ *  and only uses it from the thread serving that session.
+ */
+
+/**
+ * AF: A CommandParser reads one line of the Minesweeper text protocol,
+ *  the grammar
+ *      look | dig N N | flag N N | deflag N N | help | bye
+ *      | look since D | look N N N N | batch( (dig|flag|deflag) N N)+ | join R | unbomb N N | stats
+ *      | subscribe | unsubscribe | hint
+ *  where N is -?[0-9]+, D is [0-9]+ and R is [A-Za-z0-9_-]{1,64}, with single spaces between
+ *  tokens and nothing else on the line. It parses in one pass straight
+ *  from the characters of the line into a Command and its numbers,
+ *  without creating any intermediate String, and keeps the result of the
+ *  last parse until the next one.
+ *
+ *  A line can follow the grammar and still have a number too large for
+ *  its type (an int for coordinates, a long for versions); such a line is
+ *  parsed, and overflowed() reports it.
+ *
+ * RI: xs, ys and actions have the same length, and count <= that length;
+ *  count == 0 unless command is DIG, FLAG, DEFLAG, BATCH, UNBOMB or
+ *  LOOK_WINDOW, whose one location has no action
+ * @author nathaliehuynh
+ *
+ */
+class CommandParser {
+
+    /**
+     * The kinds of line a parser tells apart
+     */
+    enum Command {INVALID, LOOK, LOOK_SINCE, LOOK_WINDOW, DIG, FLAG, DEFLAG, BATCH, HELP, BYE, JOIN, UNBOMB, STATS, SUBSCRIBE, UNSUBSCRIBE, HINT}
+
+    static final int MAX_ROOM_LENGTH = 64;
+
+    private Command command = Command.INVALID;
+    private boolean overflowed = false;
+    private long version = 0;
+    private int width = 0;
+    private int height = 0;
+    private final StringBuilder room = new StringBuilder(MAX_ROOM_LENGTH);
+    private int count = 0;
+    private int[] xs = new int[1];
+    private int[] ys = new int[1];
+    private Action[] actions = new Action[1];
+
+    // the number parsed by the last call to parseInt or parseVersion
+    private long number;
+
+    /**
+     * parses a line, replacing the result of the previous parse
+     * @param line - a line without its line terminator
+     * @return the kind of command on the line, INVALID if the line does
+     *     not follow the grammar
+     */
+    Command parse(CharSequence line) {
+        overflowed = false;
+        count = 0;
+        command = parseCommand(line, line.length());
+        if (command == Command.INVALID) {
+            overflowed = false;
+            count = 0;
+        }
+        return command;
+    }
+
+    /**
+     * @return the kind of command of the last parse
+     */
+    Command command() {
+        return command;
+    }
+
+    /**
+     * @return true if the last line parsed follows the grammar but has a
+     *     number which does not fit in its type
+     */
+    boolean overflowed() {
+        return overflowed;
+    }
+
+    /**
+     * @return the version of the last LOOK_SINCE parsed
+     */
+    long version() {
+        return version;
+    }
+
+    /**
+     * @return the width of the window of the last LOOK_WINDOW parsed,
+     *     whose top left corner is the location x(0), y(0)
+     */
+    int width() {
+        return width;
+    }
+
+    /**
+     * @return the height of the window of the last LOOK_WINDOW parsed
+     */
+    int height() {
+        return height;
+    }
+
+    /**
+     * @return the room of the last JOIN parsed. Unlike the rest of the
+     *     parse, this creates a String, since joining a room is rare.
+     */
+    String room() {
+        return room.toString();
+    }
+
+    /**
+     * @return the number of actions of the last DIG, FLAG, DEFLAG (one) or
+     *     BATCH parsed, or 1 for the location of the last UNBOMB or
+     *     LOOK_WINDOW parsed
+     */
+    int actionCount() {
+        return count;
+    }
+
+    /**
+     * @param i - requires 0 <= i < actionCount()
+     * @return the i-th action of the last line parsed, null for UNBOMB
+     *     and LOOK_WINDOW
+     */
+    Action action(int i) {
+        return actions[i];
+    }
+
+    /**
+     * @param i - requires 0 <= i < actionCount()
+     * @return the x location of the i-th action of the last line parsed
+     */
+    int x(int i) {
+        return xs[i];
+    }
+
+    /**
+     * @param i - requires 0 <= i < actionCount()
+     * @return the y location of the i-th action of the last line parsed
+     */
+    int y(int i) {
+        return ys[i];
+    }
+
+    /**
+     * @return the kind of command on line, recording its numbers
+     */
+    private Command parseCommand(CharSequence line, int length) {
+        if (length == 0) {
+            return Command.INVALID;
+        }
+        int position;
+        switch (line.charAt(0)) {
+        case 'l':
+            position = parseWord(line, 0, length, "look");
+            if (position == length) {
+                return Command.LOOK;
+            }
+            int since = parseWord(line, position, length, " since ");
+            if (since >= 0) {
+                if (parseVersion(line, since, length) != length) {
+                    return Command.INVALID;
+                }
+                version = number;
+                return Command.LOOK_SINCE;
+            }
+            position = parseWord(line, position, length, " ");
+            position = parseLocation(line, position, length, null);
+            position = parseWord(line, position, length, " ");
+            position = parseInt(line, position, length);
+            width = (int) number;
+            position = parseWord(line, position, length, " ");
+            position = parseInt(line, position, length);
+            height = (int) number;
+            return position == length ? Command.LOOK_WINDOW : Command.INVALID;
+        case 'j':
+            position = parseWord(line, 0, length, "join ");
+            if (position < 0 || length - position > MAX_ROOM_LENGTH || position == length) {
+                return Command.INVALID;
+            }
+            room.setLength(0);
+            for (; position < length; position++) {
+                char c = line.charAt(position);
+                if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || isDigit(c) || c == '_' || c == '-')) {
+                    return Command.INVALID;
+                }
+                room.append(c);
+            }
+            return Command.JOIN;
+        case 'h':
+            if (parseWord(line, 0, length, "hint") == length) {
+                return Command.HINT;
+            }
+            return parseWord(line, 0, length, "help") == length ? Command.HELP : Command.INVALID;
+        case 'b':
+            if (parseWord(line, 0, length, "bye") == length) {
+                return Command.BYE;
+            }
+            position = parseWord(line, 0, length, "batch");
+            if (position < 0 || position == length) {
+                return Command.INVALID;
+            }
+            while (position >= 0 && position < length) {
+                position = parseWord(line, position, length, " ");
+                position = parseAction(line, position, length);
+            }
+            return position == length ? Command.BATCH : Command.INVALID;
+        case 'd':
+        case 'f':
+            position = parseAction(line, 0, length);
+            if (position != length) {
+                return Command.INVALID;
+            }
+            return actions[0] == Action.DIG ? Command.DIG : actions[0] == Action.FLAG ? Command.FLAG : Command.DEFLAG;
+        case 'u':
+            if (parseWord(line, 0, length, "unsubscribe") == length) {
+                return Command.UNSUBSCRIBE;
+            }
+            position = parseWord(line, 0, length, "unbomb ");
+            return parseLocation(line, position, length, null) == length ? Command.UNBOMB : Command.INVALID;
+        case 's':
+            if (parseWord(line, 0, length, "subscribe") == length) {
+                return Command.SUBSCRIBE;
+            }
+            return parseWord(line, 0, length, "stats") == length ? Command.STATS : Command.INVALID;
+        default:
+            return Command.INVALID;
+        }
+    }
+
+    /**
+     * parses "dig N N", "flag N N" or "deflag N N" at position, appending
+     * the action to the actions parsed so far
+     * @return the position after the action, or -1 if there is none at position
+     */
+    private int parseAction(CharSequence line, int position, int length) {
+        if (position < 0 || position >= length) {
+            return -1;
+        }
+        Action action;
+        int next;
+        switch (line.charAt(position)) {
+        case 'd':
+            next = parseWord(line, position, length, "dig ");
+            action = Action.DIG;
+            if (next < 0) {
+                next = parseWord(line, position, length, "deflag ");
+                action = Action.UNFLAG;
+            }
+            break;
+        case 'f':
+            next = parseWord(line, position, length, "flag ");
+            action = Action.FLAG;
+            break;
+        default:
+            return -1;
+        }
+        return parseLocation(line, next, length, action);
+    }
+
+    /**
+     * parses "N N" at position, appending it with action to the actions
+     * parsed so far
+     * @return the position after the location, or -1 if there is none at position
+     */
+    private int parseLocation(CharSequence line, int position, int length, Action action) {
+        int next = parseInt(line, position, length);
+        int x = (int) number;
+        next = parseWord(line, next, length, " ");
+        next = parseInt(line, next, length);
+        int y = (int) number;
+        if (next < 0) {
+            return -1;
+        }
+        if (count == actions.length) {
+            xs = Arrays.copyOf(xs, 2 * count);
+            ys = Arrays.copyOf(ys, 2 * count);
+            actions = Arrays.copyOf(actions, 2 * count);
+        }
+        xs[count] = x;
+        ys[count] = y;
+        actions[count] = action;
+        count++;
+        return next;
+    }
+
+    /**
+     * @return the position after word if line has word at position, otherwise -1
+     */
+    private static int parseWord(CharSequence line, int position, int length, String word) {
+        if (position < 0 || length - position < word.length()) {
+            return -1;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (line.charAt(position + i) != word.charAt(i)) {
+                return -1;
+            }
+        }
+        return position + word.length();
+    }
+
+    /**
+     * parses -?[0-9]+ at position into number, noting in overflowed if it
+     * does not fit in an int
+     * @return the position after the number, or -1 if there is none at position
+     */
+    private int parseInt(CharSequence line, int position, int length) {
+        if (position < 0 || position >= length) {
+            return -1;
+        }
+        boolean negative = line.charAt(position) == '-';
+        int next = negative ? position + 1 : position;
+        // accumulate negatively, since Integer.MIN_VALUE has no positive counterpart
+        long value = 0;
+        int start = next;
+        while (next < length && isDigit(line.charAt(next))) {
+            if (value >= Integer.MIN_VALUE) {
+                value = value * 10 - (line.charAt(next) - '0');
+            }
+            next++;
+        }
+        if (next == start) {
+            return -1;
+        }
+        if (!negative) {
+            value = -value;
+        }
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            overflowed = true;
+        }
+        number = value;
+        return next;
+    }
+
+    /**
+     * parses [0-9]+ at position into number, noting in overflowed if it
+     * does not fit in a long
+     * @return the position after the number, or -1 if there is none at position
+     */
+    private int parseVersion(CharSequence line, int position, int length) {
+        if (position < 0 || position >= length) {
+            return -1;
+        }
+        long value = 0;
+        int next = position;
+        while (next < length && isDigit(line.charAt(next))) {
+            int digit = line.charAt(next) - '0';
+            if (value > (Long.MAX_VALUE - digit) / 10) {
+                overflowed = true;
+            } else {
+                value = value * 10 + digit;
+            }
+            next++;
+        }
+        if (next == position) {
+            return -1;
+        }
+        number = value;
+        return next;
+    }
+
+    /**
+     * @return true if c is one of the ASCII digits matched by \d
+     */
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+}
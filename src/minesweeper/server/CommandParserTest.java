@@ -0,0 +1,222 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import minesweeper.server.Board.Action;
+import minesweeper.server.CommandParser.Command;
+
+import org.junit.Test;
+
+public class CommandParserTest {
+
+	/**
+	 * Testing Partition:
+	 * 	Every command of the grammar, with and without numbers at the int and long limits X
+	 * 	Room names: valid, too long, with characters outside [A-Za-z0-9_-] X
+	 * 	Lines the grammar rejects: empty, extra spaces, missing numbers, unknown words, "\r", non-ASCII digits X
+	 * 	Equivalence with the regular expression handleRequest used to match, and with
+	 * 	split and parseInt / parseLong, on many random lines X
+	 *
+	 */
+
+	// the grammar MinesweeperSession.handleRequest matched before it used a CommandParser
+	private static final String COMMAND_REGEX = "(look)|(dig -?\\d+ -?\\d+)|(flag -?\\d+ -?\\d+)|(deflag -?\\d+ -?\\d+)|(help)|(bye)"
+	        + "|(look since \\d+)|(look -?\\d+ -?\\d+ -?\\d+ -?\\d+)|(batch( (dig|flag|deflag) -?\\d+ -?\\d+)+)|(join [A-Za-z0-9_-]{1,64})"
+	        + "|(unbomb -?\\d+ -?\\d+)|(stats)|(subscribe)|(unsubscribe)|(hint)";
+
+	private static final String[] NUMBERS = {
+	    "0", "7", "42", "-3", "00012", "2147483647", "2147483648", "-2147483648", "-2147483649",
+	    "9223372036854775807", "9223372036854775808", "123456789012345678901234567890",
+	};
+	private static final String[] PIECES = {
+	    "look", "since", "dig", "flag", "deflag", "help", "bye", "batch", "join", "lo", "de", "ba", "jo",
+	    "room_1", "Game-7", "\u00e9", "01234567890123456789012345678901234567890123456789012345678901",
+	    " ", " ", " ", "  ", "-", "--", "\r", "\t", "x", "\u0661", // an Arabic-Indic digit, not matched by \d
+	    "0", "7", "42", "-3", "00012", "2147483647", "2147483648", "-2147483648", "-2147483649",
+	    "9223372036854775807", "9223372036854775808", "123456789012345678901234567890",
+	    "unbomb", "un", "stats", "st", "subscribe", "unsubscribe", "sub", "hint", "hi",
+	};
+
+	@Test
+	public void parsesEveryCommand() {
+	    CommandParser parser = new CommandParser();
+	    assertEquals(Command.LOOK, parser.parse("look"));
+	    assertEquals(Command.HELP, parser.parse("help"));
+	    assertEquals(Command.BYE, parser.parse("bye"));
+	    assertEquals(Command.LOOK_SINCE, parser.parse("look since 9223372036854775807"));
+	    assertEquals(Long.MAX_VALUE, parser.version());
+	    assertFalse(parser.overflowed());
+	    assertEquals(Command.DIG, parser.parse("dig -2147483648 2147483647"));
+	    assertEquals(1, parser.actionCount());
+	    assertEquals(Action.DIG, parser.action(0));
+	    assertEquals(Integer.MIN_VALUE, parser.x(0));
+	    assertEquals(Integer.MAX_VALUE, parser.y(0));
+	    assertEquals(Command.DEFLAG, parser.parse("deflag 3 -0"));
+	    assertEquals(Action.UNFLAG, parser.action(0));
+	    assertEquals(Command.JOIN, parser.parse("join Game-7_x"));
+	    assertEquals("Game-7_x", parser.room());
+	    assertEquals(Command.BATCH, parser.parse("batch flag 1 2 dig 3 4 deflag 5 6"));
+	    assertEquals(3, parser.actionCount());
+	    assertEquals(Action.FLAG, parser.action(0));
+	    assertEquals(Action.UNFLAG, parser.action(2));
+	    assertEquals(3, parser.x(1));
+	    assertEquals(6, parser.y(2));
+	    assertEquals(Command.UNBOMB, parser.parse("unbomb -1 4"));
+	    assertEquals(1, parser.actionCount());
+	    assertNull(parser.action(0));
+	    assertEquals(-1, parser.x(0));
+	    assertEquals(4, parser.y(0));
+	    assertEquals(Command.STATS, parser.parse("stats"));
+	    assertEquals(0, parser.actionCount());
+	    assertEquals(Command.LOOK_WINDOW, parser.parse("look -1 2 30 40"));
+	    assertEquals(1, parser.actionCount());
+	    assertNull(parser.action(0));
+	    assertEquals(-1, parser.x(0));
+	    assertEquals(2, parser.y(0));
+	    assertEquals(30, parser.width());
+	    assertEquals(40, parser.height());
+	    assertEquals(Command.SUBSCRIBE, parser.parse("subscribe"));
+	    assertEquals(Command.UNSUBSCRIBE, parser.parse("unsubscribe"));
+	    assertEquals(Command.HINT, parser.parse("hint"));
+	}
+
+	@Test
+	public void overflowingNumbersFollowTheGrammar() {
+	    CommandParser parser = new CommandParser();
+	    assertEquals(Command.FLAG, parser.parse("flag 2147483648 0"));
+	    assertTrue(parser.overflowed());
+	    assertEquals(Command.LOOK_SINCE, parser.parse("look since 9223372036854775808"));
+	    assertTrue(parser.overflowed());
+	    assertEquals(Command.LOOK_WINDOW, parser.parse("look 0 0 2147483648 1"));
+	    assertTrue(parser.overflowed());
+	    assertEquals(Command.LOOK, parser.parse("look"));
+	    assertFalse(parser.overflowed());
+	}
+
+	@Test
+	public void rejectsLinesOutsideTheGrammar() {
+	    CommandParser parser = new CommandParser();
+	    for (String line : new String[] { "", " look", "look ", "dig 1", "dig 1  2", "dig - 2", "dig 1 2\r",
+	            "look since -1", "batch", "batch ", "batch dig 1 2 ", "Look", "bye bye", "dig \u0661 2",
+	            "join ", "join a b", "join a.b", "unbomb 1", "batch unbomb 1 2", "stats ", "stat", "stats 1",
+	            "subscribe 1", "unsubscribe ", "subscribed", "un subscribe", "hint ", "hints", "hint 1 2",
+	            "look 1 2 3", "look 1 2 3 4 ", "look since 1 2", "look 1 2 3 4 5", "look  1 2 3 4" }) {
+	        assertEquals(line, Command.INVALID, parser.parse(line));
+	        assertEquals(0, parser.actionCount());
+	    }
+	}
+
+	@Test
+	public void matchesRegexOnRandomLines() {
+	    Random random = new Random(6005);
+	    CommandParser parser = new CommandParser();
+	    int accepted = 0;
+	    for (int i = 0; i < 200000; i++) {
+	        String line = randomLine(random);
+	        Command command = parser.parse(line);
+	        boolean matches = line.matches(COMMAND_REGEX);
+	        assertEquals(line, matches, command != Command.INVALID);
+	        if (matches) {
+	            accepted++;
+	            assertSameAsSplitAndParse(line, parser);
+	        }
+	    }
+	    assertTrue("too few random lines follow the grammar: " + accepted, accepted > 20000);
+	}
+
+	/**
+	 * @return a line built from the words, spaces and numbers of the
+	 *     grammar, often a command with a few characters changed
+	 */
+	private static String randomLine(Random random) {
+	    StringBuilder line = new StringBuilder();
+	    if (random.nextBoolean()) {
+	        String[] words = { "dig", "flag", "deflag", "unbomb" };
+	        switch (random.nextInt(5)) {
+	        case 4:
+	            line.append("join ").append(PIECES[13 + random.nextInt(4)]);
+	            break;
+	        case 0:
+	            switch (random.nextInt(3)) {
+	            case 0:
+	                line.append("look");
+	                break;
+	            case 1:
+	                line.append("look since ").append(NUMBERS[random.nextInt(NUMBERS.length)]);
+	                break;
+	            default:
+	                line.append("look");
+	                for (int n = 0; n < 4; n++) {
+	                    line.append(' ').append(NUMBERS[random.nextInt(NUMBERS.length)]);
+	                }
+	            }
+	            break;
+	        case 1:
+	            line.append(new String[] { "help", "bye", "stats", "subscribe", "unsubscribe", "hint" }[random.nextInt(6)]);
+	            break;
+	        default:
+	            int actions = random.nextInt(3) == 0 ? 0 : random.nextInt(4);
+	            line.append(actions == 0 ? "" : "batch ");
+	            for (int a = 0; a <= actions; a++) {
+	                line.append(a == 0 ? "" : " ").append(words[random.nextInt(4)])
+	                        .append(' ').append(NUMBERS[random.nextInt(NUMBERS.length)])
+	                        .append(' ').append(NUMBERS[random.nextInt(NUMBERS.length)]);
+	            }
+	        }
+	        for (int changes = random.nextInt(3); changes > 0 && line.length() > 0; changes--) {
+	            int at = random.nextInt(line.length());
+	            switch (random.nextInt(3)) {
+	            case 0:
+	                line.deleteCharAt(at);
+	                break;
+	            case 1:
+	                line.insert(at, PIECES[random.nextInt(PIECES.length)]);
+	                break;
+	            default:
+	                line.setCharAt(at, " -0x\r".charAt(random.nextInt(5)));
+	            }
+	        }
+	    } else {
+	        for (int pieces = random.nextInt(9); pieces > 0; pieces--) {
+	            line.append(PIECES[random.nextInt(PIECES.length)]);
+	        }
+	    }
+	    return line.toString();
+	}
+
+	/**
+	 * checks what parser parsed from line against splitting line on spaces
+	 * and parsing its numbers with parseInt and parseLong
+	 */
+	private static void assertSameAsSplitAndParse(String line, CommandParser parser) {
+	    String[] tokens = line.split(" ");
+	    try {
+	        if (tokens[0].equals("look") && tokens.length == 3) {
+	            assertEquals(line, Long.parseLong(tokens[2]), parser.version());
+	        } else if (tokens[0].equals("look") && tokens.length == 5) {
+	            assertEquals(line, Integer.parseInt(tokens[1]), parser.x(0));
+	            assertEquals(line, Integer.parseInt(tokens[2]), parser.y(0));
+	            assertEquals(line, Integer.parseInt(tokens[3]), parser.width());
+	            assertEquals(line, Integer.parseInt(tokens[4]), parser.height());
+	        } else if (tokens[0].equals("batch") || tokens.length == 3) {
+	            int first = tokens[0].equals("batch") ? 1 : 0;
+	            assertEquals(line, (tokens.length - first) / 3, parser.actionCount());
+	            for (int i = 0; i < parser.actionCount(); i++) {
+	                String word = tokens[first + 3 * i];
+	                Action action = word.equals("dig") ? Action.DIG : word.equals("flag") ? Action.FLAG
+	                        : word.equals("deflag") ? Action.UNFLAG : null;
+	                assertEquals(line, action, parser.action(i));
+	                assertEquals(line, Integer.parseInt(tokens[first + 3 * i + 1]), parser.x(i));
+	                assertEquals(line, Integer.parseInt(tokens[first + 3 * i + 2]), parser.y(i));
+	            }
+	        }
+	    } catch (NumberFormatException e) {
+	        assertTrue(line, parser.overflowed());
+	        return;
+	    }
+	    assertFalse(line, parser.overflowed());
+	}
+
+}
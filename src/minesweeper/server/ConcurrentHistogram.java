@@ -0,0 +1,58 @@
+package minesweeper.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread safety argument:
+ *  Every field is an atomic, and record updates each with a single
+ *  atomic operation, so any number of threads can record at once without
+ *  locking. A snapshot taken while threads record may include part of a
+ *  latency (counted but not yet summed, say), which is fine for a
+ *  statistic that is only ever read by people.
+ */
+
+/**
+ * AF: A ConcurrentHistogram is a LatencyHistogram which many threads can
+ *  record into at once, such as every thread serving players on a
+ *  server. It has the same buckets and precision as a LatencyHistogram.
+ *
+ * Rep: counts[i] is the number of latencies in bucket i of
+ *  LatencyHistogram.bucketOf
+ *
+ * RI: max is the largest latency recorded
+ * @author nathaliehuynh
+ *
+ */
+class ConcurrentHistogram {
+
+    private final AtomicLongArray counts = new AtomicLongArray(LatencyHistogram.BUCKETS);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * records one latency
+     * @param value - the latency, negative values count as 0
+     */
+    void record(long value) {
+        long recorded = Math.max(value, 0);
+        counts.incrementAndGet(LatencyHistogram.bucketOf(recorded));
+        sum.addAndGet(recorded);
+        long largest = max.get();
+        while (recorded > largest && !max.compareAndSet(largest, recorded)) {
+            largest = max.get();
+        }
+    }
+
+    /**
+     * @return a copy of the latencies recorded so far
+     */
+    LatencyHistogram snapshot() {
+        long[] copy = new long[counts.length()];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new LatencyHistogram(copy, sum.get(), max.get());
+    }
+
+}
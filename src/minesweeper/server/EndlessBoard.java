@@ -0,0 +1,774 @@
+package minesweeper.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+import minesweeper.server.Board.Action;
+import minesweeper.server.Box.State;
+
+/**
+ * Thread safety argument:
+ *  Every action, look, lookSince and statistic holds lock for its whole
+ *  duration, so chunks, the cells of every chunk, spilled, changed,
+ *  version and changeLog are only used by one thread at a time and each
+ *  action appears atomic to the players of this board. Chunks are spilled
+ *  to and reloaded from disk while holding lock, as ShardedBoard talks to
+ *  its shards; a chunk is only ever on disk or in memory, never in
+ *  between, while another thread can see it. The lock is a ReentrantLock,
+ *  so virtual threads waiting for it release their carrier thread.
+ */
+
+/**
+ * AF: An EndlessBoard is a board too large to hold: SIZE by SIZE cells,
+ *  whose cells only exist once a player reaches them. The board is cut
+ *  into chunks of CHUNK_SIZE by CHUNK_SIZE cells. The bombs of a chunk
+ *  are drawn from a SplittableRandom seeded by a hash of the board's seed
+ *  and the chunk's location, so a chunk is the same whenever and in
+ *  whatever order it is generated, and its neighboring bomb counts are
+ *  counted over the bombs of the chunk and of the edges of the chunks
+ *  around it, so they agree with those chunks wherever they meet.
+ *
+ *  Only the chunks an action or a look touches are held in memory, at
+ *  most cacheChunks of them between operations, the least recently used
+ *  leaving first. A chunk no player has changed since it was generated or
+ *  reloaded is simply dropped and generated or reloaded again when
+ *  needed; a changed chunk is spilled to spillDirectory first. A chunk no
+ *  player has ever changed is all untouched, so looking at it neither
+ *  generates nor holds it.
+ *
+ *  Digging a bomb removes it, as on a Board, and every chunk with a
+ *  neighbor of the bomb is loaded and changed; so a chunk whose counts
+ *  depend on a removed bomb is never generated again, and a generated
+ *  chunk can rely on the original bombs around it.
+ *
+ *  The whole board cannot be written out: wherever another board
+ *  describes the whole board (toString, look(null), the replies of actions
+ *  without a viewport, FULL descriptions), an EndlessBoard describes the
+ *  HOME viewport, and players see the rest through viewports.
+ *
+ * Rep: chunks maps chunkKey(chunkX, chunkY) to the chunk at (chunkX, chunkY),
+ *  in order of use. The cell at (x, y) is byte (y % CHUNK_SIZE) * CHUNK_SIZE
+ *  + x % CHUNK_SIZE of the chunk at (x / CHUNK_SIZE, y / CHUNK_SIZE),
+ *  using the encoding of Box. spilled holds the keys of the chunks this
+ *  board wrote to spillDirectory. version counts the actions which
+ *  changed a cell, and changeLog records the cells each of them changed by
+ *  cellKey(x, y); changed holds the cells of the action in progress.
+ *
+ * RI: cacheChunks > 0; a chunk in chunks is not modified unless it differs
+ *  from its file, or from its generation if it has no file
+ * @author nathaliehuynh
+ *
+ */
+public class EndlessBoard implements GameBoard {
+
+    /**
+     * the number of columns and of rows of a chunk
+     */
+    public static final int CHUNK_SIZE = 64;
+    /**
+     * the number of columns and of rows of the board: as many whole chunks
+     * as the protocol's locations reach
+     */
+    public static final int SIZE = CHUNK_SIZE * (Integer.MAX_VALUE / CHUNK_SIZE);
+    /**
+     * the viewport described wherever another board describes the whole board
+     */
+    public static final Viewport HOME = new Viewport(0, 0, CHUNK_SIZE, CHUNK_SIZE);
+    /**
+     * the most columns and rows a look describes; a larger viewport is cut
+     * down to its top left MAX_LOOK_SIDE by MAX_LOOK_SIDE cells
+     */
+    public static final int MAX_LOOK_SIDE = 1024;
+
+    private static final String BOOM_MESSAGE = "BOOM!";
+    private static final String NO_HINT_MESSAGE = "no hint";
+    private static final int CHUNK_SHIFT = 6;
+    private static final int CHUNK_CELLS = CHUNK_SIZE * CHUNK_SIZE;
+    private static final int CHUNKS_ACROSS = SIZE / CHUNK_SIZE;
+    private static final int BOMB_ONE_IN = 4;
+    private static final int CHANGE_LOG_CAPACITY = 1 << 16;
+
+    private final long seed;
+    private final int cacheChunks;
+    private final File spillDirectory;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Long, Chunk> chunks = new LinkedHashMap<Long, Chunk>(16, 0.75f, true);
+    private final Set<Long> spilled = new HashSet<Long>();
+    private final ChangeLog changeLog = new ChangeLog(CHANGE_LOG_CAPACITY);
+    private long version = 0;
+    private long[] changed = new long[16];
+    private int changes = 0;
+    private long[] fillStack = new long[16];
+    private int lastDug = 0;
+    private long generations = 0;
+    private long spills = 0;
+    private long reloads = 0;
+
+    static {
+        assert(1 << CHUNK_SHIFT == CHUNK_SIZE);
+    }
+
+    /**
+     * Creates an endless board
+     * @param seed - the seed of the bombs; the same seed always gives the same board
+     * @param cacheChunks - the most chunks held in memory between operations, must be positive
+     * @param spillDirectory - a directory for the chunks spilled from
+     *     memory, created if it does not exist, which no other board uses
+     * @throws IOException if the directory cannot be created
+     * @throws IllegalArgumentException if cacheChunks is not positive
+     */
+    public EndlessBoard(long seed, int cacheChunks, File spillDirectory) throws IOException {
+        if (cacheChunks <= 0) {
+            throw new IllegalArgumentException("cache must hold at least one chunk: " + cacheChunks);
+        }
+        this.seed = seed;
+        this.cacheChunks = cacheChunks;
+        this.spillDirectory = spillDirectory;
+        Files.createDirectories(spillDirectory.toPath());
+    }
+
+    /**
+     * Processes an action at a specified location on the board
+     * @param rowLocX - the x location of a box on the board
+     * @param columnLocY - the y location of a box on the board
+     * @param action an action to be processed
+     * @return "BOOM!" if a bomb was detonated as a result of a dig,
+     *     "" if the location is not on the board, or
+     *     the HOME viewport of the board otherwise
+     * @throws UncheckedIOException if a chunk cannot be spilled or reloaded
+     */
+    public String processAction(int rowLocX, int columnLocY, Action action) {
+        return processAction(rowLocX, columnLocY, action, null);
+    }
+
+    /**
+     * Processes an action as processAction, but describes only a viewport
+     * of the board
+     * @param rowLocX - the x location of a box on the board
+     * @param columnLocY - the y location of a box on the board
+     * @param action an action to be processed
+     * @param viewport - the viewport to describe, or null for HOME
+     * @return as processAction, with look(viewport) in place of the board
+     * @throws UncheckedIOException if a chunk cannot be spilled or reloaded
+     */
+    public String processAction(int rowLocX, int columnLocY, Action action, Viewport viewport) {
+        if (!onBoard(rowLocX, columnLocY)) {
+            return "";
+        }
+        int bombsDug = applyActions(new int[] { rowLocX }, new int[] { columnLocY }, new Action[] { action }, true);
+        return bombsDug > 0 ? BOOM_MESSAGE : look(viewport);
+    }
+
+    /**
+     * Processes a batch of actions in order, see Board.processActions
+     * @param rowLocXs - the x location of each action
+     * @param columnLocYs - the y location of each action
+     * @param actions - the actions to be processed
+     * @param stopAtBomb - whether the batch ends at the first dig which
+     *     detonates a bomb, leaving the rest of the actions unprocessed
+     * @return "BOOM!" if stopAtBomb and a dig detonated a bomb; otherwise
+     *     the HOME viewport of the board after the batch, preceded by a
+     *     "BOOM!" line if a dig detonated a bomb
+     * @throws IllegalArgumentException if the arrays differ in length
+     * @throws UncheckedIOException if a chunk cannot be spilled or reloaded
+     */
+    public String processActions(int[] rowLocXs, int[] columnLocYs, Action[] actions, boolean stopAtBomb) {
+        return processActions(rowLocXs, columnLocYs, actions, stopAtBomb, null);
+    }
+
+    /**
+     * Processes a batch of actions as processActions, but describes only a
+     * viewport of the board
+     * @param rowLocXs - the x location of each action
+     * @param columnLocYs - the y location of each action
+     * @param actions - the actions to be processed
+     * @param stopAtBomb - whether the batch ends at the first dig which
+     *     detonates a bomb
+     * @param viewport - the viewport to describe, or null for HOME
+     * @return as processActions, with look(viewport) in place of the board
+     * @throws IllegalArgumentException if the arrays differ in length
+     * @throws UncheckedIOException if a chunk cannot be spilled or reloaded
+     */
+    public String processActions(int[] rowLocXs, int[] columnLocYs, Action[] actions, boolean stopAtBomb,
+            Viewport viewport) {
+        if (rowLocXs.length != actions.length || columnLocYs.length != actions.length) {
+            throw new IllegalArgumentException("every action needs one x and one y location");
+        }
+        int bombsDug = applyActions(rowLocXs, columnLocYs, actions, stopAtBomb);
+        if (bombsDug > 0) {
+            return stopAtBomb ? BOOM_MESSAGE : BOOM_MESSAGE + "\n" + look(viewport);
+        }
+        return look(viewport);
+    }
+
+    /**
+     * An endless board is not a shard of a larger board, so it has no ring
+     * of cells around it
+     * @param rowLocX - the x location of the bomb
+     * @param columnLocY - the y location of the bomb
+     * @return ""
+     */
+    public String removeOuterBomb(int rowLocX, int columnLocY) {
+        return "";
+    }
+
+    /**
+     * An endless board does not track its frontier, which has no bound
+     * @return "no hint"
+     */
+    public String hint() {
+        return NO_HINT_MESSAGE;
+    }
+
+    /**
+     * Describes how the board changed since a version a client has seen, as
+     * Board.lookSince, except that a FULL description holds the HOME
+     * viewport rather than the whole board
+     * @param sinceVersion - the version of the board the client has seen
+     * @return a delta or full description of the board
+     * @throws UncheckedIOException if a chunk cannot be spilled or reloaded
+     */
+    public String lookSince(long sinceVersion) {
+        Metrics.lock(lock);
+        try {
+            if (sinceVersion > version || !changeLog.reaches(sinceVersion)) {
+                return "FULL " + version + "\n" + render(HOME);
+            }
+            long[] cells = changeLog.cellsChangedSince(sinceVersion);
+            StringBuilder result = new StringBuilder(16 + 24 * cells.length);
+            result.append("DELTA ").append(version).append(' ').append(cells.length).append('\n');
+            for (long cell : cells) {
+                int x = (int) (cell >>> 32);
+                int y = (int) cell;
+                result.append(x).append(' ').append(y).append(' ').append(Box.render(cellAt(x, y))).append('\n');
+            }
+            evict();
+            return result.toString();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Describes the cells of this board inside a viewport, at most
+     * MAX_LOOK_SIDE by MAX_LOOK_SIDE of them, generating no chunk
+     * @param viewport - the viewport to describe, or null for HOME
+     * @return the cells inside viewport in the format of toString(), see
+     *     Viewport.cut
+     * @throws UncheckedIOException if a chunk cannot be spilled or reloaded
+     */
+    public String look(Viewport viewport) {
+        Metrics.lock(lock);
+        try {
+            String text = render(viewport == null ? HOME : viewport);
+            evict();
+            return text;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of columns in board
+     */
+    public String getColumns() {
+        return Integer.toString(SIZE);
+    }
+
+    /**
+     * @return the number of rows in board
+     */
+    public String getRows() {
+        return Integer.toString(SIZE);
+    }
+
+    /**
+     * @return the HOME viewport of the board, see look
+     */
+    @Override
+    public String toString() {
+        return look(HOME);
+    }
+
+    /**
+     * @return the current version of this board, which increases every
+     *     time a cell of the board changes
+     */
+    public long getVersion() {
+        lock.lock();
+        try {
+            return version;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of chunks held in memory
+     */
+    int getCachedChunks() {
+        lock.lock();
+        try {
+            return chunks.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of times a chunk was generated
+     */
+    long getGenerations() {
+        lock.lock();
+        try {
+            return generations;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of times a changed chunk was written to disk
+     */
+    long getSpills() {
+        lock.lock();
+        try {
+            return spills;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of times a chunk was read back from disk
+     */
+    long getReloads() {
+        lock.lock();
+        try {
+            return reloads;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param rowLocX - the x location of a cell on the board
+     * @param columnLocY - the y location of a cell on the board
+     * @return the encoded cell at the location, see Box
+     * @throws UncheckedIOException if a chunk cannot be spilled or reloaded
+     */
+    byte getCell(int rowLocX, int columnLocY) {
+        lock.lock();
+        try {
+            byte cell = cellAt(rowLocX, columnLocY);
+            evict();
+            return cell;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Applies actions in order as one atomic change of the board
+     * @param rowLocXs - the x location of each action
+     * @param columnLocYs - the y location of each action
+     * @param actions - the actions to be applied
+     * @param stopAtBomb - whether to stop after the first dig which detonates a bomb
+     * @return the number of bombs detonated
+     */
+    private int applyActions(int[] rowLocXs, int[] columnLocYs, Action[] actions, boolean stopAtBomb) {
+        int bombsDug = 0;
+        Metrics metrics = Metrics.current();
+        Metrics.lock(lock);
+        try {
+            for (int i = 0; i < actions.length; i++) {
+                if (!onBoard(rowLocXs[i], columnLocYs[i])) {
+                    continue;
+                }
+                if (actions[i].equals(Action.DIG)) {
+                    boolean bombDug = dig(rowLocXs[i], columnLocYs[i]);
+                    if (metrics != null && lastDug > 0) {
+                        metrics.dug(lastDug);
+                    }
+                    if (bombDug) {
+                        bombsDug++;
+                        if (stopAtBomb) {
+                            break;
+                        }
+                    }
+                } else {
+                    flag(actions[i], rowLocXs[i], columnLocYs[i]);
+                }
+            }
+            commit();
+            evict();
+        } finally {
+            changes = 0;
+            lock.unlock();
+        }
+        return bombsDug;
+    }
+
+    /**
+     * digs a cell, flood filling from it as a Board does, and sets lastDug
+     * @param rowLocX - the x location of the cell
+     * @param columnLocY - the y location of the cell
+     * @return true if the cell had a bomb
+     */
+    private boolean dig(int rowLocX, int columnLocY) {
+        lastDug = 0;
+        byte cell = cellAt(rowLocX, columnLocY);
+        if (!Box.state(cell).equals(State.UNTOUCHED)) {
+            return false;
+        }
+        boolean bombDug = Box.hasBomb(cell);
+        setCell(rowLocX, columnLocY, Box.withBomb(Box.withState(cell, State.DUG), false));
+        if (bombDug) {
+            for (int y = Math.max(columnLocY - 1, 0); y <= Math.min(columnLocY + 1, SIZE - 1); y++) {
+                for (int x = Math.max(rowLocX - 1, 0); x <= Math.min(rowLocX + 1, SIZE - 1); x++) {
+                    if (!(x == rowLocX && y == columnLocY)) {
+                        byte neighbor = cellAt(x, y);
+                        setCell(x, y, Box.withNeighborCount(neighbor, Box.neighborCount(neighbor) - 1));
+                    }
+                }
+            }
+        }
+        lastDug = 1 + floodFill(rowLocX, columnLocY);
+        return bombDug;
+    }
+
+    /**
+     * Digs every untouched cell reachable from a freshly dug cell through
+     * dug cells with no neighboring bombs, as Board.floodFill, loading or
+     * generating the chunks it spreads into
+     * @param rowLocX - the x location of a cell which has just been dug
+     * @param columnLocY - the y location of the cell
+     * @return the number of cells the fill dug, not counting the first
+     */
+    private int floodFill(int rowLocX, int columnLocY) {
+        int size = 0;
+        int filled = 0;
+        fillStack[size++] = cellKey(rowLocX, columnLocY);
+        while (size > 0) {
+            long activeCell = fillStack[--size];
+            int activeX = (int) (activeCell >>> 32);
+            int activeY = (int) activeCell;
+            if (Box.neighborCount(cellAt(activeX, activeY)) != 0) {
+                continue;
+            }
+            for (int y = Math.max(activeY - 1, 0); y <= Math.min(activeY + 1, SIZE - 1); y++) {
+                for (int x = Math.max(activeX - 1, 0); x <= Math.min(activeX + 1, SIZE - 1); x++) {
+                    byte neighbor = cellAt(x, y);
+                    if (Box.state(neighbor).equals(State.UNTOUCHED) && !Box.hasBomb(neighbor)) {
+                        setCell(x, y, Box.withState(neighbor, State.DUG));
+                        filled++;
+                        if (size == fillStack.length) {
+                            fillStack = Arrays.copyOf(fillStack, 2 * size);
+                        }
+                        fillStack[size++] = cellKey(x, y);
+                    }
+                }
+            }
+        }
+        return filled;
+    }
+
+    /**
+     * flags or deflags a cell, as a Board does
+     * @param action - FLAG or UNFLAG
+     * @param rowLocX - the x location of the cell
+     * @param columnLocY - the y location of the cell
+     */
+    private void flag(Action action, int rowLocX, int columnLocY) {
+        byte cell = cellAt(rowLocX, columnLocY);
+        State status = Box.state(cell);
+        if (action.equals(Action.FLAG) && status.equals(State.UNTOUCHED)) {
+            setCell(rowLocX, columnLocY, Box.withState(cell, State.FLAGGED));
+        } else if (action.equals(Action.UNFLAG) && status.equals(State.FLAGGED)) {
+            setCell(rowLocX, columnLocY, Box.withState(cell, State.UNTOUCHED));
+        }
+    }
+
+    /**
+     * moves the board to its next version if the action in progress
+     * changed any cell, recording the cells it changed
+     */
+    private void commit() {
+        if (changes == 0) {
+            return;
+        }
+        version++;
+        for (int i = 0; i < changes; i++) {
+            changeLog.record(version, changed[i]);
+        }
+    }
+
+    /**
+     * @param rowLocX - an x location
+     * @param columnLocY - a y location
+     * @return true if the location is on the board
+     */
+    private static boolean onBoard(int rowLocX, int columnLocY) {
+        return rowLocX >= 0 && rowLocX < SIZE && columnLocY >= 0 && columnLocY < SIZE;
+    }
+
+    /**
+     * @param rowLocX - the x location of a cell on the board
+     * @param columnLocY - the y location of the cell
+     * @return the encoded cell, loading or generating its chunk
+     */
+    private byte cellAt(int rowLocX, int columnLocY) {
+        return chunk(rowLocX >> CHUNK_SHIFT, columnLocY >> CHUNK_SHIFT).cells[offset(rowLocX, columnLocY)];
+    }
+
+    /**
+     * writes a cell for the action in progress
+     * @param rowLocX - the x location of a cell on the board
+     * @param columnLocY - the y location of the cell
+     * @param cell - the new encoded cell
+     */
+    private void setCell(int rowLocX, int columnLocY, byte cell) {
+        Chunk chunk = chunk(rowLocX >> CHUNK_SHIFT, columnLocY >> CHUNK_SHIFT);
+        chunk.cells[offset(rowLocX, columnLocY)] = cell;
+        chunk.modified = true;
+        if (changes == changed.length) {
+            changed = Arrays.copyOf(changed, 2 * changes);
+        }
+        changed[changes++] = cellKey(rowLocX, columnLocY);
+    }
+
+    /**
+     * @return the index of a cell within its chunk
+     */
+    private static int offset(int rowLocX, int columnLocY) {
+        return (columnLocY & (CHUNK_SIZE - 1)) * CHUNK_SIZE + (rowLocX & (CHUNK_SIZE - 1));
+    }
+
+    /**
+     * @return the key of a cell in changeLog: x in the high 32 bits, y in the low
+     */
+    private static long cellKey(int rowLocX, int columnLocY) {
+        return (long) rowLocX << 32 | columnLocY;
+    }
+
+    /**
+     * @return the key of a chunk in chunks and spilled
+     */
+    private static long chunkKey(int chunkX, int chunkY) {
+        return (long) chunkX << 32 | chunkY;
+    }
+
+    /**
+     * @param chunkX - the x location of a chunk, in chunks
+     * @param chunkY - the y location of the chunk, in chunks
+     * @return the chunk, from memory, from disk or newly generated
+     */
+    private Chunk chunk(int chunkX, int chunkY) {
+        Long key = chunkKey(chunkX, chunkY);
+        Chunk chunk = chunks.get(key);
+        if (chunk == null) {
+            chunk = spilled.contains(key) ? reload(chunkX, chunkY) : generate(chunkX, chunkY);
+            chunks.put(key, chunk);
+        }
+        return chunk;
+    }
+
+    /**
+     * @return the chunk if it is in memory or on disk, or null if no player
+     *     has changed it, in which case every cell of it is untouched
+     */
+    private Chunk existingChunk(int chunkX, int chunkY) {
+        Long key = chunkKey(chunkX, chunkY);
+        Chunk chunk = chunks.get(key);
+        if (chunk == null && spilled.contains(key)) {
+            chunk = reload(chunkX, chunkY);
+            chunks.put(key, chunk);
+        }
+        return chunk;
+    }
+
+    /**
+     * Generates a chunk: its own bombs, and the counts of the bombs
+     * around each cell, including the bombs of the cells just outside it
+     * @param chunkX - the x location of the chunk, in chunks
+     * @param chunkY - the y location of the chunk, in chunks
+     * @return the chunk, with every cell untouched
+     */
+    private Chunk generate(int chunkX, int chunkY) {
+        int side = CHUNK_SIZE + 2;
+        byte[] padded = new byte[side * side]; // the chunk and the ring of cells around it
+        for (int aroundY = chunkY - 1; aroundY <= chunkY + 1; aroundY++) {
+            for (int aroundX = chunkX - 1; aroundX <= chunkX + 1; aroundX++) {
+                if (aroundX < 0 || aroundX >= CHUNKS_ACROSS || aroundY < 0 || aroundY >= CHUNKS_ACROSS) {
+                    continue;
+                }
+                byte[] bombs = bombs(aroundX, aroundY);
+                int offsetX = (aroundX - chunkX) * CHUNK_SIZE + 1;
+                int offsetY = (aroundY - chunkY) * CHUNK_SIZE + 1;
+                for (int y = Math.max(0, -offsetY); y < Math.min(CHUNK_SIZE, side - offsetY); y++) {
+                    for (int x = Math.max(0, -offsetX); x < Math.min(CHUNK_SIZE, side - offsetX); x++) {
+                        padded[(y + offsetY) * side + x + offsetX] = bombs[y * CHUNK_SIZE + x];
+                    }
+                }
+            }
+        }
+        BombPlanes.countNeighbors(padded, side, side, 1, side - 1);
+        Chunk chunk = new Chunk();
+        for (int y = 0; y < CHUNK_SIZE; y++) {
+            System.arraycopy(padded, (y + 1) * side + 1, chunk.cells, y * CHUNK_SIZE, CHUNK_SIZE);
+        }
+        generations++;
+        return chunk;
+    }
+
+    /**
+     * @param chunkX - the x location of a chunk, in chunks
+     * @param chunkY - the y location of the chunk, in chunks
+     * @return the bombs the chunk was generated with, as encoded cells
+     *     with no count, row by row
+     */
+    private byte[] bombs(int chunkX, int chunkY) {
+        SplittableRandom random = new SplittableRandom(mix(mix(seed ^ chunkX) + chunkY));
+        byte[] bombs = new byte[CHUNK_CELLS];
+        for (int i = 0; i < CHUNK_CELLS; i++) {
+            if (random.nextInt(BOMB_ONE_IN) == 0) {
+                bombs[i] = Box.BOMB_BIT;
+            }
+        }
+        return bombs;
+    }
+
+    /**
+     * @param value - a value
+     * @return the value with its bits mixed, the finalizer of MurmurHash3,
+     *     so that neighboring chunks get unrelated seeds
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    /**
+     * drops the least recently used chunks until at most cacheChunks are
+     * left, spilling each changed one to disk first
+     */
+    private void evict() {
+        Iterator<Map.Entry<Long, Chunk>> eldest = chunks.entrySet().iterator();
+        while (chunks.size() > cacheChunks) {
+            Map.Entry<Long, Chunk> entry = eldest.next();
+            if (entry.getValue().modified) {
+                spill(entry.getKey(), entry.getValue());
+            }
+            eldest.remove();
+        }
+    }
+
+    /**
+     * writes a changed chunk to disk. A spilled chunk only stands in for
+     * memory, so it is not forced to the disk: it is lost with the process
+     * either way.
+     * @param key - the key of the chunk
+     * @param chunk - the chunk
+     */
+    private void spill(long key, Chunk chunk) {
+        File file = chunkFile(key);
+        File temporary = new File(spillDirectory, file.getName() + ".tmp");
+        try {
+            Files.write(temporary.toPath(), chunk.cells);
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot spill chunk to " + file, e);
+        }
+        spilled.add(key);
+        chunk.modified = false;
+        spills++;
+    }
+
+    /**
+     * @param chunkX - the x location of a spilled chunk, in chunks
+     * @param chunkY - the y location of the chunk, in chunks
+     * @return the chunk as it was spilled
+     */
+    private Chunk reload(int chunkX, int chunkY) {
+        File file = chunkFile(chunkKey(chunkX, chunkY));
+        Chunk chunk = new Chunk();
+        try {
+            byte[] cells = Files.readAllBytes(file.toPath());
+            if (cells.length != CHUNK_CELLS) {
+                throw new IOException("expected " + CHUNK_CELLS + " bytes, found " + cells.length);
+            }
+            System.arraycopy(cells, 0, chunk.cells, 0, CHUNK_CELLS);
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot reload chunk from " + file, e);
+        }
+        reloads++;
+        return chunk;
+    }
+
+    /**
+     * @param key - the key of a chunk
+     * @return the file the chunk is spilled to
+     */
+    private File chunkFile(long key) {
+        return new File(spillDirectory, "chunk-" + (key >>> 32) + "-" + (int) key + ".bin");
+    }
+
+    /**
+     * Describes the cells inside a viewport, cut down to MAX_LOOK_SIDE
+     * columns and rows, without generating any chunk
+     * @param viewport - the viewport
+     * @return the cells in the format of toString(), or "" if the viewport
+     *     is off the board
+     */
+    private String render(Viewport viewport) {
+        int left = Math.max(viewport.getX(), 0);
+        int top = Math.max(viewport.getY(), 0);
+        int right = (int) Math.min(Math.min((long) viewport.getX() + viewport.getWidth(), SIZE), left + MAX_LOOK_SIDE);
+        int bottom = (int) Math.min(Math.min((long) viewport.getY() + viewport.getHeight(), SIZE), top + MAX_LOOK_SIDE);
+        if (left >= right || top >= bottom) {
+            return "";
+        }
+        int lineLength = 2 * (right - left);
+        byte[] text = new byte[lineLength * (bottom - top)];
+        int at = 0;
+        for (int y = top; y < bottom; y++) {
+            for (int x = left; x < right; ) {
+                Chunk chunk = existingChunk(x >> CHUNK_SHIFT, y >> CHUNK_SHIFT);
+                int end = Math.min(right, (x | (CHUNK_SIZE - 1)) + 1);
+                for (; x < end; x++) {
+                    text[at++] = (byte) (chunk == null ? '-' : Box.render(chunk.cells[offset(x, y)]));
+                    text[at++] = ' ';
+                }
+            }
+            text[at - 1] = '\n';
+        }
+        return new String(text, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * The cells of one chunk, and whether a player changed them since the
+     * chunk was generated or last written to disk
+     */
+    private static final class Chunk {
+
+        private final byte[] cells = new byte[CHUNK_CELLS];
+        private boolean modified = false;
+    }
+
+}
@@ -0,0 +1,162 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import minesweeper.server.Board.Action;
+import minesweeper.server.Box.State;
+
+import org.junit.Test;
+
+public class EndlessBoardTest {
+
+	/**
+	 * Testing Partition:
+	 * 	Generation: same seed, different seed, far from the origin, at the origin X
+	 * 	Counts: inside a chunk, across a chunk edge, across a chunk corner X
+	 * 	Cache: within the limit, past the limit with changed and unchanged chunks X
+	 * 	Looks: at untouched chunks, at spilled chunks, wider than MAX_LOOK_SIDE, off the board X
+	 * 	Bombs: dug next to a chunk edge, then the neighboring chunk evicted and reloaded X
+	 * 	lookSince: delta far from the origin, full X
+	 *
+	 */
+
+	private static final int FAR = 1000000000;
+	private static final int SIZE = EndlessBoard.CHUNK_SIZE;
+
+	@Test
+	public void seedsDecideTheBoard() throws IOException {
+	    EndlessBoard board = new EndlessBoard(6005, 16, newDirectory());
+	    EndlessBoard same = new EndlessBoard(6005, 4, newDirectory());
+	    EndlessBoard other = new EndlessBoard(6006, 16, newDirectory());
+	    Viewport window = new Viewport(FAR, FAR, 3 * SIZE, 2 * SIZE);
+	    boolean differs = false;
+	    for (int y = FAR; y < FAR + 2 * SIZE; y += 7) {
+	        for (int x = FAR; x < FAR + 3 * SIZE; x += 5) {
+	            assertEquals(board.getCell(x, y), same.getCell(x, y));
+	            differs |= board.getCell(x, y) != other.getCell(x, y);
+	        }
+	    }
+	    assertTrue(differs);
+	    assertEquals(board.look(window), same.look(window));
+	    assertEquals(Integer.toString(EndlessBoard.SIZE), board.getColumns());
+	    assertEquals(board.getColumns(), board.getRows());
+	}
+
+	@Test
+	public void countsAgreeAcrossChunkEdges() throws IOException {
+	    EndlessBoard board = new EndlessBoard(42, 64, newDirectory());
+	    // the corner of four chunks far away, and the corner of the board
+	    assertCountsMatchBombs(board, FAR - FAR % SIZE - 3, FAR - FAR % SIZE - 3, 6);
+	    assertCountsMatchBombs(board, 0, 0, SIZE + 2);
+	    assertCountsMatchBombs(board, EndlessBoard.SIZE - 3, EndlessBoard.SIZE - 3, 3);
+	}
+
+	@Test
+	public void looksGenerateNothing() throws IOException {
+	    EndlessBoard board = new EndlessBoard(1, 4, newDirectory());
+	    String untouched = board.look(new Viewport(FAR, FAR, 3, 2));
+	    assertEquals("- - -\n- - -\n", untouched);
+	    assertEquals(board.look(EndlessBoard.HOME), board.toString());
+	    assertEquals(board.toString(), board.look(null));
+	    assertEquals(2 * SIZE * SIZE, board.toString().length());
+	    String wide = board.look(new Viewport(0, 0, 5000, 1));
+	    assertEquals(2 * EndlessBoard.MAX_LOOK_SIDE, wide.length());
+	    assertEquals("", board.look(new Viewport(EndlessBoard.SIZE, 0, 1, 1)));
+	    assertEquals(0, board.getGenerations());
+	    assertEquals(0, board.getCachedChunks());
+	}
+
+	@Test
+	public void spillsChangedChunksAndReloadsThem() throws IOException {
+	    File directory = newDirectory();
+	    EndlessBoard board = new EndlessBoard(7, 2, directory);
+	    EndlessBoard expected = new EndlessBoard(7, 1000, newDirectory());
+	    Viewport first = new Viewport(FAR, FAR, 4, 1);
+	    for (int chunk = 0; chunk < 5; chunk++) {
+	        int x = FAR + chunk * SIZE;
+	        assertEquals(expected.processAction(x, FAR, Action.FLAG), board.processAction(x, FAR, Action.FLAG));
+	        assertTrue(board.getCachedChunks() <= 2);
+	    }
+	    assertEquals(3, board.getSpills());
+	    assertEquals(3, directory.list().length);
+	    assertEquals("F - - -\n", board.look(first)); // reloaded from disk, spilling another
+	    assertEquals(1, board.getReloads());
+	    assertEquals(4, board.getSpills());
+
+	    // an untouched chunk dropped from the cache is generated again, never spilled
+	    for (int chunk = 0; chunk < 5; chunk++) {
+	        board.getCell(3 * FAR / 2 + chunk * SIZE, 0);
+	    }
+	    assertEquals(5, board.getSpills()); // the last flagged chunk; the reloaded one is unchanged
+	    for (int chunk = 0; chunk < 5; chunk++) {
+	        Viewport window = new Viewport(FAR + chunk * SIZE, FAR, 2, 2);
+	        assertEquals(expected.look(window), board.look(window));
+	    }
+	}
+
+	@Test
+	public void dugBombsReachNeighboringChunks() throws IOException {
+	    EndlessBoard board = new EndlessBoard(11, 1, newDirectory());
+	    // a bomb on the right edge of a chunk, not at its corners
+	    int x = FAR - FAR % SIZE + SIZE - 1;
+	    int y = FAR - FAR % SIZE + 1;
+	    while (!Box.hasBomb(board.getCell(x, y))) {
+	        y++;
+	    }
+	    assertTrue(y % SIZE < SIZE - 1);
+	    int countBefore = Box.neighborCount(board.getCell(x + 1, y));
+	    long version = board.getVersion();
+	    assertEquals("BOOM!", board.processAction(x, y, Action.DIG));
+	    assertTrue(version < board.getVersion());
+	    assertEquals(State.DUG, Box.state(board.getCell(x, y)));
+	    assertFalse(Box.hasBomb(board.getCell(x, y)));
+	    assertEquals(countBefore - 1, Box.neighborCount(board.getCell(x + 1, y)));
+	    // every chunk was evicted and reloaded since, and still counts the same
+	    board.getCell(0, 0);
+	    assertCountsMatchBombs(board, x - 2, y - 2, 5);
+	}
+
+	@Test
+	public void deltasNameFarCells() throws IOException {
+	    EndlessBoard board = new EndlessBoard(3, 8, newDirectory());
+	    assertEquals("FULL 0\n" + board.toString(), board.lookSince(Long.MAX_VALUE));
+	    board.processAction(FAR, FAR + 1, Action.FLAG);
+	    board.processAction(FAR, FAR + 1, Action.FLAG); // no change
+	    assertEquals(1, board.getVersion());
+	    assertEquals("DELTA 1 1\n" + FAR + " " + (FAR + 1) + " F\n", board.lookSince(0));
+	    assertEquals("DELTA 1 0\n", board.lookSince(1));
+	    assertEquals("", board.processAction(-1, 0, Action.DIG));
+	    assertEquals("", board.removeOuterBomb(-1, -1));
+	}
+
+	/**
+	 * checks that every cell of a square counts the bombs around it
+	 */
+	private static void assertCountsMatchBombs(EndlessBoard board, int left, int top, int side) {
+	    for (int y = top; y < top + side; y++) {
+	        for (int x = left; x < left + side; x++) {
+	            int bombs = 0;
+	            for (int ny = y - 1; ny <= y + 1; ny++) {
+	                for (int nx = x - 1; nx <= x + 1; nx++) {
+	                    boolean onBoard = nx >= 0 && ny >= 0 && nx < EndlessBoard.SIZE && ny < EndlessBoard.SIZE;
+	                    if (onBoard && !(nx == x && ny == y) && Box.hasBomb(board.getCell(nx, ny))) {
+	                        bombs++;
+	                    }
+	                }
+	            }
+	            assertEquals("count at " + x + ", " + y, bombs, Box.neighborCount(board.getCell(x, y)));
+	        }
+	    }
+	}
+
+	private static File newDirectory() throws IOException {
+	    File directory = Files.createTempDirectory("chunks").toFile();
+	    directory.deleteOnExit();
+	    return directory;
+	}
+
+}
@@ -0,0 +1,353 @@
+package minesweeper.server;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import minesweeper.server.Box.State;
+
+/**
+ * Thread safety argument:
+ *  A Frontier is not thread safe. It is owned by a single Board and
+ *  only used while holding that board exclusively.
+ */
+
+/**
+ * AF: A Frontier is what a player can prove about a board from the cells
+ *  already dug. Its members are the frontier cells: dug cells with
+ *  neighboring bombs next to at least one covered cell, that is one not
+ *  yet dug, untouched or flagged. Each member is a constraint: of its
+ *  covered neighbors, exactly its neighboring bomb count have bombs.
+ *  Flags are the players' guesses, not facts, so they count as covered.
+ *
+ *  The frontier follows the board through update(), given the cells
+ *  changed since it last did, and only those cells and their neighbors are
+ *  looked at again. The members whose constraints may say something new
+ *  wait in a work list, and nextHint() propagates constraints from them
+ *  until it proves a covered cell safe or a mine: a member whose bombs
+ *  are all proved makes its other covered neighbors safe, one with as many
+ *  bombs left as unproved neighbors makes them all mines, and a member
+ *  whose unproved neighbors are a subset of a nearby member's gives the
+ *  difference of their bombs to the difference of their neighbors. A proof
+ *  puts the members around the proved cell back on the work list.
+ *
+ *  Bombs are only ever removed from a board, by digging them, so a proof
+ *  about a covered cell holds until that cell is dug.
+ *
+ *  On a shard of a larger board (see ShardLayout) the edge cells also
+ *  count bombs outside the board, so they are never members.
+ *
+ * Rep: members, safe, mines and queued are sets of cell indices, as in
+ *  Board. safe and mines hold the covered cells proved safe or mines.
+ *  work[0..pending) holds the members waiting to be propagated, which are
+ *  exactly the cells in queued. proofs[0..proved) holds proved cells not
+ *  yet known to be dug, the latest last.
+ *
+ * RI: safe and mines are disjoint; every cell in queued is in work
+ * @author nathaliehuynh
+ *
+ */
+class Frontier {
+
+    private final int columns;
+    private final int rows;
+    private final boolean shard;
+    private final BitSet members = new BitSet();
+    private final BitSet safe = new BitSet();
+    private final BitSet mines = new BitSet();
+    private final BitSet queued = new BitSet();
+    private int[] work = new int[16];
+    private int pending = 0;
+    private int[] proofs = new int[16];
+    private int proved = 0;
+
+    /**
+     * Creates the frontier of a board where nothing is dug yet; call
+     * rebuild to start from a board which has dug cells
+     * @param columns - the number of columns of the board
+     * @param rows - the number of rows of the board
+     * @param shard - whether the board is a shard of a larger board
+     */
+    Frontier(int columns, int rows, boolean shard) {
+        this.columns = columns;
+        this.rows = rows;
+        this.shard = shard;
+    }
+
+    /**
+     * Forgets everything and finds the members of the whole board, e.g.
+     * because the changes since the last update are no longer known
+     * @param cells - the encoded cells of the board, see Box
+     */
+    void rebuild(byte[] cells) {
+        members.clear();
+        safe.clear();
+        mines.clear();
+        queued.clear();
+        pending = 0;
+        proved = 0;
+        for (int cell = 0; cell < cells.length; cell++) {
+            refresh(cells, cell);
+        }
+    }
+
+    /**
+     * Follows changes of the board
+     * @param cells - the encoded cells of the board, see Box
+     * @param changedCells - the indices of the cells changed since the
+     *     last update or rebuild
+     */
+    void update(byte[] cells, long[] changedCells) {
+        for (long changedCell : changedCells) {
+            int cell = (int) changedCell;
+            if (Box.state(cells[cell]).equals(State.DUG)) {
+                safe.clear(cell);
+                mines.clear(cell);
+            }
+            int x = cell % columns;
+            int y = cell / columns;
+            for (int ny = Math.max(y - 1, 0); ny <= Math.min(y + 1, rows - 1); ny++) {
+                for (int nx = Math.max(x - 1, 0); nx <= Math.min(x + 1, columns - 1); nx++) {
+                    refresh(cells, ny * columns + nx);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param cells - the encoded cells of the board, see Box
+     * @return a covered cell proved safe or a mine, see isMine, or -1 if
+     *     none can be proved from the frontier. A mine already flagged is
+     *     not worth a hint and is skipped; a flagged cell proved safe is.
+     */
+    int nextHint(byte[] cells) {
+        while (true) {
+            while (proved > 0) {
+                int cell = proofs[proved - 1];
+                State state = Box.state(cells[cell]);
+                if (state.equals(State.UNTOUCHED) || state.equals(State.FLAGGED) && safe.get(cell)) {
+                    return cell;
+                }
+                proved--;
+            }
+            if (pending == 0) {
+                return -1;
+            }
+            int member = work[--pending];
+            queued.clear(member);
+            if (members.get(member)) {
+                propagate(cells, member);
+            }
+        }
+    }
+
+    /**
+     * @param cell - a cell returned by nextHint
+     * @return true if the cell is proved to be a mine, false if proved safe
+     */
+    boolean isMine(int cell) {
+        return mines.get(cell);
+    }
+
+    /**
+     * @return the indices of the frontier cells, in increasing order
+     */
+    int[] cells() {
+        return members.stream().toArray();
+    }
+
+    /**
+     * decides whether a cell is a member, putting it on the work list if it is
+     * @param cells - the encoded cells of the board
+     * @param cell - the index of the cell
+     */
+    private void refresh(byte[] cells, int cell) {
+        boolean member = isMember(cells, cell);
+        members.set(cell, member);
+        if (member) {
+            enqueue(cell);
+        }
+    }
+
+    /**
+     * @return true if cell is a dug cell with neighboring bombs next to a
+     *     covered cell, and not on the edge of a shard
+     */
+    private boolean isMember(byte[] cells, int cell) {
+        byte value = cells[cell];
+        if (!Box.state(value).equals(State.DUG) || Box.neighborCount(value) == 0) {
+            return false;
+        }
+        int x = cell % columns;
+        int y = cell / columns;
+        if (shard && (x == 0 || y == 0 || x == columns - 1 || y == rows - 1)) {
+            return false;
+        }
+        for (int ny = Math.max(y - 1, 0); ny <= Math.min(y + 1, rows - 1); ny++) {
+            for (int nx = Math.max(x - 1, 0); nx <= Math.min(x + 1, columns - 1); nx++) {
+                if (!Box.state(cells[ny * columns + nx]).equals(State.DUG)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * puts a member on the work list unless it is already there
+     */
+    private void enqueue(int member) {
+        if (queued.get(member)) {
+            return;
+        }
+        queued.set(member);
+        if (pending == work.length) {
+            work = Arrays.copyOf(work, 2 * pending);
+        }
+        work[pending++] = member;
+    }
+
+    /**
+     * applies the constraint of one member, alone and together with the
+     * members at most two cells away, proving what it can
+     * @param cells - the encoded cells of the board
+     * @param member - a frontier cell
+     */
+    private void propagate(byte[] cells, int member) {
+        int[] unknown = new int[8];
+        int unknowns = unknownNeighbors(cells, member, unknown);
+        int bombs = bombsLeft(cells, member);
+        if (unknowns == 0) {
+            return;
+        }
+        if (bombs == 0 || bombs == unknowns) {
+            for (int i = 0; i < unknowns; i++) {
+                prove(unknown[i], bombs > 0);
+            }
+            return;
+        }
+        int x = member % columns;
+        int y = member / columns;
+        int[] other = new int[8];
+        for (int ny = Math.max(y - 2, 0); ny <= Math.min(y + 2, rows - 1); ny++) {
+            for (int nx = Math.max(x - 2, 0); nx <= Math.min(x + 2, columns - 1); nx++) {
+                int near = ny * columns + nx;
+                if (near == member || !members.get(near)) {
+                    continue;
+                }
+                int others = unknownNeighbors(cells, near, other);
+                if (others > unknowns && contains(other, others, unknown, unknowns)) {
+                    proveDifference(other, others, unknown, unknowns, bombsLeft(cells, near) - bombs);
+                } else if (others > 0 && others < unknowns && contains(unknown, unknowns, other, others)) {
+                    proveDifference(unknown, unknowns, other, others, bombs - bombsLeft(cells, near));
+                }
+            }
+        }
+    }
+
+    /**
+     * proves the cells of a larger set of unknowns which are not in a
+     * smaller subset, if the bombs of the difference decide them
+     * @param larger - the larger set, larger[0..largerSize)
+     * @param subset - the smaller set, subset[0..subsetSize), all in larger
+     * @param bombs - the number of bombs in larger but not in subset
+     */
+    private void proveDifference(int[] larger, int largerSize, int[] subset, int subsetSize, int bombs) {
+        int difference = largerSize - subsetSize;
+        if (bombs != 0 && bombs != difference) {
+            return;
+        }
+        for (int i = 0; i < largerSize; i++) {
+            if (!contains(subset, subsetSize, larger[i])) {
+                prove(larger[i], bombs > 0);
+            }
+        }
+    }
+
+    /**
+     * records that a covered cell is safe or a mine, and puts the members
+     * around it back on the work list
+     */
+    private void prove(int cell, boolean mine) {
+        if (safe.get(cell) || mines.get(cell)) {
+            return;
+        }
+        (mine ? mines : safe).set(cell);
+        if (proved == proofs.length) {
+            proofs = Arrays.copyOf(proofs, 2 * proved);
+        }
+        proofs[proved++] = cell;
+        int x = cell % columns;
+        int y = cell / columns;
+        for (int ny = Math.max(y - 1, 0); ny <= Math.min(y + 1, rows - 1); ny++) {
+            for (int nx = Math.max(x - 1, 0); nx <= Math.min(x + 1, columns - 1); nx++) {
+                int neighbor = ny * columns + nx;
+                if (members.get(neighbor)) {
+                    enqueue(neighbor);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param unknown - receives the covered neighbors of member not yet proved
+     * @return the number of such neighbors
+     */
+    private int unknownNeighbors(byte[] cells, int member, int[] unknown) {
+        int count = 0;
+        int x = member % columns;
+        int y = member / columns;
+        for (int ny = Math.max(y - 1, 0); ny <= Math.min(y + 1, rows - 1); ny++) {
+            for (int nx = Math.max(x - 1, 0); nx <= Math.min(x + 1, columns - 1); nx++) {
+                int neighbor = ny * columns + nx;
+                if (!Box.state(cells[neighbor]).equals(State.DUG) && !safe.get(neighbor) && !mines.get(neighbor)) {
+                    unknown[count++] = neighbor;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the neighboring bomb count of member less its covered
+     *     neighbors proved to be mines
+     */
+    private int bombsLeft(byte[] cells, int member) {
+        int bombs = Box.neighborCount(cells[member]);
+        int x = member % columns;
+        int y = member / columns;
+        for (int ny = Math.max(y - 1, 0); ny <= Math.min(y + 1, rows - 1); ny++) {
+            for (int nx = Math.max(x - 1, 0); nx <= Math.min(x + 1, columns - 1); nx++) {
+                int neighbor = ny * columns + nx;
+                if (mines.get(neighbor) && !Box.state(cells[neighbor]).equals(State.DUG)) {
+                    bombs--;
+                }
+            }
+        }
+        return bombs;
+    }
+
+    /**
+     * @return true if every element of subset[0..subsetSize) is in set[0..setSize)
+     */
+    private static boolean contains(int[] set, int setSize, int[] subset, int subsetSize) {
+        for (int i = 0; i < subsetSize; i++) {
+            if (!contains(set, setSize, subset[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if value is in set[0..setSize)
+     */
+    private static boolean contains(int[] set, int setSize, int value) {
+        for (int i = 0; i < setSize; i++) {
+            if (set[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,181 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import minesweeper.server.Board.Action;
+
+import org.junit.Test;
+
+public class FrontierTest {
+
+	/**
+	 * Testing Partition:
+	 * 	Frontier: empty, after a flood fill, after digs, flags, deflags and detonations X
+	 * 	Proofs: a mine, safe cells once its mine is proved, by a subset of a neighbor, none X
+	 * 	Hints: repeated until acted on, a flagged mine skipped, over a whole game X
+	 * 	Boards: whole boards, shards whose edges count other shards' bombs X
+	 * 	Sessions: the hint command X
+	 *
+	 */
+
+	@Test
+	public void provesMinesThenSafeCells() throws IOException {
+	    // 4 by 2, one bomb at (2, 0)
+	    Board board = new Board(writeText("4 2\n0 0 1 0\n0 0 0 0\n"));
+	    assertEquals(0, board.getFrontier().length);
+	    assertEquals("no hint", board.hint());
+	    board.processAction(0, 0, Action.DIG); // opens the two left columns
+	    assertArrayEquals(new int[] { 1, 5 }, board.getFrontier());
+	    assertEquals("no hint", board.hint()); // (2, 0) and (2, 1) are alike
+
+	    board.processAction(2, 1, Action.DIG);
+	    assertArrayEquals(new int[] { 1, 5, 6 }, board.getFrontier());
+	    Set<String> hints = new TreeSet<String>();
+	    for (String hint = board.hint(); !hint.equals("no hint"); hint = board.hint()) {
+	        assertEquals(hint, board.hint()); // until a player acts on it
+	        hints.add(hint);
+	        String[] parts = hint.split(" ");
+	        Action action = parts[0].equals("mine") ? Action.FLAG : Action.DIG;
+	        board.processAction(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), action);
+	    }
+	    assertEquals("[mine 2 0, safe 3 0, safe 3 1]", hints.toString());
+	    assertArrayEquals(new int[] { 1, 3, 5, 6, 7 }, board.getFrontier());
+	}
+
+	@Test
+	public void followsAWholeGame() throws IOException {
+	    Random random = new Random(6005);
+	    for (int game = 0; game < 20; game++) {
+	        int columns = 5 + random.nextInt(20);
+	        int rows = 5 + random.nextInt(20);
+	        boolean[] bombs = new boolean[columns * rows];
+	        StringBuilder text = new StringBuilder(columns + " " + rows + "\n");
+	        for (int cell = 0; cell < bombs.length; cell++) {
+	            bombs[cell] = random.nextInt(6) == 0;
+	            text.append(bombs[cell] ? '1' : '0').append((cell + 1) % columns == 0 ? '\n' : ' ');
+	        }
+	        Board board = new Board(writeText(text.toString()));
+	        int hints = 0;
+	        while (true) {
+	            String hint = board.hint();
+	            assertFrontierOf(board, columns, rows);
+	            if (hint.equals("no hint")) {
+	                int guess = safeUntouchedCell(board, bombs, columns, random);
+	                if (guess < 0) {
+	                    break; // every safe cell is dug
+	                }
+	                if (random.nextBoolean()) {
+	                    board.processAction(guess % columns, guess / columns, Action.FLAG);
+	                    assertFrontierOf(board, columns, rows);
+	                    board.processAction(guess % columns, guess / columns, Action.UNFLAG);
+	                }
+	                board.processAction(guess % columns, guess / columns, Action.DIG);
+	                continue;
+	            }
+	            hints++;
+	            String[] parts = hint.split(" ");
+	            int x = Integer.parseInt(parts[1]);
+	            int y = Integer.parseInt(parts[2]);
+	            assertEquals(hint, parts[0].equals("mine"), bombs[y * columns + x]);
+	            board.processAction(x, y, parts[0].equals("mine") ? Action.FLAG : Action.DIG);
+	        }
+	        assertTrue(hints > 0);
+	    }
+	}
+
+	@Test
+	public void detonationsUpdateTheFrontier() throws IOException {
+	    Board board = new Board(writeText("3 3\n1 0 0\n0 0 0\n0 0 1\n"));
+	    board.processAction(1, 1, Action.DIG);
+	    assertArrayEquals(new int[] { 4 }, board.getFrontier());
+	    assertEquals("no hint", board.hint());
+	    assertEquals("BOOM!", board.processAction(0, 0, Action.DIG)); // (1, 1) now counts 1
+	    assertArrayEquals(new int[] { 4, 5, 7 }, board.getFrontier());
+	    assertEquals("mine 2 2", board.hint());
+	}
+
+	@Test
+	public void shardEdgesProveNothing() throws IOException {
+	    // shard 0 of 6 by 3: bombs at (2, 2) inside it and (3, 1) just outside
+	    File directory = Files.createTempDirectory("shards").toFile();
+	    directory.deleteOnExit();
+	    ShardLayout.split(writeText("6 3\n0 0 0 0 0 0\n0 0 0 1 0 0\n0 0 1 0 0 0\n"), 2, 1, directory);
+	    Board shard = new Board(ShardLayout.shardFile(directory, 0));
+	    shard.processAction(0, 0, Action.DIG);
+	    assertArrayEquals(new int[] { 4 }, shard.getFrontier()); // (2, 1) counts 2 but is on the edge
+	    assertEquals("mine 2 2", shard.hint());
+	}
+
+	@Test
+	public void sessionsAnswerHints() throws IOException {
+	    Board board = new Board(writeText("3 3\n0 0 1\n0 0 0\n0 0 0\n"));
+	    MinesweeperSession session = new MinesweeperSession(board, false, new AtomicInteger());
+	    session.open();
+	    String newline = System.lineSeparator();
+	    assertEquals("no hint" + newline, session.handleLine("hint"));
+	    session.handleLine("dig 0 0"); // opens every cell but the bomb
+	    assertEquals("mine 2 0" + newline, session.handleLine("hint"));
+	    session.close();
+	}
+
+	/**
+	 * checks the frontier of a board against the cells of its toString()
+	 */
+	private static void assertFrontierOf(Board board, int columns, int rows) {
+	    String text = board.toString();
+	    List<Integer> expected = new ArrayList<Integer>();
+	    for (int cell = 0; cell < columns * rows; cell++) {
+	        int x = cell % columns;
+	        int y = cell / columns;
+	        if (!Character.isDigit(text.charAt(2 * cell))) {
+	            continue;
+	        }
+	        boolean covered = false;
+	        for (int ny = Math.max(y - 1, 0); ny <= Math.min(y + 1, rows - 1); ny++) {
+	            for (int nx = Math.max(x - 1, 0); nx <= Math.min(x + 1, columns - 1); nx++) {
+	                char c = text.charAt(2 * (ny * columns + nx));
+	                covered |= c == '-' || c == 'F';
+	            }
+	        }
+	        if (covered) {
+	            expected.add(cell);
+	        }
+	    }
+	    int[] frontier = board.getFrontier();
+	    assertEquals(expected.toString(), Arrays.toString(frontier));
+	}
+
+	/**
+	 * @return a random cell without a bomb which is not dug, or -1 if there is none
+	 */
+	private static int safeUntouchedCell(Board board, boolean[] bombs, int columns, Random random) {
+	    String text = board.toString();
+	    List<Integer> cells = new ArrayList<Integer>();
+	    for (int cell = 0; cell < bombs.length; cell++) {
+	        char c = text.charAt(2 * cell);
+	        if (!bombs[cell] && (c == '-' || c == 'F')) {
+	            cells.add(cell);
+	        }
+	    }
+	    return cells.isEmpty() ? -1 : cells.get(random.nextInt(cells.size()));
+	}
+
+	private static File writeText(String text) throws IOException {
+	    File file = File.createTempFile("board", ".txt");
+	    file.deleteOnExit();
+	    Files.write(file.toPath(), text.getBytes("US-ASCII"));
+	    return file;
+	}
+
+}
@@ -0,0 +1,117 @@
+package minesweeper.server;
+
+import minesweeper.server.Board.Action;
+
+/**
+ * A board players can play on through the Minesweeper text protocol, as
+ * seen by MinesweeperSession: either a Board held by the server itself, or
+ * a ShardedBoard whose cells are held by other server processes.
+ * Implementations must be thread safe.
+ * @author nathaliehuynh
+ *
+ */
+public interface GameBoard {
+
+    /**
+     * Processes an action at a specified location on the board
+     * @param rowLocX - the x location of a box on the board
+     * @param columnLocY - the y location of a box on the board
+     * @param action an action to be processed
+     * @return "BOOM!" if a bomb was detonated as a result of a dig,
+     *     "" if the location is not on the board, or
+     *     a string representation of the board otherwise
+     */
+    String processAction(int rowLocX, int columnLocY, Action action);
+
+    /**
+     * Processes an action as processAction, but describes only a viewport
+     * of the board
+     * @param rowLocX - the x location of a box on the board
+     * @param columnLocY - the y location of a box on the board
+     * @param action an action to be processed
+     * @param viewport - the viewport to describe, or null for the whole board
+     * @return as processAction, with look(viewport) in place of the board
+     */
+    String processAction(int rowLocX, int columnLocY, Action action, Viewport viewport);
+
+    /**
+     * Processes a batch of actions in order, see Board.processActions
+     * @param rowLocXs - the x location of each action
+     * @param columnLocYs - the y location of each action
+     * @param actions - the actions to be processed
+     * @param stopAtBomb - whether the batch ends at the first dig which
+     *     detonates a bomb, leaving the rest of the actions unprocessed
+     * @return "BOOM!" if stopAtBomb and a dig detonated a bomb; otherwise
+     *     a string representation of the board after the batch, preceded
+     *     by a "BOOM!" line if a dig detonated a bomb
+     * @throws IllegalArgumentException if the arrays differ in length
+     */
+    String processActions(int[] rowLocXs, int[] columnLocYs, Action[] actions, boolean stopAtBomb);
+
+    /**
+     * Processes a batch of actions as processActions, but describes only a
+     * viewport of the board
+     * @param rowLocXs - the x location of each action
+     * @param columnLocYs - the y location of each action
+     * @param actions - the actions to be processed
+     * @param stopAtBomb - whether the batch ends at the first dig which
+     *     detonates a bomb
+     * @param viewport - the viewport to describe, or null for the whole board
+     * @return as processActions, with look(viewport) in place of the board
+     * @throws IllegalArgumentException if the arrays differ in length
+     */
+    String processActions(int[] rowLocXs, int[] columnLocYs, Action[] actions, boolean stopAtBomb, Viewport viewport);
+
+    /**
+     * Removes a bomb from the ring of cells around a shard of a larger
+     * board, see Board.removeOuterBomb
+     * @param rowLocX - the x location of the bomb, from -1 to the number of columns
+     * @param columnLocY - the y location of the bomb, from -1 to the number of rows
+     * @return "" if the location is not in the ring around the board, or
+     *     a string representation of the board otherwise
+     */
+    String removeOuterBomb(int rowLocX, int columnLocY);
+
+    /**
+     * Describes how the board changed since a version a client has seen,
+     * see Board.lookSince
+     * @param sinceVersion - the version of the board the client has seen
+     * @return a delta or full description of the board
+     */
+    String lookSince(long sinceVersion);
+
+    /**
+     * Describes the cells of the board inside a viewport, at a cost which
+     * depends on the size of the viewport rather than of the board
+     * @param viewport - the viewport to describe, or null for the whole board
+     * @return the cells inside viewport in the format of toString(), see
+     *     Viewport.cut, or toString() if viewport is null
+     */
+    String look(Viewport viewport);
+
+    /**
+     * Finds a covered cell which the dug cells of the board prove safe or
+     * a mine, see Board.hint
+     * @return "safe X Y" or "mine X Y" for the proved cell at (X, Y), or
+     *     "no hint" if none is known
+     */
+    String hint();
+
+    /**
+     * @return the number of columns in board
+     */
+    String getColumns();
+
+    /**
+     * @return the number of rows in board
+     */
+    String getRows();
+
+    /**
+     * @return the board as text: one line per row, holding the character
+     *     of each cell (see Box.render) separated by spaces
+     */
+    @Override
+    String toString();
+
+}
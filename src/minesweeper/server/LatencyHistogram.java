@@ -0,0 +1,157 @@
+package minesweeper.server;
+
+/**
+ * Thread safety argument:
+ *  A LatencyHistogram is not thread safe. Each thread records into its
+ *  own histogram, and the histograms are added up once the threads are
+ *  done, so recording never contends. Latencies recorded by many threads
+ *  at once go into a ConcurrentHistogram instead.
+ */
+
+/**
+ * AF: A LatencyHistogram is a record of how many latencies, in
+ *  nanoseconds, fell in each of a fixed set of buckets, in the style of
+ *  HdrHistogram: every power of two is split into SUB_BUCKETS buckets of
+ *  equal width, so a latency is known to within 1 / SUB_BUCKETS of its
+ *  value however large it is, in a fixed amount of memory. Recording is a
+ *  few shifts and an array increment.
+ *
+ * Rep: counts[i] is the number of latencies in bucket i. Latencies below
+ *  2 * SUB_BUCKETS have a bucket each; above that, a latency v with
+ *  highest bit m is in bucket (m - SUB_BITS + 1) * SUB_BUCKETS + the
+ *  SUB_BITS bits of v below bit m.
+ *
+ * RI: total is the sum of counts, and max is the largest latency recorded
+ * @author nathaliehuynh
+ *
+ */
+class LatencyHistogram {
+
+    private static final int SUB_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final long[] counts;
+    private long total = 0;
+    private long sum = 0;
+    private long max = 0;
+
+    /**
+     * Creates a histogram with no latencies
+     */
+    LatencyHistogram() {
+        this.counts = new long[BUCKETS];
+    }
+
+    /**
+     * Creates a histogram holding the given latencies
+     * @param counts - the number of latencies in each bucket, BUCKETS of
+     *     them; the histogram takes ownership of the array
+     * @param sum - the sum of the latencies
+     * @param max - the largest latency
+     */
+    LatencyHistogram(long[] counts, long sum, long max) {
+        this.counts = counts;
+        for (long count : counts) {
+            total += count;
+        }
+        this.sum = sum;
+        this.max = max;
+    }
+
+    /**
+     * records one latency
+     * @param nanos - the latency in nanoseconds, negative values count as 0
+     */
+    void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        counts[bucketOf(value)]++;
+        total++;
+        sum += value;
+        max = Math.max(max, value);
+    }
+
+    /**
+     * adds every latency recorded in another histogram to this one
+     * @param other - the other histogram
+     */
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * @return the number of latencies recorded
+     */
+    long count() {
+        return total;
+    }
+
+    /**
+     * @return the sum of the latencies recorded
+     */
+    long sum() {
+        return sum;
+    }
+
+    /**
+     * @return the largest latency recorded, 0 if there is none
+     */
+    long max() {
+        return max;
+    }
+
+    /**
+     * @return the mean latency, 0 if there is none
+     */
+    double mean() {
+        return total == 0 ? 0 : (double) sum / total;
+    }
+
+    /**
+     * @param percentile - a percentile, from 0 to 100
+     * @return the smallest latency, to within the precision of the
+     *     buckets, which at least percentile percent of the recorded
+     *     latencies do not exceed; 0 if there is none
+     */
+    long percentile(double percentile) {
+        long rank = (long) Math.ceil(percentile / 100 * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= Math.max(rank, 1)) {
+                return Math.min(highestValueIn(i), max);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the bucket of a latency
+     */
+    static int bucketOf(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        int shift = highestBit - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    /**
+     * @return the largest latency in a bucket
+     */
+    static long highestValueIn(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+}
@@ -0,0 +1,533 @@
+package minesweeper.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Thread safety argument:
+ *  Each simulated player runs on its own thread with its own socket,
+ *  random numbers and histograms, and shares nothing with the others
+ *  while it runs. run() joins every player thread before adding up their
+ *  histograms, so it sees everything they recorded.
+ */
+
+/**
+ * Simulates many players at once against a Minesweeper server and
+ * measures the throughput and the latency of each kind of request, so
+ * that regressions under concurrency show up before players see them.
+ *
+ * Usage: LoadGenerator [--players N] [--mix MIX] [--seconds S] [--idle I]
+ *                      [--connect HOST:PORT | --size N --server selector|threads|virtual]
+ *
+ * N players (default 16) each connect and send requests for S seconds
+ * (default 10), each request drawn from MIX at a random location:
+ *     look-heavy   9 looks for every dig (the default)
+ *     dig-heavy    mostly digs, some looks and flags
+ *     flag-storm   flags and deflags, few looks
+ * or a custom mix such as "look=5,dig=3,flag=1,deflag=1" giving the
+ * relative weight of each request. Without --connect, the players play a
+ * random N by N board (default 256) on a server started in this process,
+ * by default a SelectorServer, in debug mode so digging a bomb does not
+ * disconnect them; threads and virtual start a ThreadPerConnectionServer
+ * on platform or virtual threads instead. A player disconnected by a
+ * server not in debug mode reconnects and goes on.
+ *
+ * With --idle, I more connections are opened before the players start,
+ * each reading its welcome and then sending nothing, and held open until
+ * they are done, to measure the players against a server holding many
+ * mostly idle connections. For instance the target of 100k idle
+ * connections on virtual threads is checked, on Java 21 or later, with
+ *     MinesweeperLauncher --server virtual --port 4444
+ *     LoadGenerator --connect localhost:4444 --idle 100000
+ * with the open file limit (ulimit -n) of each process raised above I.
+ * Without --connect the server runs in this process, so both ends of
+ * every connection do, and the limit must be above twice I.
+ *
+ * Players send their next request as soon as the reply to the last one
+ * has arrived, so a slow server also slows the rate of requests; the
+ * latencies are those the players saw, from writing a request to reading
+ * the last line of its reply.
+ * @author nathaliehuynh
+ *
+ */
+public class LoadGenerator {
+
+    private static final String USAGE = "usage: LoadGenerator [--players N] [--mix MIX] [--seconds S] [--idle I]\n"
+            + "                     [--connect HOST:PORT | --size N --server selector|threads|virtual]";
+    private static final Pattern BOARD_SIZE = Pattern.compile("Board: (\\d+) columns by (\\d+) rows");
+
+    /**
+     * The kinds of request a player sends
+     */
+    enum Request {
+        LOOK("look"),
+        DIG("dig"),
+        FLAG("flag"),
+        DEFLAG("deflag");
+
+        private final String word;
+
+        private Request(String word) {
+            this.word = word;
+        }
+    }
+
+    private final InetSocketAddress server;
+    private final int players;
+    private final int[] weights;
+    private final long seed;
+    private final int idle;
+
+    /**
+     * @param server - the address of the server
+     * @param players - the number of players to simulate
+     * @param weights - the relative weight of each Request, by ordinal
+     * @param seed - the seed of the players' random requests
+     */
+    LoadGenerator(InetSocketAddress server, int players, int[] weights, long seed) {
+        this(server, players, weights, seed, 0);
+    }
+
+    /**
+     * @param server - the address of the server
+     * @param players - the number of players to simulate
+     * @param weights - the relative weight of each Request, by ordinal
+     * @param seed - the seed of the players' random requests
+     * @param idle - the number of idle connections held open while the players run
+     */
+    LoadGenerator(InetSocketAddress server, int players, int[] weights, long seed, int idle) {
+        this.server = server;
+        this.players = players;
+        this.weights = weights.clone();
+        this.seed = seed;
+        this.idle = idle;
+    }
+
+    /**
+     * runs the load generator
+     * @param args arguments as described
+     */
+    public static void main(String[] args) throws Exception {
+        int players = 16;
+        String mix = "look-heavy";
+        int seconds = 10;
+        int idle = 0;
+        String connect = null;
+        int size = 256;
+        String serverKind = "selector";
+        try {
+            for (int i = 0; i + 1 < args.length; i += 2) {
+                if (args[i].equals("--players")) {
+                    players = Integer.parseInt(args[i + 1]);
+                } else if (args[i].equals("--mix")) {
+                    mix = args[i + 1];
+                } else if (args[i].equals("--seconds")) {
+                    seconds = Integer.parseInt(args[i + 1]);
+                } else if (args[i].equals("--idle")) {
+                    idle = Integer.parseInt(args[i + 1]);
+                } else if (args[i].equals("--connect")) {
+                    connect = args[i + 1];
+                } else if (args[i].equals("--size")) {
+                    size = Integer.parseInt(args[i + 1]);
+                } else if (args[i].equals("--server") && args[i + 1].matches("selector|threads|virtual")) {
+                    serverKind = args[i + 1];
+                } else {
+                    throw new IllegalArgumentException("unknown option " + args[i]);
+                }
+            }
+            if (args.length % 2 != 0) {
+                throw new IllegalArgumentException("every option needs a value");
+            }
+            int[] weights = parseMix(mix);
+            if (connect == null && serverKind.equals("virtual") && !ThreadPerConnectionServer.virtualThreadsAvailable()) {
+                throw new IllegalArgumentException("virtual threads require Java 21 or later");
+            }
+
+            InetSocketAddress address;
+            if (connect != null) {
+                int colon = connect.lastIndexOf(':');
+                if (colon < 0) {
+                    throw new IllegalArgumentException("expected HOST:PORT, found " + connect);
+                }
+                address = new InetSocketAddress(connect.substring(0, colon), Integer.parseInt(connect.substring(colon + 1)));
+            } else if (serverKind.equals("selector")) {
+                final SelectorServer local = new SelectorServer(0, true, new Board(size, size),
+                        Runtime.getRuntime().availableProcessors());
+                address = new InetSocketAddress("localhost", local.getPort());
+                serveInBackground(new Server() {
+                    public void serve() throws IOException {
+                        local.serve();
+                    }
+                });
+            } else {
+                final ThreadPerConnectionServer local = new ThreadPerConnectionServer(0, true, new Board(size, size),
+                        serverKind.equals("virtual") ? ThreadPerConnectionServer.virtualThreads()
+                                : ThreadPerConnectionServer.platformThreads());
+                address = new InetSocketAddress("localhost", local.getPort());
+                serveInBackground(new Server() {
+                    public void serve() throws IOException {
+                        local.serve();
+                    }
+                });
+            }
+            Report report = new LoadGenerator(address, players, weights, System.nanoTime(), idle).run(seconds * 1000L);
+            System.out.println(players + " players, mix " + mix + ":");
+            System.out.print(report);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+        }
+    }
+
+    /**
+     * A server started by main
+     */
+    private interface Server {
+        void serve() throws IOException;
+    }
+
+    /**
+     * runs a server on a daemon thread, so it ends with the load generator
+     */
+    private static void serveInBackground(final Server server) {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    server.serve();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "minesweeper-load-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @param mix - the name of a mix, or a custom mix, as described for main
+     * @return the relative weight of each Request, by ordinal
+     * @throws IllegalArgumentException if mix is not a mix
+     */
+    static int[] parseMix(String mix) {
+        if (mix.equals("look-heavy")) {
+            return new int[] { 9, 1, 0, 0 };
+        } else if (mix.equals("dig-heavy")) {
+            return new int[] { 2, 7, 1, 0 };
+        } else if (mix.equals("flag-storm")) {
+            return new int[] { 1, 0, 5, 4 };
+        }
+        int[] weights = new int[Request.values().length];
+        int total = 0;
+        for (String part : mix.split(",")) {
+            String[] weight = part.split("=");
+            Request request = null;
+            for (Request r : Request.values()) {
+                if (weight.length == 2 && r.word.equals(weight[0])) {
+                    request = r;
+                }
+            }
+            if (request == null || !weight[1].matches("[0-9]{1,6}")) {
+                throw new IllegalArgumentException("unknown mix " + mix);
+            }
+            weights[request.ordinal()] = Integer.parseInt(weight[1]);
+            total += weights[request.ordinal()];
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("mix " + mix + " has no requests");
+        }
+        return weights;
+    }
+
+    /**
+     * opens the idle connections, then runs every player for a while
+     * @param durationMillis - how long the players send requests
+     * @return the requests the players sent and their latencies
+     * @throws InterruptedException if interrupted while waiting for the players
+     */
+    Report run(long durationMillis) throws InterruptedException {
+        List<Socket> held = new ArrayList<Socket>();
+        try {
+            long opening = System.nanoTime();
+            for (int i = 0; i < idle; i++) {
+                Socket socket = openIdle();
+                if (socket != null) {
+                    held.add(socket);
+                }
+            }
+            long opened = System.nanoTime();
+            Report report = runPlayers(durationMillis);
+            report.idleConnections = held.size();
+            report.idleFailures = idle - held.size();
+            report.idleOpenNanos = opened - opening;
+            return report;
+        } finally {
+            for (Socket socket : held) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // nothing more to do with it
+                }
+            }
+        }
+    }
+
+    /**
+     * opens a connection which reads the first line of its welcome and
+     * then sends nothing
+     * @return the connection, or null if it could not be opened
+     */
+    private Socket openIdle() {
+        Socket socket = new Socket();
+        try {
+            socket.connect(server);
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[256];
+            boolean welcomed = false;
+            while (!welcomed) {
+                int read = in.read(buffer);
+                if (read < 0) {
+                    throw new IOException("the server closed the connection");
+                }
+                for (int i = 0; i < read; i++) {
+                    welcomed |= buffer[i] == '\n';
+                }
+            }
+            return socket;
+        } catch (IOException e) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // it was never usable
+            }
+            return null;
+        }
+    }
+
+    /**
+     * runs every player for a while
+     */
+    private Report runPlayers(long durationMillis) throws InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + durationMillis * 1000000L;
+        Player[] running = new Player[players];
+        Thread[] threads = new Thread[players];
+        for (int i = 0; i < players; i++) {
+            running[i] = new Player(new Random(seed + i), deadline);
+            threads[i] = new Thread(running[i], "minesweeper-load-player-" + i);
+            threads[i].start();
+        }
+        Report report = new Report();
+        for (int i = 0; i < players; i++) {
+            threads[i].join();
+            for (Request request : Request.values()) {
+                report.latencies[request.ordinal()].add(running[i].latencies[request.ordinal()]);
+            }
+            report.reconnects += running[i].reconnects;
+            report.failures += running[i].failures;
+        }
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+
+    /**
+     * The result of a run: the latencies of every request of each kind,
+     * how often players had to reconnect or could not connect at all, and
+     * how many idle connections were held open meanwhile
+     */
+    static final class Report {
+
+        final LatencyHistogram[] latencies = new LatencyHistogram[Request.values().length];
+        long elapsedNanos;
+        int reconnects;
+        int failures;
+        int idleConnections;
+        int idleFailures;
+        long idleOpenNanos;
+
+        private Report() {
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = new LatencyHistogram();
+            }
+        }
+
+        /**
+         * @return the number of requests of every kind
+         */
+        long requests() {
+            long requests = 0;
+            for (LatencyHistogram histogram : latencies) {
+                requests += histogram.count();
+            }
+            return requests;
+        }
+
+        /**
+         * @return a table of the throughput and latency percentiles, in
+         *     microseconds, of each kind of request
+         */
+        @Override
+        public String toString() {
+            double seconds = elapsedNanos / 1e9;
+            StringBuilder table = new StringBuilder();
+            if (idleConnections > 0 || idleFailures > 0) {
+                table.append(String.format("%d idle connections opened in %.1f s and held open, %d could not be opened%n",
+                        idleConnections, idleOpenNanos / 1e9, idleFailures));
+            }
+            table.append(String.format("%d requests in %.1f s, %.1f requests/s, %d reconnects, %d failures%n",
+                    requests(), seconds, requests() / seconds, reconnects, failures));
+            table.append(String.format("%-8s %10s %10s %10s %10s %10s %10s%n",
+                    "request", "count", "req/s", "p50 us", "p99 us", "p999 us", "max us"));
+            for (Request request : Request.values()) {
+                LatencyHistogram histogram = latencies[request.ordinal()];
+                if (histogram.count() > 0) {
+                    table.append(String.format("%-8s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n", request.word,
+                            histogram.count(), histogram.count() / seconds, histogram.percentile(50) / 1e3,
+                            histogram.percentile(99) / 1e3, histogram.percentile(99.9) / 1e3, histogram.max() / 1e3));
+                }
+            }
+            return table.toString();
+        }
+    }
+
+    /**
+     * One simulated player: connects, then sends random requests from the
+     * mix and reads their replies until the deadline
+     */
+    private final class Player implements Runnable {
+
+        private final Random random;
+        private final long deadline;
+        private final LatencyHistogram[] latencies = new LatencyHistogram[Request.values().length];
+        private final int totalWeight;
+        private Socket socket;
+        private BufferedReader in;
+        private OutputStream out;
+        private int columns;
+        private int rows;
+        private int reconnects = 0;
+        private int failures = 0;
+
+        Player(Random random, long deadline) {
+            this.random = random;
+            this.deadline = deadline;
+            int sum = 0;
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = new LatencyHistogram();
+                sum += weights[i];
+            }
+            this.totalWeight = sum;
+        }
+
+        public void run() {
+            try {
+                while (System.nanoTime() < deadline) {
+                    if (socket == null && !connect()) {
+                        failures++;
+                        return;
+                    }
+                    Request request = nextRequest();
+                    String line = request == Request.LOOK ? "look\n"
+                            : request.word + " " + random.nextInt(columns) + " " + random.nextInt(rows) + "\n";
+                    long start = System.nanoTime();
+                    try {
+                        out.write(line.getBytes(StandardCharsets.US_ASCII));
+                        out.flush();
+                        readReply();
+                    } catch (IOException e) {
+                        disconnect(); // e.g. a bomb ended the game
+                        reconnects++;
+                        continue;
+                    }
+                    latencies[request.ordinal()].record(System.nanoTime() - start);
+                }
+            } finally {
+                disconnect();
+            }
+        }
+
+        /**
+         * @return a request drawn from the mix
+         */
+        private Request nextRequest() {
+            int draw = random.nextInt(totalWeight);
+            for (Request request : Request.values()) {
+                draw -= weights[request.ordinal()];
+                if (draw < 0) {
+                    return request;
+                }
+            }
+            throw new AssertionError("the weights add up to totalWeight");
+        }
+
+        /**
+         * connects to the server and reads its welcome
+         * @return false if the player could not connect
+         */
+        private boolean connect() {
+            try {
+                socket = new Socket();
+                socket.connect(server);
+                socket.setTcpNoDelay(true);
+                in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                out = socket.getOutputStream();
+                String welcome = readLine();
+                Matcher size = BOARD_SIZE.matcher(welcome);
+                if (!size.find()) {
+                    throw new IOException("unexpected welcome: " + welcome);
+                }
+                columns = Integer.parseInt(size.group(1));
+                rows = Integer.parseInt(size.group(2));
+                readLine();
+                return true;
+            } catch (IOException e) {
+                disconnect();
+                return false;
+            }
+        }
+
+        /**
+         * reads a reply: a board up to the empty line after it, or "BOOM!"
+         */
+        private void readReply() throws IOException {
+            String line = readLine();
+            while (!line.isEmpty() && !line.equals("BOOM!")) {
+                line = readLine();
+            }
+        }
+
+        /**
+         * @return the next line from the server
+         * @throws IOException if the server closed the connection
+         */
+        private String readLine() throws IOException {
+            String line = in.readLine();
+            if (line == null) {
+                throw new IOException("the server closed the connection");
+            }
+            return line;
+        }
+
+        private void disconnect() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // nothing more to do with this connection
+                }
+                socket = null;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,153 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+import minesweeper.server.LoadGenerator.Report;
+import minesweeper.server.LoadGenerator.Request;
+
+import org.junit.Test;
+
+public class LoadGeneratorTest {
+
+	/**
+	 * Testing Partition:
+	 * 	Histogram: small and large latencies, percentiles, adding histograms X
+	 * 	Mixes: named, custom, unknown request, no requests X
+	 * 	Running: against a server in debug mode, against one which disconnects on BOOM! X
+	 * 	Idle connections: none, several held open while the players run X
+	 *
+	 */
+
+	@Test
+	public void histogramBucketsHoldTheirValues() {
+	    long[] values = { 0, 1, 255, 256, 257, 1000, 123456789, Long.MAX_VALUE };
+	    for (long value : values) {
+	        long highest = LatencyHistogram.highestValueIn(LatencyHistogram.bucketOf(value));
+	        assertTrue(value + " " + highest, highest >= value);
+	        assertTrue(value + " " + highest, highest - value <= value / 128);
+	    }
+	    for (long value = 0; value < 100000; value++) {
+	        assertTrue(LatencyHistogram.bucketOf(value) <= LatencyHistogram.bucketOf(value + 1));
+	    }
+	}
+
+	@Test
+	public void histogramPercentiles() {
+	    LatencyHistogram first = new LatencyHistogram();
+	    LatencyHistogram second = new LatencyHistogram();
+	    assertEquals(0, first.percentile(50));
+	    for (long nanos = 1; nanos <= 100000; nanos++) {
+	        (nanos % 2 == 0 ? first : second).record(nanos);
+	    }
+	    first.add(second);
+	    assertEquals(100000, first.count());
+	    assertEquals(100000, first.max());
+	    assertEquals(50000.5, first.mean(), 1e-9);
+	    assertEquals(50000, first.percentile(50), 50000 / 128);
+	    assertEquals(99000, first.percentile(99), 99000 / 128);
+	    assertEquals(99900, first.percentile(99.9), 99900 / 128);
+	    assertEquals(100000, first.percentile(100));
+	}
+
+	@Test
+	public void parsesMixes() {
+	    assertArrayEquals(new int[] { 9, 1, 0, 0 }, LoadGenerator.parseMix("look-heavy"));
+	    assertArrayEquals(new int[] { 5, 3, 0, 1 }, LoadGenerator.parseMix("look=5,dig=3,deflag=1"));
+	    for (String mix : new String[] { "look=5,jump=1", "look", "look=x", "look=0,dig=0", "" }) {
+	        try {
+	            LoadGenerator.parseMix(mix);
+	            fail("expected " + mix + " to be rejected");
+	        } catch (IllegalArgumentException e) {
+	            // expected
+	        }
+	    }
+	}
+
+	@Test(timeout=30000)
+	public void playersSendEveryKindOfRequest() throws IOException, InterruptedException {
+	    SelectorServer server = start(new SelectorServer(0, true, new Board(32, 32, 6005), 2));
+	    try {
+	        LoadGenerator load = new LoadGenerator(new InetSocketAddress("localhost", server.getPort()), 4,
+	                LoadGenerator.parseMix("look=1,dig=1,flag=1,deflag=1"), 6005);
+	        Report report = load.run(500);
+	        for (Request request : Request.values()) {
+	            assertTrue(request + " " + Arrays.toString(report.latencies), report.latencies[request.ordinal()].count() > 0);
+	        }
+	        assertEquals(0, report.failures);
+	        assertEquals(0, report.reconnects);
+	        assertTrue(report.toString().contains("p999 us"));
+	    } finally {
+	        server.close();
+	    }
+	}
+
+	@Test(timeout=30000)
+	public void idleConnectionsAreHeldOpen() throws IOException, InterruptedException {
+	    final ThreadPerConnectionServer server = new ThreadPerConnectionServer(0, true, new Board(32, 32, 6005),
+	            ThreadPerConnectionServer.platformThreads());
+	    Thread acceptor = new Thread(new Runnable() {
+	        public void run() {
+	            try {
+	                server.serve();
+	            } catch (IOException e) {
+	                e.printStackTrace();
+	            }
+	        }
+	    });
+	    acceptor.setDaemon(true);
+	    acceptor.start();
+	    try {
+	        LoadGenerator load = new LoadGenerator(new InetSocketAddress("localhost", server.getPort()), 2,
+	                LoadGenerator.parseMix("look-heavy"), 6005, 50);
+	        Report report = load.run(300);
+	        assertEquals(50, report.idleConnections);
+	        assertEquals(0, report.idleFailures);
+	        assertTrue(report.requests() > 0);
+	        assertTrue(report.toString().startsWith("50 idle connections"));
+	        while (server.getConnections() > 0) {
+	            Thread.yield(); // closed once the players are done
+	        }
+	    } finally {
+	        server.close();
+	    }
+	}
+
+	@Test(timeout=30000)
+	public void playersReconnectAfterBoom() throws IOException, InterruptedException {
+	    SelectorServer server = start(new SelectorServer(0, false, new Board(new File("simpleBoard.txt")), 1));
+	    try {
+	        LoadGenerator load = new LoadGenerator(new InetSocketAddress("localhost", server.getPort()), 2,
+	                LoadGenerator.parseMix("dig-heavy"), 6005);
+	        Report report = load.run(300);
+	        assertTrue(report.requests() > 0);
+	        assertTrue(report.reconnects > 0);
+	        assertEquals(0, report.failures);
+	    } finally {
+	        server.close();
+	    }
+	}
+
+	/**
+	 * runs server on a daemon thread
+	 */
+	private static SelectorServer start(final SelectorServer server) {
+	    Thread thread = new Thread(new Runnable() {
+	        public void run() {
+	            try {
+	                server.serve();
+	            } catch (IOException e) {
+	                e.printStackTrace();
+	            }
+	        }
+	    });
+	    thread.setDaemon(true);
+	    thread.start();
+	    return server;
+	}
+
+}
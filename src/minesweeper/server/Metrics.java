@@ -0,0 +1,285 @@
+package minesweeper.server;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import minesweeper.server.CommandParser.Command;
+
+/**
+ * Thread safety argument:
+ *  Every metric is an atomic or a ConcurrentHistogram, so the threads
+ *  serving players record without locking. current is volatile, and
+ *  enable and disable, which change it and the registration with JMX,
+ *  are synchronized on the class.
+ */
+
+/**
+ * AF: Metrics are what the server measures about itself while it runs,
+ *  to tell where the time of a slow request goes: the latency of each
+ *  kind of request handled by MinesweeperSession (parsing, waiting for
+ *  the board, acting and rendering the reply, but not socket I/O), the
+ *  time spent rendering boards, the time threads spent waiting for a
+ *  board's locks, the number of cells each dig dug including its flood
+ *  fill, the players connected, and the bytes written to them.
+ *
+ *  Metrics are process wide, like the JMX server they are published in.
+ *  They are disabled unless the minesweeper.metrics system property is
+ *  "true" or enable() is called. While disabled, current() is null and
+ *  every place that measures something costs a volatile read and a null
+ *  check; in particular no clock is read. While enabled, a lock acquired
+ *  without waiting still costs only a tryLock, and the clock is read only
+ *  around locks that had to be waited for.
+ *
+ *  They can be read with the "stats" command, and through JMX as the
+ *  MBean minesweeper.server:type=Metrics.
+ *
+ * Rep: requests[c.ordinal()] holds the latencies of command c;
+ *  lockWaits holds the time of each wait for a lock; cellsDug holds the
+ *  number of cells of each dig
+ *
+ * RI: requests.length == Command.values().length
+ * @author nathaliehuynh
+ *
+ */
+public final class Metrics implements MetricsMBean {
+
+    /**
+     * the system property which enables metrics when the class is loaded
+     */
+    public static final String PROPERTY = "minesweeper.metrics";
+    private static final String OBJECT_NAME = "minesweeper.server:type=Metrics";
+    private static final Command[] COMMANDS = Command.values();
+
+    private static volatile Metrics current;
+
+    private final ConcurrentHistogram[] requests = new ConcurrentHistogram[COMMANDS.length];
+    private final ConcurrentHistogram renders = new ConcurrentHistogram();
+    private final ConcurrentHistogram lockWaits = new ConcurrentHistogram();
+    private final ConcurrentHistogram cellsDug = new ConcurrentHistogram();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicLong connectionsOpened = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    static {
+        if (Boolean.getBoolean(PROPERTY)) {
+            enable();
+        }
+    }
+
+    private Metrics() {
+        for (int i = 0; i < requests.length; i++) {
+            requests[i] = new ConcurrentHistogram();
+        }
+    }
+
+    /**
+     * Starts measuring, with every metric at zero, and publishes the
+     * metrics through JMX. Does nothing if metrics are already enabled.
+     * @return the metrics now being recorded
+     * @throws IllegalStateException if the metrics cannot be published
+     */
+    public static synchronized Metrics enable() {
+        if (current == null) {
+            Metrics metrics = new Metrics();
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = new ObjectName(OBJECT_NAME);
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+                server.registerMBean(metrics, name);
+            } catch (JMException e) {
+                throw new IllegalStateException("cannot publish metrics", e);
+            }
+            current = metrics;
+        }
+        return current;
+    }
+
+    /**
+     * Stops measuring, discarding every metric, and withdraws the metrics
+     * from JMX. Does nothing if metrics are disabled.
+     */
+    public static synchronized void disable() {
+        if (current == null) {
+            return;
+        }
+        current = null;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            // already withdrawn; nothing is published either way
+        }
+    }
+
+    /**
+     * @return the metrics being recorded, or null if metrics are disabled
+     */
+    public static Metrics current() {
+        return current;
+    }
+
+    /**
+     * Locks lock, counting the time spent waiting for it if metrics are
+     * enabled
+     * @param lock - a lock of a board
+     */
+    static void lock(Lock lock) {
+        Metrics metrics = current;
+        if (metrics == null || lock.tryLock()) {
+            if (metrics == null) {
+                lock.lock();
+            }
+            return;
+        }
+        long start = System.nanoTime();
+        lock.lock();
+        metrics.lockWaits.record(System.nanoTime() - start);
+    }
+
+    /**
+     * records the handling of one request
+     * @param command - the kind of request
+     * @param nanos - how long handling it took
+     */
+    void request(Command command, long nanos) {
+        requests[command.ordinal()].record(nanos);
+    }
+
+    /**
+     * records the rendering of a board as text
+     * @param nanos - how long rendering took
+     */
+    void rendered(long nanos) {
+        renders.record(nanos);
+    }
+
+    /**
+     * records a dig which dug at least one cell
+     * @param cells - the number of cells dug, the dug cell and its flood fill
+     */
+    void dug(int cells) {
+        cellsDug.record(cells);
+    }
+
+    /**
+     * records that a player connected
+     */
+    void connectionOpened() {
+        connections.incrementAndGet();
+        connectionsOpened.incrementAndGet();
+    }
+
+    /**
+     * records that a player counted by connectionOpened disconnected
+     */
+    void connectionClosed() {
+        connections.decrementAndGet();
+    }
+
+    /**
+     * records bytes written to a player
+     * @param bytes - the number of bytes
+     */
+    void written(long bytes) {
+        bytesWritten.addAndGet(bytes);
+    }
+
+    @Override
+    public int getConnections() {
+        return connections.get();
+    }
+
+    @Override
+    public long getConnectionsOpened() {
+        return connectionsOpened.get();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    @Override
+    public long getRequests() {
+        long total = 0;
+        for (ConcurrentHistogram histogram : requests) {
+            total += histogram.snapshot().count();
+        }
+        return total;
+    }
+
+    @Override
+    public long getLockWaits() {
+        return lockWaits.snapshot().count();
+    }
+
+    @Override
+    public long getLockWaitNanos() {
+        return lockWaits.snapshot().sum();
+    }
+
+    @Override
+    public long getDigs() {
+        return cellsDug.snapshot().count();
+    }
+
+    @Override
+    public long getCellsDug() {
+        return cellsDug.snapshot().sum();
+    }
+
+    @Override
+    public long requestLatency(String command, double percentile) {
+        for (Command known : COMMANDS) {
+            if (nameOf(known).equals(command)) {
+                return requests[known.ordinal()].snapshot().percentile(percentile);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the name of a command in the report, such as "look since"
+     */
+    private static String nameOf(Command command) {
+        return command.name().toLowerCase().replace('_', ' ');
+    }
+
+    @Override
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        LatencyHistogram waits = lockWaits.snapshot();
+        LatencyHistogram digs = cellsDug.snapshot();
+        report.append(String.format("connections %d open, %d opened\n", getConnections(), getConnectionsOpened()));
+        report.append(String.format("bytes written %d\n", getBytesWritten()));
+        report.append(String.format("lock waits %d, %.1f us in total\n", waits.count(), waits.sum() / 1e3));
+        report.append(String.format("digs %d, %.1f cells per dig, max %d\n", digs.count(), digs.mean(), digs.max()));
+        report.append(String.format("%-12s %10s %10s %10s %10s %10s\n",
+                "request", "count", "p50 us", "p99 us", "p999 us", "max us"));
+        for (Command command : COMMANDS) {
+            appendRow(report, nameOf(command), requests[command.ordinal()].snapshot());
+        }
+        appendRow(report, "(render)", renders.snapshot());
+        appendRow(report, "(lock wait)", waits);
+        return report.toString();
+    }
+
+    /**
+     * appends the line of a histogram of latencies to the report, if it has any
+     */
+    private static void appendRow(StringBuilder report, String name, LatencyHistogram histogram) {
+        if (histogram.count() > 0) {
+            report.append(String.format("%-12s %10d %10.1f %10.1f %10.1f %10.1f\n", name, histogram.count(),
+                    histogram.percentile(50) / 1e3, histogram.percentile(99) / 1e3,
+                    histogram.percentile(99.9) / 1e3, histogram.max() / 1e3));
+        }
+    }
+
+}
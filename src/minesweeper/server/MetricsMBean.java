@@ -0,0 +1,65 @@
+package minesweeper.server;
+
+/**
+ * The management interface of Metrics, through which JMX clients such as
+ * jconsole read the metrics of a running server. Times are in nanoseconds.
+ * @author nathaliehuynh
+ *
+ */
+public interface MetricsMBean {
+
+    /**
+     * @return the number of players connected now
+     */
+    int getConnections();
+
+    /**
+     * @return the number of connections opened since metrics were enabled
+     */
+    long getConnectionsOpened();
+
+    /**
+     * @return the number of bytes written to players
+     */
+    long getBytesWritten();
+
+    /**
+     * @return the number of requests handled
+     */
+    long getRequests();
+
+    /**
+     * @return the number of times a thread had to wait for a board lock
+     */
+    long getLockWaits();
+
+    /**
+     * @return the total time threads spent waiting for board locks
+     */
+    long getLockWaitNanos();
+
+    /**
+     * @return the number of digs which dug at least one cell
+     */
+    long getDigs();
+
+    /**
+     * @return the number of cells those digs dug, including flood fills
+     */
+    long getCellsDug();
+
+    /**
+     * @param command - the name of a command as in the report, such as
+     *     "look", "dig" or "look since"
+     * @param percentile - a percentile, from 0 to 100
+     * @return the latency of the command at that percentile, 0 if the
+     *     command is unknown or was never handled
+     */
+    long requestLatency(String command, double percentile);
+
+    /**
+     * @return every metric as text, the reply to the "stats" command
+     */
+    String report();
+
+}
@@ -0,0 +1,217 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class MetricsTest {
+
+	/**
+	 * Testing Partition:
+	 * 	Enabled: no, yes, enabled twice, disabled again X
+	 * 	Requests: each command counted under its name, stats while disabled and enabled X
+	 * 	Digs: a numbered cell, a flood fill, a cell already dug X
+	 * 	Locks: free, held by another thread X
+	 * 	Connections and bytes: a player connecting, playing and leaving a server X
+	 * 	Histograms: recorded from many threads at once X
+	 *
+	 */
+
+	@After
+	public void disableMetrics() {
+	    Metrics.disable();
+	}
+
+	@Test
+	public void statsWhileDisabled() {
+	    assertNull(Metrics.current());
+	    MinesweeperSession session = new MinesweeperSession(new Board(3, 3, 6005), true, new AtomicInteger());
+	    session.open();
+	    assertEquals("metrics are disabled", session.handleRequest("stats"));
+	    assertNull(Metrics.current());
+	}
+
+	@Test
+	public void enablingPublishesThroughJmx() throws JMException {
+	    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	    ObjectName name = new ObjectName("minesweeper.server:type=Metrics");
+	    Metrics metrics = Metrics.enable();
+	    assertSame(metrics, Metrics.enable());
+	    assertSame(metrics, Metrics.current());
+	    assertTrue(server.isRegistered(name));
+	    assertEquals(0L, server.getAttribute(name, "Requests"));
+	    Metrics.disable();
+	    assertNull(Metrics.current());
+	    assertFalse(server.isRegistered(name));
+	    assertNotSame(metrics, Metrics.enable());
+	}
+
+	@Test
+	public void sessionsRecordRequests() {
+	    Metrics metrics = Metrics.enable();
+	    MinesweeperSession session = new MinesweeperSession(new Board(3, 3, 6005), true, new AtomicInteger());
+	    session.open();
+	    assertEquals(1, metrics.getConnections());
+	    session.handleRequest("look");
+	    session.handleRequest("look");
+	    session.handleRequest("flag 0 0");
+	    session.handleRequest("nonsense");
+	    assertEquals(4, metrics.getRequests());
+	    assertTrue(metrics.requestLatency("look", 100) > 0);
+	    assertTrue(metrics.requestLatency("flag", 50) > 0);
+	    assertTrue(metrics.requestLatency("invalid", 50) > 0);
+	    assertEquals(0, metrics.requestLatency("dig", 50));
+	    assertEquals(0, metrics.requestLatency("jump", 50));
+
+	    String report = session.handleRequest("stats");
+	    assertTrue(report, report.startsWith("connections 1 open, 1 opened\n"));
+	    assertTrue(report, report.contains("\nlook "));
+	    assertTrue(report, report.contains("\n(render) "));
+	    assertFalse(report, report.contains("\ndig "));
+	    session.close();
+	    assertEquals(0, metrics.getConnections());
+	    assertEquals(1, metrics.getConnectionsOpened());
+	}
+
+	@Test
+	public void digsCountTheCellsTheyDig() throws IOException {
+	    Metrics metrics = Metrics.enable();
+	    Board board = new Board(new File("simpleBoard.txt")); // one bomb at (1, 2) of 2 by 3
+	    board.processAction(0, 2, Board.Action.DIG); // next to the bomb: digs only itself
+	    assertEquals(1, metrics.getDigs());
+	    assertEquals(1, metrics.getCellsDug());
+	    board.processAction(0, 2, Board.Action.DIG); // already dug: digs nothing
+	    assertEquals(1, metrics.getDigs());
+	    board.processAction(0, 0, Board.Action.DIG); // floods the top two rows
+	    assertEquals(2, metrics.getDigs());
+	    assertEquals(1 + 4, metrics.getCellsDug());
+	    assertTrue(metrics.report(), metrics.report().contains("digs 2, 2.5 cells per dig, max 4\n"));
+	}
+
+	@Test(timeout=10000)
+	public void locksCountTheTimeSpentWaiting() throws InterruptedException {
+	    final Metrics metrics = Metrics.enable();
+	    final ReentrantLock lock = new ReentrantLock();
+	    Metrics.lock(lock);
+	    lock.unlock();
+	    assertEquals(0, metrics.getLockWaits());
+
+	    final CountDownLatch held = new CountDownLatch(1);
+	    final CountDownLatch release = new CountDownLatch(1);
+	    Thread holder = new Thread(new Runnable() {
+	        public void run() {
+	            lock.lock();
+	            held.countDown();
+	            try {
+	                release.await();
+	            } catch (InterruptedException e) {
+	                // release the lock either way
+	            } finally {
+	                lock.unlock();
+	            }
+	        }
+	    });
+	    holder.start();
+	    held.await();
+	    Thread waiter = new Thread(new Runnable() {
+	        public void run() {
+	            Metrics.lock(lock);
+	            lock.unlock();
+	        }
+	    });
+	    waiter.start();
+	    while (!lock.hasQueuedThread(waiter)) {
+	        Thread.sleep(1);
+	    }
+	    Thread.sleep(20);
+	    release.countDown();
+	    waiter.join();
+	    holder.join();
+	    assertEquals(1, metrics.getLockWaits());
+	    assertTrue(metrics.getLockWaitNanos() >= 20000000L);
+	}
+
+	@Test(timeout=10000)
+	public void serversCountConnectionsAndBytes() throws IOException, InterruptedException {
+	    Metrics metrics = Metrics.enable();
+	    final SelectorServer server = new SelectorServer(0, true, new Board(3, 3, 6005), 1);
+	    Thread thread = new Thread(new Runnable() {
+	        public void run() {
+	            try {
+	                server.serve();
+	            } catch (IOException e) {
+	                e.printStackTrace();
+	            }
+	        }
+	    });
+	    thread.setDaemon(true);
+	    thread.start();
+	    try {
+	        Socket socket = new Socket("localhost", server.getPort());
+	        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+	        PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+	        long bytes = in.readLine().length() + 1;
+	        bytes += in.readLine().length() + 1;
+	        out.println("look");
+	        for (int i = 0; i < 4; i++) {
+	            bytes += in.readLine().length() + 1;
+	        }
+	        out.println("stats");
+	        String line = in.readLine();
+	        assertEquals("connections 1 open, 1 opened", line);
+	        for (; !line.isEmpty(); line = in.readLine()) {
+	            bytes += line.length() + 1;
+	        }
+	        bytes += 1;
+	        // the server counts the bytes just after the client can read them
+	        while (metrics.getBytesWritten() < bytes) {
+	            Thread.sleep(1);
+	        }
+	        assertEquals(bytes, metrics.getBytesWritten());
+	        socket.close();
+	    } finally {
+	        server.close();
+	    }
+	}
+
+	@Test
+	public void histogramsRecordFromManyThreads() throws InterruptedException {
+	    final ConcurrentHistogram histogram = new ConcurrentHistogram();
+	    Thread[] threads = new Thread[4];
+	    for (int t = 0; t < threads.length; t++) {
+	        threads[t] = new Thread(new Runnable() {
+	            public void run() {
+	                for (long value = 1; value <= 10000; value++) {
+	                    histogram.record(value);
+	                }
+	            }
+	        });
+	        threads[t].start();
+	    }
+	    for (Thread thread : threads) {
+	        thread.join();
+	    }
+	    LatencyHistogram snapshot = histogram.snapshot();
+	    assertEquals(40000, snapshot.count());
+	    assertEquals(4 * 50005000L, snapshot.sum());
+	    assertEquals(10000, snapshot.max());
+	    assertEquals(5000, snapshot.percentile(50), 5000 / 128);
+	}
+
+}
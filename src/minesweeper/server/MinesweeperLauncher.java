@@ -0,0 +1,266 @@
+package minesweeper.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts a Minesweeper server from the command line, serving connections
+ * in whichever of the ways this package offers is asked for.
+ *
+ * Usage: MinesweeperLauncher [--debug | --no-debug] [--port PORT] [--size SIZE_X,SIZE_Y [--seed S] | --file FILE]
+ *                            [--server selector|threads|virtual] [--threads N]
+ *                            [--rooms MAX [--room-idle SECONDS]]
+ *
+ * --debug keeps a player who digs a bomb connected; --no-debug, the
+ * default, disconnects them. The server listens on PORT (default 4444,
+ * 0 for any free port, which is printed) and serves a random board of
+ * SIZE_X columns by SIZE_Y rows (default 10 by 10), or the board read
+ * from FILE, in the text format or the binary format BoardConverter
+ * writes, with or without neighbor counts, see BoardFile. The last of
+ * --size and --file wins. With
+ * --seed the random board is generated from seed S, so the same seed and
+ * size always give the same board, see BoardGenerator.
+ *
+ * --server picks how connections are served:
+ *     threads    a ThreadPerConnectionServer on platform threads, one per
+ *                connection, like MinesweeperServer (the default)
+ *     virtual    a ThreadPerConnectionServer on virtual threads, which
+ *                needs Java 21 or later
+ *     selector   a SelectorServer with N selector threads (default the
+ *                number of processors); --threads only applies to it
+ *
+ * With --rooms the server hosts rooms (see Rooms and the join command of
+ * MinesweeperSession): each room gets a new board as described above when
+ * its first player joins (with --seed, the same board in every room), at
+ * most MAX rooms exist besides the default room, and a room left empty
+ * for SECONDS (default 600) is evicted.
+ * @author nathaliehuynh
+ *
+ */
+public class MinesweeperLauncher {
+
+    private static final int DEFAULT_PORT = 4444;
+    private static final int MAXIMUM_PORT = 65535;
+    private static final int DEFAULT_SIZE = 10;
+    private static final String USAGE = "usage: MinesweeperLauncher [--debug | --no-debug] [--port PORT] "
+            + "[--size SIZE_X,SIZE_Y [--seed S] | --file FILE]\n"
+            + "                           [--server selector|threads|virtual] [--threads N]\n"
+            + "                           [--rooms MAX [--room-idle SECONDS]]";
+    private static final int DEFAULT_ROOM_IDLE_SECONDS = 600;
+
+    private boolean debug = false;
+    private int port = DEFAULT_PORT;
+    private int columns = DEFAULT_SIZE;
+    private int rows = DEFAULT_SIZE;
+    private File file = null; // null for a random board
+    private Long seed = null; // null for a random seed
+    private String serverKind = "threads";
+    private int selectorThreads = 0; // 0 if not given
+    private int maxRooms = 0; // 0 for a single board
+    private int roomIdleSeconds = -1; // -1 if not given
+
+    /**
+     * A server started by the launcher
+     */
+    interface Server {
+        /**
+         * @return the port the server listens on
+         */
+        int getPort();
+
+        /**
+         * serves connections until the server is closed, see SelectorServer.serve
+         * @throws IOException if the server socket is broken
+         */
+        void serve() throws IOException;
+
+        /**
+         * stops the server, see SelectorServer.close
+         * @throws IOException if the server socket cannot be closed
+         */
+        void close() throws IOException;
+    }
+
+    /**
+     * Reads the options of a server from the command line
+     * @param args - the arguments as described for main
+     * @throws IllegalArgumentException if args are not as described
+     */
+    MinesweeperLauncher(String[] args) {
+        Queue<String> arguments = new LinkedList<String>(Arrays.asList(args));
+        while (!arguments.isEmpty()) {
+            String flag = arguments.remove();
+            try {
+                if (flag.equals("--debug")) {
+                    debug = true;
+                } else if (flag.equals("--no-debug")) {
+                    debug = false;
+                } else if (flag.equals("--port")) {
+                    port = Integer.parseInt(arguments.remove());
+                    if (port < 0 || port > MAXIMUM_PORT) {
+                        throw new IllegalArgumentException("port " + port + " out of range");
+                    }
+                } else if (flag.equals("--size")) {
+                    String[] sizes = arguments.remove().split(",");
+                    if (sizes.length != 2) {
+                        throw new IllegalArgumentException("expected SIZE_X,SIZE_Y for --size");
+                    }
+                    columns = Integer.parseInt(sizes[0]);
+                    rows = Integer.parseInt(sizes[1]);
+                    if (columns <= 0 || rows <= 0) {
+                        throw new IllegalArgumentException("board size must be positive");
+                    }
+                    file = null;
+                } else if (flag.equals("--seed")) {
+                    seed = Long.parseLong(arguments.remove());
+                } else if (flag.equals("--file")) {
+                    file = new File(arguments.remove());
+                    if (!file.isFile()) {
+                        throw new IllegalArgumentException("file not found: \"" + file + "\"");
+                    }
+                } else if (flag.equals("--server")) {
+                    serverKind = arguments.remove();
+                    if (!serverKind.matches("selector|threads|virtual")) {
+                        throw new IllegalArgumentException("unknown server: \"" + serverKind + "\"");
+                    }
+                } else if (flag.equals("--threads")) {
+                    selectorThreads = Integer.parseInt(arguments.remove());
+                    if (selectorThreads <= 0) {
+                        throw new IllegalArgumentException("selector threads must be positive");
+                    }
+                } else if (flag.equals("--rooms")) {
+                    maxRooms = Integer.parseInt(arguments.remove());
+                    if (maxRooms <= 0) {
+                        throw new IllegalArgumentException("max rooms must be positive");
+                    }
+                } else if (flag.equals("--room-idle")) {
+                    roomIdleSeconds = Integer.parseInt(arguments.remove());
+                    if (roomIdleSeconds < 0) {
+                        throw new IllegalArgumentException("room idle time must not be negative");
+                    }
+                } else {
+                    throw new IllegalArgumentException("unknown option: \"" + flag + "\"");
+                }
+            } catch (NoSuchElementException e) {
+                throw new IllegalArgumentException("missing argument for " + flag);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("unable to parse number for " + flag);
+            }
+        }
+        if (selectorThreads > 0 && !serverKind.equals("selector")) {
+            throw new IllegalArgumentException("--threads only applies to --server selector");
+        }
+        if (seed != null && file != null) {
+            throw new IllegalArgumentException("--seed only applies to random boards");
+        }
+        if (roomIdleSeconds >= 0 && maxRooms == 0) {
+            throw new IllegalArgumentException("--room-idle only applies with --rooms");
+        }
+        if (serverKind.equals("virtual") && !ThreadPerConnectionServer.virtualThreadsAvailable()) {
+            throw new IllegalArgumentException("virtual threads require Java 21 or later");
+        }
+    }
+
+    /**
+     * Starts a Minesweeper server as described by the command line
+     * @param args arguments as described
+     */
+    public static void main(String[] args) {
+        try {
+            Server server = new MinesweeperLauncher(args).start();
+            System.out.println("listening on " + server.getPort());
+            server.serve();
+        } catch (IOException | RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return a new board as described by the command line
+     * @throws IOException if the board file cannot be read
+     */
+    GameBoard newBoard() throws IOException {
+        return file != null ? new Board(file) : randomBoard();
+    }
+
+    /**
+     * @return a new random board as described by the command line
+     */
+    private Board randomBoard() {
+        return seed != null ? new Board(columns, rows, seed) : new Board(columns, rows);
+    }
+
+    /**
+     * @return a factory of new boards as described by the command line,
+     *     for the rooms of a server
+     */
+    private Rooms.BoardFactory roomBoards() {
+        return new Rooms.BoardFactory() {
+            public Board newBoard(String roomId) {
+                try {
+                    return file != null ? new Board(file) : randomBoard();
+                } catch (IOException e) {
+                    throw new UncheckedIOException("cannot read the board of room " + roomId, e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Opens the server described by the command line, which serves nothing
+     * until its serve() is called
+     * @return the server
+     * @throws IOException if the board file cannot be read or the server
+     *     socket cannot be opened
+     */
+    Server start() throws IOException {
+        long roomIdleMillis = TimeUnit.SECONDS.toMillis(roomIdleSeconds >= 0 ? roomIdleSeconds : DEFAULT_ROOM_IDLE_SECONDS);
+        Rooms rooms = maxRooms > 0 ? new Rooms(roomBoards(), roomIdleMillis, maxRooms) : null;
+        GameBoard board = rooms == null ? newBoard() : null;
+        if (serverKind.equals("selector")) {
+            int threads = selectorThreads > 0 ? selectorThreads : Runtime.getRuntime().availableProcessors();
+            final SelectorServer server = rooms == null
+                    ? new SelectorServer(port, debug, board, threads) : new SelectorServer(port, debug, rooms, threads);
+            return new Server() {
+                public int getPort() {
+                    return server.getPort();
+                }
+
+                public void serve() throws IOException {
+                    server.serve();
+                }
+
+                public void close() throws IOException {
+                    server.close();
+                }
+            };
+        }
+        ThreadFactory threads = serverKind.equals("virtual")
+                ? ThreadPerConnectionServer.virtualThreads() : ThreadPerConnectionServer.platformThreads();
+        final ThreadPerConnectionServer server = rooms == null ? new ThreadPerConnectionServer(port, debug, board, threads)
+                : new ThreadPerConnectionServer(port, debug, rooms, threads);
+        return new Server() {
+            public int getPort() {
+                return server.getPort();
+            }
+
+            public void serve() throws IOException {
+                server.serve();
+            }
+
+            public void close() throws IOException {
+                server.close();
+            }
+        };
+    }
+
+}
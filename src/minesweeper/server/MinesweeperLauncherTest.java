@@ -0,0 +1,191 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class MinesweeperLauncherTest {
+
+	/**
+	 * Testing Partition:
+	 * 	Servers: selector with and without --threads, threads (the default) X
+	 * 	Boards: --size, --size with the same --seed twice, --file in the text format,
+	 * 	        --file converted to the binary format with and without counts X
+	 * 	Debug: a bomb dug with --debug and without X
+	 * 	Rooms: a room cap on each kind of server, rooms with their own boards X
+	 * 	Bad command lines: unknown option, missing argument, bad number, port out of range,
+	 * 	                   unknown server, --threads without the selector server, missing file,
+	 * 	                   --room-idle without --rooms, a room cap of 0, --seed with --file X
+	 *
+	 */
+
+	/**
+	 * starts the server described by args on a free port, serving on a daemon thread
+	 * @return the server
+	 */
+	private static MinesweeperLauncher.Server serve(String... args) throws IOException {
+	    String[] withPort = new String[args.length + 2];
+	    System.arraycopy(args, 0, withPort, 0, args.length);
+	    withPort[args.length] = "--port";
+	    withPort[args.length + 1] = "0";
+	    final MinesweeperLauncher.Server server = new MinesweeperLauncher(withPort).start();
+	    Thread thread = new Thread(new Runnable() {
+	        public void run() {
+	            try {
+	                server.serve();
+	            } catch (IOException e) {
+	                e.printStackTrace();
+	            }
+	        }
+	    });
+	    thread.setDaemon(true);
+	    thread.start();
+	    return server;
+	}
+
+	/**
+	 * connects to a server, reads its welcome and sends it lines
+	 * @return the welcome, then the lines the server sent back until it
+	 *     closed the connection
+	 */
+	private static String play(MinesweeperLauncher.Server server, String... lines) throws IOException {
+	    Socket socket = new Socket("localhost", server.getPort());
+	    try {
+	        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+	        PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+	        for (String line : lines) {
+	            out.println(line);
+	        }
+	        StringBuilder received = new StringBuilder();
+	        for (String line = in.readLine(); line != null; line = in.readLine()) {
+	            received.append(line).append('\n');
+	        }
+	        return received.toString();
+	    } finally {
+	        socket.close();
+	    }
+	}
+
+	@Test(timeout=10000)
+	public void eachServerServesTheBoardAsked() throws IOException {
+	    String[][] commandLines = { { "--size", "3,2" }, { "--size", "3,2", "--server", "selector" },
+	            { "--server", "selector", "--threads", "2", "--size", "3,2" } };
+	    for (String[] commandLine : commandLines) {
+	        MinesweeperLauncher.Server server = serve(commandLine);
+	        try {
+	            String received = play(server, "flag 1 1", "bye");
+	            assertTrue(received, received.startsWith("Welcome to Minesweeper. Board: 3 columns by 2 rows."));
+	            assertTrue(received, received.endsWith("- - -\n- F -\n\n"));
+	        } finally {
+	            server.close();
+	        }
+	    }
+	}
+
+	@Test(timeout=10000)
+	public void seededServersServeTheSameBoard() throws IOException {
+	    // digging every cell in debug mode reveals every bomb, as BOOM!
+	    String[] digs = new String[8 * 8 + 1];
+	    for (int i = 0; i < 8 * 8; i++) {
+	        digs[i] = "dig " + (i % 8) + " " + (i / 8);
+	    }
+	    digs[8 * 8] = "bye";
+	    String[] games = new String[2];
+	    for (int i = 0; i < games.length; i++) {
+	        MinesweeperLauncher.Server server = serve("--debug", "--size", "8,8", "--seed", "6005");
+	        try {
+	            games[i] = play(server, digs);
+	        } finally {
+	            server.close();
+	        }
+	    }
+	    assertTrue(games[0].contains("BOOM!"));
+	    assertEquals(games[0], games[1]);
+	}
+
+	@Test(timeout=10000)
+	public void boardFilesAndDebugMode() throws IOException {
+	    // simpleBoard.txt has a bomb at (1, 2)
+	    MinesweeperLauncher.Server server = serve("--file", "simpleBoard.txt", "--server", "selector");
+	    try {
+	        assertTrue(play(server, "dig 1 2", "look").endsWith("BOOM!\n"));
+	    } finally {
+	        server.close();
+	    }
+	    server = serve("--debug", "--file", "simpleBoard.txt");
+	    try {
+	        String received = play(server, "dig 1 2", "look", "bye");
+	        assertTrue(received, received.endsWith("BOOM!\n   \n   \n   \n\n"));
+	    } finally {
+	        server.close();
+	    }
+	}
+
+	@Test(timeout=10000)
+	public void roomsAreCappedAndHaveTheirOwnBoards() throws IOException {
+	    String[][] commandLines = { { "--size", "3,2", "--rooms", "1", "--room-idle", "60" },
+	            { "--size", "3,2", "--rooms", "1", "--server", "selector" } };
+	    for (String[] commandLine : commandLines) {
+	        MinesweeperLauncher.Server server = serve(commandLine);
+	        try {
+	            String received = play(server, "flag 0 0", "join a", "look", "join b", "bye");
+	            assertTrue(received, received.contains("F - -\n- - -\n"));
+	            assertTrue(received, received.contains("- - -\n- - -\n")); // room a's new board
+	            assertTrue(received, received.endsWith("no more rooms can be created\n"));
+	        } finally {
+	            server.close();
+	        }
+	    }
+	}
+
+	@Test(timeout=10000)
+	public void convertedBoardFilesAreServed() throws IOException {
+	    MinesweeperLauncher.Server server = serve("--debug", "--file", "simpleBoard.txt");
+	    String expected;
+	    try {
+	        expected = play(server, "flag 0 0", "dig 1 0", "dig 1 2", "bye");
+	    } finally {
+	        server.close();
+	    }
+	    for (boolean counts : new boolean[] { false, true }) {
+	        File binary = File.createTempFile("simpleBoard", ".mswb");
+	        try {
+	            BoardConverter.convert(new File("simpleBoard.txt"), binary, counts);
+	            server = serve("--debug", "--file", binary.getPath(), "--server", "selector");
+	            try {
+	                assertEquals(expected, play(server, "flag 0 0", "dig 1 0", "dig 1 2", "bye"));
+	            } finally {
+	                server.close();
+	            }
+	        } finally {
+	            binary.delete();
+	        }
+	    }
+	}
+
+	@Test
+	public void badCommandLinesAreRejected() {
+	    String[][] commandLines = { { "--verbose" }, { "--port" }, { "--port", "x" }, { "--port", "65536" },
+	            { "--size", "3" }, { "--size", "0,3" }, { "--server", "forks" }, { "--threads", "2" },
+	            { "--server", "selector", "--threads", "0" }, { "--file", "no such board.txt" },
+	            { "--room-idle", "60" }, { "--rooms", "0" }, { "--seed", "x" },
+	            { "--seed", "1", "--file", "simpleBoard.txt" } };
+	    for (String[] commandLine : commandLines) {
+	        try {
+	            new MinesweeperLauncher(commandLine);
+	            fail("accepted " + Arrays.toString(commandLine));
+	        } catch (IllegalArgumentException e) {
+	            assertNotNull(e.getMessage());
+	        }
+	    }
+	}
+
+}
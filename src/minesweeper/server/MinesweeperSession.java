@@ -0,0 +1,325 @@
+package minesweeper.server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import minesweeper.server.Board.Action;
+import minesweeper.server.BoardFeed.Subscription;
+import minesweeper.server.CommandParser.Command;
+import minesweeper.server.Rooms.Room;
+
+/**
+ * Thread safety argument:
+ *  A session belongs to one connection and is only used by the thread
+ *  currently serving that connection, so its own fields are confined.
+ *  The rooms, boards and connection counters it shares with other
+ *  sessions are thread safe data types. The subscription, if any, is
+ *  thread safe, and is read by the server to write what it pushes.
+ */
+
+/**
+ * AF: A MinesweeperSession is the conversation between the server and one
+ *  connected player, speaking the Minesweeper text protocol:
+ *      look | dig X Y | flag X Y | deflag X Y | help | bye
+ *  extended with
+ *      look since V       the cells changed since board version V, see Board.lookSince
+ *      look X Y W H       the W by H cells whose top left cell is (X, Y), see
+ *                         Viewport; until the next plain look or join, the replies to
+ *                         dig, flag, deflag and batch show only those cells too
+ *      batch C X Y ...    several dig/flag/deflag commands C X Y applied as one
+ *                         unit, answered with a single board, see Board.processActions
+ *      join R             on a server with rooms, leave the current room for
+ *                         room R, creating it if needed, and be welcomed to it
+ *      unbomb X Y         sent by a ShardedBoard to the server of a shard: a
+ *                         bomb at (X, Y), just outside the shard, was dug on
+ *                         a neighboring shard, see Board.removeOuterBomb
+ *      stats              the metrics of the server, see Metrics
+ *      subscribe          the whole board as in the FULL reply to look since, after
+ *                         which the server pushes a reply to look since whenever
+ *                         the board changes, see BoardFeed; ended by unsubscribe,
+ *                         by joining another room, or by leaving
+ *      hint               a covered cell the dug cells prove safe or a mine, as
+ *                         "safe X Y" or "mine X Y", or "no hint", see Board.hint
+ *  It decides what the server writes back for each line the player sends,
+ *  independently of how the bytes travel, so every way of serving
+ *  connections speaks exactly the same protocol.
+ *
+ *  On a server with rooms, every player starts in Rooms.DEFAULT_ROOM, and
+ *  the board and player count are those of the player's current room.
+ *
+ *  A player who looked at a viewport keeps it across actions, so a client
+ *  showing one screen of a huge board is sent one screen per action.
+ *
+ * RI: the player is counted in room while open, and in no room otherwise;
+ *  subscription is null or a subscription to the feed of room
+ * @author nathaliehuynh
+ *
+ */
+public class MinesweeperSession {
+
+    private static final String BOOM_MESSAGE = "BOOM!";
+    private static final String BYE_MESSAGE = "bye";
+    private static final String INVALID_INPUT = "invalid input";
+    private static final String HELP_MESSAGE = "Valid commands are 'look', 'dig', 'flag', 'deflag', and 'bye'";
+    private static final String ROOMS_FULL_MESSAGE = "no more rooms can be created";
+    private static final String METRICS_DISABLED_MESSAGE = "metrics are disabled";
+    private static final String UNSUBSCRIBED_MESSAGE = "unsubscribed";
+    private static final String NEWLINE = System.lineSeparator();
+
+    private final Rooms rooms; // null on a single-board server
+    private Room room;
+    private final boolean debug;
+    private final CommandParser parser = new CommandParser();
+    private boolean open = false;
+    private boolean finished = false;
+    private Metrics countedIn; // the metrics which counted this player in, if any
+    private volatile Subscription subscription;
+    private Viewport viewport; // the viewport of the player's last look, or null for the whole board
+
+    /**
+     * Creates a session for a newly connected player, who only sees the
+     * changes they make themselves if they subscribe
+     * @param board - the board the player plays on
+     * @param debug - in debug mode, digging a bomb does not end the session
+     * @param connections - the number of players connected to board
+     */
+    public MinesweeperSession(GameBoard board, boolean debug, AtomicInteger connections) {
+        this(board, new BoardFeed(board), debug, connections);
+    }
+
+    /**
+     * Creates a session for a newly connected player
+     * @param board - the board the player plays on
+     * @param feed - the feed of board shared by every player on it
+     * @param debug - in debug mode, digging a bomb does not end the session
+     * @param connections - the number of players connected to board
+     */
+    public MinesweeperSession(GameBoard board, BoardFeed feed, boolean debug, AtomicInteger connections) {
+        this.rooms = null;
+        this.room = new Room(Rooms.DEFAULT_ROOM, board, feed, connections);
+        this.debug = debug;
+    }
+
+    /**
+     * Creates a session for a newly connected player on a server with rooms
+     * @param rooms - the rooms of the server
+     * @param debug - in debug mode, digging a bomb does not end the session
+     */
+    public MinesweeperSession(Rooms rooms, boolean debug) {
+        this.rooms = rooms;
+        this.debug = debug;
+    }
+
+    /**
+     * counts the player in and greets them
+     * @return the welcome message, followed by a line separator
+     */
+    public String open() {
+        if (!open) {
+            if (rooms == null) {
+                room.enter();
+            } else {
+                room = rooms.join(Rooms.DEFAULT_ROOM);
+            }
+            open = true;
+            countedIn = Metrics.current();
+            if (countedIn != null) {
+                countedIn.connectionOpened();
+            }
+        }
+        return welcome() + NEWLINE;
+    }
+
+    /**
+     * @return the welcome message of the player's room
+     */
+    private String welcome() {
+        GameBoard board = room.getBoard();
+        return "Welcome to Minesweeper. Board: " + board.getColumns() + " columns by " + board.getRows()
+                + " rows. Players: " + room.getConnections() + " including you. Type 'help' for help.\n";
+    }
+
+    /**
+     * handles one line sent by the player
+     * @param line - the line without its line terminator
+     * @return the text to write back to the player, ending with a line
+     *     separator, or null if nothing should be written
+     */
+    public String handleLine(CharSequence line) {
+        if (finished) {
+            return null;
+        }
+        String output = handleRequest(line);
+        if (output.equals(BOOM_MESSAGE) && !debug) {
+            finished = true;
+            return BOOM_MESSAGE + NEWLINE;
+        } else if (output.equals(BYE_MESSAGE)) {
+            finished = true;
+            return null;
+        } else if (output.equals(INVALID_INPUT)) {
+            return null;
+        }
+        return output + NEWLINE;
+    }
+
+    /**
+     * @return true if the connection should be closed once everything
+     * returned by handleLine has been written
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * @return the subscription of the player to the changes of the board,
+     *     whose updates the server must write to the player after the
+     *     reply to "subscribe", or null if the player is not subscribed
+     */
+    public Subscription getSubscription() {
+        return subscription;
+    }
+
+    /**
+     * counts the player out; further lines are ignored
+     */
+    public void close() {
+        finished = true;
+        unsubscribe();
+        if (open) {
+            open = false;
+            room.leave();
+            if (countedIn != null) {
+                countedIn.connectionClosed();
+                countedIn = null;
+            }
+        }
+    }
+
+    /**
+     * Handler for client input, performing requested operations and returning an output message.
+     * @param input message from client
+     * @return message to client: the board, "BOOM!", the help message,
+     *     "bye", or "invalid input"
+     */
+    String handleRequest(CharSequence input) {
+        Metrics metrics = Metrics.current();
+        if (metrics == null) {
+            return respond(input);
+        }
+        long start = System.nanoTime();
+        String output = respond(input);
+        metrics.request(parser.command(), System.nanoTime() - start);
+        return output;
+    }
+
+    /**
+     * performs the request on a line of client input, see handleRequest
+     */
+    private String respond(CharSequence input) {
+        Command command = parser.parse(input);
+        GameBoard board = room.getBoard();
+        if (parser.overflowed()) {
+            return INVALID_INPUT; // numbers too large
+        }
+        switch (command) {
+        case LOOK:
+            viewport = null;
+            return board.toString();
+        case LOOK_WINDOW:
+            if (parser.width() <= 0 || parser.height() <= 0) {
+                return INVALID_INPUT;
+            }
+            viewport = new Viewport(parser.x(0), parser.y(0), parser.width(), parser.height());
+            return board.look(viewport);
+        case LOOK_SINCE:
+            return board.lookSince(parser.version());
+        case HELP:
+            return HELP_MESSAGE;
+        case BYE:
+            return BYE_MESSAGE;
+        case DIG:
+        case FLAG:
+        case DEFLAG:
+            return changed(board.processAction(parser.x(0), parser.y(0), parser.action(0), viewport));
+        case BATCH:
+            return changed(handleBatch(board));
+        case JOIN:
+            return rooms == null ? INVALID_INPUT : handleJoin(parser.room());
+        case UNBOMB:
+            return changed(board.removeOuterBomb(parser.x(0), parser.y(0)));
+        case STATS:
+            Metrics metrics = Metrics.current();
+            return metrics == null ? METRICS_DISABLED_MESSAGE : metrics.report();
+        case SUBSCRIBE:
+            unsubscribe();
+            subscription = room.getFeed().subscribe();
+            return subscription.getFirst();
+        case UNSUBSCRIBE:
+            unsubscribe();
+            return UNSUBSCRIBED_MESSAGE;
+        case HINT:
+            return board.hint();
+        default:
+            return INVALID_INPUT;
+        }
+    }
+
+    /**
+     * reports an action which may have changed the board to its subscribers
+     * @param reply - the reply to the action
+     * @return reply
+     */
+    private String changed(String reply) {
+        room.getFeed().changed();
+        return reply;
+    }
+
+    /**
+     * ends the player's subscription, if any
+     */
+    private void unsubscribe() {
+        if (subscription != null) {
+            subscription.cancel();
+            subscription = null;
+        }
+    }
+
+    /**
+     * applies the actions of the batch request just parsed as one unit
+     * @param board - the board of the player's room
+     * @return the reply to the batch, see Board.processActions
+     */
+    private String handleBatch(GameBoard board) {
+        int count = parser.actionCount();
+        int[] xs = new int[count];
+        int[] ys = new int[count];
+        Action[] actions = new Action[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = parser.x(i);
+            ys[i] = parser.y(i);
+            actions[i] = parser.action(i);
+        }
+        return board.processActions(xs, ys, actions, !debug, viewport);
+    }
+
+    /**
+     * moves the player to another room
+     * @param id - the id of the room to join
+     * @return the welcome message of the room, or a message saying no
+     *     more rooms can be created, in which case the player stays put
+     */
+    private String handleJoin(String id) {
+        if (id.equals(room.getId())) {
+            return welcome();
+        }
+        Room next = rooms.join(id);
+        if (next == null) {
+            return ROOMS_FULL_MESSAGE;
+        }
+        unsubscribe();
+        room.leave();
+        room = next;
+        viewport = null;
+        return welcome();
+    }
+
+}
@@ -0,0 +1,82 @@
+package minesweeper.server;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares the time a full recount of neighboring bombs takes with
+ * BombPlanes against counting one cell at a time, the way Board counted
+ * before (reading the eight neighbors of every cell).
+ *
+ * Usage: NeighborCountBenchmark [SIZE ...]
+ *
+ * Each SIZE is the number of columns and of rows of a square board and
+ * defaults to 1024 4096 16384. A 16384 by 16384 board takes 256 MB of
+ * cells, so run it with e.g. -Xmx1g.
+ * @author nathaliehuynh
+ *
+ */
+public class NeighborCountBenchmark {
+
+    private static final int WARMUP_ROUNDS = 2;
+    private static final int MEASURED_ROUNDS = 3;
+
+    /**
+     * runs the benchmark
+     * @param args board sizes, as described
+     */
+    public static void main(String[] args) {
+        String[] sizes = args.length > 0 ? args : new String[] { "1024", "4096", "16384" };
+        for (String size : sizes) {
+            int n = Integer.parseInt(size);
+            byte[] cells = BoardGenerator.generate(n, n, 4, 6005, ForkJoinPool.commonPool());
+            long perCell = time(cells, n, false);
+            long bitplanes = time(cells, n, true);
+            System.out.printf("%6d x %-6d per cell %8.1f ms   bitplanes %8.1f ms   speedup %.1fx%n",
+                    n, n, perCell / 1e6, bitplanes / 1e6, (double) perCell / bitplanes);
+            if (BombPlanes.firstMiscounted(cells, n, n) >= 0) {
+                throw new AssertionError("the two ways of counting disagree");
+            }
+        }
+    }
+
+    /**
+     * @return the best time in nanoseconds of a full recount of cells
+     */
+    private static long time(byte[] cells, int n, boolean bitplanes) {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            long start = System.nanoTime();
+            if (bitplanes) {
+                BombPlanes.countNeighbors(cells, n, n);
+            } else {
+                countPerCell(cells, n, n);
+            }
+            long elapsed = System.nanoTime() - start;
+            if (round >= WARMUP_ROUNDS) {
+                best = Math.min(best, elapsed);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * sets the neighboring bomb count of every cell by reading its neighbors
+     */
+    private static void countPerCell(byte[] cells, int columns, int rows) {
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0; x < columns; x++) {
+                int bombs = 0;
+                for (int ny = Math.max(y - 1, 0); ny <= Math.min(y + 1, rows - 1); ny++) {
+                    for (int nx = Math.max(x - 1, 0); nx <= Math.min(x + 1, columns - 1); nx++) {
+                        if (!(nx == x && ny == y) && Box.hasBomb(cells[ny * columns + nx])) {
+                            bombs++;
+                        }
+                    }
+                }
+                int i = y * columns + x;
+                cells[i] = Box.withNeighborCount(cells[i], bombs);
+            }
+        }
+    }
+
+}
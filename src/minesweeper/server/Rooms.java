@@ -0,0 +1,316 @@
+package minesweeper.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thread safety argument:
+ *  rooms is a ConcurrentHashMap, so finding, adding and removing rooms
+ *  never locks more than the map's own bins. Everything about one room
+ *  (its board, its players and whether it was evicted) is guarded by that
+ *  room's own lock, so a busy room never delays another. A room is only
+ *  evicted while holding its lock and only if nobody is in it; a player
+ *  who finds an evicted room in the map removes it and looks again.
+ *  A player reads its room's board and feed without the lock, after
+ *  entering the room under the lock; they do not change while anyone is in it.
+ *  Each room's board is a thread safe data type with its own locks.
+ */
+
+/**
+ * AF: Rooms are the games one server hosts, each a Board with an id,
+ *  played by the players who joined it. A room's board is created by
+ *  boards when the first player joins it, and a room nobody has been in
+ *  for idleMillis is evicted, freeing its board; joining its id later
+ *  starts a new game.
+ *
+ * RI: rooms.size() <= maxRooms + 1 (the default room), except briefly
+ *  while two players create rooms at once; every room in rooms has the
+ *  id it is mapped from
+ * @author nathaliehuynh
+ *
+ */
+public class Rooms {
+
+    /**
+     * the room every player starts in
+     */
+    public static final String DEFAULT_ROOM = "default";
+
+    private final ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<String, Room>();
+    private final BoardFactory boards;
+    private final long idleNanos;
+    private final int maxRooms;
+    private ScheduledExecutorService evictor;
+
+    /**
+     * Creates the boards of new rooms
+     */
+    public interface BoardFactory {
+        /**
+         * @param roomId - the id of the room the board is for
+         * @return a new board
+         */
+        Board newBoard(String roomId);
+    }
+
+    /**
+     * Creates a set of rooms, initially empty
+     * @param boards - creates the board of each room
+     * @param idleMillis - how long a room may be empty before it is evicted
+     * @param maxRooms - the most rooms that may exist at once besides the
+     *     default room, must be positive
+     */
+    public Rooms(BoardFactory boards, long idleMillis, int maxRooms) {
+        if (maxRooms <= 0) {
+            throw new IllegalArgumentException("max rooms must be positive: " + maxRooms);
+        }
+        this.boards = boards;
+        this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+        this.maxRooms = maxRooms;
+    }
+
+    /**
+     * @param columns - the number of columns of every board
+     * @param rows - the number of rows of every board
+     * @return a factory of random boards of the given size
+     */
+    public static BoardFactory randomBoards(final int columns, final int rows) {
+        return new BoardFactory() {
+            public Board newBoard(String roomId) {
+                return new Board(columns, rows);
+            }
+        };
+    }
+
+    /**
+     * Adds a player to a room, creating the room and its board if it does not exist
+     * @param id - the id of the room
+     * @return the room, or null if the room does not exist and there are
+     *     already maxRooms rooms besides the default room, which can
+     *     always be joined
+     */
+    public Room join(String id) {
+        while (true) {
+            Room room = rooms.get(id);
+            if (room == null) {
+                if (!id.equals(DEFAULT_ROOM) && customRooms() >= maxRooms) {
+                    return null;
+                }
+                Room created = new Room(id, boards);
+                Room existing = rooms.putIfAbsent(id, created);
+                room = existing == null ? created : existing;
+            }
+            if (room.enter()) {
+                return room;
+            }
+            rooms.remove(id, room); // evicted since we found it
+        }
+    }
+
+    /**
+     * @return the number of rooms other than the default room
+     */
+    private int customRooms() {
+        return rooms.containsKey(DEFAULT_ROOM) ? rooms.size() - 1 : rooms.size();
+    }
+
+    /**
+     * Evicts every room which has been empty for at least idleMillis
+     * @return the number of rooms evicted
+     */
+    public int evictIdle() {
+        long now = System.nanoTime();
+        int evicted = 0;
+        for (Room room : rooms.values()) {
+            if (room.evictIfIdle(now, idleNanos)) {
+                rooms.remove(room.getId(), room);
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Starts evicting idle rooms in the background, until close() is
+     * called; the servers hosting rooms start it
+     */
+    public synchronized void startEvicting() {
+        if (evictor != null) {
+            return;
+        }
+        evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "minesweeper-room-evictor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long period = Math.max(TimeUnit.NANOSECONDS.toMillis(idleNanos) / 2, 1);
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                evictIdle();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops evicting idle rooms in the background
+     */
+    public synchronized void close() {
+        if (evictor != null) {
+            evictor.shutdownNow();
+            evictor = null;
+        }
+    }
+
+    /**
+     * @return the number of rooms
+     */
+    public int size() {
+        return rooms.size();
+    }
+
+    /**
+     * @return the number of players in all the rooms
+     */
+    public int getConnections() {
+        int connections = 0;
+        for (Room room : rooms.values()) {
+            connections += room.getConnections();
+        }
+        return connections;
+    }
+
+    /**
+     * AF: A Room is one game: a board, the feed of its changes to the
+     *  players watching it, and the number of players in it. A room made
+     *  for a single-board server (see MinesweeperSession) has its board
+     *  from the start and is never evicted.
+     *
+     * RI: board != null and feed is a feed of board unless evicted or
+     *  nobody has entered yet; idleSince is the time the room last became empty
+     */
+    public static final class Room {
+
+        private final String id;
+        private final BoardFactory boards;
+        private final AtomicInteger connections;
+        private final ReentrantLock lock = new ReentrantLock();
+        private GameBoard board;
+        private BoardFeed feed;
+        private long idleSince = System.nanoTime();
+        private boolean evicted = false;
+
+        private Room(String id, BoardFactory boards) {
+            this.id = id;
+            this.boards = boards;
+            this.connections = new AtomicInteger(0);
+        }
+
+        /**
+         * Creates a room which already has its board
+         * @param id - the id of the room
+         * @param board - the board of the room
+         * @param feed - the feed of board, which may be shared with other rooms
+         * @param connections - the number of players in the room, which
+         *     may be shared with other rooms
+         */
+        Room(String id, GameBoard board, BoardFeed feed, AtomicInteger connections) {
+            this.id = id;
+            this.boards = null;
+            this.board = board;
+            this.feed = feed;
+            this.connections = connections;
+        }
+
+        /**
+         * @return the id of this room
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return the board of this room; requires a player in this room
+         */
+        public GameBoard getBoard() {
+            return board;
+        }
+
+        /**
+         * @return the feed of the changes to this room's board; requires a
+         *     player in this room
+         */
+        public BoardFeed getFeed() {
+            return feed;
+        }
+
+        /**
+         * @return the number of players in this room
+         */
+        public int getConnections() {
+            return connections.get();
+        }
+
+        /**
+         * adds a player to this room, creating its board if needed
+         * @return false if this room was evicted, so the player must look for it again
+         */
+        boolean enter() {
+            lock.lock();
+            try {
+                if (evicted) {
+                    return false;
+                }
+                if (board == null) {
+                    board = boards.newBoard(id);
+                    feed = new BoardFeed(board);
+                }
+                connections.incrementAndGet();
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * removes a player from this room
+         */
+        void leave() {
+            lock.lock();
+            try {
+                if (connections.decrementAndGet() == 0) {
+                    idleSince = System.nanoTime();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * evicts this room, freeing its board, if it has been empty long enough
+         * @param now - the current System.nanoTime()
+         * @param idleNanos - how long the room must have been empty
+         * @return true if this room is now evicted
+         */
+        boolean evictIfIdle(long now, long idleNanos) {
+            lock.lock();
+            try {
+                if (boards != null && connections.get() == 0 && now - idleSince >= idleNanos) {
+                    evicted = true;
+                    board = null;
+                    feed = null;
+                }
+                return evicted;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+}
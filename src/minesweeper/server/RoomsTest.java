@@ -0,0 +1,96 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import minesweeper.server.Rooms.BoardFactory;
+import minesweeper.server.Rooms.Room;
+
+import org.junit.Test;
+
+public class RoomsTest {
+
+	/**
+	 * Testing Partition:
+	 * 	Joining: a new room (board created), an existing room (board shared) X
+	 * 	Players: counted per room X
+	 * 	Eviction: empty and idle room, occupied room, empty room not yet idle X
+	 * 	Limit: no new rooms beyond the limit, not counting the default room joined first or last,
+	 * 	       a limit of one X
+	 *
+	 */
+
+	/**
+	 * @return a factory of 2 by 3 boards which counts the boards it creates
+	 */
+	private static BoardFactory countingBoards(final AtomicInteger created) {
+	    return new BoardFactory() {
+	        public Board newBoard(String roomId) {
+	            created.incrementAndGet();
+	            return new Board(2, 3);
+	        }
+	    };
+	}
+
+	@Test
+	public void roomsAreCreatedLazilyAndCountTheirOwnPlayers() {
+	    AtomicInteger created = new AtomicInteger();
+	    Rooms rooms = new Rooms(countingBoards(created), 60000, 10);
+	    assertEquals(0, rooms.size());
+	    Room first = rooms.join("a");
+	    Room second = rooms.join("a");
+	    Room other = rooms.join("b");
+	    assertSame(first, second);
+	    assertSame(first.getBoard(), second.getBoard());
+	    assertNotSame(first.getBoard(), other.getBoard());
+	    assertEquals(2, created.get());
+	    assertEquals(2, first.getConnections());
+	    assertEquals(1, other.getConnections());
+	    assertEquals(3, rooms.getConnections());
+	}
+
+	@Test
+	public void onlyIdleRoomsAreEvicted() throws InterruptedException {
+	    AtomicInteger created = new AtomicInteger();
+	    Rooms rooms = new Rooms(countingBoards(created), 50, 10);
+	    Room busy = rooms.join("busy");
+	    Room idle = rooms.join("idle");
+	    idle.leave();
+	    assertEquals(0, rooms.evictIdle()); // not idle for long enough yet
+	    Thread.sleep(100);
+	    assertEquals(1, rooms.evictIdle());
+	    assertEquals(1, rooms.size());
+	    assertNull(idle.getBoard());
+	    assertNotNull(busy.getBoard());
+
+	    Room again = rooms.join("idle");
+	    assertNotSame(idle, again);
+	    assertNotNull(again.getBoard());
+	    assertEquals(3, created.get());
+	}
+
+	@Test
+	public void newRoomsAreLimited() {
+	    // as on a server, where every player joins the default room first
+	    Rooms rooms = new Rooms(countingBoards(new AtomicInteger()), 60000, 2);
+	    assertNotNull(rooms.join(Rooms.DEFAULT_ROOM));
+	    assertNotNull(rooms.join("a"));
+	    assertNotNull(rooms.join("b"));
+	    assertNull(rooms.join("c"));
+	    assertEquals(3, rooms.size());
+
+	    rooms = new Rooms(countingBoards(new AtomicInteger()), 60000, 1);
+	    assertNotNull(rooms.join(Rooms.DEFAULT_ROOM));
+	    assertNotNull(rooms.join("a"));
+	    assertNull(rooms.join("b"));
+
+	    rooms = new Rooms(countingBoards(new AtomicInteger()), 60000, 2);
+	    assertNotNull(rooms.join("a"));
+	    assertNotNull(rooms.join("b"));
+	    assertNull(rooms.join("c"));
+	    assertNotNull(rooms.join("a"));
+	    assertNotNull(rooms.join(Rooms.DEFAULT_ROOM));
+	}
+
+}
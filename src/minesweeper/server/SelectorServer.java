@@ -0,0 +1,661 @@
+package minesweeper.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import minesweeper.server.BoardFeed.Subscription;
+import minesweeper.server.BoardFeed.Update;
+
+/**
+ * Thread safety argument:
+ *  Every connection is owned by exactly one event loop, and its buffers
+ *  are only touched by that loop's thread. Its session is touched by the
+ *  loop, except while one of its lines is being answered: the loop then
+ *  hands the session and the line to a worker and leaves both alone
+ *  (working is set) until the worker hands the connection back through
+ *  the loop's answered queue, a concurrent queue, with its reply. Connections are
+ *  handed from the accepting loop to their owner through a concurrent
+ *  queue, after which the owner registers them with its own selector.
+ *  Likewise the feed thread only hands a subscribed connection with new
+ *  updates to its owner through a concurrent queue, and the owner takes
+ *  the updates from the subscription when it can write them.
+ *  The board, its feed and the connection counter shared by all sessions
+ *  are thread safe.
+ */
+
+/**
+ * A Minesweeper server which serves every connection from a small, fixed
+ * number of selector threads over non-blocking channels, instead of one
+ * blocking thread per connection. It speaks the same text protocol and
+ * sends the same welcome message as MinesweeperServer, see MinesweeperSession.
+ * It is started from the command line with MinesweeperLauncher --server selector.
+ *
+ * The selector threads only move bytes. Each line is answered by a pool
+ * of worker threads, so a slow reply (a whole board on a large board, or
+ * an action waiting for its record to reach the disk, see ActionLog)
+ * delays only its own connection. A connection has one line answered at
+ * a time, so its replies keep the order of its lines.
+ *
+ * Lines sent by a client end with "\n" or "\r\n". A client which sends a
+ * line longer than MAX_LINE_LENGTH bytes is disconnected.
+ *
+ * The updates pushed to a subscribed client are written only once the
+ * replies before them have been, so a client which reads slowly leaves
+ * them in its subscription, which collapses them, rather than in its
+ * connection's buffers.
+ *
+ * Once MAX_PENDING_BYTES bytes wait to be written to a client, the lines
+ * it sent are no longer answered, nor read from its channel, until the
+ * client has read enough of them. A client which sends commands but never
+ * reads the replies is held up by its own socket, as with a blocking
+ * server, instead of filling the server's memory with replies.
+ * @author nathaliehuynh
+ *
+ */
+public class SelectorServer {
+
+    private static final int MAX_LINE_LENGTH = 8192;
+    private static final int READ_BUFFER_SIZE = 4096;
+    private static final int MAX_PENDING_BYTES = 1 << 16;
+    private static final int WORKERS_PER_PROCESSOR = 4; // more than one, since workers may wait for the disk
+
+    private final ServerSocketChannel serverChannel;
+    private final boolean debug;
+    private final GameBoard board; // null if the server has rooms
+    private final BoardFeed feed; // null if the server has rooms
+    private final Rooms rooms; // null if the server has a single board
+    private final AtomicInteger connections = new AtomicInteger(0);
+    private final EventLoop[] loops;
+    private final ExecutorService workers;
+    private int nextLoop = 0;
+
+    /**
+     * Make a SelectorServer that listens for connections on port.
+     *
+     * @param port port number, requires 0 <= port <= 65535; 0 picks a free port
+     * @param debug debug mode flag
+     * @param board the board clients play on
+     * @param selectorThreads the number of threads reading and writing connections, must be
+     *     positive; lines are answered by a pool of worker threads
+     * @throws IOException if an error occurs opening the server socket
+     */
+    public SelectorServer(int port, boolean debug, GameBoard board, int selectorThreads) throws IOException {
+        this(port, debug, board, null, selectorThreads);
+    }
+
+    /**
+     * Make a SelectorServer hosting several rooms that listens for connections on port.
+     *
+     * @param port port number, requires 0 <= port <= 65535; 0 picks a free port
+     * @param debug debug mode flag
+     * @param rooms the rooms clients play in, see MinesweeperSession, whose
+     *     idle rooms this server evicts until it is closed
+     * @param selectorThreads the number of threads reading and writing connections, must be
+     *     positive; lines are answered by a pool of worker threads
+     * @throws IOException if an error occurs opening the server socket
+     */
+    public SelectorServer(int port, boolean debug, Rooms rooms, int selectorThreads) throws IOException {
+        this(port, debug, null, rooms, selectorThreads);
+    }
+
+    private SelectorServer(int port, boolean debug, GameBoard board, Rooms rooms, int selectorThreads) throws IOException {
+        if (selectorThreads <= 0) {
+            throw new IllegalArgumentException("selector threads must be positive: " + selectorThreads);
+        }
+        this.debug = debug;
+        this.board = board;
+        this.feed = board == null ? null : new BoardFeed(board);
+        this.rooms = rooms;
+        if (rooms != null) {
+            rooms.startEvicting();
+        }
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        this.workers = Executors.newFixedThreadPool(WORKERS_PER_PROCESSOR * Runtime.getRuntime().availableProcessors(),
+                new ThreadFactory() {
+                    private final AtomicInteger created = new AtomicInteger(0);
+
+                    public Thread newThread(Runnable task) {
+                        Thread thread = new Thread(task, "minesweeper-worker-" + created.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        this.loops = new EventLoop[selectorThreads];
+        for (int i = 0; i < selectorThreads; i++) {
+            loops[i] = new EventLoop();
+        }
+        serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * @return the port this server listens on
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Run the server, listening for client connections and handling them.
+     * Never returns unless close() is called or an exception is thrown.
+     *
+     * @throws IOException if the main server socket is broken
+     */
+    public void serve() throws IOException {
+        for (int i = 1; i < loops.length; i++) {
+            Thread thread = new Thread(loops[i], "minesweeper-selector-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        loops[0].run();
+    }
+
+    /**
+     * Stops accepting connections, closes every connection, stops the
+     * workers once they have answered the lines they hold, and stops
+     * evicting idle rooms
+     * @throws IOException if the server socket cannot be closed
+     */
+    public void close() throws IOException {
+        if (rooms != null) {
+            rooms.close();
+        }
+        serverChannel.close();
+        workers.shutdown();
+        for (EventLoop loop : loops) {
+            loop.selector.wakeup();
+        }
+    }
+
+    /**
+     * @return a session for a new connection
+     */
+    private MinesweeperSession newSession() {
+        return rooms == null
+                ? new MinesweeperSession(board, feed, debug, connections) : new MinesweeperSession(rooms, debug);
+    }
+
+    /**
+     * accepts every pending connection and hands each to an event loop
+     * @throws IOException if the server socket is broken
+     */
+    private void acceptConnections() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            loops[nextLoop].add(channel);
+            nextLoop = (nextLoop + 1) % loops.length;
+        }
+    }
+
+    /**
+     * A selector and the thread which runs it
+     */
+    private final class EventLoop implements Runnable {
+
+        private final Selector selector;
+        private final Queue<SocketChannel> added = new ConcurrentLinkedQueue<SocketChannel>();
+        private final Queue<Connection> pushed = new ConcurrentLinkedQueue<Connection>();
+        private final Queue<Connection> answered = new ConcurrentLinkedQueue<Connection>();
+
+        EventLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        /**
+         * hands a newly accepted channel to this loop
+         * @param channel - a non-blocking, connected channel
+         */
+        void add(SocketChannel channel) {
+            added.add(channel);
+            selector.wakeup();
+        }
+
+        /**
+         * hands a connection back to this loop once a worker has answered its line
+         * @param connection - a connection owned by this loop
+         */
+        void answer(Connection connection) {
+            answered.add(connection);
+            selector.wakeup();
+        }
+
+        /**
+         * hands this loop a connection whose subscription has new updates
+         * @param connection - a connection owned by this loop
+         */
+        void push(Connection connection) {
+            pushed.add(connection);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (serverChannel.isOpen()) {
+                    selector.select();
+                    registerAdded();
+                    finishAnswered();
+                    writePushed();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        handle(key);
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                e.printStackTrace();
+            } finally {
+                closeAll();
+            }
+        }
+
+        /**
+         * registers the channels added since the last select and greets their players
+         */
+        private void registerAdded() {
+            SocketChannel channel;
+            while ((channel = added.poll()) != null) {
+                SelectionKey key;
+                try {
+                    key = channel.register(selector, SelectionKey.OP_READ);
+                } catch (IOException e) {
+                    closeQuietly(channel);
+                    continue;
+                }
+                Connection connection = new Connection(channel, key, newSession(), this, workers);
+                key.attach(connection);
+                connection.send(connection.session.open());
+                try {
+                    connection.flush();
+                } catch (IOException e) {
+                    connection.close();
+                }
+            }
+        }
+
+        /**
+         * sends the replies of the lines answered by workers
+         */
+        private void finishAnswered() {
+            Connection connection;
+            while ((connection = answered.poll()) != null) {
+                try {
+                    connection.finishLine();
+                } catch (IOException e) {
+                    connection.close();
+                }
+            }
+        }
+
+        /**
+         * writes the updates of the connections handed over by push
+         */
+        private void writePushed() {
+            Connection connection;
+            while ((connection = pushed.poll()) != null) {
+                if (!connection.key.isValid()) {
+                    continue; // closed since
+                }
+                try {
+                    connection.flush();
+                } catch (IOException e) {
+                    connection.close();
+                }
+            }
+        }
+
+        /**
+         * handles a ready key
+         * @param key - a key selected by this loop's selector
+         * @throws IOException if the server socket is broken
+         */
+        private void handle(SelectionKey key) throws IOException {
+            if (!key.isValid()) {
+                return;
+            }
+            if (key.isAcceptable()) {
+                acceptConnections();
+                return;
+            }
+            Connection connection = (Connection) key.attachment();
+            try {
+                if (key.isReadable()) {
+                    connection.read();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.flush();
+                }
+            } catch (IOException e) {
+                connection.close();
+            }
+        }
+
+        /**
+         * closes every connection owned by this loop, and the selector
+         */
+        private void closeAll() {
+            if (!selector.isOpen()) {
+                return;
+            }
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).close();
+                }
+            }
+            SocketChannel channel;
+            while ((channel = added.poll()) != null) {
+                closeQuietly(channel);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * One client connection: its session, the bytes it sent which are not
+     * answered yet, the replies not yet written to it, which add up to
+     * pending bytes, and the subscription whose updates are written after
+     * them. While working, a worker answers the line in line, and then
+     * leaves its reply in reply; closed is set if the connection was
+     * closed meanwhile, so the loop finishes the session once the worker
+     * is done with it.
+     */
+    private static final class Connection {
+
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final MinesweeperSession session;
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private final LineBuffer line = new LineBuffer();
+        private final Deque<ByteBuffer> writes = new ArrayDeque<ByteBuffer>();
+        private long pending = 0;
+        private boolean endOfStream = false;
+        private boolean working = false;
+        private boolean closed = false;
+        private String reply; // written by a worker before it hands the connection back
+        private final ExecutorService workers;
+        private final Runnable pushListener;
+        private final Runnable answerLine;
+        private Subscription subscription; // the session's subscription, once listened to
+
+        Connection(SocketChannel channel, SelectionKey key, MinesweeperSession session, final EventLoop loop,
+                ExecutorService workers) {
+            this.channel = channel;
+            this.key = key;
+            this.session = session;
+            this.workers = workers;
+            this.pushListener = new Runnable() {
+                public void run() {
+                    loop.push(Connection.this);
+                }
+            };
+            this.answerLine = new Runnable() {
+                public void run() {
+                    reply = null;
+                    try {
+                        reply = session.handleLine(line);
+                    } finally {
+                        loop.answer(Connection.this);
+                    }
+                }
+            };
+        }
+
+        /**
+         * reads what the client has sent and answers its complete lines,
+         * see takeLines
+         * @throws IOException if the channel is broken
+         */
+        void read() throws IOException {
+            if (channel.read(readBuffer) < 0) {
+                endOfStream = true;
+            }
+            flush();
+        }
+
+        /**
+         * hands the next complete line in readBuffer to a worker, unless
+         * one is being answered or MAX_PENDING_BYTES bytes wait to be
+         * written, keeping the rest for later, and finishes the session
+         * once the client has ended its stream and every line is answered
+         * @throws IOException if the client sent a line longer than
+         *     MAX_LINE_LENGTH, or the server is closing
+         */
+        private void takeLines() throws IOException {
+            if (working) {
+                return;
+            }
+            readBuffer.flip();
+            while (!working && readBuffer.hasRemaining() && !session.isFinished() && pending < MAX_PENDING_BYTES) {
+                byte next = readBuffer.get();
+                if (next == '\n') {
+                    startLine();
+                } else if (line.length() >= MAX_LINE_LENGTH) {
+                    throw new IOException("line longer than " + MAX_LINE_LENGTH + " bytes");
+                } else {
+                    line.write(next);
+                }
+            }
+            boolean answered = !readBuffer.hasRemaining();
+            readBuffer.compact();
+            if (endOfStream && answered && !working && !session.isFinished()) {
+                if (line.length() > 0) {
+                    startLine(); // the last line may end at end of stream
+                } else {
+                    session.close(); // nothing more can arrive; finish writing, then close
+                }
+            }
+        }
+
+        /**
+         * hands the line collected so far to a worker, see finishLine
+         * @throws IOException if the server is closing
+         */
+        private void startLine() throws IOException {
+            line.stripCarriageReturn();
+            working = true;
+            try {
+                workers.execute(answerLine);
+            } catch (RejectedExecutionException e) {
+                working = false;
+                throw new IOException("server closed", e);
+            }
+        }
+
+        /**
+         * sends the reply of the line a worker has answered, and goes on
+         * with the lines after it
+         * @throws IOException if the channel is broken
+         */
+        void finishLine() throws IOException {
+            working = false;
+            line.reset();
+            if (closed) {
+                session.close();
+                return;
+            }
+            send(reply);
+            reply = null;
+            Subscription current = session.getSubscription();
+            if (current != subscription) {
+                subscription = current;
+                if (current != null) {
+                    current.setListener(pushListener);
+                }
+            }
+            flush();
+        }
+
+        /**
+         * queues text to be written to the client
+         * @param text - the text to write, or null to write nothing
+         */
+        void send(String text) {
+            if (text != null) {
+                byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+                writes.add(ByteBuffer.wrap(bytes));
+                pending += bytes.length;
+            }
+        }
+
+        /**
+         * answers the lines held back, then writes as much of the queued
+         * text, and then of the updates of the subscription, as the channel
+         * accepts without blocking, answering more lines as the text is
+         * written. Closes the connection once the session is finished and
+         * everything has been written, and reads from the channel only while
+         * fewer than MAX_PENDING_BYTES bytes wait to be written.
+         * @throws IOException if the channel is broken
+         */
+        void flush() throws IOException {
+            Metrics metrics = Metrics.current();
+            takeLines();
+            while (!writes.isEmpty() || takeUpdate()) {
+                ByteBuffer next = writes.peek();
+                int written = channel.write(next);
+                pending -= written;
+                if (metrics != null) {
+                    metrics.written(written);
+                }
+                if (next.hasRemaining()) {
+                    break;
+                }
+                writes.remove();
+                takeLines();
+            }
+            if (!working && writes.isEmpty() && session.isFinished()) {
+                close();
+            } else if (key.isValid()) {
+                boolean reading = !working && !session.isFinished() && !endOfStream && pending < MAX_PENDING_BYTES;
+                int interest = reading ? SelectionKey.OP_READ : 0;
+                key.interestOps(writes.isEmpty() ? interest : interest | SelectionKey.OP_WRITE);
+            }
+        }
+
+        /**
+         * queues the next update of the subscription, if any, sharing its bytes
+         * @return true if an update was queued
+         */
+        private boolean takeUpdate() {
+            Update update = working || subscription == null || session.isFinished() ? null : subscription.poll();
+            if (update == null) {
+                return false;
+            }
+            writes.add(ByteBuffer.wrap(update.bytes()).asReadOnlyBuffer());
+            pending += update.bytes().length;
+            return true;
+        }
+
+        /**
+         * closes the connection and counts its player out, once a worker
+         * answering its line is done with the session
+         */
+        void close() {
+            closed = true;
+            if (!working) {
+                session.close();
+            }
+            key.cancel();
+            closeQuietly(channel);
+        }
+    }
+
+    /**
+     * The bytes of a line being received, read as characters without
+     * decoding them into a String. Every byte stands for the character
+     * with the same value; the protocol is ASCII, so a line with any other
+     * byte is invalid however it is decoded.
+     */
+    private static final class LineBuffer implements CharSequence {
+
+        private byte[] bytes = new byte[64];
+        private int length = 0;
+
+        /**
+         * appends a byte to the line
+         * @param next - the byte to append
+         */
+        void write(byte next) {
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, 2 * length);
+            }
+            bytes[length++] = next;
+        }
+
+        /**
+         * removes a "\r" ending the line, if any
+         */
+        void stripCarriageReturn() {
+            if (length > 0 && bytes[length - 1] == '\r') {
+                length--;
+            }
+        }
+
+        /**
+         * empties the line
+         */
+        void reset() {
+            length = 0;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("index " + index + " of " + length);
+            }
+            return (char) (bytes[index] & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    /**
+     * closes a channel, ignoring errors since it is being abandoned
+     * @param channel - the channel to close
+     */
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // the channel is unusable either way
+        }
+    }
+
+}
@@ -0,0 +1,419 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SelectorServerTest {
+
+	/**
+	 * Testing Partition:
+	 * 	Connecting: one player, several players X
+	 * 	Commands: look, dig, flag, deflag, help, invalid input X
+	 * 	          batch, batch which detonates a bomb X
+	 * 	          look since the current version, an older version, a version from the future X
+	 * 	Ending: bye X, BOOM! outside of debug mode X, BOOM! in debug mode X
+	 * 	Rooms: players in different rooms, players counted per room, unknown without rooms,
+	 * 	       a room left idle evicted X
+	 * 	Framing: "\r\n" line endings, several lines in one write X
+	 * 	Subscriptions: changes of another player pushed, none after unsubscribe X
+	 * 	Viewports: look at a viewport, actions replying with it, a plain look ending it X
+	 * 	Backpressure: a client which sends commands and reads nothing until later X
+	 * 	Slow replies: another player on the same selector thread answered meanwhile X
+	 * 
+	 */
+
+	private File simpleBoardFile;
+
+	@Before
+	public void testSetup() {
+		simpleBoardFile = new File("simpleBoard.txt"); // one bomb at row 2, column 1
+	}
+
+	/**
+	 * starts a server with selectorThreads threads on a free port
+	 */
+	private static SelectorServer startServer(boolean debug, Board board, int selectorThreads) throws IOException {
+	    return start(new SelectorServer(0, debug, board, selectorThreads));
+	}
+
+	/**
+	 * starts a server with rooms and selectorThreads threads on a free port
+	 */
+	private static SelectorServer startServer(boolean debug, Rooms rooms, int selectorThreads) throws IOException {
+	    return start(new SelectorServer(0, debug, rooms, selectorThreads));
+	}
+
+	/**
+	 * runs server on a daemon thread
+	 */
+	private static SelectorServer start(final SelectorServer server) {
+	    Thread thread = new Thread(new Runnable() {
+	        public void run() {
+	            try {
+	                server.serve();
+	            } catch (IOException e) {
+	                e.printStackTrace();
+	            }
+	        }
+	    });
+	    thread.setDaemon(true);
+	    thread.start();
+	    return server;
+	}
+
+	@Test(timeout=10000)
+	public void playersShareTheBoard() throws IOException {
+	    SelectorServer server = startServer(false, new Board(simpleBoardFile), 2);
+	    Socket first = new Socket("localhost", server.getPort());
+	    BufferedReader firstIn = new BufferedReader(new InputStreamReader(first.getInputStream()));
+	    PrintWriter firstOut = new PrintWriter(first.getOutputStream(), true);
+	    assertEquals("Welcome to Minesweeper. Board: 2 columns by 3 rows. Players: 1 including you. Type 'help' for help.", firstIn.readLine());
+	    assertEquals("", firstIn.readLine());
+
+	    Socket second = new Socket("localhost", server.getPort());
+	    BufferedReader secondIn = new BufferedReader(new InputStreamReader(second.getInputStream()));
+	    PrintWriter secondOut = new PrintWriter(second.getOutputStream(), true);
+	    assertTrue(secondIn.readLine().contains("Players: 2 including you."));
+	    assertEquals("", secondIn.readLine());
+
+	    firstOut.print("flag 0 2\r\nnot a command\r\nhelp\r\n");
+	    firstOut.flush();
+	    assertEquals("- -", firstIn.readLine());
+	    assertEquals("- -", firstIn.readLine());
+	    assertEquals("F -", firstIn.readLine());
+	    assertEquals("", firstIn.readLine());
+	    assertEquals("Valid commands are 'look', 'dig', 'flag', 'deflag', and 'bye'", firstIn.readLine());
+
+	    secondOut.println("look");
+	    assertEquals("- -", secondIn.readLine());
+	    assertEquals("- -", secondIn.readLine());
+	    assertEquals("F -", secondIn.readLine());
+
+	    firstOut.println("bye");
+	    assertNull(firstIn.readLine());
+	    first.close();
+	    second.close();
+	    server.close();
+	}
+
+	@Test(timeout=10000)
+	public void boomEndsConnectionOutsideDebugMode() throws IOException {
+	    SelectorServer server = startServer(false, new Board(simpleBoardFile), 1);
+	    Socket socket = new Socket("localhost", server.getPort());
+	    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+	    PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+	    in.readLine();
+	    in.readLine();
+	    out.println("dig 1 2");
+	    assertEquals("BOOM!", in.readLine());
+	    assertNull(in.readLine());
+	    socket.close();
+	    server.close();
+	}
+
+	@Test(timeout=10000)
+	public void boomKeepsConnectionInDebugMode() throws IOException {
+	    SelectorServer server = startServer(true, new Board(simpleBoardFile), 1);
+	    Socket socket = new Socket("localhost", server.getPort());
+	    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+	    PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+	    in.readLine();
+	    in.readLine();
+	    out.println("dig 1 2");
+	    assertEquals("BOOM!", in.readLine());
+	    out.println("deflag 0 0");
+	    assertEquals("   ", in.readLine());
+	    socket.close();
+	    server.close();
+	}
+
+	@Test(timeout=10000)
+	public void lookSinceIsAnsweredWithDeltas() throws IOException {
+	    SelectorServer server = startServer(false, new Board(simpleBoardFile), 1);
+	    Socket socket = new Socket("localhost", server.getPort());
+	    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+	    PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+	    in.readLine();
+	    in.readLine();
+	    out.println("look since 1000"); // from the future
+	    String full = in.readLine();
+	    assertTrue(full, full.startsWith("FULL "));
+	    long version = Long.parseLong(full.substring("FULL ".length()));
+	    assertEquals("- -", in.readLine());
+	    assertEquals("- -", in.readLine());
+	    assertEquals("- -", in.readLine());
+	    assertEquals("", in.readLine());
+	    out.println("look since " + version);
+	    assertEquals("DELTA " + version + " 0", in.readLine());
+	    assertEquals("", in.readLine());
+	    out.println("flag 0 0");
+	    for (int row = 0; row < 4; row++) {
+	        in.readLine();
+	    }
+	    out.println("look since " + version);
+	    assertEquals("DELTA " + (version + 1) + " 1", in.readLine());
+	    assertEquals("0 0 F", in.readLine());
+	    assertEquals("", in.readLine());
+	    socket.close();
+	    server.close();
+	}
+
+	@Test(timeout=10000)
+	public void batchIsAnsweredWithOneBoard() throws IOException {
+	    SelectorServer server = startServer(false, new Board(simpleBoardFile), 1);
+	    Socket socket = new Socket("localhost", server.getPort());
+	    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+	    PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+	    in.readLine();
+	    in.readLine();
+	    out.println("batch flag 0 0 dig 0 2 dig 5 5");
+	    assertEquals("F -", in.readLine());
+	    assertEquals("- -", in.readLine());
+	    assertEquals("1 -", in.readLine());
+	    assertEquals("", in.readLine());
+	    out.println("batch deflag 0 0 dig 1 2 flag 0 0");
+	    assertEquals("BOOM!", in.readLine());
+	    assertNull(in.readLine());
+	    socket.close();
+	    server.close();
+	}
+
+	@Test(timeout=10000)
+	public void roomsHaveSeparateBoardsAndPlayers() throws IOException {
+	    Rooms rooms = new Rooms(Rooms.randomBoards(3, 2), 60000, 10);
+	    SelectorServer server = startServer(false, rooms, 2);
+	    Socket first = new Socket("localhost", server.getPort());
+	    BufferedReader firstIn = new BufferedReader(new InputStreamReader(first.getInputStream()));
+	    PrintWriter firstOut = new PrintWriter(first.getOutputStream(), true);
+	    assertTrue(firstIn.readLine().contains("Board: 3 columns by 2 rows. Players: 1 including you."));
+	    assertEquals("", firstIn.readLine());
+
+	    Socket second = new Socket("localhost", server.getPort());
+	    BufferedReader secondIn = new BufferedReader(new InputStreamReader(second.getInputStream()));
+	    PrintWriter secondOut = new PrintWriter(second.getOutputStream(), true);
+	    assertTrue(secondIn.readLine().contains("Players: 2 including you."));
+	    assertEquals("", secondIn.readLine());
+
+	    secondOut.println("join other");
+	    assertTrue(secondIn.readLine().contains("Players: 1 including you."));
+	    assertEquals("", secondIn.readLine());
+	    firstOut.println("flag 0 0");
+	    assertEquals("F - -", firstIn.readLine());
+	    secondOut.println("look");
+	    assertEquals("- - -", secondIn.readLine());
+	    assertEquals(2, rooms.size());
+
+	    first.close();
+	    second.close();
+	    server.close();
+	}
+
+	@Test(timeout=10000)
+	public void idleRoomsAreEvicted() throws IOException, InterruptedException {
+	    Rooms rooms = new Rooms(Rooms.randomBoards(3, 2), 100, 10);
+	    SelectorServer server = startServer(false, rooms, 1);
+	    Socket socket = new Socket("localhost", server.getPort());
+	    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+	    PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+	    in.readLine();
+	    in.readLine();
+	    out.println("join other");
+	    in.readLine();
+	    in.readLine();
+	    out.println("flag 0 0");
+	    assertEquals("F - -", in.readLine());
+	    in.readLine();
+	    in.readLine();
+	    out.println("join " + Rooms.DEFAULT_ROOM);
+	    in.readLine();
+	    in.readLine();
+	    while (rooms.size() > 1) {
+	        Thread.sleep(50); // "other" has nobody in it
+	    }
+	    out.println("join other");
+	    in.readLine();
+	    in.readLine();
+	    out.println("look");
+	    assertEquals("- - -", in.readLine()); // a new game
+	    socket.close();
+	    server.close();
+	}
+
+	@Test(timeout=10000)
+	public void joinIsInvalidWithoutRooms() throws IOException {
+	    SelectorServer server = startServer(false, new Board(simpleBoardFile), 1);
+	    Socket socket = new Socket("localhost", server.getPort());
+	    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+	    PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+	    in.readLine();
+	    in.readLine();
+	    out.println("join other");
+	    out.println("help");
+	    assertEquals("Valid commands are 'look', 'dig', 'flag', 'deflag', and 'bye'", in.readLine());
+	    socket.close();
+	    server.close();
+	}
+
+	@Test(timeout=10000)
+	public void subscribersArePushedChanges() throws IOException {
+	    SelectorServer server = startServer(false, new Board(simpleBoardFile), 2);
+	    Socket watcher = new Socket("localhost", server.getPort());
+	    BufferedReader watcherIn = new BufferedReader(new InputStreamReader(watcher.getInputStream()));
+	    PrintWriter watcherOut = new PrintWriter(watcher.getOutputStream(), true);
+	    watcherIn.readLine();
+	    watcherIn.readLine();
+	    watcherOut.println("subscribe");
+	    assertEquals("FULL 1", watcherIn.readLine());
+	    for (int i = 0; i < 3; i++) {
+	        assertEquals("- -", watcherIn.readLine());
+	    }
+	    assertEquals("", watcherIn.readLine());
+
+	    Socket player = new Socket("localhost", server.getPort());
+	    BufferedReader playerIn = new BufferedReader(new InputStreamReader(player.getInputStream()));
+	    PrintWriter playerOut = new PrintWriter(player.getOutputStream(), true);
+	    playerIn.readLine();
+	    playerIn.readLine();
+	    playerOut.println("flag 0 2");
+	    for (int i = 0; i < 4; i++) {
+	        playerIn.readLine();
+	    }
+	    assertEquals("DELTA 2 1", watcherIn.readLine());
+	    assertEquals("0 2 F", watcherIn.readLine());
+	    assertEquals("", watcherIn.readLine());
+
+	    watcherOut.println("unsubscribe");
+	    assertEquals("unsubscribed", watcherIn.readLine());
+	    playerOut.println("flag 0 0");
+	    assertEquals("F -", playerIn.readLine());
+	    watcherOut.println("help");
+	    assertEquals("Valid commands are 'look', 'dig', 'flag', 'deflag', and 'bye'", watcherIn.readLine());
+	    watcher.close();
+	    player.close();
+	    server.close();
+	}
+
+	@Test(timeout=10000)
+	public void actionsReplyWithTheLastViewport() throws IOException {
+	    SelectorServer server = startServer(false, new Board(simpleBoardFile), 1);
+	    Socket socket = new Socket("localhost", server.getPort());
+	    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+	    PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+	    in.readLine();
+	    in.readLine();
+	    out.println("look 1 1 5 5");
+	    assertEquals("-", in.readLine());
+	    assertEquals("-", in.readLine());
+	    assertEquals("", in.readLine());
+	    out.println("dig 0 0");
+	    assertEquals("1", in.readLine());
+	    assertEquals("-", in.readLine());
+	    assertEquals("", in.readLine());
+	    out.println("look 0 0 0 1");
+	    out.println("look");
+	    assertEquals("   ", in.readLine());
+	    assertEquals("1 1", in.readLine());
+	    assertEquals("- -", in.readLine());
+	    assertEquals("", in.readLine());
+	    out.println("flag 0 2");
+	    assertEquals("   ", in.readLine());
+	    socket.close();
+	    server.close();
+	}
+
+	@Test(timeout=30000)
+	public void clientsWhichDoNotReadAreNotAnsweredAhead() throws IOException, InterruptedException {
+	    Metrics metrics = Metrics.enable();
+	    try {
+	        SelectorServer server = startServer(false, new Board(200, 200, 6005), 1);
+	        Socket socket = new Socket();
+	        socket.setReceiveBufferSize(1 << 16); // before connecting, so it stays small
+	        socket.connect(new InetSocketAddress("localhost", server.getPort()));
+	        int looks = 500;
+	        int replyLength = 2 * 200 * 200 + 1;
+	        StringBuilder lines = new StringBuilder();
+	        for (int i = 0; i < looks; i++) {
+	            lines.append("look\n");
+	        }
+	        socket.getOutputStream().write(lines.toString().getBytes("US-ASCII"));
+
+	        // the server stops answering once its replies back up
+	        long answered = -1;
+	        while (answered != metrics.getRequests()) {
+	            answered = metrics.getRequests();
+	            Thread.sleep(500);
+	        }
+	        assertTrue("answered " + answered + " looks ahead", answered < looks / 2);
+
+	        // and answers the rest as they are read
+	        socket.getOutputStream().write("bye\n".getBytes("US-ASCII"));
+	        InputStream in = socket.getInputStream();
+	        byte[] buffer = new byte[1 << 16];
+	        long received = 0;
+	        for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+	            received += read;
+	        }
+	        assertEquals(looks + 1, metrics.getRequests());
+	        assertTrue(received > (long) looks * replyLength);
+	        socket.close();
+	        server.close();
+	    } finally {
+	        Metrics.disable();
+	    }
+	}
+
+	@Test(timeout=10000)
+	public void slowRepliesDoNotHoldUpOtherPlayers() throws IOException, InterruptedException {
+	    final CountDownLatch hinting = new CountDownLatch(1);
+	    final CountDownLatch release = new CountDownLatch(1);
+	    Board board = new Board(simpleBoardFile) {
+	        @Override
+	        public String hint() {
+	            hinting.countDown();
+	            try {
+	                release.await(); // as an action waiting for the disk would
+	            } catch (InterruptedException e) {
+	                Thread.currentThread().interrupt();
+	            }
+	            return "no hint";
+	        }
+	    };
+	    SelectorServer server = startServer(false, board, 1);
+	    Socket slow = new Socket("localhost", server.getPort());
+	    BufferedReader slowIn = new BufferedReader(new InputStreamReader(slow.getInputStream()));
+	    PrintWriter slowOut = new PrintWriter(slow.getOutputStream(), true);
+	    slowIn.readLine();
+	    slowIn.readLine();
+	    slowOut.println("hint");
+	    slowOut.println("flag 0 0");
+	    hinting.await();
+
+	    Socket other = new Socket("localhost", server.getPort());
+	    BufferedReader otherIn = new BufferedReader(new InputStreamReader(other.getInputStream()));
+	    PrintWriter otherOut = new PrintWriter(other.getOutputStream(), true);
+	    otherIn.readLine();
+	    otherIn.readLine();
+	    otherOut.println("look");
+	    assertEquals("- -", otherIn.readLine());
+
+	    release.countDown();
+	    assertEquals("no hint", slowIn.readLine()); // replies keep the order of their lines
+	    assertEquals("F -", slowIn.readLine());
+	    slow.close();
+	    other.close();
+	    server.close();
+	}
+
+}
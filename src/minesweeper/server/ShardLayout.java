@@ -0,0 +1,183 @@
+package minesweeper.server;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Thread safety argument:
+ *  A ShardLayout is immutable.
+ */
+
+/**
+ * AF: A ShardLayout cuts a board of columns by rows cells into a grid of
+ *  shardColumns by shardRows rectangular shards, each served by its own
+ *  server process (see ShardRouter) and played through a ShardedBoard.
+ *  Shard i of the grid column and j of the grid row is shard number
+ *  j * shardColumns + i, and covers the columns from
+ *  floor(i * columns / shardColumns) up to the next shard's first column,
+ *  and likewise for rows, so shards differ in size by at most one cell.
+ *
+ *  A shard is itself a Board, whose location (0, 0) is the shard's top
+ *  left cell on the whole board. It also knows the bombs of the ring of
+ *  cells around it, which belong to its neighboring shards, so its edge
+ *  cells count their neighboring bombs exactly as the whole board would.
+ *
+ * RI: 0 < shardColumns <= columns and 0 < shardRows <= rows
+ * @author nathaliehuynh
+ *
+ */
+class ShardLayout {
+
+    final int columns;
+    final int rows;
+    final int shardColumns;
+    final int shardRows;
+
+    /**
+     * @param columns - the number of columns of the whole board
+     * @param rows - the number of rows of the whole board
+     * @param shardColumns - the number of shards across the board
+     * @param shardRows - the number of shards down the board
+     * @throws IllegalArgumentException if a shard would have no cells
+     */
+    ShardLayout(int columns, int rows, int shardColumns, int shardRows) {
+        if (shardColumns <= 0 || shardColumns > columns || shardRows <= 0 || shardRows > rows) {
+            throw new IllegalArgumentException("cannot cut a " + columns + " by " + rows + " board into "
+                    + shardColumns + " by " + shardRows + " shards");
+        }
+        this.columns = columns;
+        this.rows = rows;
+        this.shardColumns = shardColumns;
+        this.shardRows = shardRows;
+    }
+
+    /**
+     * @return the number of shards
+     */
+    int shardCount() {
+        return shardColumns * shardRows;
+    }
+
+    /**
+     * @param x - an x location on the whole board
+     * @param y - a y location on the whole board
+     * @return the number of the shard containing (x, y)
+     */
+    int shardOf(int x, int y) {
+        return part(y, rows, shardRows) * shardColumns + part(x, columns, shardColumns);
+    }
+
+    /**
+     * @return the x location on the whole board of the shard's left column
+     */
+    int left(int shard) {
+        return start(shard % shardColumns, columns, shardColumns);
+    }
+
+    /**
+     * @return the y location on the whole board of the shard's top row
+     */
+    int top(int shard) {
+        return start(shard / shardColumns, rows, shardRows);
+    }
+
+    /**
+     * @return the number of columns of the shard
+     */
+    int width(int shard) {
+        int i = shard % shardColumns;
+        return start(i + 1, columns, shardColumns) - start(i, columns, shardColumns);
+    }
+
+    /**
+     * @return the number of rows of the shard
+     */
+    int height(int shard) {
+        int j = shard / shardColumns;
+        return start(j + 1, rows, shardRows) - start(j, rows, shardRows);
+    }
+
+    /**
+     * @return the first of length cells in the i-th of parts parts
+     */
+    private static int start(int i, int length, int parts) {
+        return (int) ((long) i * length / parts);
+    }
+
+    /**
+     * @return the part of length cells cut into parts parts which contains cell
+     */
+    private static int part(int cell, int length, int parts) {
+        // the last i with start(i) <= cell, i.e. i * length / parts < cell + 1
+        return (int) (((cell + 1L) * parts + length - 1) / length) - 1;
+    }
+
+    /**
+     * @param directory - the directory shard files are written to
+     * @param shard - the number of a shard
+     * @return the file the shard is written to by split
+     */
+    static File shardFile(File directory, int shard) {
+        return new File(directory, "shard-" + shard + ".mswb");
+    }
+
+    /**
+     * Cuts a board file into shard files in the binary board format, with
+     * neighbor counts and the ring of bombs around each shard, which
+     * Board(File) loads as the board of one shard. The whole board is
+     * read into memory once, at one byte per cell, which is much less than
+     * a server needs to play it.
+     * @param boardFile - a board file, see BoardFile
+     * @param shardColumns - the number of shards across the board
+     * @param shardRows - the number of shards down the board
+     * @param directory - the directory to write the shards to, see shardFile
+     * @return the layout of the shards
+     * @throws IOException if a file cannot be read or written
+     * @throws BoardFormatException if the board file is not properly formatted
+     * @throws IllegalArgumentException if a shard would have no cells, or
+     *     the board file is itself a shard
+     */
+    static ShardLayout split(File boardFile, int shardColumns, int shardRows, File directory) throws IOException {
+        BoardFile board = BoardFile.read(boardFile);
+        if (board.outerBombs != null) {
+            throw new IllegalArgumentException(boardFile.getName() + " is already a shard of a larger board");
+        }
+        ShardLayout layout = new ShardLayout(board.columns, board.rows, shardColumns, shardRows);
+        if (!board.neighborCounts) {
+            BombPlanes.countNeighbors(board.cells, board.columns, board.rows);
+        }
+        for (int shard = 0; shard < layout.shardCount(); shard++) {
+            layout.writeShard(board, shard, shardFile(directory, shard));
+        }
+        return layout;
+    }
+
+    /**
+     * writes one shard of a board
+     * @param board - the whole board, with its neighbor counts
+     * @param shard - the number of the shard
+     * @param file - the file to write the shard to
+     */
+    private void writeShard(BoardFile board, int shard, File file) throws IOException {
+        int left = left(shard);
+        int top = top(shard);
+        int width = width(shard);
+        int height = height(shard);
+        byte[] cells = Board.allocateCells(width, height);
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(board.cells, (top + y) * columns + left, cells, y * width, width);
+        }
+        boolean[] outerBombs = new boolean[BoardFile.ringSize(width, height)];
+        for (int y = -1; y <= height; y++) {
+            for (int x = -1; x <= width; x += (y == -1 || y == height) ? 1 : width + 1) {
+                int boardX = left + x;
+                int boardY = top + y;
+                if (boardX >= 0 && boardX < columns && boardY >= 0 && boardY < rows) {
+                    outerBombs[BoardFile.ringIndex(width, height, x, y)] = Box.hasBomb(board.cells[boardY * columns + boardX]);
+                }
+            }
+        }
+        BoardFile.writeBinary(file, width, height, cells, true, outerBombs);
+    }
+
+}
@@ -0,0 +1,133 @@
+package minesweeper.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs one board too large for one process as several processes: a
+ * server per shard of the board, and a router which players connect to.
+ * The router plays the whole board as a ShardedBoard, forwarding each
+ * action to the servers of the shards, and speaks the same protocol as
+ * any other server, so players cannot tell the difference.
+ * @author nathaliehuynh
+ *
+ */
+public class ShardRouter {
+
+    private static final String USAGE = "usage: ShardRouter split BOARD_FILE SHARD_COLUMNS SHARD_ROWS DIRECTORY\n"
+            + "       ShardRouter shard PORT SHARD_FILE [STORE_DIRECTORY]\n"
+            + "       ShardRouter route [--debug] PORT COLUMNS ROWS SHARD_COLUMNS SHARD_ROWS HOST:PORT ...";
+    private static final long SNAPSHOT_MILLIS = 60000;
+
+    /**
+     * Splits a board into shards, serves a shard or routes players to the
+     * shards.
+     *
+     * Usage: ShardRouter split BOARD_FILE SHARD_COLUMNS SHARD_ROWS DIRECTORY
+     *        ShardRouter shard PORT SHARD_FILE [STORE_DIRECTORY]
+     *        ShardRouter route [--debug] PORT COLUMNS ROWS SHARD_COLUMNS SHARD_ROWS HOST:PORT ...
+     *
+     * split cuts BOARD_FILE, a board file in the text or binary format,
+     * into SHARD_COLUMNS by SHARD_ROWS shards and writes them to
+     * DIRECTORY as shard-0.mswb, shard-1.mswb, ..., row by row of shards.
+     *
+     * shard serves the shard in SHARD_FILE, for a router only, on PORT
+     * (0 for any free port), and prints "listening on P" once it listens
+     * on port P. With STORE_DIRECTORY, the shard is kept there as it is
+     * played (see BoardStore), and a shard server started again on the
+     * same directory goes on from where it stopped rather than from
+     * SHARD_FILE.
+     *
+     * route serves the whole COLUMNS by ROWS board on PORT, whose shards
+     * are served at the given addresses, one per shard in the order of
+     * split. With --debug, digging a bomb does not disconnect the player.
+     * It also prints "listening on P".
+     *
+     * Exits with status 1 if the arguments are wrong or a command fails.
+     *
+     * @param args arguments as described
+     */
+    public static void main(String[] args) {
+        try {
+            if (args.length == 5 && args[0].equals("split")) {
+                ShardLayout.split(new File(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]), new File(args[4]));
+            } else if ((args.length == 3 || args.length == 4) && args[0].equals("shard")) {
+                serveShard(Integer.parseInt(args[1]), new File(args[2]), args.length == 4 ? new File(args[3]) : null);
+            } else if (args.length > 1 && args[0].equals("route")) {
+                boolean debug = args[1].equals("--debug");
+                route(debug, args, debug ? 2 : 1);
+            } else {
+                System.err.println(USAGE);
+                System.exit(1);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * serves one shard to a router
+     * @param port - the port to listen on, 0 for any free port
+     * @param shardFile - the shard, as written by split
+     * @param storeDirectory - the directory to keep the shard in as it is
+     *     played, or null to keep it in memory only
+     */
+    private static void serveShard(int port, File shardFile, File storeDirectory) throws IOException {
+        BoardStore store = null;
+        Board board;
+        if (storeDirectory == null) {
+            board = new Board(shardFile);
+        } else {
+            store = new BoardStore(storeDirectory, BoardStore.hasBoard(storeDirectory) ? null : new Board(shardFile),
+                    SNAPSHOT_MILLIS, true);
+            board = store.getBoard();
+        }
+        try {
+            // in debug mode, so a router which digs a bomb stays connected
+            SelectorServer server = new SelectorServer(port, true, board, 1);
+            System.out.println("listening on " + server.getPort());
+            server.serve();
+        } finally {
+            if (store != null) {
+                store.close();
+            }
+        }
+    }
+
+    /**
+     * serves a whole board from its shards
+     * @param debug - whether digging a bomb leaves players connected
+     * @param args - the arguments of main
+     * @param first - the index of PORT in args
+     */
+    private static void route(boolean debug, String[] args, int first) throws IOException {
+        if (args.length - first < 6) {
+            throw new IllegalArgumentException("expected a port, the size of the board and of its shards, and the shard servers");
+        }
+        int port = Integer.parseInt(args[first]);
+        List<InetSocketAddress> servers = new ArrayList<InetSocketAddress>();
+        for (int i = first + 5; i < args.length; i++) {
+            int colon = args[i].lastIndexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException("expected HOST:PORT, found " + args[i]);
+            }
+            servers.add(new InetSocketAddress(args[i].substring(0, colon), Integer.parseInt(args[i].substring(colon + 1))));
+        }
+        ShardedBoard board = new ShardedBoard(Integer.parseInt(args[first + 1]), Integer.parseInt(args[first + 2]),
+                Integer.parseInt(args[first + 3]), Integer.parseInt(args[first + 4]), servers);
+        try {
+            // the board serializes actions, so more selector threads would only wait for it
+            SelectorServer server = new SelectorServer(port, debug, board, 1);
+            System.out.println("listening on " + server.getPort());
+            server.serve();
+        } finally {
+            board.close();
+        }
+    }
+
+}
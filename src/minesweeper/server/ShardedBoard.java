@@ -0,0 +1,614 @@
+package minesweeper.server;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import minesweeper.server.Board.Action;
+
+/**
+ * Thread safety argument:
+ *  Every action, lookSince, a look at a viewport while renderSnapshot is
+ *  out of date, and close hold lock for their whole duration,
+ *  so the connections to the shards, rendered, version and changeLog are
+ *  only used by one thread at a time and each action appears atomic to
+ *  the players of this board. The shards do the actual work of an action
+ *  (digging, flood filling, rendering); the lock only serializes the
+ *  short conversations with them. renderSnapshot is volatile and only set
+ *  while holding lock, so a look which finds it set does not lock. The
+ *  lock is a ReentrantLock, so virtual threads waiting for it release
+ *  their carrier thread.
+ */
+
+/**
+ * AF: A ShardedBoard is one logical board of columns by rows cells whose
+ *  cells are held by other server processes, one per shard of layout,
+ *  each playing its shard as a Board in debug mode (see ShardRouter). It
+ *  forwards every action to the shard owning its location, and keeps
+ *  rendered, the text of the whole board, up to date from the "look since"
+ *  deltas of the shards it acted on.
+ *
+ *  Two things cross the edges between shards:
+ *  - A dug cell with no neighboring bombs next to an edge continues its
+ *    flood fill on the neighboring shard: its untouched neighbors there
+ *    are dug, which may continue the flood fill further, and so on.
+ *  - A dug bomb next to an edge is also in the ring of cells around the
+ *    neighboring shards, which are told with "unbomb" so the neighboring
+ *    bomb counts of their edge cells go down, before any flood fill
+ *    continues into them.
+ *  Since a shard's edge cells count the bombs of its ring, every count is
+ *  the count of the whole board, and the cells dug are exactly the cells
+ *  one Board holding the whole board would dig.
+ *
+ * Rep: rendered[2 * i] is the character of cell i (y * columns + x) of the
+ *  whole board and rendered[2 * i + 1] the " " or "\n" after it, as in
+ *  Board. version counts the actions which changed a cell, and changeLog
+ *  records the cells each of them changed. changed holds the cells the
+ *  action in progress has changed so far, and dug those of them it dug,
+ *  which were untouched before.
+ *
+ * RI: shards.length == layout.shardCount(), and each shard's board is the
+ *  board of its shard of the layout
+ * @author nathaliehuynh
+ *
+ */
+public class ShardedBoard implements GameBoard, Closeable {
+
+    private static final String BOOM_MESSAGE = "BOOM!";
+    private static final String NO_HINT_MESSAGE = "no hint";
+    private static final int CHANGE_LOG_CAPACITY = 1 << 16;
+
+    private final ShardLayout layout;
+    private final Shard[] shards;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final byte[] rendered;
+    private volatile byte[] renderSnapshot;
+    private final ChangeLog changeLog = new ChangeLog(CHANGE_LOG_CAPACITY);
+    private long version = 0;
+    private int[] changed = new int[16];
+    private int changes = 0;
+    private int[] dug = new int[16];
+    private int digs = 0;
+
+    /**
+     * Connects to the servers of the shards of a board
+     * @param columns - the number of columns of the whole board
+     * @param rows - the number of rows of the whole board
+     * @param shardColumns - the number of shards across the board
+     * @param shardRows - the number of shards down the board
+     * @param servers - the address of the server of each shard, in the
+     *     order of ShardLayout: row by row of shards, left to right. Each
+     *     server must play its shard in debug mode.
+     * @throws IOException if a server cannot be reached, or does not play
+     *     a board of the size of its shard
+     * @throws IllegalArgumentException if a shard would have no cells, or
+     *     there is not one server per shard
+     */
+    public ShardedBoard(int columns, int rows, int shardColumns, int shardRows, List<InetSocketAddress> servers)
+            throws IOException {
+        this.layout = new ShardLayout(columns, rows, shardColumns, shardRows);
+        if (servers.size() != layout.shardCount()) {
+            throw new IllegalArgumentException("expected " + layout.shardCount() + " shard servers, found " + servers.size());
+        }
+        this.rendered = new byte[2 * Board.allocateCells(columns, rows).length];
+        for (int i = 0; i < rendered.length; i += 2) {
+            rendered[i] = '-';
+            rendered[i + 1] = (byte) ((i / 2 + 1) % columns == 0 ? '\n' : ' ');
+        }
+        this.shards = new Shard[layout.shardCount()];
+        try {
+            for (int shard = 0; shard < shards.length; shard++) {
+                shards[shard] = new Shard(shard, servers.get(shard));
+                sync(shards[shard]);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        changes = 0;
+        digs = 0;
+    }
+
+    /**
+     * Processes an action at a specified location on the board
+     * @param rowLocX - the x location of a box on the board
+     * @param columnLocY - the y location of a box on the board
+     * @param action an action to be processed
+     * @return "BOOM!" if a bomb was detonated as a result of a dig,
+     *     "" if the location is not on the board, or
+     *     a string representation of the board otherwise
+     * @throws UncheckedIOException if a shard server cannot be reached
+     */
+    public String processAction(int rowLocX, int columnLocY, Action action) {
+        return processAction(rowLocX, columnLocY, action, null);
+    }
+
+    /**
+     * Processes an action as processAction, but describes only a viewport
+     * of the board
+     * @param rowLocX - the x location of a box on the board
+     * @param columnLocY - the y location of a box on the board
+     * @param action an action to be processed
+     * @param viewport - the viewport to describe, or null for the whole board
+     * @return as processAction, with look(viewport) in place of the board
+     * @throws UncheckedIOException if a shard server cannot be reached
+     */
+    public String processAction(int rowLocX, int columnLocY, Action action, Viewport viewport) {
+        if (!onBoard(rowLocX, columnLocY)) {
+            return "";
+        }
+        boolean bombDug;
+        lock.lock();
+        try {
+            bombDug = apply(rowLocX, columnLocY, action);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            commit();
+            lock.unlock();
+        }
+        return bombDug ? BOOM_MESSAGE : look(viewport);
+    }
+
+    /**
+     * Processes a batch of actions in order, as if by consecutive calls to
+     * processAction with no other action in between. Actions at locations
+     * which are not on the board are skipped.
+     * @param rowLocXs - the x location of each action
+     * @param columnLocYs - the y location of each action
+     * @param actions - the actions to be processed
+     * @param stopAtBomb - whether the batch ends at the first dig which
+     *     detonates a bomb, leaving the rest of the actions unprocessed
+     * @return "BOOM!" if stopAtBomb and a dig detonated a bomb; otherwise
+     *     a string representation of the board after the batch, preceded
+     *     by a "BOOM!" line if a dig detonated a bomb
+     * @throws IllegalArgumentException if the arrays differ in length
+     * @throws UncheckedIOException if a shard server cannot be reached
+     */
+    public String processActions(int[] rowLocXs, int[] columnLocYs, Action[] actions, boolean stopAtBomb) {
+        return processActions(rowLocXs, columnLocYs, actions, stopAtBomb, null);
+    }
+
+    /**
+     * Processes a batch of actions as processActions, but describes only a
+     * viewport of the board
+     * @param rowLocXs - the x location of each action
+     * @param columnLocYs - the y location of each action
+     * @param actions - the actions to be processed
+     * @param stopAtBomb - whether the batch ends at the first dig which
+     *     detonates a bomb
+     * @param viewport - the viewport to describe, or null for the whole board
+     * @return as processActions, with look(viewport) in place of the board
+     * @throws IllegalArgumentException if the arrays differ in length
+     * @throws UncheckedIOException if a shard server cannot be reached
+     */
+    public String processActions(int[] rowLocXs, int[] columnLocYs, Action[] actions, boolean stopAtBomb,
+            Viewport viewport) {
+        if (rowLocXs.length != actions.length || columnLocYs.length != actions.length) {
+            throw new IllegalArgumentException("every action needs one x and one y location");
+        }
+        int bombsDug = 0;
+        lock.lock();
+        try {
+            for (int i = 0; i < actions.length; i++) {
+                if (onBoard(rowLocXs[i], columnLocYs[i]) && apply(rowLocXs[i], columnLocYs[i], actions[i])) {
+                    bombsDug++;
+                    if (stopAtBomb) {
+                        break;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            commit();
+            lock.unlock();
+        }
+        if (bombsDug > 0) {
+            return stopAtBomb ? BOOM_MESSAGE : BOOM_MESSAGE + "\n" + look(viewport);
+        }
+        return look(viewport);
+    }
+
+    /**
+     * The board as a whole has no ring of cells around it, so there is
+     * never a bomb to remove
+     * @param rowLocX - the x location of the bomb
+     * @param columnLocY - the y location of the bomb
+     * @return "" if the location is not in the ring around the board, or
+     *     the unchanged string representation of the board otherwise
+     */
+    public String removeOuterBomb(int rowLocX, int columnLocY) {
+        if (BoardFile.ringIndex(layout.columns, layout.rows, rowLocX, columnLocY) < 0) {
+            return "";
+        }
+        return this.toString();
+    }
+
+    /**
+     * Asks the shards in turn for a hint, see Board.hint. A shard proves
+     * nothing from its edge cells, whose counts include bombs of other
+     * shards, so the cells next to the edges between shards are never
+     * hinted.
+     * @return "safe X Y" or "mine X Y" for a proved cell at (X, Y) of the
+     *     whole board, or "no hint" if no shard can prove one
+     * @throws UncheckedIOException if a shard server cannot be reached
+     */
+    public String hint() {
+        lock.lock();
+        try {
+            for (Shard shard : shards) {
+                String[] reply = shard.send("hint").split(" ");
+                if (reply.length == 3) {
+                    return reply[0] + " " + (shard.left + Integer.parseInt(reply[1])) + " "
+                            + (shard.top + Integer.parseInt(reply[2]));
+                }
+            }
+            return NO_HINT_MESSAGE;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Describes how the board changed since a version a client has seen,
+     * in the same format as Board.lookSince
+     * @param sinceVersion - the version of the board the client has seen
+     * @return a delta or full description of the board
+     */
+    public String lookSince(long sinceVersion) {
+        lock.lock();
+        try {
+            if (sinceVersion > version || !changeLog.reaches(sinceVersion)) {
+                return "FULL " + version + "\n" + new String(rendered, StandardCharsets.US_ASCII);
+            }
+            long[] cells = changeLog.cellsChangedSince(sinceVersion);
+            StringBuilder result = new StringBuilder(16 + 16 * cells.length);
+            result.append("DELTA ").append(version).append(' ').append(cells.length).append('\n');
+            for (long changedCell : cells) {
+                int cell = (int) changedCell;
+                result.append(cell % layout.columns).append(' ').append(cell / layout.columns).append(' ')
+                    .append((char) rendered[2 * cell]).append('\n');
+            }
+            return result.toString();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Describes the cells of this board inside a viewport, copying only
+     * those cells, see Board.look
+     * @param viewport - the viewport to describe, or null for the whole board
+     * @return the cells inside viewport in the format of toString(), or
+     *     toString() if viewport is null
+     */
+    public String look(Viewport viewport) {
+        if (viewport == null) {
+            return toString();
+        }
+        byte[] snapshot = renderSnapshot;
+        if (snapshot != null) {
+            return viewport.cut(snapshot, layout.columns, layout.rows);
+        }
+        lock.lock();
+        try {
+            return viewport.cut(rendered, layout.columns, layout.rows);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of columns in board
+     */
+    public String getColumns() {
+        return Integer.valueOf(layout.columns).toString();
+    }
+
+    /**
+     * @return the number of rows in board
+     */
+    public String getRows() {
+        return Integer.valueOf(layout.rows).toString();
+    }
+
+    @Override
+    public String toString() {
+        byte[] snapshot = renderSnapshot;
+        if (snapshot == null) {
+            lock.lock();
+            try {
+                if (renderSnapshot == null) {
+                    renderSnapshot = rendered.clone();
+                }
+                snapshot = renderSnapshot;
+            } finally {
+                lock.unlock();
+            }
+        }
+        return new String(snapshot, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * disconnects from the shard servers; the board cannot be played afterwards
+     */
+    public void close() {
+        lock.lock();
+        try {
+            for (Shard shard : shards) {
+                if (shard != null) {
+                    shard.close();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * applies one action on the shards, recording the cells it changed
+     * @param x - the x location of the action, on the board
+     * @param y - the y location of the action, on the board
+     * @param action - the action
+     * @return true if the action dug a bomb
+     */
+    private boolean apply(int x, int y, Action action) throws IOException {
+        Shard shard = shards[layout.shardOf(x, y)];
+        if (!action.equals(Action.DIG)) {
+            shard.request((action.equals(Action.FLAG) ? "flag " : "deflag ") + (x - shard.left) + " " + (y - shard.top));
+            sync(shard);
+            return false;
+        }
+        boolean bombDug = BOOM_MESSAGE.equals(shard.request("dig " + (x - shard.left) + " " + (y - shard.top)));
+        if (bombDug) {
+            // the counts around the bomb go down on every shard before
+            // the flood fill from it continues into them
+            for (int other : shardsAround(x, y, shard.number)) {
+                Shard neighbor = shards[other];
+                neighbor.request("unbomb " + (x - neighbor.left) + " " + (y - neighbor.top));
+                sync(neighbor);
+            }
+        }
+        int continued = digs;
+        sync(shard);
+        // continue flood fills across shard edges; every cell dug on a
+        // neighboring shard is appended to dug and continued in turn. A
+        // cell dug before whose count dropped to 0 is not, as on one Board.
+        for (; continued < digs; continued++) {
+            int cell = dug[continued];
+            if (rendered[2 * cell] == ' ') {
+                continueFloodFill(cell % layout.columns, cell / layout.columns);
+            }
+        }
+        return bombDug;
+    }
+
+    /**
+     * digs the untouched neighbors of a dug cell with no neighboring bombs
+     * which belong to other shards than the cell itself
+     * @param x - the x location of the cell
+     * @param y - the y location of the cell
+     */
+    private void continueFloodFill(int x, int y) throws IOException {
+        int own = layout.shardOf(x, y);
+        Shard shard = shards[own];
+        if (x > shard.left && x < shard.left + shard.width - 1 && y > shard.top && y < shard.top + shard.height - 1) {
+            return; // every neighbor is on the cell's own shard, which filled it
+        }
+        for (int ny = Math.max(y - 1, 0); ny <= Math.min(y + 1, layout.rows - 1); ny++) {
+            for (int nx = Math.max(x - 1, 0); nx <= Math.min(x + 1, layout.columns - 1); nx++) {
+                int other = layout.shardOf(nx, ny);
+                // no neighbor of a cell without neighboring bombs has a bomb
+                if (other != own && rendered[2 * (ny * layout.columns + nx)] == '-') {
+                    Shard neighbor = shards[other];
+                    neighbor.request("dig " + (nx - neighbor.left) + " " + (ny - neighbor.top));
+                    sync(neighbor);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the shards other than own which have (x, y) in the ring around them
+     */
+    private int[] shardsAround(int x, int y, int own) {
+        int[] around = new int[8];
+        int count = 0;
+        for (int ny = Math.max(y - 1, 0); ny <= Math.min(y + 1, layout.rows - 1); ny++) {
+            for (int nx = Math.max(x - 1, 0); nx <= Math.min(x + 1, layout.columns - 1); nx++) {
+                int other = layout.shardOf(nx, ny);
+                boolean seen = other == own;
+                for (int i = 0; i < count && !seen; i++) {
+                    seen = around[i] == other;
+                }
+                if (!seen) {
+                    around[count++] = other;
+                }
+            }
+        }
+        return Arrays.copyOf(around, count);
+    }
+
+    /**
+     * brings rendered up to date with a shard, appending the cells which
+     * changed to changed
+     * @param shard - the shard
+     */
+    private void sync(Shard shard) throws IOException {
+        String header = shard.send("look since " + shard.syncedVersion);
+        String[] words = header.split(" ");
+        if (words.length == 3 && words[0].equals("DELTA")) {
+            int count = Integer.parseInt(words[2]);
+            for (int i = 0; i < count; i++) {
+                String[] cell = shard.readLine().split(" ", 3);
+                update(shard.left + Integer.parseInt(cell[0]), shard.top + Integer.parseInt(cell[1]), cell[2].charAt(0));
+            }
+        } else if (words.length == 2 && words[0].equals("FULL")) {
+            for (int y = 0; y < shard.height; y++) {
+                String row = shard.readLine();
+                for (int x = 0; x < shard.width; x++) {
+                    update(shard.left + x, shard.top + y, row.charAt(2 * x));
+                }
+            }
+        } else {
+            throw new IOException("unexpected reply from shard " + shard.number + ": " + header);
+        }
+        shard.syncedVersion = Long.parseLong(words[1]);
+        shard.skipReply();
+    }
+
+    /**
+     * sets the character of a cell of rendered, appending the cell to
+     * changed if the character is new, and to dug if the cell was untouched
+     * and is now dug
+     */
+    private void update(int x, int y, char c) {
+        int cell = y * layout.columns + x;
+        byte previous = rendered[2 * cell];
+        if (previous != c) {
+            rendered[2 * cell] = (byte) c;
+            if (changes == changed.length) {
+                changed = Arrays.copyOf(changed, 2 * changes);
+            }
+            changed[changes++] = cell;
+            if (previous == '-' && c != 'F') {
+                if (digs == dug.length) {
+                    dug = Arrays.copyOf(dug, 2 * digs);
+                }
+                dug[digs++] = cell;
+            }
+        }
+    }
+
+    /**
+     * completes an action, moving the board to its next version and
+     * publishing the cells the action changed if it changed any
+     */
+    private void commit() {
+        digs = 0;
+        if (changes == 0) {
+            return;
+        }
+        version++;
+        for (int i = 0; i < changes; i++) {
+            changeLog.record(version, changed[i]);
+        }
+        renderSnapshot = null;
+        changes = 0;
+    }
+
+    /**
+     * @return true if the location is on the board
+     */
+    private boolean onBoard(int rowLocX, int columnLocY) {
+        return rowLocX >= 0 && rowLocX < layout.columns && columnLocY >= 0 && columnLocY < layout.rows;
+    }
+
+    /**
+     * A connection to the server of one shard, speaking the text protocol
+     * of MinesweeperSession. syncedVersion is the version of the shard's board
+     * rendered is up to date with.
+     */
+    private final class Shard {
+
+        private final int number;
+        private final int left;
+        private final int top;
+        private final int width;
+        private final int height;
+        private final Socket socket;
+        private final BufferedReader in;
+        private final Writer out;
+        private long syncedVersion = Long.MAX_VALUE; // the first sync gets the whole shard
+
+        Shard(int number, InetSocketAddress server) throws IOException {
+            this.number = number;
+            this.left = layout.left(number);
+            this.top = layout.top(number);
+            this.width = layout.width(number);
+            this.height = layout.height(number);
+            this.socket = new Socket();
+            socket.connect(server);
+            socket.setTcpNoDelay(true);
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            this.out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII));
+            String welcome = readLine();
+            String expected = "Board: " + width + " columns by " + height + " rows.";
+            if (!welcome.contains(expected)) {
+                close();
+                throw new IOException("shard " + number + " at " + server + " does not play a " + width + " by "
+                        + height + " board: " + welcome);
+            }
+            skipReply();
+        }
+
+        /**
+         * sends a command and skips its reply
+         * @param command - the command, without a line terminator
+         * @return the first line of the reply
+         */
+        String request(String command) throws IOException {
+            String first = send(command);
+            if (!first.isEmpty() && !first.equals(BOOM_MESSAGE)) {
+                skipReply();
+            }
+            return first;
+        }
+
+        /**
+         * sends a command
+         * @param command - the command, without a line terminator
+         * @return the first line of the reply, leaving the rest unread
+         */
+        String send(String command) throws IOException {
+            out.write(command);
+            out.write('\n');
+            out.flush();
+            return readLine();
+        }
+
+        /**
+         * reads the rest of a reply, up to the empty line which ends it
+         */
+        void skipReply() throws IOException {
+            while (!readLine().isEmpty()) {
+                // a row of the board
+            }
+        }
+
+        /**
+         * @return the next line from the server
+         * @throws IOException if the server closed the connection
+         */
+        String readLine() throws IOException {
+            String line = in.readLine();
+            if (line == null) {
+                throw new IOException("shard " + number + " closed the connection");
+            }
+            return line;
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // nothing more to do with this shard
+            }
+        }
+    }
+
+}
@@ -0,0 +1,298 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import minesweeper.server.Board.Action;
+
+import org.junit.Test;
+
+public class ShardedBoardTest {
+
+	/**
+	 * Testing Partition:
+	 * 	Layout: shards of equal and unequal sizes, one shard, one cell wide shards X
+	 * 	Shard boards: edge counts include the ring, removing a ring bomb, a whole board has no ring bombs X
+	 * 	Crossing edges: a flood fill across several shards, a bomb dug on a shard edge,
+	 * 	                a dug cell whose count drops to 0 X
+	 * 	Playing: random digs, flags and deflags on and off the board match one Board X
+	 * 	         batches, looking since a version X
+	 * 	Hints: none, from a shard other than the first, at whole board locations X
+	 * 	Processes: shards in separate processes, played through a router X
+	 *
+	 */
+
+	@Test
+	public void layoutCoversEveryCellOnce() {
+	    int[][] layouts = { { 7, 5, 3, 2 }, { 6, 4, 2, 2 }, { 5, 3, 1, 1 }, { 4, 3, 4, 3 }, { 100, 1, 7, 1 } };
+	    for (int[] sizes : layouts) {
+	        ShardLayout layout = new ShardLayout(sizes[0], sizes[1], sizes[2], sizes[3]);
+	        for (int y = 0; y < sizes[1]; y++) {
+	            for (int x = 0; x < sizes[0]; x++) {
+	                int shard = layout.shardOf(x, y);
+	                assertTrue(shard >= 0 && shard < layout.shardCount());
+	                assertTrue(x >= layout.left(shard) && x < layout.left(shard) + layout.width(shard));
+	                assertTrue(y >= layout.top(shard) && y < layout.top(shard) + layout.height(shard));
+	            }
+	        }
+	        int cells = 0;
+	        for (int shard = 0; shard < layout.shardCount(); shard++) {
+	            cells += layout.width(shard) * layout.height(shard);
+	        }
+	        assertEquals(sizes[0] * sizes[1], cells);
+	    }
+	}
+
+	@Test
+	public void shardsCountTheBombsAroundThem() throws IOException {
+	    // 4 by 2, one bomb at (2, 0), which is just right of shard 0
+	    File directory = split(writeText("4 2\n0 0 1 0\n0 0 0 0\n"), 2, 1);
+	    Board shard = new Board(ShardLayout.shardFile(directory, 0));
+	    assertEquals("- -\n- 1\n", shard.processAction(1, 1, Action.DIG));
+	    assertEquals("", shard.removeOuterBomb(0, 0));
+	    assertEquals("", shard.removeOuterBomb(5, 1));
+	    assertEquals("- -\n-  \n", shard.removeOuterBomb(2, 0));
+	    assertEquals("- -\n-  \n", shard.removeOuterBomb(2, 0)); // already removed
+
+	    Board whole = new Board(2, 2);
+	    String before = whole.toString();
+	    assertEquals(before, whole.removeOuterBomb(-1, -1));
+	}
+
+	@Test
+	public void floodFillsAndBombsCrossShardEdges() throws IOException {
+	    // one bomb at (2, 1), on the right edge of the top left of 2 by 2 shards
+	    File boardFile = writeText("6 4\n0 0 0 0 0 0\n0 0 1 0 0 0\n0 0 0 0 0 0\n0 0 0 0 0 0\n");
+	    List<SelectorServer> servers = new ArrayList<SelectorServer>();
+	    ShardedBoard sharded = connect(boardFile, 2, 2, servers);
+	    try {
+	        Board whole = new Board(boardFile);
+	        assertEquals(whole.processAction(5, 3, Action.DIG), sharded.processAction(5, 3, Action.DIG));
+	        assertEquals(whole.processAction(2, 1, Action.DIG), sharded.processAction(2, 1, Action.DIG));
+	        assertEquals(whole.toString(), sharded.toString());
+	        assertEquals(whole.processAction(0, 0, Action.DIG), sharded.processAction(0, 0, Action.DIG));
+	        assertFalse(sharded.toString().contains("-"));
+	    } finally {
+	        close(sharded, servers);
+	    }
+
+	    // a dug cell whose count drops to 0 is not flood filled from
+	    boardFile = writeText("4 1\n1 0 0 0\n");
+	    servers = new ArrayList<SelectorServer>();
+	    sharded = connect(boardFile, 2, 1, servers);
+	    try {
+	        Board whole = new Board(boardFile);
+	        assertEquals(whole.processAction(1, 0, Action.DIG), sharded.processAction(1, 0, Action.DIG));
+	        assertEquals(whole.processAction(0, 0, Action.DIG), sharded.processAction(0, 0, Action.DIG));
+	        assertEquals(whole.toString(), sharded.toString());
+	        assertEquals("    - -\n", sharded.toString());
+	    } finally {
+	        close(sharded, servers);
+	    }
+	}
+
+	@Test
+	public void hintsComeFromTheShards() throws IOException {
+	    // bombs at (2, 1), just left of the right shard, and (3, 2) inside it
+	    File boardFile = writeText("6 3\n0 0 0 0 0 0\n0 0 1 0 0 0\n0 0 0 1 0 0\n");
+	    List<SelectorServer> servers = new ArrayList<SelectorServer>();
+	    ShardedBoard sharded = connect(boardFile, 2, 1, servers);
+	    try {
+	        assertEquals("no hint", sharded.hint());
+	        sharded.processAction(5, 0, Action.DIG); // opens the right shard but (3, 2)
+	        assertEquals("mine 3 2", sharded.hint());
+	    } finally {
+	        close(sharded, servers);
+	    }
+	}
+
+	@Test
+	public void shardedBoardPlaysLikeOneBoard() throws IOException {
+	    int columns = 23;
+	    int rows = 17;
+	    File boardFile = randomBoardFile(columns, rows, 8, 6005);
+	    List<SelectorServer> servers = new ArrayList<SelectorServer>();
+	    ShardedBoard sharded = connect(boardFile, 3, 2, servers);
+	    try {
+	        Board whole = new Board(boardFile);
+	        Random random = new Random(17);
+	        for (int i = 0; i < 400; i++) {
+	            int x = random.nextInt(columns + 2) - 1;
+	            int y = random.nextInt(rows + 2) - 1;
+	            int choice = random.nextInt(10);
+	            Action action = choice < 6 ? Action.DIG : choice < 8 ? Action.FLAG : Action.UNFLAG;
+	            assertEquals(whole.processAction(x, y, action), sharded.processAction(x, y, action));
+	        }
+
+	        String full = sharded.lookSince(Long.MAX_VALUE);
+	        long version = Long.parseLong(full.substring("FULL ".length(), full.indexOf('\n')));
+	        int[] xs = { 0, 22, 11, 5 };
+	        int[] ys = { 0, 16, 8, 12 };
+	        Action[] actions = { Action.DIG, Action.DIG, Action.FLAG, Action.DIG };
+	        assertEquals(whole.processActions(xs, ys, actions, false), sharded.processActions(xs, ys, actions, false));
+
+	        String delta = sharded.lookSince(version);
+	        assertTrue(delta.startsWith("DELTA " + (version + 1) + " "));
+	        char[] text = full.substring(full.indexOf('\n') + 1).toCharArray();
+	        String[] lines = delta.split("\n");
+	        for (int i = 1; i < lines.length; i++) {
+	            String[] cell = lines[i].split(" ", 3);
+	            text[2 * (Integer.parseInt(cell[1]) * columns + Integer.parseInt(cell[0]))] = cell[2].charAt(0);
+	        }
+	        assertEquals(sharded.toString(), new String(text));
+	        assertEquals("DELTA " + (version + 1) + " 0\n", sharded.lookSince(version + 1));
+	    } finally {
+	        close(sharded, servers);
+	    }
+	}
+
+	@Test(timeout=60000)
+	public void shardsRunInSeparateProcesses() throws IOException, InterruptedException {
+	    int columns = 20;
+	    int rows = 12;
+	    File boardFile = randomBoardFile(columns, rows, 10, 42);
+	    File directory = split(boardFile, 2, 2);
+	    List<Process> processes = new ArrayList<Process>();
+	    ShardedBoard sharded = null;
+	    SelectorServer router = null;
+	    try {
+	        List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+	        for (int shard = 0; shard < 4; shard++) {
+	            Process process = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(), "-ea",
+	                    "-cp", System.getProperty("java.class.path"), ShardRouter.class.getName(),
+	                    "shard", "0", ShardLayout.shardFile(directory, shard).getPath()).redirectErrorStream(true).start();
+	            processes.add(process);
+	            String listening = new BufferedReader(new InputStreamReader(process.getInputStream())).readLine();
+	            assertTrue(listening, listening.startsWith("listening on "));
+	            addresses.add(new InetSocketAddress("localhost", Integer.parseInt(listening.substring("listening on ".length()))));
+	        }
+	        sharded = new ShardedBoard(columns, rows, 2, 2, addresses);
+	        router = start(new SelectorServer(0, true, sharded, 1));
+
+	        Socket socket = new Socket("localhost", router.getPort());
+	        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+	        PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+	        assertTrue(in.readLine().contains("Board: 20 columns by 12 rows."));
+	        assertEquals("", in.readLine());
+
+	        Board whole = new Board(boardFile);
+	        Random random = new Random(5);
+	        for (int i = 0; i < 40; i++) {
+	            int x = random.nextInt(columns);
+	            int y = random.nextInt(rows);
+	            out.println("dig " + x + " " + y);
+	            String expected = whole.processAction(x, y, Action.DIG);
+	            for (String line : expected.split("\n")) {
+	                assertEquals(line, in.readLine());
+	            }
+	            if (!expected.equals("BOOM!")) {
+	                assertEquals("", in.readLine());
+	            }
+	        }
+	        socket.close();
+	    } finally {
+	        if (router != null) {
+	            router.close();
+	        }
+	        if (sharded != null) {
+	            sharded.close();
+	        }
+	        for (Process process : processes) {
+	            process.destroy();
+	            process.waitFor();
+	        }
+	    }
+	}
+
+	/**
+	 * splits a board file into shards in a new temporary directory
+	 * @return the directory
+	 */
+	private static File split(File boardFile, int shardColumns, int shardRows) throws IOException {
+	    File directory = Files.createTempDirectory("shards").toFile();
+	    directory.deleteOnExit();
+	    ShardLayout layout = ShardLayout.split(boardFile, shardColumns, shardRows, directory);
+	    for (int shard = 0; shard < layout.shardCount(); shard++) {
+	        ShardLayout.shardFile(directory, shard).deleteOnExit();
+	    }
+	    return directory;
+	}
+
+	/**
+	 * splits a board file and serves each shard from a server of this process
+	 * @param servers - the list to add the servers of the shards to
+	 * @return the board played through the servers
+	 */
+	private static ShardedBoard connect(File boardFile, int shardColumns, int shardRows, List<SelectorServer> servers)
+	        throws IOException {
+	    File directory = split(boardFile, shardColumns, shardRows);
+	    List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+	    for (int shard = 0; shard < shardColumns * shardRows; shard++) {
+	        SelectorServer server = start(new SelectorServer(0, true, new Board(ShardLayout.shardFile(directory, shard)), 1));
+	        servers.add(server);
+	        addresses.add(new InetSocketAddress("localhost", server.getPort()));
+	    }
+	    BoardFile board = BoardFile.read(boardFile);
+	    return new ShardedBoard(board.columns, board.rows, shardColumns, shardRows, addresses);
+	}
+
+	private static void close(ShardedBoard sharded, List<SelectorServer> servers) throws IOException {
+	    sharded.close();
+	    for (SelectorServer server : servers) {
+	        server.close();
+	    }
+	}
+
+	/**
+	 * runs server on a daemon thread
+	 */
+	private static SelectorServer start(final SelectorServer server) {
+	    Thread thread = new Thread(new Runnable() {
+	        public void run() {
+	            try {
+	                server.serve();
+	            } catch (IOException e) {
+	                e.printStackTrace();
+	            }
+	        }
+	    });
+	    thread.setDaemon(true);
+	    thread.start();
+	    return server;
+	}
+
+	/**
+	 * @return a temporary board file in the text format where every cell
+	 *     has a bomb with probability 1 / bombOneIn
+	 */
+	private static File randomBoardFile(int columns, int rows, int bombOneIn, long seed) throws IOException {
+	    Random random = new Random(seed);
+	    StringBuilder text = new StringBuilder(columns + " " + rows + "\n");
+	    for (int y = 0; y < rows; y++) {
+	        for (int x = 0; x < columns; x++) {
+	            text.append(x > 0 ? " " : "").append(random.nextInt(bombOneIn) == 0 ? '1' : '0');
+	        }
+	        text.append('\n');
+	    }
+	    return writeText(text.toString());
+	}
+
+	private static File writeText(String text) throws IOException {
+	    File file = File.createTempFile("board", ".txt");
+	    file.deleteOnExit();
+	    Files.write(file.toPath(), text.getBytes("US-ASCII"));
+	    return file;
+	}
+
+}
@@ -0,0 +1,280 @@
+package minesweeper.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import minesweeper.server.BoardFeed.Subscription;
+import minesweeper.server.BoardFeed.Update;
+
+/**
+ * Thread safety argument:
+ *  Each connection is handled entirely by the thread created for it,
+ *  which owns its socket, streams and session, except that a subscribed
+ *  connection has a second thread writing its updates. Both threads
+ *  write only while holding the connection's writeLock, so replies and
+ *  updates are never interleaved. The board, its feed and the
+ *  connection counter shared by all sessions are thread safe.
+ */
+
+/**
+ * A Minesweeper server which handles each connection with blocking I/O
+ * on a thread of its own, like MinesweeperServer, but creates those
+ * threads from a ThreadFactory. With virtualThreads() every idle
+ * connection costs a parked virtual thread rather than a platform thread
+ * and its stack, so one process can hold a very large number of mostly
+ * idle players while keeping the simple blocking code style. It is
+ * started from the command line with MinesweeperLauncher --server virtual
+ * (or --server threads for platform threads).
+ *
+ * The updates pushed to a subscribed client are written by a thread of
+ * its own from the same factory, which blocks while the client reads
+ * slowly, leaving the updates in its subscription, which collapses them.
+ * @author nathaliehuynh
+ *
+ */
+public class ThreadPerConnectionServer {
+
+    private final ServerSocket serverSocket;
+    private final boolean debug;
+    private final GameBoard board; // null if the server has rooms
+    private final BoardFeed feed; // null if the server has rooms
+    private final Rooms rooms; // null if the server has a single board
+    private final ThreadFactory threads;
+    private final AtomicInteger connections = new AtomicInteger(0);
+
+    /**
+     * Make a ThreadPerConnectionServer that listens for connections on port.
+     *
+     * @param port port number, requires 0 <= port <= 65535; 0 picks a free port
+     * @param debug debug mode flag
+     * @param board the board clients play on
+     * @param threads creates the thread which handles each connection
+     * @throws IOException if an error occurs opening the server socket
+     */
+    public ThreadPerConnectionServer(int port, boolean debug, GameBoard board, ThreadFactory threads) throws IOException {
+        this(port, debug, board, null, threads);
+    }
+
+    /**
+     * Make a ThreadPerConnectionServer hosting several rooms that listens for connections on port.
+     *
+     * @param port port number, requires 0 <= port <= 65535; 0 picks a free port
+     * @param debug debug mode flag
+     * @param rooms the rooms clients play in, see MinesweeperSession, whose
+     *     idle rooms this server evicts until it is closed
+     * @param threads creates the thread which handles each connection
+     * @throws IOException if an error occurs opening the server socket
+     */
+    public ThreadPerConnectionServer(int port, boolean debug, Rooms rooms, ThreadFactory threads) throws IOException {
+        this(port, debug, null, rooms, threads);
+    }
+
+    private ThreadPerConnectionServer(int port, boolean debug, GameBoard board, Rooms rooms, ThreadFactory threads) throws IOException {
+        this.serverSocket = new ServerSocket(port, 1024);
+        this.debug = debug;
+        this.board = board;
+        this.feed = board == null ? null : new BoardFeed(board);
+        this.rooms = rooms;
+        if (rooms != null) {
+            rooms.startEvicting();
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * @return a factory for platform threads, the threads MinesweeperServer uses
+     */
+    public static ThreadFactory platformThreads() {
+        return new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+                return new Thread(task);
+            }
+        };
+    }
+
+    /**
+     * @return true if this JVM supports virtual threads (Java 21 or later)
+     */
+    public static boolean virtualThreadsAvailable() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return a factory for virtual threads
+     * @throws UnsupportedOperationException if this JVM does not support virtual threads
+     */
+    public static ThreadFactory virtualThreads() {
+        try {
+            // looked up reflectively so this class still compiles for older Java releases
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("virtual threads require Java 21 or later", e);
+        }
+    }
+
+    /**
+     * @return the port this server listens on
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return the number of players currently connected
+     */
+    public int getConnections() {
+        return rooms == null ? connections.get() : rooms.getConnections();
+    }
+
+    /**
+     * Run the server, listening for client connections and handling them.
+     * Never returns unless close() is called or an exception is thrown.
+     *
+     * @throws IOException if the main server socket is broken
+     */
+    public void serve() throws IOException {
+        while (!serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (serverSocket.isClosed()) {
+                    return;
+                }
+                throw e;
+            }
+            threads.newThread(new Runnable() {
+                public void run() {
+                    try {
+                        handleConnection(socket);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            }).start();
+        }
+    }
+
+    /**
+     * Stops accepting connections and evicting idle rooms
+     * @throws IOException if the server socket cannot be closed
+     */
+    public void close() throws IOException {
+        if (rooms != null) {
+            rooms.close();
+        }
+        serverSocket.close();
+    }
+
+    /**
+     * Handle a single client connection. Returns when client disconnects.
+     *
+     * @param socket socket where the client is connected
+     * @throws IOException if the connection encounters an error or terminates unexpectedly
+     */
+    private void handleConnection(Socket socket) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+        ReentrantLock writeLock = new ReentrantLock();
+        MinesweeperSession session = rooms == null
+                ? new MinesweeperSession(board, feed, debug, connections) : new MinesweeperSession(rooms, debug);
+
+        try {
+            write(out, session.open(), writeLock);
+            Subscription pushing = null;
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                String output = session.handleLine(line);
+                if (output != null) {
+                    write(out, output, writeLock);
+                }
+                if (session.getSubscription() != pushing) {
+                    pushing = session.getSubscription();
+                    if (pushing != null) {
+                        threads.newThread(pusher(pushing, socket.getOutputStream(), writeLock)).start();
+                    }
+                }
+                if (session.isFinished()) {
+                    break;
+                }
+            }
+        } finally {
+            session.close();
+            out.close();
+            in.close();
+        }
+    }
+
+    /**
+     * writes text to a player and flushes it
+     * @param out - the player's stream
+     * @param text - the text, which is ASCII like the whole protocol, so
+     *     each of its characters is written as one byte
+     * @param writeLock - the lock of the player's connection
+     */
+    private static void write(PrintWriter out, String text, ReentrantLock writeLock) {
+        writeLock.lock();
+        try {
+            out.print(text);
+            out.flush();
+        } finally {
+            writeLock.unlock();
+        }
+        Metrics metrics = Metrics.current();
+        if (metrics != null) {
+            metrics.written(text.length());
+        }
+    }
+
+    /**
+     * @param subscription - the subscription of a player
+     * @param out - the player's stream
+     * @param writeLock - the lock of the player's connection
+     * @return a task writing the updates of subscription to the player
+     *     until it is cancelled or the connection breaks
+     */
+    private static Runnable pusher(final Subscription subscription, final OutputStream out,
+            final ReentrantLock writeLock) {
+        return new Runnable() {
+            public void run() {
+                try {
+                    for (Update update = subscription.take(); update != null; update = subscription.take()) {
+                        writeLock.lock();
+                        try {
+                            out.write(update.bytes());
+                            out.flush();
+                        } finally {
+                            writeLock.unlock();
+                        }
+                        Metrics metrics = Metrics.current();
+                        if (metrics != null) {
+                            metrics.written(update.bytes().length);
+                        }
+                    }
+                } catch (IOException | InterruptedException e) {
+                    subscription.cancel(); // the reading thread finds the connection broken too
+                }
+            }
+        };
+    }
+
+}
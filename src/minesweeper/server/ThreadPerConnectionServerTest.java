@@ -0,0 +1,126 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+
+import org.junit.Test;
+
+public class ThreadPerConnectionServerTest {
+
+	/**
+	 * Testing Partition:
+	 * 	Threads: virtual threads when the JVM supports them, platform threads otherwise
+	 * 	Load: many idle connections, then an active player X
+	 * 	Ending: bye X
+	 * 	Subscriptions: changes of another player pushed by a second thread, bye while subscribed X
+	 * 
+	 * The number of idle connections is a size any machine can run as a unit
+	 * test. The 100k connection target is checked with a server started by
+	 * MinesweeperLauncher --server virtual and LoadGenerator --idle, see LoadGenerator.
+	 */
+
+	private static final int IDLE_CONNECTIONS = 500;
+
+	@Test(timeout=600000)
+	public void manyIdleConnections() throws IOException {
+	    ThreadFactory threads = ThreadPerConnectionServer.virtualThreadsAvailable() 
+	            ? ThreadPerConnectionServer.virtualThreads() 
+	            : ThreadPerConnectionServer.platformThreads();
+	    final ThreadPerConnectionServer server = new ThreadPerConnectionServer(0, false, 
+	            new Board(new File("simpleBoard.txt")), threads);
+	    Thread acceptor = new Thread(new Runnable() {
+	        public void run() {
+	            try {
+	                server.serve();
+	            } catch (IOException e) {
+	                e.printStackTrace();
+	            }
+	        }
+	    });
+	    acceptor.setDaemon(true);
+	    acceptor.start();
+
+	    List<Socket> idle = new ArrayList<Socket>();
+	    for (int i = 0; i < IDLE_CONNECTIONS; i++) {
+	        idle.add(new Socket("localhost", server.getPort()));
+	    }
+	    while (server.getConnections() < IDLE_CONNECTIONS) {
+	        Thread.yield();
+	    }
+
+	    Socket active = new Socket("localhost", server.getPort());
+	    BufferedReader in = new BufferedReader(new InputStreamReader(active.getInputStream()));
+	    PrintWriter out = new PrintWriter(active.getOutputStream(), true);
+	    assertTrue(in.readLine().contains("Players: " + (IDLE_CONNECTIONS + 1) + " including you."));
+	    in.readLine();
+	    out.println("flag 0 0");
+	    assertEquals("F -", in.readLine());
+	    out.println("bye");
+	    in.readLine(); // rest of the board
+	    in.readLine();
+	    in.readLine();
+	    assertNull(in.readLine());
+
+	    active.close();
+	    for (Socket socket : idle) {
+	        socket.close();
+	    }
+	    server.close();
+	}
+
+	@Test(timeout=10000)
+	public void subscribersArePushedChanges() throws IOException {
+	    final ThreadPerConnectionServer server = new ThreadPerConnectionServer(0, false,
+	            new Board(new File("simpleBoard.txt")), ThreadPerConnectionServer.platformThreads());
+	    Thread acceptor = new Thread(new Runnable() {
+	        public void run() {
+	            try {
+	                server.serve();
+	            } catch (IOException e) {
+	                e.printStackTrace();
+	            }
+	        }
+	    });
+	    acceptor.setDaemon(true);
+	    acceptor.start();
+
+	    Socket watcher = new Socket("localhost", server.getPort());
+	    BufferedReader watcherIn = new BufferedReader(new InputStreamReader(watcher.getInputStream()));
+	    PrintWriter watcherOut = new PrintWriter(watcher.getOutputStream(), true);
+	    watcherIn.readLine();
+	    watcherIn.readLine();
+	    watcherOut.println("subscribe");
+	    assertEquals("FULL 1", watcherIn.readLine());
+	    for (int i = 0; i < 4; i++) {
+	        watcherIn.readLine();
+	    }
+
+	    Socket player = new Socket("localhost", server.getPort());
+	    BufferedReader playerIn = new BufferedReader(new InputStreamReader(player.getInputStream()));
+	    PrintWriter playerOut = new PrintWriter(player.getOutputStream(), true);
+	    playerIn.readLine();
+	    playerIn.readLine();
+	    playerOut.println("dig 0 0");
+	    assertEquals("   ", playerIn.readLine());
+	    assertEquals("DELTA 2 4", watcherIn.readLine());
+	    for (int i = 0; i < 5; i++) {
+	        watcherIn.readLine();
+	    }
+
+	    watcherOut.println("bye");
+	    assertNull(watcherIn.readLine());
+	    watcher.close();
+	    player.close();
+	    server.close();
+	}
+
+}
@@ -0,0 +1,179 @@
+package minesweeper.server;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thread safety argument:
+ *  The locks themselves are thread safe. A Claim belongs to the single
+ *  thread performing one action and is never shared while in use.
+ *
+ *  Deadlock freedom: a thread only ever blocks on a tile lock in
+ *  claimAll, after releasing every tile it held, and claimAll locks
+ *  tiles in increasing order. Tiles taken in any other order are taken
+ *  with tryLock, which never blocks. So a blocked thread only ever waits
+ *  for a tile higher than every tile it holds, and no cycle of waiting
+ *  threads can form.
+ */
+
+/**
+ * AF: TileLocks divides a board of rowSize by columnSize cells into square
+ *  tiles of TILE_SIZE by TILE_SIZE cells, numbered row by row, and has one
+ *  lock for each tile. A Claim is the set of tiles one action needs.
+ *
+ * RI: locks.length == tilesPerRow * tilesPerColumn
+ * @author nathaliehuynh
+ *
+ */
+class TileLocks {
+
+    static final int TILE_SHIFT = 6;
+    static final int TILE_SIZE = 1 << TILE_SHIFT;
+
+    private final ReentrantLock[] locks;
+    private final int tilesPerRow;
+
+    /**
+     * Creates the tile locks of a board
+     * @param rowSize - the number of columns in the board
+     * @param columnSize - the number of rows in the board
+     */
+    TileLocks(int rowSize, int columnSize) {
+        this.tilesPerRow = ((rowSize - 1) >> TILE_SHIFT) + 1;
+        int tilesPerColumn = ((columnSize - 1) >> TILE_SHIFT) + 1;
+        this.locks = new ReentrantLock[tilesPerRow * tilesPerColumn];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * @param xLoc - the x location of a cell
+     * @param yLoc - the y location of a cell
+     * @return the number of the tile containing the cell
+     */
+    int tileOf(int xLoc, int yLoc) {
+        return (yLoc >> TILE_SHIFT) * tilesPerRow + (xLoc >> TILE_SHIFT);
+    }
+
+    /**
+     * @return a new, empty claim on these tiles
+     */
+    Claim newClaim() {
+        return new Claim(locks.length);
+    }
+
+    /**
+     * Blocks until every tile of claim, including the tile it last failed
+     * to take, is locked by the calling thread
+     * @param claim - a claim which holds no locks
+     */
+    void claimAll(Claim claim) {
+        assert(!claim.locked);
+        if (claim.missing >= 0) {
+            claim.add(claim.missing);
+            claim.missing = -1;
+        }
+        Arrays.sort(claim.tiles, 0, claim.size);
+        for (int i = 0; i < claim.size; i++) {
+            Metrics.lock(locks[claim.tiles[i]]);
+        }
+        claim.locked = true;
+    }
+
+    /**
+     * Adds a tile to a claim whose tiles are locked, without blocking
+     * @param claim - a claim whose tiles are locked by the calling thread
+     * @param tile - the tile to add
+     * @return true if the tile is now locked as part of claim; false if
+     *     another thread holds it, in which case claim remembers the tile
+     *     so the next claimAll takes it
+     */
+    boolean tryClaim(Claim claim, int tile) {
+        if (claim.contains(tile)) {
+            return true;
+        }
+        if (locks[tile].tryLock()) {
+            claim.add(tile);
+            return true;
+        }
+        claim.missing = tile;
+        return false;
+    }
+
+    /**
+     * Unlocks every tile of a claim, keeping the claim's tiles so that
+     * claimAll can take them again
+     * @param claim - a claim
+     */
+    void release(Claim claim) {
+        if (claim.locked) {
+            for (int i = 0; i < claim.size; i++) {
+                locks[claim.tiles[i]].unlock();
+            }
+            claim.locked = false;
+        }
+    }
+
+    /**
+     * The tiles one action needs. Tiles are only ever added to a claim
+     * until it is cleared, so every retry of an action claims more tiles
+     * than the one before, and the number of retries is bounded by the
+     * number of tiles.
+     *
+     * RI: tiles[0..size) are distinct, and are exactly the set bits of
+     *  members; missing is -1 or a tile not in tiles
+     */
+    static final class Claim {
+
+        private int[] tiles = new int[4];
+        private int size = 0;
+        private final long[] members;
+        private int missing = -1;
+        private boolean locked = false;
+
+        private Claim(int tileCount) {
+            this.members = new long[(tileCount + 63) >>> 6];
+        }
+
+        /**
+         * @param tile - a tile
+         * @return true if tile is part of this claim
+         */
+        boolean contains(int tile) {
+            return (members[tile >>> 6] & (1L << tile)) != 0;
+        }
+
+        /**
+         * @return true if the last tryClaim on this claim failed
+         */
+        boolean blocked() {
+            return missing >= 0;
+        }
+
+        /**
+         * Adds a tile which is not yet part of this claim
+         * @param tile - a tile
+         */
+        void add(int tile) {
+            if (size == tiles.length) {
+                tiles = Arrays.copyOf(tiles, 2 * size);
+            }
+            tiles[size++] = tile;
+            members[tile >>> 6] |= 1L << tile;
+        }
+
+        /**
+         * Empties this claim, which must hold no locks
+         */
+        void clear() {
+            assert(!locked);
+            for (int i = 0; i < size; i++) {
+                members[tiles[i] >>> 6] = 0;
+            }
+            size = 0;
+            missing = -1;
+        }
+    }
+
+}
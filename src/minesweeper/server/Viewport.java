@@ -0,0 +1,134 @@
+package minesweeper.server;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * AF: A Viewport is the rectangle of a board a player displays: the
+ *  width by height cells whose top left cell is at (x, y). It may reach
+ *  past the edges of the board, in which case only the cells on the board
+ *  are shown, so a player can keep the same viewport as they scroll.
+ *
+ * RI: width > 0, height > 0
+ * @author nathaliehuynh
+ *
+ */
+public final class Viewport {
+
+    private final int x;
+    private final int y;
+    private final int width;
+    private final int height;
+
+    /**
+     * Creates a viewport
+     * @param x - the x location of its top left cell
+     * @param y - the y location of its top left cell
+     * @param width - the number of columns it shows, must be positive
+     * @param height - the number of rows it shows, must be positive
+     * @throws IllegalArgumentException if width or height is not positive
+     */
+    public Viewport(int x, int y, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("viewport must not be empty: " + width + " by " + height);
+        }
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * @return the x location of the top left cell
+     */
+    public int getX() {
+        return x;
+    }
+
+    /**
+     * @return the y location of the top left cell
+     */
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * @return the number of columns shown
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return the number of rows shown
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Cuts the cells of this viewport out of the text of a whole board,
+     * copying only those cells, so the cost is that of the viewport
+     * however large the board is
+     * @param rendered - the text of a board as ASCII bytes, two per cell:
+     *     its character (see Box.render) and the " " or "\n" after it
+     * @param columns - the number of columns of the board
+     * @param rows - the number of rows of the board
+     * @return the cells of the board inside this viewport in the format of
+     *     the board's toString(): one line per row, holding the character
+     *     of each cell separated by spaces; "" if the viewport is off the board
+     */
+    String cut(byte[] rendered, int columns, int rows) {
+        return cut(new byte[][] { rendered }, 0, Math.max(rows, 1), columns, rows);
+    }
+
+    /**
+     * Cuts the cells of this viewport out of the text of a whole board held
+     * in bands of whole rows, as cut(byte[], int, int) does
+     * @param bands - the text of consecutive bands of the board, each of
+     *     bandRows rows but the last band of the board, which may be shorter;
+     *     bands[i] holds band firstBand + i, and together they hold every
+     *     row of the board inside this viewport
+     * @param firstBand - the band held by bands[0]; band b starts at row b * bandRows
+     * @param bandRows - the number of rows of each band, positive
+     * @param columns - the number of columns of the board
+     * @param rows - the number of rows of the board
+     * @return the cells of the board inside this viewport, see cut(byte[], int, int)
+     */
+    String cut(byte[][] bands, int firstBand, int bandRows, int columns, int rows) {
+        int left = Math.max(x, 0);
+        int top = Math.max(y, 0);
+        int right = (int) Math.min((long) x + width, columns);
+        int bottom = (int) Math.min((long) y + height, rows);
+        if (left >= right || top >= bottom) {
+            return "";
+        }
+        int lineLength = 2 * (right - left);
+        byte[] text = new byte[lineLength * (bottom - top)];
+        for (int row = top, at = 0; row < bottom; row++, at += lineLength) {
+            byte[] band = bands[row / bandRows - firstBand];
+            System.arraycopy(band, 2 * ((row % bandRows) * columns + left), text, at, lineLength);
+            text[at + lineLength - 1] = '\n';
+        }
+        return new String(text, StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof Viewport)) {
+            return false;
+        }
+        Viewport that = (Viewport) other;
+        return x == that.x && y == that.y && width == that.width && height == that.height;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((x * 31 + y) * 31 + width) * 31 + height;
+    }
+
+    @Override
+    public String toString() {
+        return width + "x" + height + " at (" + x + ", " + y + ")";
+    }
+
+}